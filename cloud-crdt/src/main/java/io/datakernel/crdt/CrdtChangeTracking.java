@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt;
+
+/**
+ * A local storage which numbers the changes of its keys in the order they arrive,
+ * regardless of the timestamps carried by their states.
+ */
+public interface CrdtChangeTracking<K extends Comparable<K>> {
+	/**
+	 * Returns the revision of the last change made to this storage, revisions only grow.
+	 */
+	long getRevision();
+
+	/**
+	 * Returns the revision of the last change made to the given key, or 0 if the key is not stored.
+	 */
+	long getRevision(K key);
+}
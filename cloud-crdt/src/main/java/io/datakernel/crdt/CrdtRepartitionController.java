@@ -24,15 +24,34 @@ import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.datastream.processor.StreamMapSplitter;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
+import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.common.Preconditions.checkState;
 
 public final class CrdtRepartitionController<I extends Comparable<I>, K extends Comparable<K>, S> implements EventloopJmxMBeanEx {
 	private final I localPartitionId;
 	private final CrdtStorage<K, S> localClient;
 	private final CrdtStorageCluster<I, K, S> cluster;
 
+	@Nullable
+	private CrdtChangeTracking<K> changeTracking;
+
+	private long lastRevision;
+	@Nullable
+	private List<I> lastOrderedIds;
+
+	// region JMX
+	private long fullRepartitions;
+	private long deltaRepartitions;
+	// endregion
+
 	public CrdtRepartitionController(I localPartitionId, CrdtStorage<K, S> localClient, CrdtStorageCluster<I, K, S> cluster) {
 		this.localClient = localClient;
 		this.cluster = cluster;
@@ -43,6 +62,23 @@ public final class CrdtRepartitionController<I extends Comparable<I>, K extends
 		return new CrdtRepartitionController<>(localPartitionId, cluster.getClients().get(localPartitionId), cluster);
 	}
 
+	/**
+	 * Makes repartitions after the first one ship to the other replicas only those kept keys
+	 * which were changed locally since the start of the previous one.
+	 * Changes are told by the local revisions of the keys rather than by the timestamps of their states,
+	 * so states which arrive late or carry no timestamps are replicated as well.
+	 * The keys which this partition gives away are always shipped before being removed.
+	 * A full repartition is made whenever the set of alive partitions changes.
+	 *
+	 * @throws IllegalStateException if the local storage does not implement {@link CrdtChangeTracking}
+	 */
+	@SuppressWarnings("unchecked")
+	public CrdtRepartitionController<I, K, S> withDeltas() {
+		checkState(localClient instanceof CrdtChangeTracking, "Local storage does not track changes, deltas cannot be told");
+		this.changeTracking = (CrdtChangeTracking<K>) localClient;
+		return this;
+	}
+
 	@NotNull
 	@Override
 	public Eventloop getEventloop() {
@@ -50,6 +86,11 @@ public final class CrdtRepartitionController<I extends Comparable<I>, K extends
 	}
 
 	public Promise<Void> repartition() {
+		List<I> orderedIds = new ArrayList<>(cluster.getOrderedIds());
+		CrdtChangeTracking<K> changeTracking = this.changeTracking;
+		boolean delta = changeTracking != null && orderedIds.equals(lastOrderedIds);
+		long revision = lastRevision;
+		long nextRevision = changeTracking != null ? changeTracking.getRevision() : 0;
 		return Promises.toTuple(cluster.upload().toTry(), localClient.remove().toTry(), localClient.download().toTry())
 				.then(all -> {
 					if (all.getValue1().isSuccess() && all.getValue2().isSuccess() && all.getValue3().isSuccess()) {
@@ -62,18 +103,30 @@ public final class CrdtRepartitionController<I extends Comparable<I>, K extends
 								(data, acceptors) -> {
 									StreamDataAcceptor<Object> clusterAcceptor = acceptors[0];
 									StreamDataAcceptor<Object> removeAcceptor = acceptors[1];
-									clusterAcceptor.accept(data);
 									int[] selected = this.cluster.getShardingFunction().shard(data.getKey());
 									for (int s : selected) {
 										if (s == index) {
+											if (!delta || changeTracking.getRevision(data.getKey()) > revision) {
+												clusterAcceptor.accept(data);
+											}
 											return;
 										}
 									}
+									clusterAcceptor.accept(data);
 									removeAcceptor.accept(data.getKey());
 								});
 						splitter.<CrdtData<K, S>>newOutput().streamTo(cluster);
 						splitter.<K>newOutput().streamTo(remover);
-						return downloader.streamTo(splitter.getInput());
+						return downloader.streamTo(splitter.getInput())
+								.whenResult($ -> {
+									if (delta) {
+										deltaRepartitions++;
+									} else {
+										fullRepartitions++;
+									}
+									lastRevision = nextRevision;
+									lastOrderedIds = orderedIds;
+								});
 					} else {
 						StacklessException exception = new StacklessException("Repartition exceptions:");
 						all.getValue1().consume(Cancellable::cancel, exception::addSuppressed);
@@ -83,4 +136,21 @@ public final class CrdtRepartitionController<I extends Comparable<I>, K extends
 					}
 				});
 	}
+
+	// region JMX
+	@JmxAttribute
+	public long getLastRevision() {
+		return lastRevision;
+	}
+
+	@JmxAttribute
+	public long getFullRepartitions() {
+		return fullRepartitions;
+	}
+
+	@JmxAttribute
+	public long getDeltaRepartitions() {
+		return deltaRepartitions;
+	}
+	// endregion
 }
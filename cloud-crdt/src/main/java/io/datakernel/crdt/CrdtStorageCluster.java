@@ -135,6 +135,10 @@ public final class CrdtStorageCluster<I extends Comparable<I>, K extends Compara
 	public MultiSharder<K> getShardingFunction() {
 		return shardingFunction;
 	}
+
+	public CrdtFunction<S> getFunction() {
+		return function;
+	}
 	// endregion
 
 	@NotNull
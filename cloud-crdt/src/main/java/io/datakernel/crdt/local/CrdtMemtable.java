@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt.local;
+
+import io.datakernel.crdt.CrdtFunction;
+import io.datakernel.crdt.local.CrdtStorageLsm.Entry;
+import io.datakernel.serializer.BinarySerializer;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static io.datakernel.crdt.local.CrdtStorageLsm.*;
+
+/**
+ * Skiplist of serialized states, which is kept in a single direct buffer.
+ * <p>
+ * A node is laid out as {@code [state offset][state length][state capacity][kind][height][key index][next pointers]},
+ * states are stored right after their nodes and are overwritten in place when a merged state fits.
+ * Offset 0 is the head node and serves as a null pointer.
+ * <p>
+ * Keys are kept decoded in a list referred to by the key index, so that nodes are ordered
+ * by {@link Comparable#compareTo} without decoding a key on every comparison.
+ * Serialized lengths of the keys are still counted against the capacity of a memtable.
+ * <p>
+ * A memtable is written by a single thread, once frozen it may be iterated from any thread.
+ * A live memtable is read by other threads through a {@link #snapshot}.
+ */
+final class CrdtMemtable<K extends Comparable<K>, S> {
+	private static final int MAX_HEIGHT = 16;
+
+	private static final int STATE_OFFSET = 0;
+	private static final int STATE_LENGTH = 4;
+	private static final int STATE_CAPACITY = 8;
+	private static final int KIND = 12;
+	private static final int HEIGHT = 13;
+	private static final int KEY_INDEX = 16;
+	private static final int NEXT = 20;
+
+	private static final int HEAD = 0;
+	private static final int NIL = 0;
+
+	private final long id;
+	private final ByteBuffer arena;
+	private final List<K> keys;
+	private final BinarySerializer<S> stateSerializer;
+	private final CrdtFunction<S> function;
+
+	private final byte[] stateScratch;
+	private final int[] prev = new int[MAX_HEIGHT];
+
+	private int position;
+	private int keyBytes;
+	private int size;
+	private int seed = 0x2545F491;
+
+	CrdtMemtable(long id, int capacity, int bufferSize, BinarySerializer<S> stateSerializer, CrdtFunction<S> function) {
+		this.id = id;
+		this.arena = ByteBuffer.allocateDirect(capacity);
+		this.keys = new ArrayList<>();
+		this.stateSerializer = stateSerializer;
+		this.function = function;
+		this.stateScratch = new byte[bufferSize];
+		arena.put(HEIGHT, (byte) MAX_HEIGHT);
+		position = nodeSize(MAX_HEIGHT);
+	}
+
+	private CrdtMemtable(CrdtMemtable<K, S> source) {
+		ByteBuffer used = source.arena.duplicate();
+		used.position(0).limit(source.position);
+		this.id = source.id;
+		this.arena = ByteBuffer.allocate(source.position).put(used);
+		this.keys = new ArrayList<>(source.keys);
+		this.stateSerializer = source.stateSerializer;
+		this.function = source.function;
+		this.stateScratch = new byte[source.stateScratch.length];
+		this.position = source.position;
+		this.keyBytes = source.keyBytes;
+		this.size = source.size;
+	}
+
+	/**
+	 * Returns a read-only copy of the current entries, which may be iterated from any thread
+	 * while this memtable is being written
+	 */
+	CrdtMemtable<K, S> snapshot() {
+		return new CrdtMemtable<>(this);
+	}
+
+	long getId() {
+		return id;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int getBytesUsed() {
+		return position + keyBytes;
+	}
+
+	/**
+	 * Merges a state into the memtable, or shadows older states of the key if {@code state} is {@code null}.
+	 *
+	 * @return {@code false} if there is no room left, in which case the memtable is not modified
+	 */
+	boolean put(K key, int keyLength, @Nullable S state, byte[] stateBytes, int stateLength) {
+		int node = findGreaterOrEqual(key);
+		if (node != NIL && compare(node, key) == 0) {
+			return update(node, state, stateBytes, stateLength);
+		}
+
+		int height = randomHeight();
+		int nodeSize = nodeSize(height);
+		int valueLength = state != null ? stateLength : 0;
+		if (position + nodeSize + valueLength + keyBytes + keyLength > arena.capacity()) {
+			return false;
+		}
+		node = position;
+		arena.putInt(node + STATE_OFFSET, node + nodeSize);
+		arena.putInt(node + STATE_LENGTH, valueLength);
+		arena.putInt(node + STATE_CAPACITY, valueLength);
+		arena.put(node + KIND, state != null ? PUT : TOMBSTONE);
+		arena.put(node + HEIGHT, (byte) height);
+		arena.putInt(node + KEY_INDEX, keys.size());
+		write(node + nodeSize, stateBytes, valueLength);
+		for (int level = 0; level < height; level++) {
+			arena.putInt(node + NEXT + level * 4, next(prev[level], level));
+			arena.putInt(prev[level] + NEXT + level * 4, node);
+		}
+		keys.add(key);
+		position += nodeSize + valueLength;
+		keyBytes += keyLength;
+		size++;
+		return true;
+	}
+
+	private boolean update(int node, @Nullable S state, byte[] stateBytes, int stateLength) {
+		byte kind = arena.get(node + KIND);
+		if (state == null) {
+			arena.put(node + KIND, TOMBSTONE);
+			arena.putInt(node + STATE_LENGTH, 0);
+			return true;
+		}
+		if (kind != TOMBSTONE) {
+			S merged = function.merge(readState(node, stateScratch), state);
+			stateLength = encode(stateSerializer, stateScratch, merged);
+			stateBytes = stateScratch;
+		}
+		int stateOffset = arena.getInt(node + STATE_OFFSET);
+		if (stateLength > arena.getInt(node + STATE_CAPACITY)) {
+			if (position + stateLength > arena.capacity()) {
+				return false;
+			}
+			stateOffset = position;
+			position += stateLength;
+			arena.putInt(node + STATE_OFFSET, stateOffset);
+			arena.putInt(node + STATE_CAPACITY, stateLength);
+		}
+		write(stateOffset, stateBytes, stateLength);
+		arena.putInt(node + STATE_LENGTH, stateLength);
+		if (kind == TOMBSTONE) {
+			arena.put(node + KIND, RESET);
+		}
+		return true;
+	}
+
+	@Nullable
+	Entry<K, S> get(K key) {
+		int node = findGreaterOrEqual(key);
+		return node != NIL && compare(node, key) == 0 ? readEntry(arena, node, stateScratch) : null;
+	}
+
+	/**
+	 * Returns an iterator over the entries in key order, which must not be used while the memtable is written
+	 */
+	Iterator<Entry<K, S>> iterator() {
+		ByteBuffer buffer = arena.duplicate();
+		byte[] stateBytes = new byte[stateScratch.length];
+		return new Iterator<Entry<K, S>>() {
+			int node = CrdtMemtable.this.next(HEAD, 0);
+
+			@Override
+			public boolean hasNext() {
+				return node != NIL;
+			}
+
+			@Override
+			public Entry<K, S> next() {
+				if (node == NIL) throw new NoSuchElementException();
+				Entry<K, S> entry = readEntry(buffer, node, stateBytes);
+				node = buffer.getInt(node + NEXT);
+				return entry;
+			}
+		};
+	}
+
+	private Entry<K, S> readEntry(ByteBuffer buffer, int node, byte[] stateBytes) {
+		byte kind = buffer.get(node + KIND);
+		return new Entry<>(keys.get(buffer.getInt(node + KEY_INDEX)), kind, kind != TOMBSTONE ? readState(buffer, node, stateBytes) : null);
+	}
+
+	private int findGreaterOrEqual(K key) {
+		int node = HEAD;
+		for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+			int next = next(node, level);
+			while (next != NIL && compare(next, key) < 0) {
+				node = next;
+				next = next(node, level);
+			}
+			prev[level] = node;
+		}
+		return next(node, 0);
+	}
+
+	private int compare(int node, K key) {
+		return keys.get(arena.getInt(node + KEY_INDEX)).compareTo(key);
+	}
+
+	private int next(int node, int level) {
+		return level < arena.get(node + HEIGHT) ? arena.getInt(node + NEXT + level * 4) : NIL;
+	}
+
+	private S readState(int node, byte[] bytes) {
+		return readState(arena, node, bytes);
+	}
+
+	private S readState(ByteBuffer buffer, int node, byte[] bytes) {
+		read(buffer, buffer.getInt(node + STATE_OFFSET), bytes, buffer.getInt(node + STATE_LENGTH));
+		return stateSerializer.decode(bytes, 0);
+	}
+
+	private void write(int offset, byte[] bytes, int length) {
+		if (length == 0) return;
+		ByteBuffer buffer = arena.duplicate();
+		buffer.position(offset);
+		buffer.put(bytes, 0, length);
+	}
+
+	private static void read(ByteBuffer buffer, int offset, byte[] bytes, int length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(offset);
+		duplicate.get(bytes, 0, length);
+	}
+
+	private static int nodeSize(int height) {
+		return NEXT + height * 4;
+	}
+
+	private int randomHeight() {
+		// xorshift, each next level with probability of 1/4
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		int height = 1;
+		for (int bits = seed; height < MAX_HEIGHT && (bits & 3) == 0; bits >>>= 2) {
+			height++;
+		}
+		return height;
+	}
+
+	@Override
+	public String toString() {
+		return "CrdtMemtable{id=" + id + ", size=" + size + ", bytesUsed=" + getBytesUsed() + '/' + arena.capacity() + '}';
+	}
+}
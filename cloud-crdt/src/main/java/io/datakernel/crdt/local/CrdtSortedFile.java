@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt.local;
+
+import io.datakernel.crdt.local.CrdtStorageLsm.Entry;
+import io.datakernel.serializer.BinarySerializer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import static io.datakernel.crdt.local.CrdtStorageLsm.TOMBSTONE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Immutable file of entries sorted by key, which covers memtables from {@code from} to {@code to} inclusive.
+ * <p>
+ * An entry is written as {@code [kind][key length][key][state length][state]},
+ * the file ends with an end marker and the number of entries.
+ * Every {@link #INDEX_INTERVAL}-th key is kept in memory together with its offset,
+ * so that a single key is looked up by reading one block of the file.
+ */
+final class CrdtSortedFile<K extends Comparable<K>, S> {
+	static final String SUFFIX = ".sst";
+
+	private static final int INDEX_INTERVAL = 128;
+	private static final byte END = -1;
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+	final Path path;
+	final long from;
+	final long to;
+
+	private final List<K> indexKeys;
+	private final long[] indexOffsets;
+	private final long entries;
+
+	// accessed from the eventloop thread only
+	int refs = 1;
+
+	private CrdtSortedFile(Path path, long from, long to, List<K> indexKeys, long[] indexOffsets, long entries) {
+		this.path = path;
+		this.from = from;
+		this.to = to;
+		this.indexKeys = indexKeys;
+		this.indexOffsets = indexOffsets;
+		this.entries = entries;
+	}
+
+	static String fileName(long from, long to) {
+		return String.format("%016d-%016d", from, to) + SUFFIX;
+	}
+
+	@Nullable
+	static long[] parseFileName(String fileName) {
+		if (!fileName.endsWith(SUFFIX)) return null;
+		String[] parts = fileName.substring(0, fileName.length() - SUFFIX.length()).split("-");
+		if (parts.length != 2) return null;
+		try {
+			return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	long getEntries() {
+		return entries;
+	}
+
+	boolean covers(CrdtSortedFile<K, S> other) {
+		return other != this && from <= other.from && other.to <= to;
+	}
+
+	static <K extends Comparable<K>, S> CrdtSortedFile<K, S> write(Path dir, long from, long to, Iterator<Entry<K, S>> entries,
+			BinarySerializer<K> keySerializer, BinarySerializer<S> stateSerializer, int bufferSize) throws IOException {
+		Path path = dir.resolve(fileName(from, to));
+		Path tempPath = dir.resolve(path.getFileName() + CrdtStorageLsm.TEMP_SUFFIX);
+		List<K> indexKeys = new ArrayList<>();
+		List<Long> indexOffsets = new ArrayList<>();
+		byte[] buffer = new byte[bufferSize];
+		long count = 0;
+		try (FileChannel channel = FileChannel.open(tempPath, CREATE, TRUNCATE_EXISTING, WRITE)) {
+			CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), IO_BUFFER_SIZE));
+			DataOutputStream out = new DataOutputStream(counter);
+			while (entries.hasNext()) {
+				Entry<K, S> entry = entries.next();
+				if (count % INDEX_INTERVAL == 0) {
+					indexKeys.add(entry.key);
+					indexOffsets.add(counter.written);
+				}
+				out.writeByte(entry.kind);
+				int keyLength = CrdtStorageLsm.encode(keySerializer, buffer, entry.key);
+				out.writeInt(keyLength);
+				out.write(buffer, 0, keyLength);
+				if (entry.state != null) {
+					int stateLength = CrdtStorageLsm.encode(stateSerializer, buffer, entry.state);
+					out.writeInt(stateLength);
+					out.write(buffer, 0, stateLength);
+				} else {
+					out.writeInt(0);
+				}
+				count++;
+			}
+			out.writeByte(END);
+			out.writeLong(count);
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(tempPath, path, ATOMIC_MOVE);
+		return new CrdtSortedFile<>(path, from, to, indexKeys, indexOffsets.stream().mapToLong(Long::longValue).toArray(), count);
+	}
+
+	/**
+	 * Reads the whole file to check that it is complete and to build its index
+	 */
+	static <K extends Comparable<K>, S> CrdtSortedFile<K, S> open(Path path, long from, long to,
+			BinarySerializer<K> keySerializer, int bufferSize) throws IOException {
+		List<K> indexKeys = new ArrayList<>();
+		List<Long> indexOffsets = new ArrayList<>();
+		byte[] buffer = new byte[bufferSize];
+		long count = 0;
+		try (FileChannel channel = FileChannel.open(path, READ)) {
+			CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel), IO_BUFFER_SIZE));
+			DataInputStream in = new DataInputStream(counter);
+			while (true) {
+				long offset = counter.read;
+				byte kind = in.readByte();
+				if (kind == END) {
+					if (in.readLong() != count) {
+						throw new IOException("Invalid number of entries in " + path);
+					}
+					break;
+				}
+				int keyLength = in.readInt();
+				in.readFully(buffer, 0, keyLength);
+				if (count % INDEX_INTERVAL == 0) {
+					indexKeys.add(keySerializer.decode(buffer, 0));
+					indexOffsets.add(offset);
+				}
+				in.readFully(buffer, 0, in.readInt());
+				count++;
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated file " + path, e);
+		}
+		return new CrdtSortedFile<>(path, from, to, indexKeys, indexOffsets.stream().mapToLong(Long::longValue).toArray(), count);
+	}
+
+	EntryIterator<K, S> iterator(BinarySerializer<K> keySerializer, BinarySerializer<S> stateSerializer, int bufferSize) throws IOException {
+		return new EntryIterator<>(FileChannel.open(path, READ), keySerializer, stateSerializer, bufferSize);
+	}
+
+	@Nullable
+	Entry<K, S> get(K key, BinarySerializer<K> keySerializer, BinarySerializer<S> stateSerializer, int bufferSize) throws IOException {
+		int block = floorIndex(key);
+		if (block < 0) return null;
+		FileChannel channel = FileChannel.open(path, READ);
+		channel.position(indexOffsets[block]);
+		try (EntryIterator<K, S> iterator = new EntryIterator<>(channel, keySerializer, stateSerializer, bufferSize)) {
+			for (int i = 0; i < INDEX_INTERVAL && iterator.hasNext(); i++) {
+				Entry<K, S> entry = iterator.next();
+				int compare = entry.key.compareTo(key);
+				if (compare == 0) return entry;
+				if (compare > 0) break;
+			}
+			return null;
+		}
+	}
+
+	private int floorIndex(K key) {
+		int low = 0;
+		int high = indexKeys.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int compare = indexKeys.get(mid).compareTo(key);
+			if (compare < 0) {
+				low = mid + 1;
+			} else if (compare > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return high;
+	}
+
+	@Override
+	public String toString() {
+		return path.getFileName().toString();
+	}
+
+	static final class EntryIterator<K extends Comparable<K>, S> implements Iterator<Entry<K, S>>, Closeable {
+		private final FileChannel channel;
+		private final DataInputStream in;
+		private final BinarySerializer<K> keySerializer;
+		private final BinarySerializer<S> stateSerializer;
+		private final byte[] buffer;
+
+		@Nullable
+		private Entry<K, S> next;
+		private boolean end;
+
+		EntryIterator(FileChannel channel, BinarySerializer<K> keySerializer, BinarySerializer<S> stateSerializer, int bufferSize) {
+			this.channel = channel;
+			this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), IO_BUFFER_SIZE));
+			this.keySerializer = keySerializer;
+			this.stateSerializer = stateSerializer;
+			this.buffer = new byte[bufferSize];
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !end) {
+				try {
+					next = readNext();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public Entry<K, S> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Entry<K, S> entry = next;
+			next = null;
+			return entry;
+		}
+
+		@Nullable
+		private Entry<K, S> readNext() throws IOException {
+			byte kind = in.readByte();
+			if (kind == END) {
+				end = true;
+				return null;
+			}
+			in.readFully(buffer, 0, in.readInt());
+			K key = keySerializer.decode(buffer, 0);
+			int stateLength = in.readInt();
+			in.readFully(buffer, 0, stateLength);
+			return new Entry<>(key, kind, kind != TOMBSTONE ? stateSerializer.decode(buffer, 0) : null);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+		long written;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			written++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			written += len;
+		}
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+		long read;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b != -1) read++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) read += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			read += skipped;
+			return skipped;
+		}
+	}
+}
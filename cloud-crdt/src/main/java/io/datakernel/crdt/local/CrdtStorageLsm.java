@@ -0,0 +1,875 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.crdt.local;
+
+import io.datakernel.async.process.AsyncExecutor;
+import io.datakernel.async.process.AsyncExecutors;
+import io.datakernel.async.service.EventloopService;
+import io.datakernel.common.MemSize;
+import io.datakernel.crdt.*;
+import io.datakernel.crdt.local.CrdtSortedFile.EntryIterator;
+import io.datakernel.crdt.primitives.CrdtType;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.datastream.stats.StreamStats;
+import io.datakernel.datastream.stats.StreamStatsBasic;
+import io.datakernel.datastream.stats.StreamStatsDetailed;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.jmx.EventStats;
+import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.jmx.api.JmxOperation;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.jmx.PromiseStats;
+import io.datakernel.serializer.BinarySerializer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import static io.datakernel.async.util.LogUtils.thisMethod;
+import static io.datakernel.async.util.LogUtils.toLogger;
+import static io.datakernel.common.Preconditions.checkArgument;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Collections.emptyIterator;
+import static java.util.Comparator.comparingLong;
+
+/**
+ * Persistent local {@link CrdtStorage}, built as a log-structured merge tree.
+ * <p>
+ * Uploaded states are merged into an off-heap {@link CrdtMemtable} and appended to its write-ahead log,
+ * which is forced to disk before an upload is acknowledged.
+ * Full memtables are frozen and flushed into immutable sorted files, after which their logs are deleted.
+ * When there are more than {@code compactionThreshold} sorted files, all of them are merged
+ * with the {@link CrdtFunction} into a single file, dropping removed keys and states rejected by the filter.
+ * <p>
+ * Downloads merge a snapshot of the current memtable, the frozen memtables and the sorted files on the executor.
+ * The snapshot is taken once the downloaded stream is first read from, so a stream which is never read holds nothing.
+ * Logs which are left after a crash are replayed into sorted files on {@link #start()}.
+ */
+public final class CrdtStorageLsm<K extends Comparable<K>, S> implements CrdtStorage<K, S>, EventloopService, EventloopJmxMBeanEx {
+	private static final Logger logger = LoggerFactory.getLogger(CrdtStorageLsm.class);
+	public static final Duration DEFAULT_SMOOTHING_WINDOW = Duration.ofMinutes(5);
+	public static final MemSize DEFAULT_MEMTABLE_SIZE = MemSize.megabytes(8);
+	public static final MemSize DEFAULT_BUFFER_SIZE = MemSize.kilobytes(16);
+	public static final MemSize DEFAULT_LOG_BUFFER_SIZE = MemSize.kilobytes(256);
+	public static final int DEFAULT_COMPACTION_THRESHOLD = 4;
+	public static final int DEFAULT_DOWNLOAD_BATCH_SIZE = 1024;
+
+	// kinds of entries, a newer entry of kind other than PUT shadows all older entries of its key
+	static final byte PUT = 0;
+	static final byte RESET = 1;
+	static final byte TOMBSTONE = 2;
+
+	static final String TEMP_SUFFIX = ".tmp";
+	private static final String LOG_SUFFIX = ".wal";
+	private static final int LOG_HEADER_SIZE = 8;
+
+	private final Eventloop eventloop;
+	private final Executor executor;
+	private final Path dir;
+	private final CrdtFunction<S> function;
+	private final BinarySerializer<K> keySerializer;
+	private final BinarySerializer<S> stateSerializer;
+
+	private MemSize memtableSize = DEFAULT_MEMTABLE_SIZE;
+	private MemSize bufferSize = DEFAULT_BUFFER_SIZE;
+	private MemSize logBufferSize = DEFAULT_LOG_BUFFER_SIZE;
+	private int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+	private int downloadBatchSize = DEFAULT_DOWNLOAD_BATCH_SIZE;
+	private CrdtFilter<S> filter = $ -> true;
+
+	// accessed from the eventloop thread only
+	@Nullable
+	private CrdtMemtable<K, S> memtable;
+	private final List<CrdtMemtable<K, S>> frozen = new ArrayList<>();
+	private final List<CrdtSortedFile<K, S>> files = new ArrayList<>();
+	private long nextId = 1;
+	private byte[] keyBuffer;
+	private byte[] stateBuffer;
+	private byte[] logBuffer;
+	private int logPosition;
+
+	// accessed from the blocking tasks of the writer only, which are executed one at a time
+	private final AsyncExecutor writer = AsyncExecutors.sequential();
+	@Nullable
+	private FileChannel log;
+	private long logId;
+
+	// region JMX
+	private boolean detailedStats;
+
+	private final StreamStatsBasic<CrdtData<K, S>> uploadStats = StreamStats.basic();
+	private final StreamStatsDetailed<CrdtData<K, S>> uploadStatsDetailed = StreamStats.detailed();
+	private final StreamStatsBasic<CrdtData<K, S>> downloadStats = StreamStats.basic();
+	private final StreamStatsDetailed<CrdtData<K, S>> downloadStatsDetailed = StreamStats.detailed();
+	private final StreamStatsBasic<K> removeStats = StreamStats.basic();
+	private final StreamStatsDetailed<K> removeStatsDetailed = StreamStats.detailed();
+
+	private final EventStats singlePuts = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final EventStats singleGets = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final EventStats singleRemoves = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+
+	private final PromiseStats promiseSync = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseFlush = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseCompact = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	// endregion
+
+	static final class Entry<K, S> {
+		final K key;
+		final byte kind;
+		@Nullable
+		final S state;
+
+		Entry(K key, byte kind, @Nullable S state) {
+			this.key = key;
+			this.kind = kind;
+			this.state = state;
+		}
+
+		@Override
+		public String toString() {
+			return "Entry{key=" + key + ", kind=" + kind + ", state=" + state + '}';
+		}
+	}
+
+	private CrdtStorageLsm(Eventloop eventloop, Executor executor, Path dir,
+			BinarySerializer<K> keySerializer, BinarySerializer<S> stateSerializer, CrdtFunction<S> function) {
+		this.eventloop = eventloop;
+		this.executor = executor;
+		this.dir = dir;
+		this.function = function;
+		this.keySerializer = keySerializer;
+		this.stateSerializer = stateSerializer;
+	}
+
+	public static <K extends Comparable<K>, S> CrdtStorageLsm<K, S> create(Eventloop eventloop, Executor executor, Path dir,
+			CrdtDataSerializer<K, S> serializer, CrdtFunction<S> crdtFunction) {
+		return new CrdtStorageLsm<>(eventloop, executor, dir, serializer.getKeySerializer(), serializer.getStateSerializer(), crdtFunction);
+	}
+
+	public static <K extends Comparable<K>, S extends CrdtType<S>> CrdtStorageLsm<K, S> create(Eventloop eventloop, Executor executor, Path dir,
+			CrdtDataSerializer<K, S> serializer) {
+		return new CrdtStorageLsm<>(eventloop, executor, dir, serializer.getKeySerializer(), serializer.getStateSerializer(), CrdtFunction.ofCrdtType());
+	}
+
+	public CrdtStorageLsm<K, S> withMemtableSize(MemSize memtableSize) {
+		checkArgument(memtableSize.toLong() > 0 && memtableSize.toLong() <= Integer.MAX_VALUE, "Memtable size must be positive and less than 2GB");
+		this.memtableSize = memtableSize;
+		return this;
+	}
+
+	/**
+	 * Sets the size of buffers for a single serialized key or state
+	 */
+	public CrdtStorageLsm<K, S> withBufferSize(MemSize bufferSize) {
+		checkArgument(bufferSize.toLong() > 0 && bufferSize.toLong() <= Integer.MAX_VALUE, "Buffer size must be positive and less than 2GB");
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+	/**
+	 * Sets the amount of log records which are written without being forced to disk
+	 */
+	public CrdtStorageLsm<K, S> withLogBufferSize(MemSize logBufferSize) {
+		this.logBufferSize = logBufferSize;
+		return this;
+	}
+
+	public CrdtStorageLsm<K, S> withCompactionThreshold(int compactionThreshold) {
+		checkArgument(compactionThreshold > 0, "Compaction threshold must be positive");
+		this.compactionThreshold = compactionThreshold;
+		return this;
+	}
+
+	public CrdtStorageLsm<K, S> withDownloadBatchSize(int downloadBatchSize) {
+		checkArgument(downloadBatchSize > 0, "Download batch size must be positive");
+		this.downloadBatchSize = downloadBatchSize;
+		return this;
+	}
+
+	public CrdtStorageLsm<K, S> withFilter(CrdtFilter<S> filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	@NotNull
+	@Override
+	public Eventloop getEventloop() {
+		return eventloop;
+	}
+
+	// region API
+	@SuppressWarnings("deprecation") // StreamConsumer#of
+	@Override
+	public Promise<StreamConsumer<CrdtData<K, S>>> upload() {
+		return Promise.of(StreamConsumer.<CrdtData<K, S>>of(data -> doPut(data.getKey(), data.getState()))
+				.transformWith(detailedStats ? uploadStatsDetailed : uploadStats)
+				.withAcknowledgement(ack -> ack.then($ -> sync()))
+				.withLateBinding());
+	}
+
+	@Override
+	public Promise<StreamSupplier<CrdtData<K, S>>> download(long timestamp) {
+		Downloader downloader = new Downloader(timestamp);
+		return Promise.of(StreamSupplier.ofChannelSupplier(ChannelSupplier.of(downloader::get))
+				.withEndOfStream(eos -> eos.whenComplete(downloader::close))
+				.transformWith(detailedStats ? downloadStatsDetailed : downloadStats)
+				.withLateBinding());
+	}
+
+	@SuppressWarnings("deprecation") // StreamConsumer#of
+	@Override
+	public Promise<StreamConsumer<K>> remove() {
+		return Promise.of(StreamConsumer.<K>of(key -> doPut(key, null))
+				.transformWith(detailedStats ? removeStatsDetailed : removeStats)
+				.withAcknowledgement(ack -> ack.then($ -> sync()))
+				.withLateBinding());
+	}
+
+	@Override
+	public Promise<Void> ping() {
+		return Promise.complete();
+	}
+
+	public Promise<Void> put(K key, S state) {
+		singlePuts.recordEvent();
+		doPut(key, state);
+		return sync();
+	}
+
+	public Promise<Void> remove(K key) {
+		singleRemoves.recordEvent();
+		doPut(key, null);
+		return sync();
+	}
+
+	public Promise<S> get(K key) {
+		singleGets.recordEvent();
+		Entry<K, S> found = memtable != null ? memtable.get(key) : null;
+		for (int i = frozen.size() - 1; i >= 0 && (found == null || found.kind == PUT); i--) {
+			found = combineNullable(found, frozen.get(i).get(key));
+		}
+		if (found != null && found.kind != PUT) {
+			return Promise.of(getState(found));
+		}
+		List<CrdtSortedFile<K, S>> sortedFiles = new ArrayList<>(files);
+		Collections.reverse(sortedFiles);
+		sortedFiles.forEach(file -> file.refs++);
+		Entry<K, S> newest = found;
+		return Promise.ofBlockingCallable(executor,
+				() -> {
+					Entry<K, S> entry = newest;
+					for (int i = 0; i < sortedFiles.size() && (entry == null || entry.kind == PUT); i++) {
+						entry = combineNullable(entry, sortedFiles.get(i).get(key, keySerializer, stateSerializer, bufferSize.toInt()));
+					}
+					return entry;
+				})
+				.whenComplete(() -> sortedFiles.forEach(this::release))
+				.map(this::getState);
+	}
+
+	/**
+	 * Forces all states which have been put so far to disk
+	 */
+	public Promise<Void> sync() {
+		return writeLog(true)
+				.whenComplete(promiseSync.recordStats());
+	}
+
+	/**
+	 * Merges all sorted files into a single one
+	 */
+	public Promise<Void> compact() {
+		return writer.execute(() -> {
+			List<CrdtSortedFile<K, S>> sources = new ArrayList<>(files);
+			if (sources.size() < 2) {
+				return Promise.complete();
+			}
+			return Promise.ofBlockingCallable(executor, () -> doCompact(sources))
+					.whenResult(compacted -> {
+						files.removeAll(sources);
+						files.add(compacted);
+						files.sort(comparingLong(file -> file.to));
+						sources.forEach(this::release);
+					})
+					.toVoid();
+		})
+				.whenComplete(promiseCompact.recordStats())
+				.whenComplete(toLogger(logger, thisMethod()));
+	}
+	// endregion
+
+	// region service
+	@NotNull
+	@Override
+	public Promise<Void> start() {
+		keyBuffer = new byte[bufferSize.toInt()];
+		stateBuffer = new byte[bufferSize.toInt()];
+		logBuffer = new byte[logBufferSize.toInt() + bufferSize.toInt() * 2];
+		return writer.execute(() -> Promise.ofBlockingCallable(executor, this::recover))
+				.whenResult(files::addAll)
+				.whenComplete(toLogger(logger, thisMethod(), dir))
+				.toVoid();
+	}
+
+	@NotNull
+	@Override
+	public Promise<Void> stop() {
+		if (memtable != null) {
+			freeze();
+		}
+		return writer.execute(() -> Promise.ofBlockingRunnable(executor, this::closeLog))
+				.whenComplete(toLogger(logger, thisMethod(), dir));
+	}
+	// endregion
+
+	// region memtables
+	private void doPut(K key, @Nullable S state) {
+		int keyLength = encode(keySerializer, keyBuffer, key);
+		int stateLength = state != null ? encode(stateSerializer, stateBuffer, state) : 0;
+		if (memtable == null) {
+			memtable = createMemtable(nextId++);
+		}
+		if (!memtable.put(key, keyLength, state, stateBuffer, stateLength)) {
+			freeze();
+			memtable = createMemtable(nextId++);
+			checkArgument(memtable.put(key, keyLength, state, stateBuffer, stateLength),
+					"Entry does not fit into an empty memtable");
+		}
+		appendLog(state != null ? PUT : TOMBSTONE, keyLength, stateLength);
+	}
+
+	private CrdtMemtable<K, S> createMemtable(long id) {
+		return new CrdtMemtable<>(id, memtableSize.toInt(), bufferSize.toInt(), stateSerializer, function);
+	}
+
+	/**
+	 * Encodes a key or a state into the beginning of a buffer
+	 *
+	 * @throws IllegalArgumentException if the serialized item does not fit into the buffer
+	 */
+	static <T> int encode(BinarySerializer<T> serializer, byte[] buffer, T item) {
+		try {
+			return serializer.encode(buffer, 0, item);
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Serialized key or state exceeds the buffer size of " + buffer.length +
+					" bytes, which is set by withBufferSize", e);
+		}
+	}
+
+	private void freeze() {
+		assert memtable != null;
+		CrdtMemtable<K, S> toFlush = memtable;
+		writeLog(false);
+		memtable = null;
+		frozen.add(toFlush);
+		writer.execute(() -> Promise.ofBlockingCallable(executor, () -> flush(toFlush)))
+				.whenResult(file -> {
+					frozen.remove(toFlush);
+					files.add(file);
+					if (files.size() > compactionThreshold) {
+						compact();
+					}
+				})
+				.whenComplete(promiseFlush.recordStats())
+				.whenComplete(toLogger(logger, "flush", toFlush));
+	}
+
+	private CrdtSortedFile<K, S> flush(CrdtMemtable<K, S> toFlush) throws IOException {
+		CrdtSortedFile<K, S> file = CrdtSortedFile.write(dir, toFlush.getId(), toFlush.getId(), toFlush.iterator(),
+				keySerializer, stateSerializer, bufferSize.toInt());
+		if (log != null && logId == toFlush.getId()) {
+			closeLog();
+		}
+		Files.deleteIfExists(logPath(toFlush.getId()));
+		return file;
+	}
+
+	private CrdtSortedFile<K, S> doCompact(List<CrdtSortedFile<K, S>> sources) throws IOException {
+		List<Iterator<Entry<K, S>>> iterators = new ArrayList<>();
+		try (MergeIterator<K, S> merger = new MergeIterator<>(function, iterators)) {
+			for (int i = sources.size() - 1; i >= 0; i--) {
+				iterators.add(sources.get(i).iterator(keySerializer, stateSerializer, bufferSize.toInt()));
+			}
+			merger.init();
+			Iterator<Entry<K, S>> compacted = new Iterator<Entry<K, S>>() {
+				@Nullable
+				Entry<K, S> next;
+
+				@Override
+				public boolean hasNext() {
+					while (next == null && merger.hasNext()) {
+						Entry<K, S> entry = merger.next();
+						// compaction always includes the oldest file, so there is nothing left to shadow
+						if (entry.state != null && filter.test(entry.state)) {
+							next = entry.kind == PUT ? entry : new Entry<>(entry.key, PUT, entry.state);
+						}
+					}
+					return next != null;
+				}
+
+				@Override
+				public Entry<K, S> next() {
+					if (!hasNext()) throw new NoSuchElementException();
+					Entry<K, S> entry = next;
+					next = null;
+					return entry;
+				}
+			};
+			return CrdtSortedFile.write(dir, sources.get(0).from, sources.get(sources.size() - 1).to, compacted,
+					keySerializer, stateSerializer, bufferSize.toInt());
+		}
+	}
+
+	private void release(CrdtSortedFile<K, S> file) {
+		if (--file.refs == 0) {
+			Promise.ofBlockingRunnable(executor, () -> Files.deleteIfExists(file.path))
+					.whenComplete(toLogger(logger, "delete", file));
+		}
+	}
+
+	@Nullable
+	private Entry<K, S> combineNullable(@Nullable Entry<K, S> newer, @Nullable Entry<K, S> older) {
+		return newer == null ? older : older == null ? newer : combine(function, newer, older);
+	}
+
+	private static <K, S> Entry<K, S> combine(CrdtFunction<S> function, Entry<K, S> newer, Entry<K, S> older) {
+		if (newer.kind != PUT) return newer;
+		if (older.state == null) return new Entry<>(newer.key, RESET, newer.state);
+		assert newer.state != null;
+		return new Entry<>(newer.key, older.kind, function.merge(older.state, newer.state));
+	}
+
+	@Nullable
+	private S getState(@Nullable Entry<K, S> entry) {
+		return entry != null && entry.state != null && filter.test(entry.state) ? entry.state : null;
+	}
+	// endregion
+
+	// region write-ahead logs
+	private void appendLog(byte kind, int keyLength, int stateLength) {
+		int length = 1 + 4 + keyLength + stateLength;
+		if (logPosition + LOG_HEADER_SIZE + length > logBuffer.length) {
+			logBuffer = Arrays.copyOf(logBuffer, Math.max(logBuffer.length * 2, logPosition + LOG_HEADER_SIZE + length));
+		}
+		ByteBuffer buf = ByteBuffer.wrap(logBuffer, logPosition, LOG_HEADER_SIZE + length);
+		buf.putInt(length);
+		buf.putInt(0);
+		buf.put(kind);
+		buf.putInt(keyLength);
+		buf.put(keyBuffer, 0, keyLength);
+		buf.put(stateBuffer, 0, stateLength);
+		buf.putInt(logPosition + 4, crc32(logBuffer, logPosition + LOG_HEADER_SIZE, length));
+		logPosition += LOG_HEADER_SIZE + length;
+		if (logPosition >= logBufferSize.toInt()) {
+			writeLog(false);
+		}
+	}
+
+	private Promise<Void> writeLog(boolean force) {
+		long id = memtable != null ? memtable.getId() : 0;
+		ByteBuffer data = ByteBuffer.wrap(Arrays.copyOf(logBuffer, logPosition));
+		logPosition = 0;
+		return writer.execute(() -> Promise.ofBlockingRunnable(executor, () -> {
+			if (data.hasRemaining()) {
+				openLog(id);
+				assert log != null;
+				while (data.hasRemaining()) {
+					log.write(data);
+				}
+			}
+			if (force && log != null) {
+				log.force(false);
+			}
+		}));
+	}
+
+	private void openLog(long id) throws IOException {
+		if (log != null && logId == id) return;
+		closeLog();
+		log = FileChannel.open(logPath(id), CREATE, WRITE, APPEND);
+		logId = id;
+	}
+
+	private void closeLog() throws IOException {
+		if (log == null) return;
+		try {
+			log.force(false);
+		} finally {
+			log.close();
+			log = null;
+		}
+	}
+
+	private Path logPath(long id) {
+		return dir.resolve(String.format("%016d", id) + LOG_SUFFIX);
+	}
+
+	private static int crc32(byte[] bytes, int offset, int length) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(bytes, offset, length);
+		return (int) crc32.getValue();
+	}
+	// endregion
+
+	// region recovery
+	private List<CrdtSortedFile<K, S>> recover() throws IOException {
+		Files.createDirectories(dir);
+		List<CrdtSortedFile<K, S>> recovered = new ArrayList<>();
+		List<Long> logIds = new ArrayList<>();
+		long maxId = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				String fileName = path.getFileName().toString();
+				if (fileName.endsWith(TEMP_SUFFIX)) {
+					logger.info("Deleting unfinished file {}", path);
+					Files.delete(path);
+					continue;
+				}
+				if (fileName.endsWith(LOG_SUFFIX)) {
+					long id = Long.parseLong(fileName.substring(0, fileName.length() - LOG_SUFFIX.length()));
+					logIds.add(id);
+					maxId = Math.max(maxId, id);
+					continue;
+				}
+				long[] range = CrdtSortedFile.parseFileName(fileName);
+				if (range != null) {
+					recovered.add(CrdtSortedFile.open(path, range[0], range[1], keySerializer, bufferSize.toInt()));
+					maxId = Math.max(maxId, range[1]);
+				}
+			}
+		}
+
+		// sources of a compaction are left if the process has crashed right after the compaction
+		for (Iterator<CrdtSortedFile<K, S>> it = recovered.iterator(); it.hasNext(); ) {
+			CrdtSortedFile<K, S> file = it.next();
+			if (recovered.stream().anyMatch(other -> other.covers(file))) {
+				logger.info("Deleting compacted file {}", file);
+				Files.delete(file.path);
+				it.remove();
+			}
+		}
+		recovered.sort(comparingLong(file -> file.to));
+
+		nextId = maxId + 1;
+		Collections.sort(logIds);
+		for (long id : logIds) {
+			replayLog(logPath(id), recovered);
+		}
+		return recovered;
+	}
+
+	private void replayLog(Path path, List<CrdtSortedFile<K, S>> recovered) throws IOException {
+		byte[] bytes = Files.readAllBytes(path);
+		byte[] keyBytes = new byte[bufferSize.toInt()];
+		byte[] stateBytes = new byte[bufferSize.toInt()];
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		CrdtMemtable<K, S> replayed = createMemtable(nextId++);
+		int records = 0;
+		while (buf.remaining() >= LOG_HEADER_SIZE) {
+			int length = buf.getInt();
+			int crc = buf.getInt();
+			int offset = buf.position();
+			if (length < 5 || length > buf.remaining() || crc != crc32(bytes, offset, length)) {
+				logger.warn("Discarding torn tail of {} at {}", path, offset - LOG_HEADER_SIZE);
+				break;
+			}
+			byte kind = buf.get();
+			int keyLength = buf.getInt();
+			int stateLength = length - 5 - keyLength;
+			System.arraycopy(bytes, offset + 5, keyBytes, 0, keyLength);
+			System.arraycopy(bytes, offset + 5 + keyLength, stateBytes, 0, stateLength);
+			K key = keySerializer.decode(keyBytes, 0);
+			S state = kind != TOMBSTONE ? stateSerializer.decode(stateBytes, 0) : null;
+			if (!replayed.put(key, keyLength, state, stateBytes, stateLength)) {
+				recovered.add(flush(replayed));
+				replayed = createMemtable(nextId++);
+				replayed.put(key, keyLength, state, stateBytes, stateLength);
+			}
+			buf.position(offset + length);
+			records++;
+		}
+		if (!replayed.isEmpty()) {
+			recovered.add(flush(replayed));
+		}
+		Files.delete(path);
+		logger.info("Replayed {} records of {}", records, path);
+	}
+	// endregion
+
+	private final class Downloader {
+		private final long timestamp;
+
+		private final List<CrdtMemtable<K, S>> memtables = new ArrayList<>();
+		private final List<CrdtSortedFile<K, S>> sortedFiles = new ArrayList<>();
+		private final List<Iterator<Entry<K, S>>> iterators = new ArrayList<>();
+		private final MergeIterator<K, S> merger = new MergeIterator<>(function, iterators);
+		private boolean acquired;
+		private boolean opened;
+		private Iterator<CrdtData<K, S>> batch = emptyIterator();
+
+		Downloader(long timestamp) {
+			this.timestamp = timestamp;
+		}
+
+		Promise<CrdtData<K, S>> get() {
+			if (batch.hasNext()) {
+				return Promise.of(batch.next());
+			}
+			if (!acquired) {
+				acquire();
+			}
+			return Promise.ofBlockingCallable(executor, this::nextBatch)
+					.map(list -> {
+						batch = list.iterator();
+						return batch.hasNext() ? batch.next() : null;
+					});
+		}
+
+		private List<CrdtData<K, S>> nextBatch() throws IOException {
+			if (!opened) {
+				opened = true;
+				for (CrdtMemtable<K, S> memtable : memtables) {
+					iterators.add(memtable.iterator());
+				}
+				for (CrdtSortedFile<K, S> file : sortedFiles) {
+					iterators.add(file.iterator(keySerializer, stateSerializer, bufferSize.toInt()));
+				}
+				merger.init();
+			}
+			List<CrdtData<K, S>> list = new ArrayList<>();
+			while (list.size() < downloadBatchSize && merger.hasNext()) {
+				Entry<K, S> entry = merger.next();
+				if (entry.state == null || !filter.test(entry.state)) continue;
+				S state = timestamp == 0 ? entry.state : function.extract(entry.state, timestamp);
+				if (state != null) {
+					list.add(new CrdtData<>(entry.key, state));
+				}
+			}
+			return list;
+		}
+
+		/**
+		 * Takes the sources to be merged, newest first, and keeps their sorted files from being deleted until closed
+		 */
+		private void acquire() {
+			acquired = true;
+			if (memtable != null && !memtable.isEmpty()) {
+				memtables.add(memtable.snapshot());
+			}
+			for (int i = frozen.size() - 1; i >= 0; i--) {
+				memtables.add(frozen.get(i));
+			}
+			for (int i = files.size() - 1; i >= 0; i--) {
+				CrdtSortedFile<K, S> file = files.get(i);
+				file.refs++;
+				sortedFiles.add(file);
+			}
+		}
+
+		void close() {
+			if (!acquired) return;
+			Promise.ofBlockingRunnable(executor, merger::close)
+					.whenComplete(() -> sortedFiles.forEach(CrdtStorageLsm.this::release));
+		}
+	}
+
+	/**
+	 * Merges sorted iterators, which are ordered from the newest one to the oldest one
+	 */
+	private static final class MergeIterator<K extends Comparable<K>, S> implements Iterator<Entry<K, S>>, Closeable {
+		private final CrdtFunction<S> function;
+		private final List<Iterator<Entry<K, S>>> iterators;
+		private final PriorityQueue<Head<K, S>> queue = new PriorityQueue<>((a, b) -> {
+			int compare = a.entry.key.compareTo(b.entry.key);
+			return compare != 0 ? compare : Integer.compare(a.index, b.index);
+		});
+
+		private static final class Head<K, S> {
+			final int index;
+			Entry<K, S> entry;
+
+			Head(int index) {
+				this.index = index;
+			}
+		}
+
+		MergeIterator(CrdtFunction<S> function, List<Iterator<Entry<K, S>>> iterators) {
+			this.function = function;
+			this.iterators = iterators;
+		}
+
+		void init() {
+			for (int i = 0; i < iterators.size(); i++) {
+				advance(new Head<>(i));
+			}
+		}
+
+		private void advance(Head<K, S> head) {
+			Iterator<Entry<K, S>> iterator = iterators.get(head.index);
+			if (iterator.hasNext()) {
+				head.entry = iterator.next();
+				queue.add(head);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public Entry<K, S> next() {
+			Head<K, S> head = queue.poll();
+			if (head == null) throw new NoSuchElementException();
+			Entry<K, S> result = head.entry;
+			advance(head);
+			while (!queue.isEmpty() && queue.peek().entry.key.compareTo(result.key) == 0) {
+				Head<K, S> older = queue.poll();
+				result = combine(function, result, older.entry);
+				advance(older);
+			}
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException exception = null;
+			for (Iterator<Entry<K, S>> iterator : iterators) {
+				if (iterator instanceof EntryIterator) {
+					try {
+						((EntryIterator<K, S>) iterator).close();
+					} catch (IOException e) {
+						if (exception == null) exception = e;
+					}
+				}
+			}
+			if (exception != null) throw exception;
+		}
+	}
+
+	// region JMX
+	@JmxOperation
+	public void startDetailedMonitoring() {
+		detailedStats = true;
+	}
+
+	@JmxOperation
+	public void stopDetailedMonitoring() {
+		detailedStats = false;
+	}
+
+	@JmxAttribute
+	public boolean isDetailedStats() {
+		return detailedStats;
+	}
+
+	@JmxAttribute
+	public int getMemtableBytes() {
+		return memtable != null ? memtable.getBytesUsed() : 0;
+	}
+
+	@JmxAttribute
+	public int getFrozenMemtablesCount() {
+		return frozen.size();
+	}
+
+	@JmxAttribute
+	public int getSortedFilesCount() {
+		return files.size();
+	}
+
+	@JmxAttribute
+	public long getSortedFilesEntries() {
+		return files.stream().mapToLong(CrdtSortedFile::getEntries).sum();
+	}
+
+	@JmxAttribute
+	public StreamStatsBasic getUploadStats() {
+		return uploadStats;
+	}
+
+	@JmxAttribute
+	public StreamStatsDetailed getUploadStatsDetailed() {
+		return uploadStatsDetailed;
+	}
+
+	@JmxAttribute
+	public StreamStatsBasic getDownloadStats() {
+		return downloadStats;
+	}
+
+	@JmxAttribute
+	public StreamStatsDetailed getDownloadStatsDetailed() {
+		return downloadStatsDetailed;
+	}
+
+	@JmxAttribute
+	public StreamStatsBasic getRemoveStats() {
+		return removeStats;
+	}
+
+	@JmxAttribute
+	public StreamStatsDetailed getRemoveStatsDetailed() {
+		return removeStatsDetailed;
+	}
+
+	@JmxAttribute
+	public EventStats getSinglePuts() {
+		return singlePuts;
+	}
+
+	@JmxAttribute
+	public EventStats getSingleGets() {
+		return singleGets;
+	}
+
+	@JmxAttribute
+	public EventStats getSingleRemoves() {
+		return singleRemoves;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseSync() {
+		return promiseSync;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseFlush() {
+		return promiseFlush;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseCompact() {
+		return promiseCompact;
+	}
+	// endregion
+}
@@ -18,6 +18,7 @@ package io.datakernel.crdt.local;
 
 import io.datakernel.async.service.EventloopService;
 import io.datakernel.common.Initializable;
+import io.datakernel.crdt.CrdtChangeTracking;
 import io.datakernel.crdt.CrdtData;
 import io.datakernel.crdt.CrdtFilter;
 import io.datakernel.crdt.CrdtFunction;
@@ -39,12 +40,14 @@ import org.jetbrains.annotations.Nullable;
 
 import java.time.Duration;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Objects;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.stream.Stream;
 
-public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtStorage<K, S>, Initializable<CrdtStorageMap<K, S>>, EventloopService, EventloopJmxMBeanEx {
+public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtStorage<K, S>, CrdtChangeTracking<K>, Initializable<CrdtStorageMap<K, S>>, EventloopService, EventloopJmxMBeanEx {
 	private static final Duration DEFAULT_SMOOTHING_WINDOW = Duration.ofMinutes(5);
 
 	private final Eventloop eventloop;
@@ -53,6 +56,9 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 	private CrdtFilter<S> filter = $ -> true;
 
 	private final SortedMap<K, CrdtData<K, S>> storage = new ConcurrentSkipListMap<>();
+	private final Map<K, Long> revisions = new ConcurrentHashMap<>();
+
+	private long revision;
 
 	// region JMX
 	private boolean detailedStats;
@@ -106,7 +112,7 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 	@SuppressWarnings("deprecation") // StreamConsumer#of
 	@Override
 	public Promise<StreamConsumer<K>> remove() {
-		return Promise.of(StreamConsumer.<K>of(storage::remove)
+		return Promise.of(StreamConsumer.<K>of(this::doRemove)
 				.transformWith(detailedStats ? removeStatsDetailed : removeStats)
 				.withLateBinding());
 	}
@@ -143,10 +149,31 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 
 	private void doPut(CrdtData<K, S> data) {
 		K key = data.getKey();
-		storage.merge(key, data, (a, b) -> {
-			S merged = function.merge(a.getState(), b.getState());
-			return filter.test(merged) ? new CrdtData<>(key, merged) : null;
+		CrdtData<K, S> merged = storage.merge(key, data, (a, b) -> {
+			S state = function.merge(a.getState(), b.getState());
+			return filter.test(state) ? new CrdtData<>(key, state) : null;
 		});
+		if (merged != null) {
+			revisions.put(key, ++revision);
+		} else {
+			revisions.remove(key);
+		}
+	}
+
+	private boolean doRemove(K key) {
+		revisions.remove(key);
+		return storage.remove(key) != null;
+	}
+
+	@Override
+	public long getRevision() {
+		return revision;
+	}
+
+	@Override
+	public long getRevision(K key) {
+		Long revision = revisions.get(key);
+		return revision != null ? revision : 0;
 	}
 
 	public void put(K key, S state) {
@@ -167,7 +194,7 @@ public final class CrdtStorageMap<K extends Comparable<K>, S> implements CrdtSto
 
 	public boolean remove(K key) {
 		singleRemoves.recordEvent();
-		return storage.remove(key) != null;
+		return doRemove(key);
 	}
 
 	public Iterator<CrdtData<K, S>> iterator(long timestamp) {
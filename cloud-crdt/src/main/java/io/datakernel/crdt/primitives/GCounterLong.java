@@ -16,27 +16,42 @@
 
 package io.datakernel.crdt.primitives;
 
+import io.datakernel.common.time.CurrentTimeProvider;
 import io.datakernel.serializer.BinaryInput;
 import io.datakernel.serializer.BinaryOutput;
 import io.datakernel.serializer.BinarySerializer;
+import org.jetbrains.annotations.Nullable;
 
 import static java.lang.Math.max;
 
-public final class GCounterLong implements CrdtMergable<GCounterLong> {
+public final class GCounterLong implements CrdtType<GCounterLong> {
+	/**
+	 * Serializes replica counts only, counts of a decoded counter have no timestamps, so they are never {@link #extract extracted}
+	 */
 	public static final BinarySerializer<GCounterLong> SERIALIZER = new Serializer();
+	/**
+	 * Serializes replica counts together with the timestamps of their increments, which are needed to {@link #extract} deltas
+	 * from decoded counters. The format differs from the one of {@link #SERIALIZER}.
+	 */
+	public static final BinarySerializer<GCounterLong> DELTA_SERIALIZER = new DeltaSerializer();
 
 	private final long[] state;
+	private final long[] timestamps;
 
-	private GCounterLong(long[] state) {
+	CurrentTimeProvider now = CurrentTimeProvider.ofSystem();
+
+	private GCounterLong(long[] state, long[] timestamps) {
 		this.state = state;
+		this.timestamps = timestamps;
 	}
 
 	public GCounterLong(int n) {
-		this(new long[n]);
+		this(new long[n], new long[n]);
 	}
 
 	public void increment(int id) {
 		state[id]++;
+		timestamps[id] = now.currentTimeMillis();
 	}
 
 	public long value() {
@@ -51,10 +66,32 @@ public final class GCounterLong implements CrdtMergable<GCounterLong> {
 	public GCounterLong merge(GCounterLong other) {
 		assert state.length == other.state.length;
 		long[] newState = new long[state.length];
+		long[] newTimestamps = new long[state.length];
 		for (int i = 0; i < newState.length; i++) {
 			newState[i] = max(state[i], other.state[i]);
+			newTimestamps[i] = max(timestamps[i], other.timestamps[i]);
 		}
-		return new GCounterLong(newState);
+		return new GCounterLong(newState, newTimestamps);
+	}
+
+	/**
+	 * Returns a counter which has only the replica counts incremented after the timestamp,
+	 * other counts are zero and do not affect the merge
+	 */
+	@Nullable
+	@Override
+	public GCounterLong extract(long timestamp) {
+		long[] newState = new long[state.length];
+		long[] newTimestamps = new long[state.length];
+		boolean changed = false;
+		for (int i = 0; i < newState.length; i++) {
+			if (timestamps[i] > timestamp) {
+				newState[i] = state[i];
+				newTimestamps[i] = timestamps[i];
+				changed = true;
+			}
+		}
+		return changed ? new GCounterLong(newState, newTimestamps) : null;
 	}
 
 	@Override
@@ -78,7 +115,30 @@ public final class GCounterLong implements CrdtMergable<GCounterLong> {
 			for (int i = 0; i < state.length; i++) {
 				state[i] = in.readLong();
 			}
-			return new GCounterLong(state);
+			return new GCounterLong(state, new long[state.length]);
+		}
+	}
+
+	private static class DeltaSerializer implements BinarySerializer<GCounterLong> {
+		@Override
+		public void encode(BinaryOutput out, GCounterLong item) {
+			long[] state = item.state;
+			out.writeVarInt(state.length);
+			for (int i = 0; i < state.length; i++) {
+				out.writeLong(state[i]);
+				out.writeLong(item.timestamps[i]);
+			}
+		}
+
+		@Override
+		public GCounterLong decode(BinaryInput in) {
+			long[] state = new long[in.readVarInt()];
+			long[] timestamps = new long[state.length];
+			for (int i = 0; i < state.length; i++) {
+				state[i] = in.readLong();
+				timestamps[i] = in.readLong();
+			}
+			return new GCounterLong(state, timestamps);
 		}
 	}
 }
@@ -1,5 +1,6 @@
 package io.datakernel.crdt.primitives;
 
+import io.datakernel.common.time.CurrentTimeProvider;
 import io.datakernel.serializer.BinaryInput;
 import io.datakernel.serializer.BinaryOutput;
 import io.datakernel.serializer.BinarySerializer;
@@ -11,23 +12,47 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
-public final class GMap<K, V extends CrdtMergable<V>> implements Map<K, V>, CrdtMergable<GMap<K, V>> {
+public final class GMap<K, V extends CrdtMergable<V>> implements Map<K, V>, CrdtType<GMap<K, V>> {
 
 	private final Map<K, V> map;
+	// timestamps of the last changes of values
+	private final Map<K, Long> timestamps;
 
-	private GMap(Map<K, V> map) {
+	CurrentTimeProvider now = CurrentTimeProvider.ofSystem();
+
+	private GMap(Map<K, V> map, Map<K, Long> timestamps) {
 		this.map = map;
+		this.timestamps = timestamps;
 	}
 
 	public GMap() {
-		this(new HashMap<>());
+		this(new HashMap<>(), new HashMap<>());
 	}
 
 	@Override
 	public GMap<K, V> merge(GMap<K, V> other) {
 		HashMap<K, V> newMap = new HashMap<>(map);
+		HashMap<K, Long> newTimestamps = new HashMap<>(timestamps);
 		other.map.forEach((k, v) -> newMap.merge(k, v, CrdtMergable::merge));
-		return new GMap<>(newMap);
+		other.timestamps.forEach((k, timestamp) -> newTimestamps.merge(k, timestamp, Math::max));
+		return new GMap<>(newMap, newTimestamps);
+	}
+
+	/**
+	 * Returns a map of the whole values which have been changed after the timestamp
+	 */
+	@Nullable
+	@Override
+	public GMap<K, V> extract(long timestamp) {
+		HashMap<K, V> newMap = new HashMap<>();
+		HashMap<K, Long> newTimestamps = new HashMap<>();
+		timestamps.forEach((k, t) -> {
+			if (t > timestamp) {
+				newMap.put(k, map.get(k));
+				newTimestamps.put(k, t);
+			}
+		});
+		return newMap.isEmpty() ? null : new GMap<>(newMap, newTimestamps);
 	}
 
 	@Override
@@ -58,6 +83,7 @@ public final class GMap<K, V extends CrdtMergable<V>> implements Map<K, V>, Crdt
 	@Nullable
 	@Override
 	public V put(K key, V value) {
+		timestamps.put(key, now.currentTimeMillis());
 		return map.merge(key, value, CrdtMergable::merge);
 	}
 
@@ -94,6 +120,9 @@ public final class GMap<K, V extends CrdtMergable<V>> implements Map<K, V>, Crdt
 		throw new UnsupportedOperationException("GMap#entrySet is not implemented yet");
 	}
 
+	/**
+	 * Serializes values only, values of a decoded map have no timestamps, so they are never {@link #extract extracted}
+	 */
 	public static class Serializer<K, V extends CrdtMergable<V>> implements BinarySerializer<GMap<K, V>> {
 		private final BinarySerializer<K> keySerializer;
 		private final BinarySerializer<V> valueSerializer;
@@ -119,7 +148,44 @@ public final class GMap<K, V extends CrdtMergable<V>> implements Map<K, V>, Crdt
 			for (int i = 0; i < size; i++) {
 				map.put(keySerializer.decode(in), valueSerializer.decode(in));
 			}
-			return new GMap<>(map);
+			return new GMap<>(map, new HashMap<>());
+		}
+	}
+
+	/**
+	 * Serializes values together with the timestamps of their last changes, which are needed to {@link #extract} deltas
+	 * from decoded maps. The format differs from the one of {@link Serializer}.
+	 */
+	public static class DeltaSerializer<K, V extends CrdtMergable<V>> implements BinarySerializer<GMap<K, V>> {
+		private final BinarySerializer<K> keySerializer;
+		private final BinarySerializer<V> valueSerializer;
+
+		public DeltaSerializer(BinarySerializer<K> keySerializer, BinarySerializer<V> valueSerializer) {
+			this.keySerializer = keySerializer;
+			this.valueSerializer = valueSerializer;
+		}
+
+		@Override
+		public void encode(BinaryOutput out, GMap<K, V> item) {
+			out.writeVarInt(item.map.size());
+			for (Entry<K, V> entry : item.map.entrySet()) {
+				keySerializer.encode(out, entry.getKey());
+				valueSerializer.encode(out, entry.getValue());
+				out.writeLong(item.timestamps.getOrDefault(entry.getKey(), 0L));
+			}
+		}
+
+		@Override
+		public GMap<K, V> decode(BinaryInput in) {
+			int size = in.readVarInt();
+			Map<K, V> map = new HashMap<>(size);
+			Map<K, Long> timestamps = new HashMap<>(size);
+			for (int i = 0; i < size; i++) {
+				K key = keySerializer.decode(in);
+				map.put(key, valueSerializer.decode(in));
+				timestamps.put(key, in.readLong());
+			}
+			return new GMap<>(map, timestamps);
 		}
 	}
 }
@@ -16,22 +16,30 @@
 
 package io.datakernel.crdt.primitives;
 
+import io.datakernel.common.time.CurrentTimeProvider;
 import io.datakernel.serializer.BinaryInput;
 import io.datakernel.serializer.BinaryOutput;
 import io.datakernel.serializer.BinarySerializer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.Map.Entry;
 
-public final class GSet<E> implements Set<E>, CrdtMergable<GSet<E>> {
-	private final Set<E> set;
+import static java.util.stream.Collectors.toMap;
 
-	private GSet(Set<E> newSet) {
+public final class GSet<E> implements Set<E>, CrdtType<GSet<E>> {
+	// elements with the timestamps of their addition
+	private final Map<E, Long> set;
+
+	CurrentTimeProvider now = CurrentTimeProvider.ofSystem();
+
+	private GSet(Map<E, Long> newSet) {
 		set = newSet;
 	}
 
 	public GSet() {
-		this(new HashSet<>());
+		this(new HashMap<>());
 	}
 
 	@SafeVarargs
@@ -43,8 +51,20 @@ public final class GSet<E> implements Set<E>, CrdtMergable<GSet<E>> {
 
 	@Override
 	public GSet<E> merge(GSet<E> other) {
-		Set<E> newSet = new HashSet<>(set);
-		newSet.addAll(other.set);
+		Map<E, Long> newSet = new HashMap<>(set);
+		other.set.forEach((e, timestamp) -> newSet.merge(e, timestamp, Math::max));
+		return new GSet<>(newSet);
+	}
+
+	@Override
+	@Nullable
+	public GSet<E> extract(long timestamp) {
+		Map<E, Long> newSet = set.entrySet().stream()
+				.filter(entry -> entry.getValue() > timestamp)
+				.collect(toMap(Entry::getKey, Entry::getValue));
+		if (newSet.isEmpty()) {
+			return null;
+		}
 		return new GSet<>(newSet);
 	}
 
@@ -60,38 +80,42 @@ public final class GSet<E> implements Set<E>, CrdtMergable<GSet<E>> {
 
 	@Override
 	public boolean contains(Object t) {
-		return set.contains(t);
+		return set.containsKey(t);
 	}
 
 	@Override
 	public Iterator<E> iterator() {
-		return set.iterator();
+		return set.keySet().iterator();
 	}
 
 	@Override
 	public Object[] toArray() {
-		return set.toArray();
+		return set.keySet().toArray();
 	}
 
 	@Override
 	@SuppressWarnings("SuspiciousToArrayCall")
 	public <T> T[] toArray(@NotNull T[] a) {
-		return set.toArray(a);
+		return set.keySet().toArray(a);
 	}
 
 	@Override
 	public boolean add(E e) {
-		return set.add(e);
+		return set.putIfAbsent(e, now.currentTimeMillis()) == null;
 	}
 
 	@Override
 	public boolean containsAll(@NotNull Collection<?> c) {
-		return set.containsAll(c);
+		return set.keySet().containsAll(c);
 	}
 
 	@Override
 	public boolean addAll(@NotNull Collection<? extends E> c) {
-		return set.addAll(c);
+		boolean changed = false;
+		for (E e : c) {
+			changed |= add(e);
+		}
+		return changed;
 	}
 
 	@Override
@@ -116,9 +140,13 @@ public final class GSet<E> implements Set<E>, CrdtMergable<GSet<E>> {
 
 	@Override
 	public String toString() {
-		return set.toString();
+		return set.keySet().toString();
 	}
 
+	/**
+	 * Serializes elements only, decoded elements are treated as added at timestamp 0,
+	 * so they are never {@link #extract extracted}
+	 */
 	public static class Serializer<T> implements BinarySerializer<GSet<T>> {
 		private final BinarySerializer<T> valueSerializer;
 
@@ -129,7 +157,7 @@ public final class GSet<E> implements Set<E>, CrdtMergable<GSet<E>> {
 		@Override
 		public void encode(BinaryOutput out, GSet<T> item) {
 			out.writeVarInt(item.set.size());
-			for (T t : item.set) {
+			for (T t : item.set.keySet()) {
 				valueSerializer.encode(out, t);
 			}
 		}
@@ -137,9 +165,40 @@ public final class GSet<E> implements Set<E>, CrdtMergable<GSet<E>> {
 		@Override
 		public GSet<T> decode(BinaryInput in) {
 			int size = in.readVarInt();
-			Set<T> set = new HashSet<>(size);
+			Map<T, Long> set = new HashMap<>(size);
+			for (int i = 0; i < size; i++) {
+				set.put(valueSerializer.decode(in), 0L);
+			}
+			return new GSet<>(set);
+		}
+	}
+
+	/**
+	 * Serializes elements together with the timestamps of their addition, which are needed to {@link #extract} deltas
+	 * from decoded sets. The format differs from the one of {@link Serializer}.
+	 */
+	public static class DeltaSerializer<T> implements BinarySerializer<GSet<T>> {
+		private final BinarySerializer<T> valueSerializer;
+
+		public DeltaSerializer(BinarySerializer<T> valueSerializer) {
+			this.valueSerializer = valueSerializer;
+		}
+
+		@Override
+		public void encode(BinaryOutput out, GSet<T> item) {
+			out.writeVarInt(item.set.size());
+			for (Entry<T, Long> entry : item.set.entrySet()) {
+				valueSerializer.encode(out, entry.getKey());
+				out.writeLong(entry.getValue());
+			}
+		}
+
+		@Override
+		public GSet<T> decode(BinaryInput in) {
+			int size = in.readVarInt();
+			Map<T, Long> set = new HashMap<>(size);
 			for (int i = 0; i < size; i++) {
-				set.add(valueSerializer.decode(in));
+				set.put(valueSerializer.decode(in), in.readLong());
 			}
 			return new GSet<>(set);
 		}
@@ -17,6 +17,7 @@
 package io.datakernel.crdt;
 
 import io.datakernel.crdt.local.CrdtStorageFs;
+import io.datakernel.crdt.local.CrdtStorageLsm;
 import io.datakernel.crdt.local.CrdtStorageRocksDB;
 import io.datakernel.datastream.StreamConsumer;
 import io.datakernel.datastream.StreamSupplier;
@@ -106,6 +107,15 @@ public class CrdtStorageAPITest {
 							RocksDB rocksdb = RocksDB.open(options, testFolder.resolve("rocksdb").toString());
 							return CrdtStorageRocksDB.create(Eventloop.getCurrentEventloop(), executor, rocksdb, serializer, crdtFunction);
 						}
+				},
+				new Object[]{
+						"LsmCrdtClient",
+						(ICrdtClientFactory<String, TimestampContainer<Integer>>) (executor, testFolder, crdtFunction) -> {
+							CrdtStorageLsm<String, TimestampContainer<Integer>> storage =
+									CrdtStorageLsm.create(Eventloop.getCurrentEventloop(), executor, testFolder, serializer, crdtFunction);
+							await(storage.start());
+							return storage;
+						}
 				}
 		);
 	}
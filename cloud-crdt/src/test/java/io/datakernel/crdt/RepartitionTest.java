@@ -18,6 +18,7 @@ package io.datakernel.crdt;
 
 import io.datakernel.common.ref.RefInt;
 import io.datakernel.crdt.local.CrdtStorageMap;
+import io.datakernel.crdt.primitives.GSet;
 import io.datakernel.datastream.StreamConsumer;
 import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.eventloop.Eventloop;
@@ -26,11 +27,18 @@ import io.datakernel.test.rules.EventloopRule;
 import org.junit.ClassRule;
 import org.junit.Test;
 
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.stream.IntStream;
 
+import static io.datakernel.common.collection.CollectionUtils.set;
 import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.serializer.BinarySerializers.INT_SERIALIZER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public final class RepartitionTest {
 
@@ -67,4 +75,136 @@ public final class RepartitionTest {
 			System.out.println("Was " + count.get() + " elements");
 		});
 	}
+
+	@Test
+	public void testDeltas() {
+		Map<String, CrdtStorageMap<String, GSet<Integer>>> clients = new LinkedHashMap<>();
+		for (int i = 0; i < 5; i++) {
+			clients.put("client_" + i, CrdtStorageMap.create(Eventloop.getCurrentEventloop()));
+		}
+		CrdtStorageMap<String, GSet<Integer>> local = clients.get("client_0");
+		for (int i = 0; i < 20; i++) {
+			local.put("test" + i, GSet.of(i));
+		}
+
+		CrdtStorageCluster<String, String, GSet<Integer>> cluster = CrdtStorageCluster.create(Eventloop.getCurrentEventloop(), clients)
+				.withReplicationCount(2);
+		CrdtRepartitionController<String, String, GSet<Integer>> controller = CrdtRepartitionController.create(cluster, "client_0")
+				.withDeltas();
+
+		await(controller.repartition());
+		for (int i = 0; i < 20; i++) {
+			local.put("test" + i, GSet.of(100 + i));
+		}
+		await(controller.repartition());
+
+		assertEquals(1, controller.getFullRepartitions());
+		assertEquals(1, controller.getDeltaRepartitions());
+		for (int i = 0; i < 20; i++) {
+			GSet<Integer> merged = await(await(cluster.download()).toList()).get(i).getState();
+			assertEquals(2, merged.size());
+		}
+		int replicas = 0;
+		for (CrdtStorageMap<String, GSet<Integer>> client : clients.values()) {
+			GSet<Integer> state = client.get("test7");
+			if (state != null) {
+				assertEquals(set(7, 107), new HashSet<>(state));
+				replicas++;
+			}
+		}
+		assertEquals(2, replicas);
+	}
+
+	@Test
+	public void testDeltasMoveLateStates() {
+		Map<String, CrdtStorageMap<String, GSet<Integer>>> clients = new LinkedHashMap<>();
+		for (int i = 0; i < 5; i++) {
+			clients.put("client_" + i, CrdtStorageMap.create(Eventloop.getCurrentEventloop()));
+		}
+		CrdtStorageMap<String, GSet<Integer>> local = clients.get("client_0");
+		CrdtStorageCluster<String, String, GSet<Integer>> cluster = CrdtStorageCluster.create(Eventloop.getCurrentEventloop(), clients)
+				.withReplicationCount(2);
+		CrdtRepartitionController<String, String, GSet<Integer>> controller = CrdtRepartitionController.create(cluster, "client_0")
+				.withDeltas();
+		await(controller.repartition());
+
+		int index = cluster.getOrderedIds().indexOf("client_0");
+		String key = IntStream.range(0, 100)
+				.mapToObj(i -> "late" + i)
+				.filter(k -> IntStream.of(cluster.getShardingFunction().shard(k)).noneMatch(s -> s == index))
+				.findFirst()
+				.orElseThrow(AssertionError::new);
+		// a state decoded without timestamps has nothing to extract as a delta
+		GSet.Serializer<Integer> serializer = new GSet.Serializer<>(INT_SERIALIZER);
+		byte[] bytes = new byte[64];
+		serializer.encode(bytes, 0, GSet.of(1, 2));
+		local.put(key, serializer.decode(bytes, 0));
+		await(controller.repartition());
+
+		assertEquals(1, controller.getDeltaRepartitions());
+		assertNull(local.get(key));
+		int replicas = 0;
+		for (CrdtStorageMap<String, GSet<Integer>> client : clients.values()) {
+			GSet<Integer> state = client.get(key);
+			if (state != null) {
+				assertEquals(set(1, 2), new HashSet<>(state));
+				replicas++;
+			}
+		}
+		assertEquals(2, replicas);
+	}
+
+	@Test
+	public void testDeltasReplicateLateStatesOfKeptKeys() {
+		Map<String, CrdtStorageMap<String, GSet<Integer>>> clients = new LinkedHashMap<>();
+		for (int i = 0; i < 5; i++) {
+			clients.put("client_" + i, CrdtStorageMap.create(Eventloop.getCurrentEventloop()));
+		}
+		CrdtStorageMap<String, GSet<Integer>> local = clients.get("client_0");
+		CrdtStorageCluster<String, String, GSet<Integer>> cluster = CrdtStorageCluster.create(Eventloop.getCurrentEventloop(), clients)
+				.withReplicationCount(2);
+		int index = cluster.getOrderedIds().indexOf("client_0");
+		String key = IntStream.range(0, 100)
+				.mapToObj(i -> "late" + i)
+				.filter(k -> IntStream.of(cluster.getShardingFunction().shard(k)).anyMatch(s -> s == index))
+				.findFirst()
+				.orElseThrow(AssertionError::new);
+		CrdtRepartitionController<String, String, GSet<Integer>> controller = CrdtRepartitionController.create(cluster, "client_0")
+				.withDeltas();
+
+		local.put(key, GSet.of(1));
+		await(controller.repartition());
+		// states decoded without timestamps arrive after the previous repartition, but carry no changes by time
+		GSet.Serializer<Integer> serializer = new GSet.Serializer<>(INT_SERIALIZER);
+		byte[] bytes = new byte[64];
+		serializer.encode(bytes, 0, GSet.of(2));
+		local.put(key, serializer.decode(bytes, 0));
+		await(controller.repartition());
+		await(controller.repartition());
+
+		assertEquals(1, controller.getFullRepartitions());
+		assertEquals(2, controller.getDeltaRepartitions());
+		assertTrue(controller.getLastRevision() > 0);
+		int replicas = 0;
+		for (CrdtStorageMap<String, GSet<Integer>> client : clients.values()) {
+			GSet<Integer> state = client.get(key);
+			if (state != null) {
+				assertEquals(set(1, 2), new HashSet<>(state));
+				replicas++;
+			}
+		}
+		assertEquals(2, replicas);
+	}
+
+	@Test
+	public void testDeltasRequireChangeTracking() {
+		Map<String, CrdtStorageMap<String, GSet<Integer>>> clients = new LinkedHashMap<>();
+		clients.put("client_0", CrdtStorageMap.create(Eventloop.getCurrentEventloop()));
+		CrdtStorageCluster<String, String, GSet<Integer>> cluster = CrdtStorageCluster.create(Eventloop.getCurrentEventloop(), clients);
+		try {
+			new CrdtRepartitionController<>("client_0", cluster, cluster).withDeltas();
+			fail();
+		} catch (IllegalStateException ignored) {
+		}
+	}
 }
@@ -0,0 +1,180 @@
+package io.datakernel.crdt;
+
+import io.datakernel.common.MemSize;
+import io.datakernel.crdt.local.CrdtStorageLsm;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.serializer.BinarySerializers.INT_SERIALIZER;
+import static io.datakernel.serializer.BinarySerializers.UTF8_SERIALIZER;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public final class TestCrdtStorageLsm {
+	private static final CrdtDataSerializer<String, TimestampContainer<Integer>> serializer =
+			new CrdtDataSerializer<>(UTF8_SERIALIZER, TimestampContainer.createSerializer(INT_SERIALIZER));
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private Path dir;
+	private CrdtStorageLsm<String, TimestampContainer<Integer>> storage;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = temporaryFolder.newFolder().toPath();
+		storage = open();
+	}
+
+	private CrdtStorageLsm<String, TimestampContainer<Integer>> open() {
+		CrdtStorageLsm<String, TimestampContainer<Integer>> storage = CrdtStorageLsm.create(Eventloop.getCurrentEventloop(), executor, dir,
+				serializer, TimestampContainer.createCrdtFunction(Integer::max))
+				.withMemtableSize(MemSize.kilobytes(4))
+				.withCompactionThreshold(3);
+		await(storage.start());
+		return storage;
+	}
+
+	private void upload(int from, int to, int value) {
+		await(StreamSupplier.ofStream(IntStream.range(from, to)
+				.mapToObj(i -> new CrdtData<>(key(i), new TimestampContainer<>(123, value))))
+				.streamTo(storage.upload()));
+	}
+
+	private List<CrdtData<String, TimestampContainer<Integer>>> download() {
+		return await(await(storage.download()).toList());
+	}
+
+	private static String key(int i) {
+		return String.format("key_%04d", i);
+	}
+
+	@Test
+	public void testMergeAcrossMemtables() {
+		upload(0, 500, 1);
+		upload(250, 750, 2);
+		upload(100, 200, 0);
+
+		List<CrdtData<String, TimestampContainer<Integer>>> list = download();
+		assertEquals(750, list.size());
+		for (int i = 0; i < 750; i++) {
+			assertEquals(key(i), list.get(i).getKey());
+			assertEquals((Integer) (i < 250 ? 1 : 2), list.get(i).getState().getState());
+		}
+		assertTrue(storage.getSortedFilesCount() <= 3);
+		assertEquals((Integer) 2, await(storage.get(key(300))).getState());
+		assertEquals((Integer) 1, await(storage.get(key(150))).getState());
+		assertNull(await(storage.get(key(1000))));
+	}
+
+	@Test
+	public void testRemove() {
+		upload(0, 10, 1);
+		await(StreamSupplier.ofIterable(asList(key(2), key(5))).streamTo(storage.remove()));
+		await(storage.put(key(5), new TimestampContainer<>(123, 7)));
+
+		List<String> keys = download().stream().map(CrdtData::getKey).collect(Collectors.toList());
+		assertFalse(keys.contains(key(2)));
+		assertTrue(keys.contains(key(5)));
+		assertEquals(9, keys.size());
+		assertNull(await(storage.get(key(2))));
+		assertEquals((Integer) 7, await(storage.get(key(5))).getState());
+
+		await(storage.compact());
+		assertEquals(9, download().size());
+		assertEquals((Integer) 7, await(storage.get(key(5))).getState());
+	}
+
+	@Test
+	public void testDownloadDoesNotFreezeMemtable() {
+		upload(0, 10, 1);
+		StreamSupplier<CrdtData<String, TimestampContainer<Integer>>> supplier = await(storage.download());
+		upload(10, 20, 1);
+
+		// the snapshot is taken once the stream is read from
+		assertEquals(20, await(supplier.toList()).size());
+		assertEquals(0, storage.getFrozenMemtablesCount());
+		assertEquals(0, storage.getSortedFilesCount());
+	}
+
+	@Test
+	public void testUnreadDownloadDoesNotKeepFiles() throws IOException {
+		upload(0, 500, 1);
+		upload(250, 750, 2);
+		await(storage.download());
+		await(storage.compact());
+
+		assertEquals(1, storage.getSortedFilesCount());
+		assertEquals(1, Files.list(dir).filter(path -> path.toString().endsWith(".sst")).count());
+	}
+
+	@Test
+	public void testOversizedKey() {
+		storage = CrdtStorageLsm.create(Eventloop.getCurrentEventloop(), executor, dir,
+				serializer, TimestampContainer.createCrdtFunction(Integer::max))
+				.withBufferSize(MemSize.of(64));
+		await(storage.start());
+		await(storage.put(key(1), new TimestampContainer<>(123, 1)));
+		try {
+			storage.put(String.join("", Collections.nCopies(10, key(2))), new TimestampContainer<>(123, 2));
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains("withBufferSize"));
+		}
+		assertEquals(1, download().size());
+	}
+
+	@Test
+	public void testRecoveryFromLog() throws IOException {
+		upload(0, 20, 3);
+		await(storage.remove(key(7)));
+		assertTrue(Files.list(dir).anyMatch(path -> path.toString().endsWith(".wal")));
+
+		// the storage is not stopped, as if the process has crashed
+		storage = open();
+
+		List<CrdtData<String, TimestampContainer<Integer>>> list = download();
+		assertEquals(19, list.size());
+		assertEquals((Integer) 3, list.get(0).getState().getState());
+		assertTrue(Files.list(dir).noneMatch(path -> path.toString().endsWith(".wal")));
+	}
+
+	@Test
+	public void testRestart() {
+		upload(0, 300, 1);
+		await(storage.compact());
+		upload(200, 400, 5);
+		await(storage.stop());
+
+		storage = open();
+
+		List<CrdtData<String, TimestampContainer<Integer>>> list = download();
+		assertEquals(400, list.size());
+		List<Integer> states = new ArrayList<>();
+		list.forEach(data -> states.add(data.getState().getState()));
+		assertEquals((Integer) 1, states.get(199));
+		assertEquals((Integer) 5, states.get(200));
+	}
+}
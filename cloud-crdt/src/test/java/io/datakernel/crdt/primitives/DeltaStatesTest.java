@@ -0,0 +1,88 @@
+package io.datakernel.crdt.primitives;
+
+import io.datakernel.serializer.BinarySerializer;
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static io.datakernel.common.collection.CollectionUtils.set;
+import static io.datakernel.serializer.BinarySerializers.INT_SERIALIZER;
+import static io.datakernel.serializer.BinarySerializers.UTF8_SERIALIZER;
+import static org.junit.Assert.*;
+
+public final class DeltaStatesTest {
+	@Test
+	public void testGSet() {
+		GSet<Integer> gSet = new GSet<>();
+		gSet.now = () -> 100;
+		gSet.addAll(set(1, 2, 3));
+		gSet.now = () -> 200;
+		gSet.addAll(set(3, 4));
+
+		GSet<Integer> delta = gSet.extract(150);
+		assertNotNull(delta);
+		assertEquals(set(4), new HashSet<>(delta));
+		assertNull(gSet.extract(200));
+
+		GSet<Integer> decoded = roundTrip(new GSet.DeltaSerializer<>(INT_SERIALIZER), gSet);
+		assertEquals(set(4), new HashSet<>(decoded.extract(150)));
+		assertEquals(set(1, 2, 3, 4), new HashSet<>(GSet.of(1).merge(delta).merge(decoded)));
+
+		GSet<Integer> decodedWithoutTimestamps = roundTrip(new GSet.Serializer<>(INT_SERIALIZER), gSet);
+		assertEquals(set(1, 2, 3, 4), new HashSet<>(decodedWithoutTimestamps));
+		assertNull(decodedWithoutTimestamps.extract(0));
+	}
+
+	@Test
+	public void testGCounterLong() {
+		GCounterLong counter = new GCounterLong(3);
+		counter.now = () -> 100;
+		counter.increment(0);
+		counter.increment(1);
+		counter.now = () -> 200;
+		counter.increment(1);
+		counter.increment(2);
+
+		GCounterLong delta = counter.extract(150);
+		assertNotNull(delta);
+		assertEquals(3, delta.value());
+		assertNull(counter.extract(200));
+
+		GCounterLong old = new GCounterLong(3);
+		old.increment(0);
+		old.increment(1);
+		assertEquals(4, old.merge(delta).value());
+		assertEquals(3, roundTrip(GCounterLong.DELTA_SERIALIZER, counter).extract(150).value());
+		GCounterLong decodedWithoutTimestamps = roundTrip(GCounterLong.SERIALIZER, counter);
+		assertEquals(4, decodedWithoutTimestamps.value());
+		assertNull(decodedWithoutTimestamps.extract(0));
+	}
+
+	@Test
+	public void testGMap() {
+		GMap<String, GSet<Integer>> map = new GMap<>();
+		map.now = () -> 100;
+		map.put("a", GSet.of(1));
+		map.put("b", GSet.of(2));
+		map.now = () -> 200;
+		map.put("b", GSet.of(3));
+
+		GMap<String, GSet<Integer>> delta = map.extract(150);
+		assertNotNull(delta);
+		assertEquals(1, delta.size());
+		assertEquals(set(2, 3), new HashSet<>(delta.get("b")));
+		assertNull(map.extract(200));
+
+		GMap<String, GSet<Integer>> decoded = roundTrip(new GMap.DeltaSerializer<>(UTF8_SERIALIZER, new GSet.DeltaSerializer<>(INT_SERIALIZER)), map);
+		assertEquals(1, decoded.extract(150).size());
+		GMap<String, GSet<Integer>> decodedWithoutTimestamps = roundTrip(new GMap.Serializer<>(UTF8_SERIALIZER, new GSet.Serializer<>(INT_SERIALIZER)), map);
+		assertEquals(2, decodedWithoutTimestamps.size());
+		assertNull(decodedWithoutTimestamps.extract(0));
+	}
+
+	private static <T> T roundTrip(BinarySerializer<T> serializer, T item) {
+		byte[] bytes = new byte[1024];
+		serializer.encode(bytes, 0, item);
+		return serializer.decode(bytes, 0);
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table of accumulators, which are looked up by keys of input records.
+ * <p>
+ * Accumulators hold their keys themselves, so the table stores only accumulators and hashes of their keys
+ * and no key or entry objects are allocated per record or per group.
+ */
+final class AccumulatorTable<T, A> {
+	private final GroupKeyFunction<T, A> keyFunction;
+
+	private int[] hashes;
+	private Object[] accumulators;
+	private int mask;
+	private int size;
+
+	AccumulatorTable(GroupKeyFunction<T, A> keyFunction, int expectedSize) {
+		this.keyFunction = keyFunction;
+		int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+		this.hashes = new int[capacity];
+		this.accumulators = new Object[capacity];
+		this.mask = capacity - 1;
+	}
+
+	int hash(T record) {
+		int hash = keyFunction.hashKey(record);
+		return hash ^ (hash >>> 16);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Nullable
+	A get(T record, int hash) {
+		for (int slot = (hash * 0x9E3779B9) & mask; ; slot = (slot + 1) & mask) {
+			Object accumulator = accumulators[slot];
+			if (accumulator == null) return null;
+			if (hashes[slot] == hash && keyFunction.keyEquals((A) accumulator, record)) {
+				return (A) accumulator;
+			}
+		}
+	}
+
+	/**
+	 * Adds an accumulator for a key, which is not present in this table
+	 */
+	void put(int hash, A accumulator) {
+		if ((size + 1) * 2 > accumulators.length) {
+			grow();
+		}
+		insert(hash, accumulator);
+		size++;
+	}
+
+	private void insert(int hash, Object accumulator) {
+		int slot = (hash * 0x9E3779B9) & mask;
+		while (accumulators[slot] != null) {
+			slot = (slot + 1) & mask;
+		}
+		hashes[slot] = hash;
+		accumulators[slot] = accumulator;
+	}
+
+	private void grow() {
+		int[] oldHashes = hashes;
+		Object[] oldAccumulators = accumulators;
+		hashes = new int[oldHashes.length * 2];
+		accumulators = new Object[oldAccumulators.length * 2];
+		mask = accumulators.length - 1;
+		for (int i = 0; i < oldAccumulators.length; i++) {
+			if (oldAccumulators[i] != null) {
+				insert(oldHashes[i], oldAccumulators[i]);
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all accumulators from this table, the table keeps its capacity
+	 *
+	 * @return removed accumulators
+	 */
+	Object[] drain() {
+		Object[] result = new Object[size];
+		int i = 0;
+		for (Object accumulator : accumulators) {
+			if (accumulator != null) {
+				result[i++] = accumulator;
+			}
+		}
+		Arrays.fill(accumulators, null);
+		size = 0;
+		return result;
+	}
+}
@@ -57,6 +57,7 @@ import static io.datakernel.common.Utils.nullToSupplier;
 import static io.datakernel.common.collection.CollectionUtils.*;
 import static io.datakernel.datastream.StreamSupplierTransformer.identity;
 import static java.lang.Math.min;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static java.util.Comparator.comparing;
 import static java.util.function.Predicate.isEqual;
@@ -75,6 +76,7 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 	public static final int DEFAULT_SORTER_ITEMS_IN_MEMORY = 1_000_000;
 	public static final Duration DEFAULT_MAX_INCREMENTAL_RELOAD_PERIOD = Duration.ofMinutes(10);
 	public static final int DEFAULT_MAX_CHUNKS_TO_CONSOLIDATE = 1000;
+	public static final int DEFAULT_PARALLEL_QUERY_MIN_CHUNKS = 4;
 
 	private final Eventloop eventloop;
 	private final Executor executor;
@@ -92,6 +94,8 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 	private Duration maxIncrementalReloadPeriod = DEFAULT_MAX_INCREMENTAL_RELOAD_PERIOD;
 	private boolean ignoreChunkReadingExceptions = false;
 	private int maxChunksToConsolidate = DEFAULT_MAX_CHUNKS_TO_CONSOLIDATE;
+	private int parallelQueryMinChunks = DEFAULT_PARALLEL_QUERY_MIN_CHUNKS;
+	private List<QueryWorker> queryWorkers = emptyList();
 
 	// jmx
 
@@ -170,6 +174,36 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		return this;
 	}
 
+	/**
+	 * Enables parallel execution of queries on the given worker eventloops.
+	 * <p>
+	 * Chunks of a query are split into contiguous ranges of primary keys, each range is read,
+	 * filtered and reduced in its own worker eventloop, and the partial results are merged
+	 * in the eventloop of this aggregation. A chunk storage is bound to its eventloop,
+	 * so each worker uses a storage created by the given factory.
+	 *
+	 * @param workerEventloops eventloops which run in their own threads
+	 * @param storageFactory   creates a chunk storage for a worker eventloop, which reads the same chunks as this aggregation
+	 */
+	public Aggregation withQueryWorkers(List<Eventloop> workerEventloops,
+			Function<Eventloop, ? extends AggregationChunkStorage> storageFactory) {
+		List<QueryWorker> queryWorkers = new ArrayList<>();
+		for (Eventloop workerEventloop : workerEventloops) {
+			queryWorkers.add(new QueryWorker(workerEventloop, storageFactory.apply(workerEventloop)));
+		}
+		this.queryWorkers = queryWorkers;
+		return this;
+	}
+
+	/**
+	 * Sets the minimum number of chunks per worker, queries with fewer chunks are executed sequentially
+	 */
+	public Aggregation withParallelQueryMinChunks(int parallelQueryMinChunks) {
+		checkArgument(parallelQueryMinChunks > 0, "Min chunks per worker should be positive");
+		this.parallelQueryMinChunks = parallelQueryMinChunks;
+		return this;
+	}
+
 	public AggregationStructure getStructure() {
 		return structure;
 	}
@@ -224,7 +258,7 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 	 * @return consumer for streaming data to aggregation
 	 */
 	@SuppressWarnings("unchecked")
-	public <T, C, K extends Comparable> Promise<AggregationDiff> consume(StreamSupplier<T> supplier,
+	public <T, C> Promise<AggregationDiff> consume(StreamSupplier<T> supplier,
 			Class<T> inputClass, Map<String, String> keyFields, Map<String, String> measureFields) {
 		checkArgument(new HashSet<>(getKeys()).equals(keyFields.keySet()), "Expected keys: %s, actual keyFields: %s", getKeys(), keyFields);
 		checkArgument(getMeasureTypes().keySet().containsAll(measureFields.keySet()), "Unknown measures: %s", difference(measureFields.keySet(),
@@ -232,9 +266,6 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 
 		logger.info("Started consuming data in aggregation {}. Keys: {} Measures: {}", this, keyFields.keySet(), measureFields.keySet());
 
-		Class<K> keyClass = createKeyClass(
-				keysToMap(getKeys().stream(), structure.getKeyTypes()::get),
-				classLoader);
 		Set<String> measureFieldKeys = measureFields.keySet();
 		List<String> measures = getMeasureTypes().keySet().stream().filter(measureFieldKeys::contains).collect(toList());
 
@@ -244,8 +275,9 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 				keyFields, measureFields,
 				classLoader);
 
-		Function<T, K> keyFunction = createKeyFunction(inputClass, keyClass, getKeys(), classLoader);
-		AggregationGroupReducer<C, T, K> groupReducer = new AggregationGroupReducer<>(aggregationChunkStorage,
+		GroupKeyFunction<T, Object> keyFunction = createGroupKeyFunction(structure, inputClass, (Class<Object>) recordClass,
+				keyFields, classLoader);
+		AggregationGroupReducer<C, T> groupReducer = new AggregationGroupReducer<>(aggregationChunkStorage,
 				structure, measures,
 				recordClass,
 				createPartitionPredicate(recordClass, getPartitioningKey(), classLoader),
@@ -285,10 +317,80 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 				"Unrelated queryClassLoader");
 		List<String> fields = getMeasures().stream().filter(query.getMeasures()::contains).collect(toList());
 		List<AggregationChunk> allChunks = state.findChunks(query.getPredicate(), fields);
-		return consolidatedSupplier(query.getKeys(),
+		int partitions = min(queryWorkers.size(), allChunks.size() / parallelQueryMinChunks);
+		if (partitions > 1) {
+			return parallelSupplier(query.getKeys(), fields, outputClass, query.getPredicate(),
+					partitionChunks(allChunks, partitions), queryClassLoader);
+		}
+		return consolidatedSupplier(aggregationChunkStorage, stats, query.getKeys(),
 				fields, outputClass, query.getPredicate(), allChunks, queryClassLoader);
 	}
 
+	private <S, R> StreamSupplier<R> parallelSupplier(List<String> queryKeys, List<String> measures, Class<R> resultClass,
+			AggregationPredicate where, List<List<AggregationChunk>> partitions,
+			DefiningClassLoader queryClassLoader) {
+		logger.info("Parallel query for {} in aggregation {}: {} partitions", queryKeys, this, partitions.size());
+
+		List<SequenceStream<S>> partialStreams = new ArrayList<>();
+		for (int i = 0; i < partitions.size(); i++) {
+			QueryWorker worker = queryWorkers.get(i);
+			List<AggregationChunk> chunks = partitions.get(i);
+
+			Set<String> chunksFields = new HashSet<>();
+			for (AggregationChunk chunk : chunks) {
+				chunksFields.addAll(chunk.getMeasures());
+			}
+			List<String> partialFields = measures.stream().filter(chunksFields::contains).collect(toList());
+			Class<S> partialClass = createRecordClass(structure, queryKeys, partialFields, classLoader);
+
+			StreamEventloopBridge<S> bridge = StreamEventloopBridge.create(worker.eventloop);
+			worker.eventloop.execute(() -> {
+				StreamConsumer<S> input = bridge.createInput();
+				try {
+					StreamSupplier<S> partialStream = consolidatedSupplier(worker.storage, worker.stats, queryKeys,
+							partialFields, partialClass, where, chunks, queryClassLoader);
+					partialStream.streamTo(input);
+				} catch (RuntimeException e) {
+					input.close(e);
+				}
+			});
+
+			partialStreams.add(new SequenceStream<>(bridge.getOutput(), partialFields, partialClass));
+		}
+
+		return mergeSequences(stats, queryKeys, measures, resultClass, partialStreams, queryClassLoader);
+	}
+
+	/**
+	 * Splits chunks into contiguous ranges of primary keys with approximately equal number of records
+	 */
+	static List<List<AggregationChunk>> partitionChunks(List<AggregationChunk> chunks, int partitions) {
+		List<AggregationChunk> sortedChunks = new ArrayList<>(chunks);
+		sortedChunks.sort(comparing(AggregationChunk::getMinPrimaryKey));
+		long totalCount = 0;
+		for (AggregationChunk chunk : sortedChunks) {
+			totalCount += chunk.getCount();
+		}
+
+		List<List<AggregationChunk>> result = new ArrayList<>();
+		List<AggregationChunk> partition = new ArrayList<>();
+		long count = 0;
+		for (int i = 0; i < sortedChunks.size(); i++) {
+			AggregationChunk chunk = sortedChunks.get(i);
+			partition.add(chunk);
+			count += chunk.getCount();
+			int remainingChunks = sortedChunks.size() - i - 1;
+			int remainingPartitions = partitions - result.size() - 1;
+			if (remainingPartitions != 0 && remainingChunks != 0 &&
+					(count * partitions >= totalCount * (result.size() + 1) || remainingChunks == remainingPartitions)) {
+				result.add(partition);
+				partition = new ArrayList<>();
+			}
+		}
+		result.add(partition);
+		return result;
+	}
+
 	private <T> StreamSupplier<T> sortStream(StreamSupplier<T> unsortedStream, Class<T> resultClass,
 			List<String> allKeys, List<String> measures, DefiningClassLoader classLoader) {
 		Comparator<T> keyComparator = createKeyComparator(resultClass, allKeys, classLoader);
@@ -322,7 +424,7 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		List<String> measures = getMeasures().stream().filter(chunkFields::contains).collect(toList());
 		Class<Object> resultClass = createRecordClass(structure, getKeys(), measures, classLoader);
 
-		StreamSupplier<Object> consolidatedSupplier = consolidatedSupplier(getKeys(), measures, resultClass, AggregationPredicates.alwaysTrue(),
+		StreamSupplier<Object> consolidatedSupplier = consolidatedSupplier(aggregationChunkStorage, stats, getKeys(), measures, resultClass, AggregationPredicates.alwaysTrue(),
 				chunksToConsolidate, classLoader);
 		AggregationChunker chunker = AggregationChunker.create(
 				structure, measures, resultClass,
@@ -371,7 +473,8 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		return new QueryPlan(sequences);
 	}
 
-	private <R, S> StreamSupplier<R> consolidatedSupplier(List<String> queryKeys,
+	private <R, S> StreamSupplier<R> consolidatedSupplier(AggregationChunkStorage<Object> storage, AggregationStats stats,
+			List<String> queryKeys,
 			List<String> measures, Class<R> resultClass,
 			AggregationPredicate where,
 			List<AggregationChunk> individualChunks,
@@ -385,12 +488,15 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		List<SequenceStream<S>> sequenceStreams = new ArrayList<>();
 
 		for (Sequence sequence : plan.getSequences()) {
+			List<String> readFields = storage.isProjectionSupported() ?
+					sequence.getQueryFields() :
+					null;
 			Class<S> sequenceClass = createRecordClass(structure,
 					getKeys(),
-					sequence.getChunksFields(),
+					readFields != null ? readFields : sequence.getChunksFields(),
 					classLoader);
 
-			StreamSupplier<S> stream = sequenceStream(where, sequence.getChunks(), sequenceClass, queryClassLoader);
+			StreamSupplier<S> stream = sequenceStream(storage, where, sequence.getChunks(), readFields, sequenceClass, queryClassLoader);
 			if (!alreadySorted) {
 				stream = sortStream(stream, sequenceClass, queryKeys, sequence.getQueryFields(), classLoader);
 			}
@@ -398,7 +504,7 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 			sequenceStreams.add(new SequenceStream(stream, sequence.getQueryFields(), sequenceClass));
 		}
 
-		return mergeSequences(queryKeys, measures, resultClass, sequenceStreams, queryClassLoader);
+		return mergeSequences(stats, queryKeys, measures, resultClass, sequenceStreams, queryClassLoader);
 	}
 
 	static final class SequenceStream<S> {
@@ -413,7 +519,18 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		}
 	}
 
-	private <S, R, K extends Comparable> StreamSupplier<R> mergeSequences(List<String> queryKeys, List<String> measures,
+	private static final class QueryWorker {
+		final Eventloop eventloop;
+		final AggregationChunkStorage<Object> storage;
+		final AggregationStats stats = new AggregationStats();
+
+		QueryWorker(Eventloop eventloop, AggregationChunkStorage<Object> storage) {
+			this.eventloop = eventloop;
+			this.storage = storage;
+		}
+	}
+
+	private <S, R, K extends Comparable> StreamSupplier<R> mergeSequences(AggregationStats stats, List<String> queryKeys, List<String> measures,
 			Class<R> resultClass, List<SequenceStream<S>> sequences,
 			DefiningClassLoader classLoader) {
 		if (sequences.size() == 1 && new HashSet<>(queryKeys).equals(new HashSet<>(getKeys()))) {
@@ -457,8 +574,8 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 				.transformWith((StreamStats<R>) stats.mergeReducerOutput);
 	}
 
-	private <T> StreamSupplier<T> sequenceStream(AggregationPredicate where,
-			List<AggregationChunk> individualChunks, Class<T> sequenceClass,
+	private <T> StreamSupplier<T> sequenceStream(AggregationChunkStorage<Object> storage, AggregationPredicate where,
+			List<AggregationChunk> individualChunks, @Nullable List<String> readFields, Class<T> sequenceClass,
 			DefiningClassLoader queryClassLoader) {
 		Iterator<AggregationChunk> chunkIterator = individualChunks.iterator();
 		return StreamSupplier.concat(new Iterator<StreamSupplier<T>>() {
@@ -470,15 +587,17 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 			@Override
 			public StreamSupplier<T> next() {
 				AggregationChunk chunk = chunkIterator.next();
-				return chunkReaderWithFilter(where, chunk, sequenceClass, queryClassLoader);
+				return chunkReaderWithFilter(storage, where, chunk, readFields != null ? readFields : chunk.getMeasures(),
+						sequenceClass, queryClassLoader);
 			}
 		});
 	}
 
-	private <T> StreamSupplier<T> chunkReaderWithFilter(AggregationPredicate where, AggregationChunk chunk,
-			Class<T> chunkRecordClass, DefiningClassLoader queryClassLoader) {
+	private <T> StreamSupplier<T> chunkReaderWithFilter(AggregationChunkStorage<Object> storage,
+			AggregationPredicate where, AggregationChunk chunk,
+			List<String> fields, Class<T> chunkRecordClass, DefiningClassLoader queryClassLoader) {
 		return StreamSupplier.ofPromise(
-				aggregationChunkStorage.read(structure, chunk.getMeasures(), chunkRecordClass, chunk.getChunkId(), classLoader))
+				storage.read(structure, fields, chunkRecordClass, chunk.getChunkId(), classLoader))
 				.transformWith(where != AggregationPredicates.alwaysTrue() ?
 						StreamFilter.create(
 								createPredicate(chunkRecordClass, where, queryClassLoader)) :
@@ -609,6 +728,22 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		this.maxChunksToConsolidate = maxChunksToConsolidate;
 	}
 
+	@JmxAttribute
+	public int getParallelQueryMinChunks() {
+		return parallelQueryMinChunks;
+	}
+
+	@JmxAttribute
+	public void setParallelQueryMinChunks(int parallelQueryMinChunks) {
+		checkArgument(parallelQueryMinChunks > 0, "Min chunks per worker should be positive");
+		this.parallelQueryMinChunks = parallelQueryMinChunks;
+	}
+
+	@JmxAttribute
+	public int getQueryWorkers() {
+		return queryWorkers.size();
+	}
+
 	@Nullable
 	@JmxAttribute
 	public Integer getConsolidationSeconds() {
@@ -641,6 +776,11 @@ public class Aggregation implements IAggregation, Initializable<Aggregation>, Ev
 		return stats;
 	}
 
+	@JmxAttribute(description = "stats of the partial queries executed in each worker eventloop")
+	public List<AggregationStats> getQueryWorkerStats() {
+		return queryWorkers.stream().map(worker -> worker.stats).collect(toList());
+	}
+
 	@NotNull
 	@Override
 	public Eventloop getEventloop() {
@@ -18,17 +18,28 @@ package io.datakernel.aggregation;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import static io.datakernel.aggregation.AggregationPredicates.*;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
 
 public class AggregationChunk {
 	public static AggregationChunk create(Object chunkId,
 			List<String> fields,
 			PrimaryKey minPrimaryKey, PrimaryKey maxPrimaryKey,
 			int count) {
-		return new AggregationChunk(chunkId, fields, minPrimaryKey, maxPrimaryKey, count);
+		return new AggregationChunk(chunkId, fields, minPrimaryKey, maxPrimaryKey, count, emptyMap());
+	}
+
+	public static AggregationChunk create(Object chunkId,
+			List<String> fields,
+			PrimaryKey minPrimaryKey, PrimaryKey maxPrimaryKey,
+			int count,
+			Map<String, ChunkKeyStats> keyStats) {
+		return new AggregationChunk(chunkId, fields, minPrimaryKey, maxPrimaryKey, count, keyStats);
 	}
 
 	private final Object chunkId;
@@ -36,16 +47,19 @@ public class AggregationChunk {
 	private final PrimaryKey minPrimaryKey;
 	private final PrimaryKey maxPrimaryKey;
 	private final int count;
+	private final Map<String, ChunkKeyStats> keyStats;
 
 	private AggregationChunk(Object chunkId,
 			List<String> measures,
 			PrimaryKey minPrimaryKey, PrimaryKey maxPrimaryKey,
-			int count) {
+			int count,
+			Map<String, ChunkKeyStats> keyStats) {
 		this.chunkId = chunkId;
 		this.measures = measures;
 		this.minPrimaryKey = minPrimaryKey;
 		this.maxPrimaryKey = maxPrimaryKey;
 		this.count = count;
+		this.keyStats = keyStats;
 	}
 
 	public Object getChunkId() {
@@ -68,6 +82,14 @@ public class AggregationChunk {
 		return count;
 	}
 
+	/**
+	 * Returns statistics of values of keys in this chunk, which may be missing for some keys
+	 * (e.g. for chunks created before statistics were introduced)
+	 */
+	public Map<String, ChunkKeyStats> getKeyStats() {
+		return unmodifiableMap(keyStats);
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -16,16 +16,18 @@
 
 package io.datakernel.aggregation;
 
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.aggregation.util.BloomFilter;
 import io.datakernel.codec.StructuredCodec;
 import io.datakernel.codec.StructuredInput;
 import io.datakernel.codec.StructuredOutput;
 import io.datakernel.common.parse.ParseException;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
+import static io.datakernel.codec.StructuredCodecs.BYTES_CODEC;
 import static io.datakernel.codec.StructuredCodecs.STRING_CODEC;
+import static java.util.Collections.emptyMap;
 
 public class AggregationChunkCodec implements StructuredCodec<AggregationChunk> {
 	private static final StructuredCodec<List<String>> MEASURES_CODEC = STRING_CODEC.ofList();
@@ -34,24 +36,45 @@ public class AggregationChunkCodec implements StructuredCodec<AggregationChunk>
 	public static final String MAX = "max";
 	public static final String COUNT = "count";
 	public static final String MEASURES = "measures";
+	public static final String STATS = "stats";
 
 	private final ChunkIdCodec<Object> chunkIdCodec;
 	private final StructuredCodec<PrimaryKey> primaryKeyCodec;
 	private final Set<String> allowedMeasures;
+	private final Map<String, StructuredCodec<Object>> keyCodecs;
 
 	@SuppressWarnings("unchecked")
 	private AggregationChunkCodec(ChunkIdCodec<?> chunkIdCodec,
 			StructuredCodec<PrimaryKey> primaryKeyCodec,
-			Set<String> allowedMeasures) {
+			Set<String> allowedMeasures,
+			Map<String, StructuredCodec<Object>> keyCodecs) {
 		this.chunkIdCodec = (ChunkIdCodec<Object>) chunkIdCodec;
 		this.primaryKeyCodec = primaryKeyCodec;
 		this.allowedMeasures = allowedMeasures;
+		this.keyCodecs = keyCodecs;
 	}
 
 	public static AggregationChunkCodec create(ChunkIdCodec<?> chunkIdCodec,
 			StructuredCodec<PrimaryKey> primaryKeyCodec,
 			Set<String> allowedMeasures) {
-		return new AggregationChunkCodec(chunkIdCodec, primaryKeyCodec, allowedMeasures);
+		return new AggregationChunkCodec(chunkIdCodec, primaryKeyCodec, allowedMeasures, emptyMap());
+	}
+
+	/**
+	 * Creates a codec which also encodes statistics of the given keys
+	 */
+	@SuppressWarnings("unchecked")
+	public static AggregationChunkCodec create(ChunkIdCodec<?> chunkIdCodec,
+			StructuredCodec<PrimaryKey> primaryKeyCodec,
+			Set<String> allowedMeasures,
+			Map<String, FieldType> keyTypes) {
+		Map<String, StructuredCodec<Object>> keyCodecs = new HashMap<>();
+		keyTypes.forEach((key, keyType) -> {
+			if (keyType.getInternalCodec() != null) {
+				keyCodecs.put(key, (StructuredCodec<Object>) keyType.getInternalCodec());
+			}
+		});
+		return new AggregationChunkCodec(chunkIdCodec, primaryKeyCodec, allowedMeasures, keyCodecs);
 	}
 
 	@Override
@@ -67,9 +90,27 @@ public class AggregationChunkCodec implements StructuredCodec<AggregationChunk>
 			out.writeInt(chunk.getCount());
 			out.writeKey(MEASURES);
 			MEASURES_CODEC.encode(out, chunk.getMeasures());
+			if (chunk.getKeyStats().keySet().stream().anyMatch(keyCodecs::containsKey)) {
+				out.writeKey(STATS);
+				encodeKeyStats(out, chunk.getKeyStats());
+			}
 		});
 	}
 
+	private void encodeKeyStats(StructuredOutput out, Map<String, ChunkKeyStats> keyStats) {
+		out.writeObject(() -> keyStats.forEach((key, stats) -> {
+			StructuredCodec<Object> codec = keyCodecs.get(key);
+			if (codec == null) return;
+			out.writeKey(key);
+			out.writeTuple(() -> {
+				codec.encode(out, stats.getMin());
+				codec.encode(out, stats.getMax());
+				BloomFilter bloomFilter = stats.getBloomFilter();
+				out.writeNullable(BYTES_CODEC, bloomFilter != null ? bloomFilter.toBytes() : null);
+			});
+		}));
+	}
+
 	@Override
 	public AggregationChunk decode(StructuredInput in) throws ParseException {
 		return in.readObject($ -> {
@@ -85,10 +126,36 @@ public class AggregationChunkCodec implements StructuredCodec<AggregationChunk>
 			List<String> measures = MEASURES_CODEC.decode(in);
 			List<String> invalidMeasures = getInvalidMeasures(measures);
 			if (!invalidMeasures.isEmpty()) throw new ParseException("Unknown fields: " + invalidMeasures);
-			return AggregationChunk.create(id, measures, from, to, count);
+			Map<String, ChunkKeyStats> keyStats = emptyMap();
+			if (in.hasNext()) {
+				in.readKey(STATS);
+				keyStats = decodeKeyStats(in);
+			}
+			return AggregationChunk.create(id, measures, from, to, count, keyStats);
 		});
 	}
 
+	private Map<String, ChunkKeyStats> decodeKeyStats(StructuredInput in) throws ParseException {
+		return in.readObject($ -> {
+			Map<String, ChunkKeyStats> keyStats = new HashMap<>();
+			while (in.hasNext()) {
+				String key = in.readKey();
+				StructuredCodec<Object> codec = keyCodecs.get(key);
+				if (codec == null) throw new ParseException("Unknown key: " + key);
+				keyStats.put(key, in.readTuple(tupleIn -> decodeStats(tupleIn, codec)));
+			}
+			return keyStats;
+		});
+	}
+
+	private static ChunkKeyStats decodeStats(StructuredInput in, StructuredCodec<Object> codec) throws ParseException {
+		Object min = codec.decode(in);
+		Object max = codec.decode(in);
+		byte[] bloomFilter = in.readNullable(BYTES_CODEC);
+		if (bloomFilter != null && bloomFilter.length == 0) throw new ParseException("Empty bloom filter");
+		return ChunkKeyStats.of(min, max, bloomFilter != null ? BloomFilter.ofBytes(bloomFilter) : null);
+	}
+
 	private List<String> getInvalidMeasures(List<String> measures) {
 		List<String> invalidMeasures = new ArrayList<>();
 		for (String measure : measures) {
@@ -34,6 +34,8 @@ public interface AggregationChunkStorage<C> extends IdGenerator<C> {
 	 * Creates a {@code StreamSupplier} that streams records contained in the chunk.
 	 * The chunk to read is determined by {@code aggregationId} and {@code id}.
 	 *
+	 * @param fields      fields to read, all of the fields the chunk was written with
+	 *                    unless {@link #isProjectionSupported()}
 	 * @param recordClass class of chunk record
 	 * @param chunkId     id of chunk
 	 * @return StreamSupplier, which will stream read records to its wired consumer.
@@ -54,6 +56,14 @@ public interface AggregationChunkStorage<C> extends IdGenerator<C> {
 
 	Promise<Void> finish(Set<C> chunkIds);
 
+	/**
+	 * Tells whether {@link #read} may be given only a subset of the chunk fields,
+	 * so that the fields which are not requested are not read at all.
+	 */
+	default boolean isProjectionSupported() {
+		return false;
+	}
+
 }
 
 
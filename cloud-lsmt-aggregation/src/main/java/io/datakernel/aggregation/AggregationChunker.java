@@ -16,6 +16,7 @@
 
 package io.datakernel.aggregation;
 
+import io.datakernel.aggregation.ChunkKeyStats.Accumulator;
 import io.datakernel.aggregation.ot.AggregationStructure;
 import io.datakernel.aggregation.util.PartitionPredicate;
 import io.datakernel.async.process.AsyncCollector;
@@ -26,7 +27,11 @@ import io.datakernel.promise.SettablePromise;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import static io.datakernel.aggregation.Utils.createKeyStatsExtractor;
 
 public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T> {
 	private final StreamConsumerSwitcher<T> switcher;
@@ -39,6 +44,7 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 	private final AggregationChunkStorage<C> storage;
 	private final AsyncCollector<? extends List<AggregationChunk>> chunksCollector;
 	private final DefiningClassLoader classLoader;
+	private KeyStatsExtractor<T> keyStatsExtractor;
 
 	private final int chunkSize;
 
@@ -83,6 +89,7 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 		private final SettablePromise<AggregationChunk> result = new SettablePromise<>();
 		private final int chunkSize;
 		private final PartitionPredicate<T> partitionPredicate;
+		private final Accumulator[] keyStats;
 		private StreamDataAcceptor<T> dataAcceptor;
 
 		private T first;
@@ -96,6 +103,10 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 			super(actualConsumer);
 			this.chunkSize = chunkSize;
 			this.partitionPredicate = partitionPredicate;
+			this.keyStats = aggregation.getKeyTypes().entrySet().stream()
+					.map(entry -> new Accumulator(entry.getValue().getInternalDataType(),
+							aggregation.getBloomFilterKeys().contains(entry.getKey())))
+					.toArray(Accumulator[]::new);
 			actualConsumer.getAcknowledgement()
 					.map($ -> count == 0 ?
 							null :
@@ -103,7 +114,8 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 									fields,
 									PrimaryKey.ofObject(first, aggregation.getKeys()),
 									PrimaryKey.ofObject(last, aggregation.getKeys()),
-									count))
+									count,
+									getKeyStats()))
 					.whenComplete(result::trySet);
 			getAcknowledgement().whenException(result::trySetException);
 		}
@@ -119,12 +131,18 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 			});
 		}
 
+		@SuppressWarnings("unchecked")
 		@Override
 		public void accept(T item) {
 			if (first == null) {
 				first = item;
+				if (keyStatsExtractor == null) {
+					// items are not necessarily instances of the record class
+					keyStatsExtractor = createKeyStatsExtractor((Class<T>) item.getClass(), aggregation.getKeyTypes(), classLoader);
+				}
 			}
 			last = item;
+			keyStatsExtractor.accept(item, keyStats);
 			dataAcceptor.accept(item);
 			if (++count == chunkSize || (partitionPredicate != null && !partitionPredicate.isSamePartition(last, item))) {
 				if (!switched) {
@@ -137,6 +155,18 @@ public final class AggregationChunker<C, T> extends ForwardingStreamConsumer<T>
 		public Promise<AggregationChunk> getResult() {
 			return result;
 		}
+
+		private Map<String, ChunkKeyStats> getKeyStats() {
+			Map<String, ChunkKeyStats> result = new HashMap<>();
+			List<String> keys = aggregation.getKeys();
+			for (int i = 0; i < keys.size(); i++) {
+				ChunkKeyStats stats = keyStats[i].get();
+				if (stats != null) {
+					result.put(keys.get(i), stats);
+				}
+			}
+			return result;
+		}
 	}
 
 	private void startNewChunk() {
@@ -29,37 +29,43 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
 
-public final class AggregationGroupReducer<C, T, K extends Comparable> extends AbstractStreamConsumer<T> implements StreamDataAcceptor<T> {
+import static io.datakernel.aggregation.Utils.createKeyComparator;
+
+public final class AggregationGroupReducer<C, T> extends AbstractStreamConsumer<T> implements StreamDataAcceptor<T> {
 	private static final Logger logger = LoggerFactory.getLogger(AggregationGroupReducer.class);
+	private static final int INITIAL_TABLE_SIZE = 1024;
 
 	private final AggregationChunkStorage<C> storage;
 	private final AggregationStructure aggregation;
 	private final List<String> measures;
 	private final PartitionPredicate<T> partitionPredicate;
 	private final Class<T> recordClass;
-	private final Function<T, K> keyFunction;
+	private final Comparator<Object> keyComparator;
 	private final Aggregate<T, Object> aggregate;
 	private final AsyncCollector<List<AggregationChunk>> chunksCollector;
 	private final DefiningClassLoader classLoader;
 	private final int chunkSize;
 
-	private final HashMap<K, Object> map = new HashMap<>();
+	private final AccumulatorTable<T, Object> table;
 
 	public AggregationGroupReducer(@NotNull AggregationChunkStorage<C> storage,
 			@NotNull AggregationStructure aggregation, @NotNull List<String> measures,
 			@NotNull Class<T> recordClass, @NotNull PartitionPredicate<T> partitionPredicate,
-			@NotNull Function<T, K> keyFunction, @NotNull Aggregate<T, Object> aggregate,
+			@NotNull GroupKeyFunction<T, Object> keyFunction, @NotNull Aggregate<T, Object> aggregate,
 			int chunkSize, @NotNull DefiningClassLoader classLoader) {
 		this.storage = storage;
 		this.measures = measures;
 		this.partitionPredicate = partitionPredicate;
 		this.recordClass = recordClass;
-		this.keyFunction = keyFunction;
+		// accumulators are instances of the record class, but are kept untyped by the aggregate
+		@SuppressWarnings("unchecked")
+		Class<Object> accumulatorClass = (Class<Object>) recordClass;
+		this.keyComparator = createKeyComparator(accumulatorClass, aggregation.getKeys(), classLoader);
+		this.table = new AccumulatorTable<>(keyFunction, Math.min(chunkSize, INITIAL_TABLE_SIZE));
 		this.aggregate = aggregate;
 		this.chunkSize = chunkSize;
 		this.aggregation = aggregation;
@@ -73,15 +79,15 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 
 	@Override
 	public void accept(T item) {
-		K key = keyFunction.apply(item);
-		Object accumulator = map.get(key);
+		int hash = table.hash(item);
+		Object accumulator = table.get(item, hash);
 		if (accumulator != null) {
 			aggregate.accumulate(accumulator, item);
 		} else {
 			accumulator = aggregate.createAccumulator(item);
-			map.put(key, accumulator);
+			table.put(hash, accumulator);
 
-			if (map.size() == chunkSize) {
+			if (table.size() == chunkSize) {
 				doFlush();
 			}
 		}
@@ -94,26 +100,15 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 
 	@SuppressWarnings("unchecked")
 	private void doFlush() {
-		if (map.isEmpty())
+		if (table.isEmpty())
 			return;
 
 		suspendOrResume();
 
-		List<Map.Entry<K, Object>> entryList = new ArrayList<>(map.entrySet());
-		map.clear();
-
-		entryList.sort((o1, o2) -> {
-			K key1 = o1.getKey();
-			K key2 = o2.getKey();
-			return key1.compareTo(key2);
-		});
-
-		List<T> list = new ArrayList<>(entryList.size());
-		for (Map.Entry<K, Object> entry : entryList) {
-			list.add((T) entry.getValue());
-		}
+		Object[] accumulators = table.drain();
+		Arrays.sort(accumulators, keyComparator);
 
-		StreamSupplier<T> supplier = StreamSupplier.ofIterable(list);
+		StreamSupplier<T> supplier = StreamSupplier.ofIterable((List<T>) Arrays.asList(accumulators));
 		AggregationChunker<C, T> chunker = AggregationChunker.create(aggregation, measures, recordClass,
 				partitionPredicate, storage, classLoader, chunkSize);
 
@@ -151,7 +146,7 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 	}
 
 	public int getBufferSize() {
-		return map.size();
+		return table.size();
 	}
 
 	@Override
@@ -160,7 +155,7 @@ public final class AggregationGroupReducer<C, T, K extends Comparable> extends A
 				"keys=" + aggregation.getKeys() +
 				"measures=" + measures +
 				", chunkSize=" + chunkSize +
-				", map.size=" + map.size() +
+				", table.size=" + table.size() +
 				'}';
 	}
 }
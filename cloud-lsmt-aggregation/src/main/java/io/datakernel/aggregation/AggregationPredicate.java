@@ -32,6 +32,14 @@ public interface AggregationPredicate {
 
 	Expression createPredicate(Expression record, Map<String, FieldType> fields);
 
+	/**
+	 * Checks whether a chunk with the given statistics of keys might contain records which match this predicate.
+	 * A result of {@code false} means that the chunk can be skipped without reading it.
+	 */
+	default boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+		return true;
+	}
+
 	@Override
 	boolean equals(Object o);
 
@@ -483,6 +483,11 @@ public class AggregationPredicates {
 			return E.alwaysFalse();
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			return false;
+		}
+
 		@Override
 		public String toString() {
 			return "FALSE";
@@ -624,6 +629,13 @@ public class AggregationPredicates {
 							E.cmpEq(E.property(record, key.replace('.', '$')), E.value(toInternalValue(fields, key, value))));
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			ChunkKeyStats stats = keyStats.get(key);
+			return stats == null || value == null || fields.get(key) == null ||
+					stats.mightContain(toInternalValue(fields, key, value));
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -692,6 +704,13 @@ public class AggregationPredicates {
 									E.value(toInternalValue(fields, key, value))));
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			ChunkKeyStats stats = keyStats.get(key);
+			return stats == null || value == null || fields.get(key) == null ||
+					!stats.containsOnly(toInternalValue(fields, key, value));
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -756,6 +775,12 @@ public class AggregationPredicates {
 					E.cmpLe(property, E.value(toInternalValue(fields, key, value))));
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			ChunkKeyStats stats = keyStats.get(key);
+			return stats == null || stats.mightContainLessThan(toInternalValue(fields, key, value), true);
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -819,6 +844,12 @@ public class AggregationPredicates {
 					E.cmpLt(property, E.value(toInternalValue(fields, key, value))));
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			ChunkKeyStats stats = keyStats.get(key);
+			return stats == null || stats.mightContainLessThan(toInternalValue(fields, key, value), false);
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -882,6 +913,12 @@ public class AggregationPredicates {
 					E.cmpGe(property, E.value(toInternalValue(fields, key, value))));
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			ChunkKeyStats stats = keyStats.get(key);
+			return stats == null || stats.mightContainGreaterThan(toInternalValue(fields, key, value), true);
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -945,6 +982,12 @@ public class AggregationPredicates {
 					E.cmpGt(property, E.value(toInternalValue(fields, key, value))));
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			ChunkKeyStats stats = keyStats.get(key);
+			return stats == null || stats.mightContainGreaterThan(toInternalValue(fields, key, value), false);
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -1129,6 +1172,16 @@ public class AggregationPredicates {
 							E.cast(E.property(record, key.replace('.', '$')), Object.class)));
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			ChunkKeyStats stats = keyStats.get(key);
+			if (stats == null) return true;
+			for (Object value : values) {
+				if (value == null || stats.mightContain(value)) return true;
+			}
+			return false;
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -1203,6 +1256,12 @@ public class AggregationPredicates {
 					E.cmpLe(property, E.value(toInternalValue(fields, key, to))));
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			ChunkKeyStats stats = keyStats.get(key);
+			return stats == null || stats.mightContainBetween(toInternalValue(fields, key, from), toInternalValue(fields, key, to));
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -1306,6 +1365,14 @@ public class AggregationPredicates {
 			return E.and(predicateDefs);
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			for (AggregationPredicate predicate : predicates) {
+				if (!predicate.mightMatch(keyStats, fields)) return false;
+			}
+			return true;
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -1384,6 +1451,14 @@ public class AggregationPredicates {
 			return E.or(predicateDefs);
 		}
 
+		@Override
+		public boolean mightMatch(Map<String, ChunkKeyStats> keyStats, Map<String, FieldType> fields) {
+			for (AggregationPredicate predicate : predicates) {
+				if (predicate.mightMatch(keyStats, fields)) return true;
+			}
+			return false;
+		}
+
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
@@ -480,6 +480,7 @@ public final class AggregationState implements OTState<AggregationDiff> {
 	public List<AggregationChunk> findChunks(AggregationPredicate predicate, List<String> fields) {
 		Set<String> requestedFields = new HashSet<>(fields);
 
+		predicate = predicate.simplify();
 		RangeScan rangeScan = toRangeScan(predicate, aggregation.getKeys(), aggregation.getKeyTypes());
 
 		List<AggregationChunk> chunks = new ArrayList<>();
@@ -487,12 +488,42 @@ public final class AggregationState implements OTState<AggregationDiff> {
 			if (intersection(new HashSet<>(chunk.getMeasures()), requestedFields).isEmpty())
 				continue;
 
+			if (!chunkKeyStatsMightMatch(chunk, predicate))
+				continue;
+
 			chunks.add(chunk);
 		}
 
 		return chunks;
 	}
 
+	/**
+	 * Checks by metadata of a chunk whether it might contain records which match the predicate.
+	 * The chunk is not required to belong to this state.
+	 */
+	public boolean chunkMightMatch(AggregationChunk chunk, AggregationPredicate predicate) {
+		predicate = predicate.simplify();
+		RangeScan rangeScan = toRangeScan(predicate, aggregation.getKeys(), aggregation.getKeyTypes());
+		if (rangeScan.isNoScan())
+			return false;
+		int size = rangeScan.getFrom().size();
+		if (chunk.getMaxPrimaryKey().prefix(size).compareTo(rangeScan.getFrom()) < 0 ||
+				chunk.getMinPrimaryKey().prefix(size).compareTo(rangeScan.getTo()) > 0)
+			return false;
+		return chunkKeyStatsMightMatch(chunk, predicate);
+	}
+
+	private boolean chunkKeyStatsMightMatch(AggregationChunk chunk, AggregationPredicate predicate) {
+		if (chunk.getKeyStats().isEmpty())
+			return true;
+		try {
+			return predicate.mightMatch(chunk.getKeyStats(), aggregation.getKeyTypes());
+		} catch (ClassCastException e) {
+			// predicate value of a type which is not comparable with values of the key
+			return true;
+		}
+	}
+
 	private List<AggregationChunk> rangeQuery(PrimaryKey minPrimaryKey, PrimaryKey maxPrimaryKey) {
 		checkArgument(minPrimaryKey.size() == maxPrimaryKey.size(), "Sizes of min primary key and max primary key should match");
 		int size = minPrimaryKey.size();
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.util.BloomFilter;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+
+/**
+ * Statistics of values of a single key within a chunk: minimum and maximum internal values
+ * and an optional Bloom filter. They are stored in chunk metadata and used to skip chunks
+ * which can not match a query predicate before any chunk file is opened.
+ */
+public final class ChunkKeyStats {
+	private final Comparable<Object> min;
+	private final Comparable<Object> max;
+	@Nullable
+	private final BloomFilter bloomFilter;
+
+	@SuppressWarnings("unchecked")
+	private ChunkKeyStats(Object min, Object max, @Nullable BloomFilter bloomFilter) {
+		this.min = (Comparable<Object>) min;
+		this.max = (Comparable<Object>) max;
+		this.bloomFilter = bloomFilter;
+	}
+
+	public static ChunkKeyStats of(Object min, Object max) {
+		return new ChunkKeyStats(min, max, null);
+	}
+
+	public static ChunkKeyStats of(Object min, Object max, @Nullable BloomFilter bloomFilter) {
+		return new ChunkKeyStats(min, max, bloomFilter);
+	}
+
+	public Object getMin() {
+		return min;
+	}
+
+	public Object getMax() {
+		return max;
+	}
+
+	@Nullable
+	public BloomFilter getBloomFilter() {
+		return bloomFilter;
+	}
+
+	public boolean mightContain(Object value) {
+		return min.compareTo(value) <= 0 && max.compareTo(value) >= 0 &&
+				(bloomFilter == null || bloomFilter.mightContain(value));
+	}
+
+	public boolean mightContainBetween(Object from, Object to) {
+		return min.compareTo(to) <= 0 && max.compareTo(from) >= 0;
+	}
+
+	public boolean mightContainLessThan(Object value, boolean inclusive) {
+		int cmp = min.compareTo(value);
+		return inclusive ? cmp <= 0 : cmp < 0;
+	}
+
+	public boolean mightContainGreaterThan(Object value, boolean inclusive) {
+		int cmp = max.compareTo(value);
+		return inclusive ? cmp >= 0 : cmp > 0;
+	}
+
+	public boolean containsOnly(Object value) {
+		return min.compareTo(value) == 0 && max.compareTo(value) == 0;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		ChunkKeyStats that = (ChunkKeyStats) o;
+		return min.equals(that.min) && max.equals(that.max) && Objects.equals(bloomFilter, that.bloomFilter);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(min, max, bloomFilter);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + min + ", " + max + (bloomFilter != null ? ", " + bloomFilter : "") + ']';
+	}
+
+	/**
+	 * Accumulates statistics of a key while a chunk is being written.
+	 * <p>
+	 * Methods of this class are called from the generated {@link KeyStatsExtractor}.
+	 */
+	public static final class Accumulator {
+		public static final int MAX_BLOOM_FILTER_VALUES = 2048;
+
+		private final Class<?> type;
+
+		private boolean empty = true;
+		private boolean hasNulls;
+
+		private long minLong;
+		private long maxLong;
+		@Nullable
+		private Comparable<Object> min;
+		@Nullable
+		private Comparable<Object> max;
+
+		@Nullable
+		private long[] hashes;
+		private int hashesCount;
+		private boolean hasZeroHash;
+		private long lastHash;
+
+		public Accumulator(Class<?> type, boolean bloomFilter) {
+			this.type = type;
+			this.hashes = bloomFilter ? new long[16] : null;
+		}
+
+		public void acceptLong(long value) {
+			if (empty) {
+				minLong = maxLong = value;
+				empty = false;
+			} else if (value < minLong) {
+				minLong = value;
+			} else if (value > maxLong) {
+				maxLong = value;
+			}
+			if (hashes != null) {
+				addHash(BloomFilter.hash(value));
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		public void acceptObject(Object value) {
+			if (value == null) {
+				hasNulls = true;
+				return;
+			}
+			Comparable<Object> comparable = (Comparable<Object>) value;
+			if (empty) {
+				min = max = comparable;
+				empty = false;
+			} else if (comparable.compareTo(min) < 0) {
+				min = comparable;
+			} else if (comparable.compareTo(max) > 0) {
+				max = comparable;
+			}
+			if (hashes != null) {
+				addHash(BloomFilter.hash(value));
+			}
+		}
+
+		private void addHash(long hash) {
+			// records of a chunk are sorted, so the same values often come in runs
+			if (hashesCount != 0 && hash == lastHash) return;
+			lastHash = hash;
+			if (hash == 0) {
+				if (!hasZeroHash) {
+					hasZeroHash = true;
+					hashesCount++;
+				}
+			} else {
+				long[] table = hashes;
+				int mask = table.length - 1;
+				int slot = (int) hash & mask;
+				while (table[slot] != 0) {
+					if (table[slot] == hash) return;
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = hash;
+				hashesCount++;
+			}
+			if (hashesCount > MAX_BLOOM_FILTER_VALUES) {
+				// too many distinct values for a compact filter
+				hashes = null;
+			} else if (hashesCount * 2 > hashes.length) {
+				rehash();
+			}
+		}
+
+		private void rehash() {
+			long[] table = hashes;
+			long[] newTable = new long[table.length * 2];
+			int mask = newTable.length - 1;
+			for (long hash : table) {
+				if (hash == 0) continue;
+				int slot = (int) hash & mask;
+				while (newTable[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				newTable[slot] = hash;
+			}
+			hashes = newTable;
+		}
+
+		/**
+		 * Returns collected statistics, or {@code null} if they can not be used for pruning
+		 */
+		@Nullable
+		public ChunkKeyStats get() {
+			if (empty || hasNulls) return null;
+			BloomFilter bloomFilter = null;
+			if (hashes != null) {
+				long[] distinct = new long[hashesCount];
+				int i = 0;
+				if (hasZeroHash) {
+					distinct[i++] = 0;
+				}
+				for (long hash : hashes) {
+					if (hash != 0) {
+						distinct[i++] = hash;
+					}
+				}
+				bloomFilter = BloomFilter.create(distinct, hashesCount);
+			}
+			if (min != null) {
+				return new ChunkKeyStats(min, max, bloomFilter);
+			}
+			return new ChunkKeyStats(box(minLong), box(maxLong), bloomFilter);
+		}
+
+		private Object box(long value) {
+			if (type == int.class) return (int) value;
+			if (type == short.class) return (short) value;
+			if (type == byte.class) return (byte) value;
+			if (type == char.class) return (char) value;
+			return value;
+		}
+	}
+}
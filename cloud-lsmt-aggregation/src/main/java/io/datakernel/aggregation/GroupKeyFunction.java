@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+/**
+ * Hashes and compares keys of input records and accumulators without creating key objects.
+ * Implementations are generated for concrete classes, so that primitive keys are never boxed.
+ *
+ * @param <T> type of input records
+ * @param <A> type of accumulators
+ */
+public interface GroupKeyFunction<T, A> {
+	int hashKey(T record);
+
+	boolean keyEquals(A accumulator, T record);
+}
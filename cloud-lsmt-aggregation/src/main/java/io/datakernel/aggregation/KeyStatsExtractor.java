@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.ChunkKeyStats.Accumulator;
+
+/**
+ * Passes values of keys of a record to the accumulators of their statistics.
+ * Implementations are generated for each record class and list of keys.
+ */
+public interface KeyStatsExtractor<T> {
+	void accept(T record, Accumulator[] accumulators);
+}
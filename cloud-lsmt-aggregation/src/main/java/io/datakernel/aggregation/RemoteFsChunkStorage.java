@@ -16,6 +16,8 @@
 
 package io.datakernel.aggregation;
 
+import io.datakernel.aggregation.columnar.ColumnarChunkReader;
+import io.datakernel.aggregation.columnar.ColumnarChunkWriter;
 import io.datakernel.aggregation.ot.AggregationStructure;
 import io.datakernel.async.service.EventloopService;
 import io.datakernel.bytebuf.ByteBuf;
@@ -85,6 +87,7 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 	private String backupDir = DEFAULT_BACKUP_FOLDER_NAME;
 
 	private MemSize bufferSize = DEFAULT_BUFFER_SIZE;
+	private boolean columnar;
 
 	private final ValueStats chunksCount = ValueStats.create(DEFAULT_SMOOTHING_WINDOW);
 	private final PromiseStats promiseIdGenerator = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
@@ -136,6 +139,15 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 		return this;
 	}
 
+	/**
+	 * Stores chunks column by column, so that queries read only the columns of requested measures.
+	 * Chunks written in the row format can not be read by a columnar storage and vice versa.
+	 */
+	public RemoteFsChunkStorage<C> withColumnarFormat() {
+		this.columnar = true;
+		return this;
+	}
+
 	public RemoteFsChunkStorage<C> withBackupPath(String backupDir) {
 		this.backupDir = backupDir;
 		return this;
@@ -162,6 +174,13 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 	public <T> Promise<StreamSupplier<T>> read(AggregationStructure aggregation, List<String> fields,
 			Class<T> recordClass, C chunkId,
 			DefiningClassLoader classLoader) {
+		if (columnar) {
+			return ColumnarChunkReader.open(client, getPath(chunkId), aggregation, fields, recordClass, classLoader)
+					.whenComplete(promiseOpenR.recordStats())
+					.map(supplier -> supplier
+							.transformWith((StreamStats<T>) (detailed ? readDeserializeDetailed : readDeserialize))
+							.withLateBinding());
+		}
 		return client.download(getPath(chunkId))
 				.whenComplete(promiseOpenR.recordStats())
 				.map(supplier -> supplier
@@ -179,6 +198,15 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 	public <T> Promise<StreamConsumer<T>> write(AggregationStructure aggregation, List<String> fields,
 			Class<T> recordClass, C chunkId,
 			DefiningClassLoader classLoader) {
+		if (columnar) {
+			return client.upload(getTempPath(chunkId))
+					.whenComplete(promiseOpenW.recordStats())
+					.map(consumer -> StreamConsumer.ofSupplier(
+							supplier -> supplier
+									.transformWith((StreamStats<T>) (detailed ? writeSerializeDetailed : writeSerialize))
+									.streamTo(ColumnarChunkWriter.create(consumer.transformWith(writeFile),
+											aggregation, fields, recordClass, classLoader))));
+		}
 		return client.upload(getTempPath(chunkId))
 				.whenComplete(promiseOpenW.recordStats())
 				.map(consumer -> StreamConsumer.ofSupplier(
@@ -204,6 +232,11 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 				.whenComplete(promiseFinishChunks.recordStats());
 	}
 
+	@Override
+	public boolean isProjectionSupported() {
+		return columnar;
+	}
+
 	@Override
 	public Promise<C> createId() {
 		return idGenerator.createId().whenComplete(promiseIdGenerator.recordStats());
@@ -393,6 +426,11 @@ public final class RemoteFsChunkStorage<C> implements AggregationChunkStorage<C>
 		return writeFile;
 	}
 
+	@JmxAttribute
+	public boolean isColumnar() {
+		return columnar;
+	}
+
 	@JmxAttribute
 	public int getFinishChunks() {
 		return finishChunks;
@@ -25,6 +25,7 @@ import io.datakernel.aggregation.util.PartitionPredicate;
 import io.datakernel.codec.StructuredCodec;
 import io.datakernel.codegen.ClassBuilder;
 import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.codegen.Expression;
 import io.datakernel.datastream.processor.StreamReducers.Reducer;
 import io.datakernel.serializer.BinarySerializer;
 import io.datakernel.serializer.SerializerBuilder;
@@ -42,6 +43,7 @@ import static io.datakernel.common.Preconditions.checkArgument;
 import static io.datakernel.common.collection.CollectionUtils.concat;
 import static io.datakernel.common.collection.CollectionUtils.keysToMap;
 import static io.datakernel.eventloop.util.ReflectionUtils.extractFieldNameFromGetter;
+import static java.util.stream.Collectors.toList;
 
 @SuppressWarnings({"rawtypes", "unchecked"})
 public class Utils {
@@ -103,6 +105,28 @@ public class Utils {
 				.buildClassAndCreateNewInstance();
 	}
 
+	public static <T, A> GroupKeyFunction<T, A> createGroupKeyFunction(AggregationStructure aggregation,
+			Class<T> inputClass, Class<A> accumulatorClass, Map<String, String> keyFields,
+			DefiningClassLoader classLoader) {
+		return ClassBuilder.create(classLoader, GroupKeyFunction.class)
+				.withClassKey(inputClass, accumulatorClass, keyFields)
+				.withMethod("hashKey",
+						hash(keyFields.keySet().stream()
+								.map(key -> inputKey(aggregation, inputClass, keyFields, arg(0), key))
+								.collect(toList())))
+				.withMethod("keyEquals",
+						and(keyFields.keySet().stream()
+								.map(key -> cmpEq(
+										property(cast(arg(0), accumulatorClass), key),
+										inputKey(aggregation, inputClass, keyFields, arg(1), key)))))
+				.buildClassAndCreateNewInstance();
+	}
+
+	private static Expression inputKey(AggregationStructure aggregation, Class<?> inputClass, Map<String, String> keyFields,
+			Expression record, String key) {
+		return cast(property(cast(record, inputClass), keyFields.get(key)), aggregation.getKeyType(key).getInternalDataType());
+	}
+
 	public static <T> Class<T> createRecordClass(AggregationStructure aggregation,
 			Collection<String> keys, Collection<String> fields,
 			DefiningClassLoader classLoader) {
@@ -260,6 +284,24 @@ public class Utils {
 				.buildClassAndCreateNewInstance();
 	}
 
+	public static <T> KeyStatsExtractor<T> createKeyStatsExtractor(Class<T> recordClass, Map<String, FieldType> keys,
+			DefiningClassLoader classLoader) {
+		return ClassBuilder.create(classLoader, KeyStatsExtractor.class)
+				.withClassKey(recordClass, new ArrayList<>(keys.keySet()))
+				.withMethod("accept", sequence(expressions -> {
+					int i = 0;
+					for (Map.Entry<String, FieldType> entry : keys.entrySet()) {
+						Class<?> type = entry.getValue().getInternalDataType();
+						boolean integral = type == int.class || type == long.class || type == short.class ||
+								type == byte.class || type == char.class;
+						expressions.add(call(getArrayItem(arg(1), value(i++)),
+								integral ? "acceptLong" : "acceptObject",
+								cast(property(cast(arg(0), recordClass), entry.getKey()), integral ? long.class : Object.class)));
+					}
+				}))
+				.buildClassAndCreateNewInstance();
+	}
+
 	public static <T> Map<String, String> scanKeyFields(Class<T> inputClass) {
 		Map<String, String> keyFields = new LinkedHashMap<>();
 		for (Field field : inputClass.getFields()) {
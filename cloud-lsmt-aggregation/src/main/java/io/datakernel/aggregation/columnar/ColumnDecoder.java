@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.columnar;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.serializer.BinaryInput;
+import io.datakernel.serializer.BinarySerializer;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import static io.datakernel.aggregation.columnar.ColumnEncoder.*;
+
+/**
+ * Decodes values of a single column, block by block.
+ * <p>
+ * Methods of this class are called from the generated {@link RecordColumnsCodec}.
+ */
+public abstract class ColumnDecoder {
+	private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+	protected int pos;
+
+	private byte[] raw = new byte[0];
+
+	static ColumnDecoder create(Class<?> type, BinarySerializer<Object> serializer, int blockSize) {
+		if (type == long.class || type == double.class ||
+				type == int.class || type == short.class || type == byte.class || type == char.class || type == float.class) {
+			return new PrimitiveColumnDecoder(blockSize);
+		}
+		return new ObjectColumnDecoder(serializer, type == String.class || type.isEnum());
+	}
+
+	public int readInt() {
+		throw new UnsupportedOperationException();
+	}
+
+	public long readLong() {
+		throw new UnsupportedOperationException();
+	}
+
+	public float readFloat() {
+		throw new UnsupportedOperationException();
+	}
+
+	public double readDouble() {
+		throw new UnsupportedOperationException();
+	}
+
+	public Object readObject() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Decompresses and decodes the block, which contains {@code count} values, then recycles it
+	 */
+	final void decodeBlock(ByteBuf block, int count) throws ParseException {
+		try {
+			int rawLength = block.readInt();
+			int compressedLength = block.readInt();
+			if (rawLength <= 0 || compressedLength != block.readRemaining()) {
+				throw new ParseException(ColumnDecoder.class, "Invalid block header");
+			}
+			if (raw.length < rawLength) {
+				raw = new byte[rawLength];
+			}
+			int read;
+			try {
+				read = DECOMPRESSOR.decompress(block.array(), block.head(), raw, 0, rawLength);
+			} catch (LZ4Exception e) {
+				throw new ParseException(ColumnDecoder.class, "Corrupted block", e);
+			}
+			if (read != compressedLength) {
+				throw new ParseException(ColumnDecoder.class, "Corrupted block");
+			}
+			decodeBlock(raw, 0, rawLength, count);
+		} finally {
+			block.recycle();
+		}
+	}
+
+	/**
+	 * Decodes a raw (decompressed) block, which contains {@code count} values
+	 */
+	abstract void decodeBlock(byte[] array, int offset, int length, int count) throws ParseException;
+
+	static ParseException unknownEncoding(byte encoding) {
+		return new ParseException(ColumnDecoder.class, "Unknown column block encoding: " + encoding);
+	}
+
+	private static final class PrimitiveColumnDecoder extends ColumnDecoder {
+		private final long[] values;
+
+		PrimitiveColumnDecoder(int blockSize) {
+			this.values = new long[blockSize];
+		}
+
+		@Override
+		public int readInt() {
+			return (int) values[pos++];
+		}
+
+		@Override
+		public long readLong() {
+			return values[pos++];
+		}
+
+		@Override
+		public float readFloat() {
+			return Float.intBitsToFloat((int) values[pos++]);
+		}
+
+		@Override
+		public double readDouble() {
+			return Double.longBitsToDouble(values[pos++]);
+		}
+
+		@Override
+		void decodeBlock(byte[] array, int offset, int length, int count) throws ParseException {
+			BinaryInput in = new BinaryInput(array, offset + 1);
+			byte encoding = array[offset];
+			switch (encoding) {
+				case ENCODING_VARINT:
+					for (int i = 0; i < count; i++) {
+						values[i] = decodeZigZag(in.readVarLong());
+					}
+					break;
+				case ENCODING_DELTA:
+					long prev = 0;
+					for (int i = 0; i < count; i++) {
+						prev += decodeZigZag(in.readVarLong());
+						values[i] = prev;
+					}
+					break;
+				case ENCODING_RLE:
+					for (int i = 0; i < count; ) {
+						long value = decodeZigZag(in.readVarLong());
+						int run = in.readVarInt();
+						if (run <= 0 || i + run > count) {
+							throw new ParseException(ColumnDecoder.class, "Invalid run length: " + run);
+						}
+						for (int j = 0; j < run; j++) {
+							values[i++] = value;
+						}
+					}
+					break;
+				case ENCODING_FIXED:
+					boolean wide = length - 1 == count * 8;
+					for (int i = 0; i < count; i++) {
+						values[i] = wide ? in.readLong() : in.readInt();
+					}
+					break;
+				default:
+					throw unknownEncoding(encoding);
+			}
+			pos = 0;
+		}
+
+		private static long decodeZigZag(long value) {
+			return (value >>> 1) ^ -(value & 1);
+		}
+	}
+
+	private static final class ObjectColumnDecoder extends ColumnDecoder {
+		private final BinarySerializer<Object> serializer;
+		private final boolean immutable;
+
+		private BinaryInput in;
+		private Object[] dictionary;
+		private int[] dictionaryOffsets;
+
+		ObjectColumnDecoder(BinarySerializer<Object> serializer, boolean immutable) {
+			this.serializer = serializer;
+			this.immutable = immutable;
+		}
+
+		@Override
+		public Object readObject() {
+			if (dictionary == null) {
+				return serializer.decode(in);
+			}
+			int id = in.readVarInt();
+			if (immutable) {
+				return dictionary[id];
+			}
+			// mutable values (sets, sketches etc.) may be modified by reducers, so they are never shared between records
+			return serializer.decode(in.array(), dictionaryOffsets[id]);
+		}
+
+		@Override
+		void decodeBlock(byte[] array, int offset, int length, int count) throws ParseException {
+			byte encoding = array[offset];
+			in = new BinaryInput(array, offset + 1);
+			switch (encoding) {
+				case ENCODING_PLAIN:
+					dictionary = null;
+					break;
+				case ENCODING_DICTIONARY:
+					int size = in.readVarInt();
+					dictionary = new Object[size];
+					dictionaryOffsets = new int[size];
+					for (int i = 0; i < size; i++) {
+						dictionaryOffsets[i] = in.pos();
+						dictionary[i] = serializer.decode(in);
+					}
+					break;
+				default:
+					throw unknownEncoding(encoding);
+			}
+		}
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.columnar;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.serializer.BinaryOutput;
+import io.datakernel.serializer.BinarySerializer;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.Math.max;
+
+/**
+ * Accumulates values of a single column and encodes them into LZ4-compressed blocks.
+ * <p>
+ * Every block holds values of {@code blockSize} consecutive records (the last block may hold less),
+ * so blocks of different columns of the same chunk are aligned.
+ * Each block is encoded with whichever of the supported encodings produces the smallest output.
+ * <p>
+ * Methods of this class are called from the generated {@link RecordColumnsCodec}.
+ */
+public abstract class ColumnEncoder {
+	static final byte ENCODING_VARINT = 0;
+	static final byte ENCODING_DELTA = 1;
+	static final byte ENCODING_RLE = 2;
+	static final byte ENCODING_FIXED = 3;
+	static final byte ENCODING_PLAIN = 4;
+	static final byte ENCODING_DICTIONARY = 5;
+
+	static final int BLOCK_HEADER_SIZE = 8;
+
+	private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+
+	protected final int blockSize;
+	protected int count;
+
+	private final ByteBufQueue blocks = new ByteBufQueue();
+	private long encodedSize;
+
+	ColumnEncoder(int blockSize) {
+		this.blockSize = blockSize;
+	}
+
+	static ColumnEncoder create(Class<?> type, BinarySerializer<Object> serializer, int blockSize) {
+		if (type == long.class || type == double.class) {
+			return new PrimitiveColumnEncoder(blockSize, true);
+		}
+		if (type == int.class || type == short.class || type == byte.class || type == char.class || type == float.class) {
+			return new PrimitiveColumnEncoder(blockSize, false);
+		}
+		return new ObjectColumnEncoder(blockSize, serializer);
+	}
+
+	public void writeInt(int value) {
+		throw new UnsupportedOperationException();
+	}
+
+	public void writeLong(long value) {
+		throw new UnsupportedOperationException();
+	}
+
+	public void writeFloat(float value) {
+		throw new UnsupportedOperationException();
+	}
+
+	public void writeDouble(double value) {
+		throw new UnsupportedOperationException();
+	}
+
+	public void writeObject(Object value) {
+		throw new UnsupportedOperationException();
+	}
+
+	protected final void afterWrite() {
+		if (++count == blockSize) {
+			flushBlock();
+		}
+	}
+
+	/**
+	 * Encodes the pending values into a block, which is appended to encoded blocks
+	 */
+	final void flushBlock() {
+		if (count == 0) return;
+		ByteBuf raw = encodeBlock();
+		int rawLength = raw.readRemaining();
+		ByteBuf block = ByteBufPool.allocate(BLOCK_HEADER_SIZE + COMPRESSOR.maxCompressedLength(rawLength));
+		int compressedLength = COMPRESSOR.compress(raw.array(), raw.head(), rawLength,
+				block.array(), BLOCK_HEADER_SIZE);
+		raw.recycle();
+		block.writeInt(rawLength);
+		block.writeInt(compressedLength);
+		block.moveTail(compressedLength);
+		encodedSize += block.readRemaining();
+		blocks.add(block);
+		count = 0;
+	}
+
+	/**
+	 * Encodes {@code count} pending values, first byte of the returned buf is an encoding id
+	 */
+	protected abstract ByteBuf encodeBlock();
+
+	ByteBufQueue getBlocks() {
+		return blocks;
+	}
+
+	long getEncodedSize() {
+		return encodedSize;
+	}
+
+	static long encodeZigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static int varLongSize(long value) {
+		return (64 - Long.numberOfLeadingZeros(value | 1) + 6) / 7;
+	}
+
+	private static final class PrimitiveColumnEncoder extends ColumnEncoder {
+		private final boolean wide;
+		private final long[] values;
+
+		PrimitiveColumnEncoder(int blockSize, boolean wide) {
+			super(blockSize);
+			this.wide = wide;
+			this.values = new long[blockSize];
+		}
+
+		@Override
+		public void writeInt(int value) {
+			values[count] = value;
+			afterWrite();
+		}
+
+		@Override
+		public void writeLong(long value) {
+			values[count] = value;
+			afterWrite();
+		}
+
+		@Override
+		public void writeFloat(float value) {
+			values[count] = Float.floatToRawIntBits(value);
+			afterWrite();
+		}
+
+		@Override
+		public void writeDouble(double value) {
+			values[count] = Double.doubleToRawLongBits(value);
+			afterWrite();
+		}
+
+		@Override
+		protected ByteBuf encodeBlock() {
+			long varIntSize = 0;
+			long deltaSize = 0;
+			long rleSize = 0;
+			long prev = 0;
+			int run = 0;
+			for (int i = 0; i < count; i++) {
+				long value = values[i];
+				varIntSize += varLongSize(encodeZigZag(value));
+				deltaSize += varLongSize(encodeZigZag(value - prev));
+				if (i != 0 && value == prev) {
+					run++;
+				} else {
+					if (run != 0) rleSize += varLongSize(run);
+					rleSize += varLongSize(encodeZigZag(value));
+					run = 1;
+				}
+				prev = value;
+			}
+			rleSize += varLongSize(run);
+			long fixedSize = (long) count * (wide ? 8 : 4);
+
+			long minSize = Math.min(Math.min(varIntSize, deltaSize), Math.min(rleSize, fixedSize));
+			ByteBuf buf = ByteBufPool.allocate((int) (1 + minSize));
+			BinaryOutput out = new BinaryOutput(buf.array(), buf.tail());
+			if (minSize == rleSize) {
+				out.writeByte(ENCODING_RLE);
+				for (int i = 0; i < count; ) {
+					long value = values[i];
+					int j = i + 1;
+					while (j < count && values[j] == value) j++;
+					out.writeVarLong(encodeZigZag(value));
+					out.writeVarInt(j - i);
+					i = j;
+				}
+			} else if (minSize == deltaSize) {
+				out.writeByte(ENCODING_DELTA);
+				prev = 0;
+				for (int i = 0; i < count; i++) {
+					out.writeVarLong(encodeZigZag(values[i] - prev));
+					prev = values[i];
+				}
+			} else if (minSize == varIntSize) {
+				out.writeByte(ENCODING_VARINT);
+				for (int i = 0; i < count; i++) {
+					out.writeVarLong(encodeZigZag(values[i]));
+				}
+			} else {
+				out.writeByte(ENCODING_FIXED);
+				for (int i = 0; i < count; i++) {
+					if (wide) {
+						out.writeLong(values[i]);
+					} else {
+						out.writeInt((int) values[i]);
+					}
+				}
+			}
+			buf.tail(out.pos());
+			return buf;
+		}
+	}
+
+	private static final class ObjectColumnEncoder extends ColumnEncoder {
+		private final BinarySerializer<Object> serializer;
+		private final int[] offsets;
+		private byte[] bytes = new byte[1024];
+		private int size;
+
+		ObjectColumnEncoder(int blockSize, BinarySerializer<Object> serializer) {
+			super(blockSize);
+			this.serializer = serializer;
+			this.offsets = new int[blockSize + 1];
+		}
+
+		@Override
+		public void writeObject(Object value) {
+			while (true) {
+				try {
+					size = serializer.encode(bytes, size, value);
+					break;
+				} catch (ArrayIndexOutOfBoundsException e) {
+					bytes = Arrays.copyOf(bytes, max(bytes.length * 2, 1024));
+				}
+			}
+			offsets[count + 1] = size;
+			afterWrite();
+		}
+
+		@Override
+		protected ByteBuf encodeBlock() {
+			Map<BytesKey, Integer> dictionary = new HashMap<>();
+			int[] ids = new int[count];
+			int dictionarySize = 0;
+			for (int i = 0; i < count; i++) {
+				BytesKey key = new BytesKey(bytes, offsets[i], offsets[i + 1]);
+				Integer id = dictionary.get(key);
+				if (id == null) {
+					id = dictionary.size();
+					dictionary.put(key, id);
+					dictionarySize += key.to - key.from;
+				}
+				ids[i] = id;
+			}
+
+			ByteBuf buf;
+			if (dictionary.size() <= count / 2) {
+				buf = ByteBufPool.allocate(1 + 5 + dictionarySize + 5 * count);
+				BinaryOutput out = new BinaryOutput(buf.array(), buf.tail());
+				out.writeByte(ENCODING_DICTIONARY);
+				out.writeVarInt(dictionary.size());
+				BytesKey[] entries = new BytesKey[dictionary.size()];
+				dictionary.forEach((key, id) -> entries[id] = key);
+				for (BytesKey entry : entries) {
+					out.write(bytes, entry.from, entry.to - entry.from);
+				}
+				for (int i = 0; i < count; i++) {
+					out.writeVarInt(ids[i]);
+				}
+				buf.tail(out.pos());
+			} else {
+				buf = ByteBufPool.allocate(1 + size);
+				buf.writeByte(ENCODING_PLAIN);
+				buf.put(bytes, 0, size);
+			}
+			size = 0;
+			return buf;
+		}
+	}
+
+	private static final class BytesKey {
+		private final byte[] array;
+		private final int from;
+		private final int to;
+
+		BytesKey(byte[] array, int from, int to) {
+			this.array = array;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			BytesKey that = (BytesKey) o;
+			if (to - from != that.to - that.from) return false;
+			for (int i = 0; i < to - from; i++) {
+				if (array[from + i] != that.array[that.from + i]) return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = 1;
+			for (int i = from; i < to; i++) {
+				result = 31 * result + array[i];
+			}
+			return result;
+		}
+	}
+}
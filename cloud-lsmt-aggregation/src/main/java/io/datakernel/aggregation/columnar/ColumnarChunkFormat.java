@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.columnar;
+
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.codegen.ClassBuilder;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.codegen.Expression;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.serializer.BinarySerializer;
+import io.datakernel.serializer.SerializerBuilder;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.datakernel.codegen.Expressions.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+
+/**
+ * Layout of a columnar chunk file:
+ * <pre>
+ * magic (int), header length (int),
+ * header: records count (int), block size (int), columns count (varint),
+ *         for each column: name (varint length + UTF-8), offset (long), length (long),
+ * column data: for each column a sequence of blocks,
+ *         each block is raw length (int), compressed length (int), LZ4-compressed encoded values
+ * </pre>
+ * Column offsets are relative to the end of the header.
+ */
+final class ColumnarChunkFormat {
+	static final int MAGIC = 0x44434331; // "DCC1"
+	static final int PREFIX_SIZE = 8;
+	static final int DEFAULT_BLOCK_SIZE = 8192;
+
+	static final class Column {
+		final String name;
+		final long offset;
+		final long length;
+
+		Column(String name, long offset, long length) {
+			this.name = name;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	static final class Header {
+		final int records;
+		final int blockSize;
+		final Map<String, Column> columns;
+
+		Header(int records, int blockSize, Map<String, Column> columns) {
+			this.records = records;
+			this.blockSize = blockSize;
+			this.columns = columns;
+		}
+	}
+
+	static ByteBuf encodeHeader(Header header) {
+		List<byte[]> names = new ArrayList<>();
+		int size = 4 + 4 + 5;
+		for (Column column : header.columns.values()) {
+			byte[] name = column.name.getBytes(UTF_8);
+			names.add(name);
+			size += 5 + name.length + 8 + 8;
+		}
+		ByteBuf buf = ByteBufPool.allocate(PREFIX_SIZE + size);
+		buf.writeInt(MAGIC);
+		buf.moveTail(4);
+		buf.writeInt(header.records);
+		buf.writeInt(header.blockSize);
+		buf.writeVarInt(header.columns.size());
+		int i = 0;
+		for (Column column : header.columns.values()) {
+			byte[] name = names.get(i++);
+			buf.writeVarInt(name.length);
+			buf.put(name);
+			buf.writeLong(column.offset);
+			buf.writeLong(column.length);
+		}
+		int headerLength = buf.tail() - PREFIX_SIZE;
+		buf.array()[4] = (byte) (headerLength >>> 24);
+		buf.array()[5] = (byte) (headerLength >>> 16);
+		buf.array()[6] = (byte) (headerLength >>> 8);
+		buf.array()[7] = (byte) headerLength;
+		return buf;
+	}
+
+	/**
+	 * Checks the magic number and returns the length of the header which follows the prefix
+	 */
+	static int decodePrefix(ByteBuf buf) throws ParseException {
+		if (buf.readRemaining() != PREFIX_SIZE || buf.readInt() != MAGIC) {
+			throw new ParseException(ColumnarChunkFormat.class, "Not a columnar chunk");
+		}
+		int headerLength = buf.readInt();
+		if (headerLength <= 0) {
+			throw new ParseException(ColumnarChunkFormat.class, "Invalid header length: " + headerLength);
+		}
+		return headerLength;
+	}
+
+	static Header decodeHeader(ByteBuf buf) throws ParseException {
+		try {
+			int records = buf.readInt();
+			int blockSize = buf.readInt();
+			int count = buf.readVarInt();
+			Map<String, Column> columns = new LinkedHashMap<>();
+			for (int i = 0; i < count; i++) {
+				byte[] name = new byte[buf.readVarInt()];
+				buf.read(name);
+				String columnName = new String(name, UTF_8);
+				columns.put(columnName, new Column(columnName, buf.readLong(), buf.readLong()));
+			}
+			if (records < 0 || blockSize <= 0) {
+				throw new ParseException(ColumnarChunkFormat.class, "Invalid header");
+			}
+			return new Header(records, blockSize, columns);
+		} catch (IndexOutOfBoundsException e) {
+			throw new ParseException(ColumnarChunkFormat.class, "Truncated header", e);
+		}
+	}
+
+	static Map<String, FieldType> columnTypes(AggregationStructure aggregation, List<String> keys, List<String> fields) {
+		Map<String, FieldType> result = new LinkedHashMap<>();
+		for (String key : keys) {
+			result.put(key, aggregation.getKeyTypes().get(key));
+		}
+		for (String field : fields) {
+			result.put(field, aggregation.getMeasureTypes().get(field));
+		}
+		return result;
+	}
+
+	@Nullable
+	@SuppressWarnings("unchecked")
+	static BinarySerializer<Object> createValueSerializer(FieldType fieldType, DefiningClassLoader classLoader) {
+		Class<?> type = fieldType.getInternalDataType();
+		if (type.isPrimitive() && type != boolean.class) {
+			return null;
+		}
+		return SerializerBuilder.create(classLoader)
+				.withClassKey(ColumnarChunkFormat.class, fieldType.getSerializer())
+				.build(fieldType.getSerializer());
+	}
+
+	@SuppressWarnings("unchecked")
+	static <T> RecordColumnsCodec<T> createCodec(Class<T> recordClass, Map<String, FieldType> columns,
+			DefiningClassLoader classLoader) {
+		List<Expression> encode = new ArrayList<>();
+		List<Expression> decode = new ArrayList<>();
+		int i = 0;
+		for (Map.Entry<String, FieldType> entry : columns.entrySet()) {
+			String field = entry.getKey();
+			Class<?> type = entry.getValue().getInternalDataType();
+			String suffix = methodSuffix(type);
+			Class<?> valueType = type == long.class || type == double.class || type == float.class ? type :
+					type.isPrimitive() && type != boolean.class ? int.class :
+							Object.class;
+			encode.add(call(getArrayItem(arg(1), value(i)), "write" + suffix,
+					cast(property(cast(arg(0), recordClass), field), valueType)));
+			decode.add(set(property(cast(arg(0), recordClass), field),
+					cast(call(getArrayItem(arg(1), value(i)), "read" + suffix), type)));
+			i++;
+		}
+		return ClassBuilder.create(classLoader, RecordColumnsCodec.class)
+				.withClassKey(recordClass, new ArrayList<>(columns.keySet()))
+				.withMethod("create", Object.class, asList(),
+						constructor(recordClass))
+				.withMethod("encode", void.class, asList(Object.class, ColumnEncoder[].class),
+						sequence(encode))
+				.withMethod("decode", void.class, asList(Object.class, ColumnDecoder[].class),
+						sequence(decode))
+				.buildClassAndCreateNewInstance();
+	}
+
+	private static String methodSuffix(Class<?> type) {
+		if (type == long.class) return "Long";
+		if (type == double.class) return "Double";
+		if (type == float.class) return "Float";
+		if (type.isPrimitive() && type != boolean.class) return "Int";
+		return "Object";
+	}
+
+	private ColumnarChunkFormat() {
+	}
+}
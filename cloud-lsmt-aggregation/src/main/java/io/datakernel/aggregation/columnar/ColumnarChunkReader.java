@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.columnar;
+
+import io.datakernel.aggregation.columnar.ColumnarChunkFormat.Column;
+import io.datakernel.aggregation.columnar.ColumnarChunkFormat.Header;
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.csp.binary.BinaryChannelSupplier;
+import io.datakernel.csp.binary.ByteBufsParser;
+import io.datakernel.datastream.AbstractStreamSupplier;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.remotefs.FsClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static io.datakernel.aggregation.columnar.ColumnEncoder.BLOCK_HEADER_SIZE;
+import static io.datakernel.aggregation.columnar.ColumnarChunkFormat.*;
+import static java.lang.Math.min;
+
+/**
+ * Reads records of a chunk written by {@link ColumnarChunkWriter}.
+ * <p>
+ * Only the key columns and the columns of requested fields are downloaded,
+ * each of them with a separate ranged download, and they are decoded block by block in lockstep.
+ */
+public final class ColumnarChunkReader<T> extends AbstractStreamSupplier<T> {
+	private static final ByteBufsParser<ByteBuf> BLOCK_PARSER = bufs -> {
+		if (!bufs.hasRemainingBytes(BLOCK_HEADER_SIZE)) return null;
+		int compressedLength = (bufs.peekByte(4) & 0xFF) << 24
+				| (bufs.peekByte(5) & 0xFF) << 16
+				| (bufs.peekByte(6) & 0xFF) << 8
+				| (bufs.peekByte(7) & 0xFF);
+		if (compressedLength < 0) {
+			throw new ParseException(ColumnarChunkReader.class, "Invalid compressed block length: " + compressedLength);
+		}
+		if (!bufs.hasRemainingBytes(BLOCK_HEADER_SIZE + compressedLength)) return null;
+		return bufs.takeExactSize(BLOCK_HEADER_SIZE + compressedLength);
+	};
+
+	private final RecordColumnsCodec<T> codec;
+	private final BinaryChannelSupplier[] inputs;
+	private final ColumnDecoder[] decoders;
+	private final int blockSize;
+
+	private int remaining;
+	private int remainingInBlock;
+
+	private ColumnarChunkReader(RecordColumnsCodec<T> codec, BinaryChannelSupplier[] inputs, ColumnDecoder[] decoders,
+			int records, int blockSize) {
+		this.codec = codec;
+		this.inputs = inputs;
+		this.decoders = decoders;
+		this.remaining = records;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Downloads the header of the chunk file and starts downloading the requested columns.
+	 *
+	 * @param fields measures to be read, which should be a subset of the measures the chunk was written with
+	 */
+	public static <T> Promise<StreamSupplier<T>> open(FsClient client, String fileName,
+			AggregationStructure aggregation, List<String> fields, Class<T> recordClass,
+			DefiningClassLoader classLoader) {
+		return download(client, fileName, 0, PREFIX_SIZE)
+				.then(prefix -> {
+					int headerLength;
+					try {
+						headerLength = decodePrefix(prefix);
+					} catch (ParseException e) {
+						return Promise.ofException(e);
+					} finally {
+						prefix.recycle();
+					}
+					return download(client, fileName, PREFIX_SIZE, headerLength)
+							.then(headerBuf -> {
+								Header header;
+								try {
+									header = decodeHeader(headerBuf);
+								} catch (ParseException e) {
+									return Promise.ofException(e);
+								} finally {
+									headerBuf.recycle();
+								}
+								return Promise.of(create(client, fileName, PREFIX_SIZE + headerLength, header,
+										aggregation, fields, recordClass, classLoader));
+							});
+				});
+	}
+
+	private static <T> StreamSupplier<T> create(FsClient client, String fileName, long dataOffset, Header header,
+			AggregationStructure aggregation, List<String> fields, Class<T> recordClass,
+			DefiningClassLoader classLoader) {
+		Map<String, FieldType> columns = columnTypes(aggregation, aggregation.getKeys(), fields);
+		List<Column> chunkColumns = new ArrayList<>();
+		for (String name : columns.keySet()) {
+			Column column = header.columns.get(name);
+			if (column == null) {
+				return StreamSupplier.closingWithError(new ParseException(ColumnarChunkReader.class,
+						"Column '" + name + "' is missing in chunk " + fileName));
+			}
+			chunkColumns.add(column);
+		}
+		if (header.records == 0) {
+			return StreamSupplier.of();
+		}
+
+		BinaryChannelSupplier[] inputs = new BinaryChannelSupplier[columns.size()];
+		ColumnDecoder[] decoders = new ColumnDecoder[columns.size()];
+		int i = 0;
+		for (FieldType fieldType : columns.values()) {
+			Column column = chunkColumns.get(i);
+			inputs[i] = BinaryChannelSupplier.of(ChannelSupplier.ofPromise(
+					client.download(fileName, dataOffset + column.offset, column.length)));
+			decoders[i] = ColumnDecoder.create(fieldType.getInternalDataType(),
+					createValueSerializer(fieldType, classLoader), header.blockSize);
+			i++;
+		}
+		return new ColumnarChunkReader<>(createCodec(recordClass, columns, classLoader), inputs, decoders,
+				header.records, header.blockSize);
+	}
+
+	private static Promise<ByteBuf> download(FsClient client, String fileName, long offset, int length) {
+		return client.download(fileName, offset, length)
+				.then(supplier -> supplier.toCollector(ByteBufQueue.collector()))
+				.then(buf -> {
+					if (buf.readRemaining() != length) {
+						buf.recycle();
+						return Promise.ofException(new ParseException(ColumnarChunkReader.class,
+								"Truncated chunk " + fileName));
+					}
+					return Promise.of(buf);
+				});
+	}
+
+	@Override
+	protected void produce(AsyncProduceController async) {
+		async.begin();
+		while (isReceiverReady()) {
+			if (remainingInBlock == 0) {
+				if (remaining == 0) {
+					Promises.all(Arrays.stream(inputs).map(BinaryChannelSupplier::endOfStream))
+							.whenResult($ -> sendEndOfStream())
+							.whenException(this::close);
+					return;
+				}
+				readBlocks(min(blockSize, remaining))
+						.whenResult($ -> async.resume())
+						.whenException(this::close);
+				return;
+			}
+			T record = codec.create();
+			codec.decode(record, decoders);
+			remaining--;
+			remainingInBlock--;
+			send(record);
+		}
+		async.end();
+	}
+
+	private Promise<Void> readBlocks(int count) {
+		List<Promise<Void>> promises = new ArrayList<>(inputs.length);
+		for (int i = 0; i < inputs.length; i++) {
+			ColumnDecoder decoder = decoders[i];
+			promises.add(inputs[i].parse(BLOCK_PARSER)
+					.then(block -> {
+						try {
+							decoder.decodeBlock(block, count);
+						} catch (ParseException e) {
+							return Promise.ofException(e);
+						} catch (RuntimeException e) {
+							return Promise.ofException(new ParseException(ColumnarChunkReader.class, "Corrupted block", e));
+						}
+						return Promise.complete();
+					}));
+		}
+		return Promises.all(promises)
+				.whenResult($ -> remainingInBlock = count);
+	}
+
+	@Override
+	protected void onError(Throwable e) {
+		for (BinaryChannelSupplier input : inputs) {
+			input.close(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarChunkReader{columns=" + inputs.length + ", remaining=" + remaining + '}';
+	}
+}
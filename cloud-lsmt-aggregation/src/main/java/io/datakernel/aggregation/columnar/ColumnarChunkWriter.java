@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.columnar;
+
+import io.datakernel.aggregation.columnar.ColumnarChunkFormat.Column;
+import io.datakernel.aggregation.columnar.ColumnarChunkFormat.Header;
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.datastream.AbstractStreamConsumer;
+import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.promise.Promise;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.datakernel.aggregation.columnar.ColumnarChunkFormat.*;
+
+/**
+ * Writes records of a chunk column by column into the given channel.
+ * <p>
+ * Encoded column blocks are kept in memory until the end of stream, when the header
+ * and then all of the columns are written, so the size of a chunk should be bounded
+ * (which is always the case for chunks produced by {@code AggregationChunker}).
+ */
+public final class ColumnarChunkWriter<T> extends AbstractStreamConsumer<T> implements StreamDataAcceptor<T> {
+	private final ChannelConsumer<ByteBuf> output;
+	private final RecordColumnsCodec<T> codec;
+	private final List<String> columnNames;
+	private final ColumnEncoder[] encoders;
+	private final int blockSize;
+
+	private int records;
+
+	private ColumnarChunkWriter(ChannelConsumer<ByteBuf> output, RecordColumnsCodec<T> codec,
+			List<String> columnNames, ColumnEncoder[] encoders, int blockSize) {
+		this.output = output;
+		this.codec = codec;
+		this.columnNames = columnNames;
+		this.encoders = encoders;
+		this.blockSize = blockSize;
+	}
+
+	public static <T> ColumnarChunkWriter<T> create(ChannelConsumer<ByteBuf> output,
+			AggregationStructure aggregation, List<String> fields, Class<T> recordClass,
+			DefiningClassLoader classLoader) {
+		return create(output, aggregation, fields, recordClass, classLoader, DEFAULT_BLOCK_SIZE);
+	}
+
+	public static <T> ColumnarChunkWriter<T> create(ChannelConsumer<ByteBuf> output,
+			AggregationStructure aggregation, List<String> fields, Class<T> recordClass,
+			DefiningClassLoader classLoader, int blockSize) {
+		Map<String, FieldType> columns = columnTypes(aggregation, aggregation.getKeys(), fields);
+		ColumnEncoder[] encoders = new ColumnEncoder[columns.size()];
+		int i = 0;
+		for (FieldType fieldType : columns.values()) {
+			encoders[i++] = ColumnEncoder.create(fieldType.getInternalDataType(),
+					createValueSerializer(fieldType, classLoader), blockSize);
+		}
+		return new ColumnarChunkWriter<>(output, createCodec(recordClass, columns, classLoader),
+				new ArrayList<>(columns.keySet()), encoders, blockSize);
+	}
+
+	@Override
+	protected void onStarted() {
+		getSupplier().resume(this);
+	}
+
+	@Override
+	public void accept(T item) {
+		codec.encode(item, encoders);
+		records++;
+	}
+
+	@Override
+	protected Promise<Void> onEndOfStream() {
+		Map<String, Column> columns = new LinkedHashMap<>();
+		List<ByteBuf> bufs = new ArrayList<>();
+		long offset = 0;
+		for (int i = 0; i < encoders.length; i++) {
+			ColumnEncoder encoder = encoders[i];
+			encoder.flushBlock();
+			long length = encoder.getEncodedSize();
+			columns.put(columnNames.get(i), new Column(columnNames.get(i), offset, length));
+			offset += length;
+		}
+		bufs.add(encodeHeader(new Header(records, blockSize, columns)));
+		for (ColumnEncoder encoder : encoders) {
+			encoder.getBlocks().drainTo(bufs::add);
+		}
+		return ChannelSupplier.ofIterable(bufs).streamTo(output);
+	}
+
+	@Override
+	protected void onError(Throwable e) {
+		for (ColumnEncoder encoder : encoders) {
+			encoder.getBlocks().recycle();
+		}
+		output.close(e);
+	}
+
+	@Override
+	public String toString() {
+		return "ColumnarChunkWriter{columns=" + columnNames + ", records=" + records + '}';
+	}
+}
@@ -44,7 +44,8 @@ public class AggregationDiffCodec implements StructuredCodec<AggregationDiff> {
 	public static AggregationDiffCodec create(AggregationStructure structure) {
 		Set<String> allowedMeasures = structure.getMeasureTypes().keySet();
 		StructuredCodec<PrimaryKey> primaryKeyCodec = getPrimaryKeyCodec(structure);
-		return new AggregationDiffCodec(AggregationChunkCodec.create(structure.getChunkIdCodec(), primaryKeyCodec, allowedMeasures));
+		return new AggregationDiffCodec(AggregationChunkCodec.create(structure.getChunkIdCodec(), primaryKeyCodec, allowedMeasures,
+				structure.getKeyTypes()));
 	}
 
 	@Override
@@ -3,6 +3,7 @@ package io.datakernel.aggregation.ot;
 import io.datakernel.aggregation.ChunkIdCodec;
 import io.datakernel.aggregation.fieldtype.FieldType;
 import io.datakernel.aggregation.measure.Measure;
+import io.datakernel.aggregation.util.BloomFilter;
 import io.datakernel.common.Initializable;
 
 import java.util.*;
@@ -16,6 +17,7 @@ public final class AggregationStructure implements Initializable<AggregationStru
 	private final Map<String, FieldType> measureTypes = new LinkedHashMap<>();
 	private final List<String> partitioningKey = new ArrayList<>();
 	private final Map<String, Measure> measures = new LinkedHashMap<>();
+	private final Set<String> bloomFilterKeys = new LinkedHashSet<>();
 
 	private AggregationStructure(ChunkIdCodec<?> chunkIdCodec) {
 		this.chunkIdCodec = chunkIdCodec;
@@ -44,6 +46,19 @@ public final class AggregationStructure implements Initializable<AggregationStru
 		return this;
 	}
 
+	/**
+	 * Enables Bloom filters of values of the given key in the metadata of chunks,
+	 * which lets equality predicates on non-leading keys skip chunks.
+	 * It is best suited for keys with a moderate number of distinct values per chunk.
+	 */
+	public AggregationStructure withBloomFilter(String key) {
+		checkArgument(keyTypes.containsKey(key), "Key '%s' is not defined", key);
+		checkArgument(BloomFilter.isSupportedType(keyTypes.get(key).getInternalDataType()),
+				"Bloom filters are not supported for key '%s'", key);
+		bloomFilterKeys.add(key);
+		return this;
+	}
+
 	public AggregationStructure withPartitioningKey(List<String> partitioningKey) {
 		this.partitioningKey.addAll(partitioningKey);
 		return this;
@@ -86,6 +101,10 @@ public final class AggregationStructure implements Initializable<AggregationStru
 		return measureTypes.get(field);
 	}
 
+	public Set<String> getBloomFilterKeys() {
+		return bloomFilterKeys;
+	}
+
 	public List<String> getPartitioningKey() {
 		return partitioningKey;
 	}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation.util;
+
+import java.util.Arrays;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * A compact immutable Bloom filter over 64-bit hashes of values.
+ * <p>
+ * Filters are persisted as a part of chunk metadata, so hashes of values must not depend on the JVM instance:
+ * see {@link #hash(Object)} for the supported types.
+ */
+public final class BloomFilter {
+	public static final int BITS_PER_VALUE = 10;
+	private static final int HASH_FUNCTIONS = 7;
+
+	private final byte[] bits;
+
+	private BloomFilter(byte[] bits) {
+		this.bits = bits;
+	}
+
+	/**
+	 * Creates a filter with ~1% false positive rate for the given hashes of distinct values
+	 */
+	public static BloomFilter create(long[] hashes, int count) {
+		byte[] bits = new byte[Math.max(8, (count * BITS_PER_VALUE + 7) / 8)];
+		for (int i = 0; i < count; i++) {
+			for (int k = 0; k < HASH_FUNCTIONS; k++) {
+				int bit = bitIndex(hashes[i], k, bits.length);
+				bits[bit >>> 3] |= 1 << (bit & 7);
+			}
+		}
+		return new BloomFilter(bits);
+	}
+
+	public static BloomFilter ofBytes(byte[] bits) {
+		checkArgument(bits.length != 0, "Empty bloom filter");
+		return new BloomFilter(bits);
+	}
+
+	public byte[] toBytes() {
+		return bits;
+	}
+
+	public boolean mightContain(Object value) {
+		return mightContainHash(hash(value));
+	}
+
+	public boolean mightContainHash(long hash) {
+		for (int k = 0; k < HASH_FUNCTIONS; k++) {
+			int bit = bitIndex(hash, k, bits.length);
+			if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int bitIndex(long hash, int k, int bytes) {
+		int combined = (int) hash + k * (int) (hash >>> 32);
+		return (int) ((combined & 0xFFFFFFFFL) % (bytes * 8L));
+	}
+
+	public static boolean isSupportedType(Class<?> type) {
+		return type.isPrimitive() || type == String.class || type.isEnum();
+	}
+
+	/**
+	 * Stable hash of an internal value of a key: integral numbers of different widths
+	 * which are equal have the same hash, strings and enums are hashed by their characters
+	 */
+	public static long hash(Object value) {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return hash(((Number) value).longValue());
+		}
+		if (value instanceof Character) {
+			return hash((long) (Character) value);
+		}
+		if (value instanceof String) {
+			return hash((String) value);
+		}
+		if (value instanceof Enum) {
+			return hash(((Enum<?>) value).name());
+		}
+		if (value instanceof Double || value instanceof Float) {
+			return hash(Double.doubleToLongBits(((Number) value).doubleValue()));
+		}
+		if (value instanceof Boolean) {
+			return hash((Boolean) value ? 1L : 0L);
+		}
+		return hash((long) value.hashCode());
+	}
+
+	public static long hash(long value) {
+		// finalizer of MurmurHash3
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+	private static long hash(String value) {
+		long h = 0x9E3779B97F4A7C15L;
+		for (int i = 0; i < value.length(); i++) {
+			h = (h ^ value.charAt(i)) * 0x100000001B3L;
+		}
+		return hash(h);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		return Arrays.equals(bits, ((BloomFilter) o).bits);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bits);
+	}
+
+	@Override
+	public String toString() {
+		return "BloomFilter{bytes=" + bits.length + '}';
+	}
+}
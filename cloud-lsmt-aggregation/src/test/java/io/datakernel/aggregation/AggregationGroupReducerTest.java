@@ -30,16 +30,12 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Stream;
+import java.util.*;
 
 import static io.datakernel.aggregation.Utils.*;
 import static io.datakernel.aggregation.fieldtype.FieldTypes.ofInt;
-import static io.datakernel.aggregation.measure.Measures.union;
-import static io.datakernel.common.collection.CollectionUtils.keysToMap;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofLong;
+import static io.datakernel.aggregation.measure.Measures.*;
 import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.stream.TestUtils.assertEndOfStream;
 import static java.util.Arrays.asList;
@@ -94,13 +90,10 @@ public class AggregationGroupReducerTest {
 		};
 
 		Class<InvertedIndexRecord> inputClass = InvertedIndexRecord.class;
-		Class<Comparable> keyClass = createKeyClass(
-				keysToMap(Stream.of("word"), structure.getKeyTypes()::get),
-				classLoader);
 		Class<InvertedIndexRecord> aggregationClass = createRecordClass(structure, asList("word"), asList("documents"), classLoader);
 
-		Function<InvertedIndexRecord, Comparable> keyFunction = createKeyFunction(inputClass, keyClass,
-				asList("word"), classLoader);
+		GroupKeyFunction<InvertedIndexRecord, Object> keyFunction = createGroupKeyFunction(structure, inputClass, (Class<Object>) (Class) aggregationClass,
+				singletonMap("word", "word"), classLoader);
 
 		Aggregate<InvertedIndexRecord, Object> aggregate = createPreaggregator(structure, inputClass, aggregationClass,
 				singletonMap("word", "word"), singletonMap("documents", "documentId"), classLoader);
@@ -118,7 +111,7 @@ public class AggregationGroupReducerTest {
 				new InvertedIndexRecord("fox", 4),
 				new InvertedIndexRecord("brown", 10));
 
-		AggregationGroupReducer<Long, InvertedIndexRecord, Comparable> groupReducer = new AggregationGroupReducer<>(aggregationChunkStorage,
+		AggregationGroupReducer<Long, InvertedIndexRecord> groupReducer = new AggregationGroupReducer<>(aggregationChunkStorage,
 				structure, asList("documents"),
 				aggregationClass, singlePartition(), keyFunction, aggregate, aggregationChunkSize, classLoader);
 
@@ -134,4 +127,70 @@ public class AggregationGroupReducerTest {
 		}
 	}
 
+	@Test
+	public void testPrimitiveKeys() throws ReflectiveOperationException {
+		DefiningClassLoader classLoader = DefiningClassLoader.create();
+		AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
+				.withKey("key", ofInt())
+				.withMeasure("value", sum(ofLong()))
+				.withMeasure("timestamp", max(ofLong()));
+
+		List items = new ArrayList();
+		AggregationChunkStorage<Long> aggregationChunkStorage = new AggregationChunkStorage<Long>() {
+			long chunkId;
+
+			@Override
+			public <T> Promise<StreamSupplier<T>> read(AggregationStructure aggregation, List<String> fields, Class<T> recordClass, Long chunkId, DefiningClassLoader classLoader) {
+				return Promise.of(StreamSupplier.ofIterable(items));
+			}
+
+			@Override
+			public <T> Promise<StreamConsumer<T>> write(AggregationStructure aggregation, List<String> fields, Class<T> recordClass, Long chunkId, DefiningClassLoader classLoader) {
+				return Promise.of(StreamConsumerToList.create(items));
+			}
+
+			@Override
+			public Promise<Long> createId() {
+				return Promise.of(++chunkId);
+			}
+
+			@Override
+			public Promise<Void> finish(Set<Long> chunkIds) {
+				return Promise.complete();
+			}
+		};
+
+		Class<KeyValuePair> inputClass = KeyValuePair.class;
+		Class<Object> aggregationClass = createRecordClass(structure, asList("key"), asList("value", "timestamp"), classLoader);
+		Map<String, String> measureFields = new LinkedHashMap<>();
+		measureFields.put("value", "value");
+		measureFields.put("timestamp", "timestamp");
+		Aggregate<Object, Object> aggregate = createPreaggregator(structure, inputClass, aggregationClass,
+				singletonMap("key", "key"), measureFields, classLoader);
+		GroupKeyFunction<KeyValuePair, Object> keyFunction = createGroupKeyFunction(structure, inputClass, aggregationClass,
+				singletonMap("key", "key"), classLoader);
+
+		List<KeyValuePair> input = new ArrayList<>();
+		Map<Integer, List<Long>> expected = new TreeMap<>();
+		for (int i = 0; i < 20_000; i++) {
+			int key = (i % 3_000) * 65_536 - 100_000;
+			input.add(new KeyValuePair(key, i, i));
+			expected.merge(key, asList((long) i, (long) i), (a, b) -> asList(a.get(0) + b.get(0), Math.max(a.get(1), b.get(1))));
+		}
+
+		AggregationGroupReducer<Long, KeyValuePair> groupReducer = new AggregationGroupReducer<>(aggregationChunkStorage,
+				structure, asList("value", "timestamp"),
+				(Class) aggregationClass, singlePartition(), (GroupKeyFunction) keyFunction, (Aggregate) aggregate, 100_000, classLoader);
+		await(StreamSupplier.ofIterable(input).streamTo(groupReducer));
+		assertEquals(1, await(groupReducer.getResult()).size());
+
+		Map<Integer, List<Long>> actual = new LinkedHashMap<>();
+		for (Object item : items) {
+			actual.put(aggregationClass.getField("key").getInt(item), asList(
+					aggregationClass.getField("value").getLong(item),
+					aggregationClass.getField("timestamp").getLong(item)));
+		}
+		assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+	}
+
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.ChunkKeyStats.Accumulator;
+import io.datakernel.aggregation.fieldtype.FieldType;
+import io.datakernel.aggregation.ot.AggregationDiff;
+import io.datakernel.aggregation.ot.AggregationDiffCodec;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.aggregation.AggregationPredicates.*;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.*;
+import static io.datakernel.aggregation.measure.Measures.sum;
+import static io.datakernel.codec.json.JsonUtils.fromJson;
+import static io.datakernel.codec.json.JsonUtils.toJson;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+
+public class ChunkKeyStatsTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
+			.withKey("site", ofString())
+			.withKey("id", ofInt())
+			.withKey("campaign", ofInt())
+			.withMeasure("clicks", sum(ofLong()))
+			.withBloomFilter("campaign");
+
+	public static class Event {
+		public String site;
+		public int id;
+		public int campaign;
+		public long clicks;
+
+		public Event(String site, int id, int campaign, long clicks) {
+			this.site = site;
+			this.id = id;
+			this.campaign = campaign;
+			this.clicks = clicks;
+		}
+	}
+
+	public static class Result {
+		public String site;
+		public int id;
+		public long clicks;
+
+		@Override
+		public String toString() {
+			return site + ' ' + id + ' ' + clicks;
+		}
+	}
+
+	@Test
+	public void testAccumulator() {
+		Accumulator accumulator = new Accumulator(int.class, true);
+		for (int i = 0; i < 1000; i++) {
+			accumulator.acceptLong(i * 2 + 100);
+		}
+		ChunkKeyStats stats = accumulator.get();
+		assertNotNull(stats);
+		assertEquals(100, stats.getMin());
+		assertEquals(2098, stats.getMax());
+
+		int falsePositives = 0;
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(stats.mightContain(i * 2 + 100));
+			if (stats.mightContain(i * 2 + 101)) falsePositives++;
+		}
+		assertTrue("False positives: " + falsePositives, falsePositives < 50);
+		assertFalse(stats.mightContain(99));
+		assertFalse(stats.mightContain(2099));
+	}
+
+	@Test
+	public void testAccumulatorSkipsTooManyValuesAndNulls() {
+		Accumulator numbers = new Accumulator(long.class, true);
+		for (long i = 0; i <= Accumulator.MAX_BLOOM_FILTER_VALUES; i++) {
+			numbers.acceptLong(i);
+		}
+		ChunkKeyStats stats = numbers.get();
+		assertNotNull(stats);
+		assertNull(stats.getBloomFilter());
+		assertEquals((long) Accumulator.MAX_BLOOM_FILTER_VALUES, stats.getMax());
+
+		Accumulator strings = new Accumulator(String.class, false);
+		strings.acceptObject("a");
+		strings.acceptObject(null);
+		assertNull(strings.get());
+	}
+
+	@Test
+	public void testPredicates() {
+		Accumulator campaigns = new Accumulator(int.class, true);
+		for (int campaign : new int[]{10, 20, 30}) {
+			campaigns.acceptLong(campaign);
+		}
+		Map<String, ChunkKeyStats> keyStats = new HashMap<>();
+		keyStats.put("campaign", campaigns.get());
+		keyStats.put("site", ChunkKeyStats.of("b.com", "d.com"));
+		Map<String, FieldType> fields = structure.getKeyTypes();
+
+		assertTrue(eq("campaign", 20).mightMatch(keyStats, fields));
+		assertFalse(eq("campaign", 25).mightMatch(keyStats, fields));
+		assertFalse(eq("campaign", 40).mightMatch(keyStats, fields));
+		assertFalse(in("campaign", Arrays.asList(1, 2, 3)).mightMatch(keyStats, fields));
+		assertTrue(in("campaign", Arrays.asList(1, 30)).mightMatch(keyStats, fields));
+		assertTrue(between("campaign", 25, 35).mightMatch(keyStats, fields));
+		assertFalse(between("campaign", 31, 35).mightMatch(keyStats, fields));
+		assertFalse(gt("campaign", 30).mightMatch(keyStats, fields));
+		assertTrue(ge("campaign", 30).mightMatch(keyStats, fields));
+		assertFalse(lt("campaign", 10).mightMatch(keyStats, fields));
+		assertTrue(le("campaign", 10).mightMatch(keyStats, fields));
+		assertFalse(eq("site", "a.com").mightMatch(keyStats, fields));
+		assertTrue(eq("site", "c.com").mightMatch(keyStats, fields));
+		assertTrue(eq("id", 1).mightMatch(keyStats, fields));
+		assertFalse(and(eq("site", "c.com"), eq("campaign", 25)).mightMatch(keyStats, fields));
+		assertTrue(or(eq("site", "a.com"), eq("campaign", 20)).mightMatch(keyStats, fields));
+		assertTrue(not(eq("campaign", 25)).mightMatch(keyStats, fields));
+
+		Map<String, ChunkKeyStats> single = Collections.singletonMap("campaign", ChunkKeyStats.of(10, 10));
+		assertFalse(notEq("campaign", 10).mightMatch(single, fields));
+		assertTrue(notEq("campaign", 11).mightMatch(single, fields));
+	}
+
+	@Test
+	public void testCodec() throws ParseException {
+		Accumulator campaigns = new Accumulator(int.class, true);
+		campaigns.acceptLong(5);
+		campaigns.acceptLong(7);
+		Map<String, ChunkKeyStats> keyStats = new HashMap<>();
+		keyStats.put("id", ChunkKeyStats.of(1, 100));
+		keyStats.put("campaign", campaigns.get());
+		AggregationChunk chunk = AggregationChunk.create(1L, Arrays.asList("clicks"),
+				PrimaryKey.ofArray("a.com", 1, 5), PrimaryKey.ofArray("b.com", 100, 7), 10, keyStats);
+		AggregationChunk oldChunk = AggregationChunk.create(2L, Arrays.asList("clicks"),
+				PrimaryKey.ofArray("a.com", 1, 5), PrimaryKey.ofArray("b.com", 100, 7), 10);
+
+		AggregationDiffCodec codec = AggregationDiffCodec.create(structure);
+		String json = toJson(codec, AggregationDiff.of(new HashSet<>(Arrays.asList(chunk, oldChunk))));
+		Map<Object, AggregationChunk> decoded = fromJson(codec, json).getAddedChunks().stream()
+				.collect(HashMap::new, (map, c) -> map.put(c.getChunkId(), c), Map::putAll);
+
+		assertEquals(keyStats, decoded.get(1L).getKeyStats());
+		assertTrue(decoded.get(2L).getKeyStats().isEmpty());
+	}
+
+	@Test
+	public void testFindChunksSkipsChunksByStats() throws IOException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		DefiningClassLoader classLoader = DefiningClassLoader.create();
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		RemoteFsChunkStorage<Long> storage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, executor, temporaryFolder.newFolder().toPath()));
+		Aggregation aggregation = Aggregation.create(eventloop, executor, classLoader, storage, structure)
+				.withTemporarySortDir(temporaryFolder.newFolder().toPath());
+
+		// each consumed batch has its own range of campaigns, but all of them cover the same sites and ids
+		Map<String, String> keyFields = new LinkedHashMap<>();
+		keyFields.put("site", "site");
+		keyFields.put("id", "id");
+		keyFields.put("campaign", "campaign");
+		List<Event> allEvents = new ArrayList<>();
+		for (int batch = 0; batch < 4; batch++) {
+			List<Event> events = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				events.add(new Event("site" + i % 3, i % 100, batch * 100 + i % 10 * 2, i));
+			}
+			allEvents.addAll(events);
+			AggregationDiff diff = await(aggregation.consume(StreamSupplier.ofIterable(events), Event.class,
+					keyFields, Collections.singletonMap("clicks", "clicks")));
+			aggregation.getState().apply(diff);
+			await(storage.finish(diff.getAddedChunks().stream()
+					.map(chunk -> (long) chunk.getChunkId())
+					.collect(toSet())));
+		}
+		List<String> measures = Arrays.asList("clicks");
+		assertEquals(4, aggregation.getState().findChunks(alwaysTrue(), measures).size());
+		assertEquals(1, aggregation.getState().findChunks(eq("campaign", 204), measures).size());
+		assertEquals(0, aggregation.getState().findChunks(eq("campaign", 205), measures).size());
+		assertEquals(0, aggregation.getState().findChunks(eq("campaign", 50), measures).size());
+		assertEquals(2, aggregation.getState().findChunks(between("campaign", 110, 210), measures).size());
+
+		AggregationQuery query = AggregationQuery.create()
+				.withKeys("site", "id")
+				.withMeasures("clicks")
+				.withPredicate(and(eq("site", "site1"), eq("campaign", 204)));
+		List<String> result = await(aggregation.query(query, Result.class, DefiningClassLoader.create(classLoader)).toList())
+				.stream()
+				.map(Result::toString)
+				.collect(toList());
+
+		Map<Integer, Long> expectedClicks = new TreeMap<>();
+		for (Event event : allEvents) {
+			if (event.site.equals("site1") && event.campaign == 204) {
+				expectedClicks.merge(event.id, event.clicks, Long::sum);
+			}
+		}
+		List<String> expected = expectedClicks.entrySet().stream()
+				.map(entry -> "site1 " + entry.getKey() + ' ' + entry.getValue())
+				.collect(toList());
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, result);
+		executor.shutdown();
+	}
+}
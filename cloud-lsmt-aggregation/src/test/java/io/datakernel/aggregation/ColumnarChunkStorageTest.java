@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.ot.AggregationDiff;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.aggregation.Utils.createRecordClass;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.*;
+import static io.datakernel.aggregation.measure.Measures.sum;
+import static io.datakernel.aggregation.measure.Measures.union;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarChunkStorageTest {
+	private static final String[] SITES = {"google.com", "github.com", "example.com", "wikipedia.org", "mail.com"};
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final DefiningClassLoader classLoader = DefiningClassLoader.create();
+	private final AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
+			.withKey("site", ofString())
+			.withKey("id", ofInt())
+			.withMeasure("clicks", sum(ofLong()))
+			.withMeasure("revenue", sum(ofDouble()))
+			.withMeasure("users", union(ofInt()));
+
+	private RemoteFsChunkStorage<Long> rowStorage;
+	private RemoteFsChunkStorage<Long> columnarStorage;
+
+	public static class Event {
+		public String site;
+		public int id;
+		public long clicks;
+		public double revenue;
+		public int user;
+
+		public Event(String site, int id, long clicks, double revenue, int user) {
+			this.site = site;
+			this.id = id;
+			this.clicks = clicks;
+			this.revenue = revenue;
+			this.user = user;
+		}
+	}
+
+	public static class Result {
+		public String site;
+		public int id;
+		public long clicks;
+		public double revenue;
+		public Set<Integer> users;
+
+		@Override
+		public String toString() {
+			return site + ' ' + id + ' ' + clicks + ' ' + revenue + ' ' + (users != null ? new TreeSet<>(users) : null);
+		}
+	}
+
+	@Before
+	public void before() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		rowStorage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, executor, temporaryFolder.newFolder().toPath()));
+		columnarStorage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, executor, temporaryFolder.newFolder().toPath()))
+				.withColumnarFormat();
+	}
+
+	@Test
+	public void testQueriesMatchRowFormat() throws IOException {
+		Aggregation rowAggregation = createAggregation(rowStorage);
+		Aggregation columnarAggregation = createAggregation(columnarStorage);
+
+		consume(rowStorage, rowAggregation);
+		consume(columnarStorage, columnarAggregation);
+
+		assertQueriesMatch(rowAggregation, columnarAggregation);
+
+		AggregationDiff diff = await(columnarAggregation.consolidateMinKey());
+		assertTrue(!diff.getRemovedChunks().isEmpty());
+		columnarAggregation.getState().apply(diff);
+		await(columnarStorage.finish(diff.getAddedChunks().stream()
+				.map(chunk -> (long) chunk.getChunkId())
+				.collect(toSet())));
+
+		assertQueriesMatch(rowAggregation, columnarAggregation);
+	}
+
+	@Test
+	public void testReadProjection() {
+		List<String> fields = asList("clicks", "revenue", "users");
+		Class<Object> recordClass = createRecordClass(structure, structure.getKeys(), fields, classLoader);
+		Long chunkId = await(columnarStorage.createId());
+		List<Object> records = new ArrayList<>();
+		for (int i = 0; i < 20_000; i++) {
+			Object record = createRecord(recordClass, SITES[i / 5_000], i, i % 3, i * 0.25, new HashSet<>(asList(i % 10, i % 11)));
+			records.add(record);
+		}
+		await(StreamSupplier.ofIterable(records)
+				.streamTo(StreamConsumer.ofPromise(columnarStorage.write(structure, fields, recordClass, chunkId, classLoader)
+						.map(StreamConsumer::withLateBinding))));
+		await(columnarStorage.finish(Collections.singleton(chunkId)));
+
+		List<Object> all = await(await(columnarStorage.read(structure, fields, recordClass, chunkId, classLoader)).toList());
+		assertEquals(records.size(), all.size());
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(fieldsOf(records.get(i), "site", "id", "clicks", "revenue", "users"),
+					fieldsOf(all.get(i), "site", "id", "clicks", "revenue", "users"));
+		}
+
+		Class<Object> projectionClass = createRecordClass(structure, structure.getKeys(), asList("revenue"), classLoader);
+		List<Object> projection = await(await(columnarStorage.read(structure, asList("revenue"), projectionClass, chunkId, classLoader)).toList());
+		assertEquals(records.size(), projection.size());
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(asList(SITES[i / 5_000], i, i * 0.25), fieldsOf(projection.get(i), "site", "id", "revenue"));
+		}
+	}
+
+	private Aggregation createAggregation(AggregationChunkStorage<Long> storage) throws IOException {
+		return Aggregation.create(Eventloop.getCurrentEventloop(), executor, classLoader, storage, structure)
+				.withChunkSize(7_000)
+				.withTemporarySortDir(temporaryFolder.newFolder().toPath());
+	}
+
+	private static void consume(AggregationChunkStorage<Long> storage, Aggregation aggregation) {
+		consume(storage, aggregation, events(0, 30_000), "clicks", "revenue", "users");
+		consume(storage, aggregation, events(20_000, 5_000), "clicks", "revenue", "users");
+		consume(storage, aggregation, events(1_000, 3_000), "clicks", "users");
+	}
+
+	private static void consume(AggregationChunkStorage<Long> storage, Aggregation aggregation, List<Event> events, String... measures) {
+		Map<String, String> keyFields = new LinkedHashMap<>();
+		keyFields.put("site", "site");
+		keyFields.put("id", "id");
+		Map<String, String> measureFields = new LinkedHashMap<>();
+		for (String measure : measures) {
+			measureFields.put(measure, measure.equals("users") ? "user" : measure);
+		}
+		AggregationDiff diff = await(aggregation.consume(StreamSupplier.ofIterable(events), Event.class, keyFields, measureFields));
+		aggregation.getState().apply(diff);
+		await(storage.finish(diff.getAddedChunks().stream()
+				.map(chunk -> (long) chunk.getChunkId())
+				.collect(toSet())));
+	}
+
+	private void assertQueriesMatch(Aggregation expected, Aggregation actual) {
+		List<AggregationQuery> queries = asList(
+				AggregationQuery.create().withKeys("site", "id").withMeasures("clicks", "revenue", "users"),
+				AggregationQuery.create().withKeys("site", "id").withMeasures("clicks"),
+				AggregationQuery.create().withKeys("site").withMeasures("revenue"),
+				AggregationQuery.create().withKeys("id").withMeasures("users", "clicks"),
+				AggregationQuery.create().withKeys("site", "id").withMeasures("users")
+						.withPredicate(AggregationPredicates.eq("site", "github.com")));
+		for (AggregationQuery query : queries) {
+			assertEquals(query.toString(), query(expected, query), query(actual, query));
+		}
+	}
+
+	private List<String> query(Aggregation aggregation, AggregationQuery query) {
+		return await(aggregation.query(query, Result.class, DefiningClassLoader.create(classLoader)).toList())
+				.stream()
+				.map(Result::toString)
+				.collect(toList());
+	}
+
+	private static List<Event> events(int from, int count) {
+		List<Event> events = new ArrayList<>();
+		for (int i = from; i < from + count; i++) {
+			events.add(new Event(SITES[i % SITES.length], i % 10_000, 1, i * 0.5, i % 7));
+		}
+		return events;
+	}
+
+	private static Object createRecord(Class<Object> recordClass, String site, int id, long clicks, double revenue, Set<Integer> users) {
+		try {
+			Object record = recordClass.newInstance();
+			recordClass.getField("site").set(record, site);
+			recordClass.getField("id").set(record, id);
+			recordClass.getField("clicks").set(record, clicks);
+			recordClass.getField("revenue").set(record, revenue);
+			recordClass.getField("users").set(record, users);
+			return record;
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static List<Object> fieldsOf(Object record, String... fields) {
+		try {
+			List<Object> result = new ArrayList<>();
+			for (String field : fields) {
+				result.add(record.getClass().getField(field).get(record));
+			}
+			return result;
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
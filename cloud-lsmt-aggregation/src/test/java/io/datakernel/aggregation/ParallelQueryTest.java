@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.aggregation;
+
+import io.datakernel.aggregation.ot.AggregationDiff;
+import io.datakernel.aggregation.ot.AggregationStructure;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.aggregation.AggregationPredicates.*;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.*;
+import static io.datakernel.aggregation.measure.Measures.max;
+import static io.datakernel.aggregation.measure.Measures.sum;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ParallelQueryTest {
+	private static final String[] SITES = {"google.com", "github.com", "example.com", "wikipedia.org"};
+	private static final int WORKERS = 3;
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private final DefiningClassLoader classLoader = DefiningClassLoader.create();
+	private final AggregationStructure structure = AggregationStructure.create(ChunkIdCodec.ofLong())
+			.withKey("site", ofString())
+			.withKey("id", ofInt())
+			.withMeasure("clicks", sum(ofLong()))
+			.withMeasure("revenue", sum(ofDouble()))
+			.withMeasure("maxRevenue", max(ofDouble()));
+
+	private final List<Eventloop> workers = new ArrayList<>();
+	private final List<Thread> workerThreads = new ArrayList<>();
+
+	private Path storageDir;
+	private RemoteFsChunkStorage<Long> storage;
+
+	public static class Event {
+		public String site;
+		public int id;
+		public long clicks;
+		public double revenue;
+
+		public Event(String site, int id, long clicks, double revenue) {
+			this.site = site;
+			this.id = id;
+			this.clicks = clicks;
+			this.revenue = revenue;
+		}
+	}
+
+	public static class Result {
+		public String site;
+		public int id;
+		public long clicks;
+		public double revenue;
+		public double maxRevenue;
+
+		@Override
+		public String toString() {
+			return site + ' ' + id + ' ' + clicks + ' ' + revenue + ' ' + maxRevenue;
+		}
+	}
+
+	@Before
+	public void before() throws IOException {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		storageDir = temporaryFolder.newFolder().toPath();
+		storage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+				LocalFsClient.create(eventloop, executor, storageDir));
+		for (int i = 0; i < WORKERS; i++) {
+			Eventloop worker = Eventloop.create().withThreadName("worker-" + i);
+			worker.keepAlive(true);
+			Thread thread = new Thread(worker);
+			thread.start();
+			workers.add(worker);
+			workerThreads.add(thread);
+		}
+	}
+
+	@After
+	public void after() throws InterruptedException {
+		for (Eventloop worker : workers) {
+			worker.execute(() -> worker.keepAlive(false));
+		}
+		for (Thread thread : workerThreads) {
+			thread.join();
+		}
+		executor.shutdown();
+	}
+
+	@Test
+	public void testParallelQueryMatchesSequential() throws IOException {
+		Aggregation sequential = createAggregation();
+		Aggregation parallel = createAggregation()
+				.withQueryWorkers(workers, worker -> RemoteFsChunkStorage.create(worker, ChunkIdCodec.ofLong(), new IdGeneratorStub(),
+						LocalFsClient.create(worker, executor, storageDir)))
+				.withParallelQueryMinChunks(2);
+
+		consume(sequential, parallel, events(0, 20_000), "clicks", "revenue", "maxRevenue");
+		consume(sequential, parallel, events(5_000, 10_000), "clicks", "revenue", "maxRevenue");
+		consume(sequential, parallel, events(12_000, 8_000), "clicks");
+		assertFalse(parallel.getState().getChunks().size() < WORKERS * 2);
+
+		List<AggregationQuery> queries = asList(
+				AggregationQuery.create().withKeys("site", "id").withMeasures("clicks", "revenue", "maxRevenue"),
+				AggregationQuery.create().withKeys("site", "id").withMeasures("clicks"),
+				AggregationQuery.create().withKeys("site").withMeasures("revenue", "maxRevenue"),
+				AggregationQuery.create().withKeys("id").withMeasures("clicks", "maxRevenue"),
+				AggregationQuery.create().withKeys("site", "id").withMeasures("clicks", "revenue")
+						.withPredicate(or(eq("site", "github.com"), between("id", 100, 200))));
+		for (AggregationQuery query : queries) {
+			List<String> expected = query(sequential, query);
+			assertFalse(expected.isEmpty());
+			assertEquals(query.toString(), expected, query(parallel, query));
+		}
+	}
+
+	@Test
+	public void testPartitionChunks() {
+		List<AggregationChunk> chunks = new ArrayList<>();
+		for (int i = 9; i >= 0; i--) {
+			chunks.add(AggregationChunk.create((long) i, asList("clicks"),
+					PrimaryKey.ofArray("a", i * 10), PrimaryKey.ofArray("a", i * 10 + 9), i == 0 ? 700 : 100));
+		}
+
+		List<List<AggregationChunk>> partitions = Aggregation.partitionChunks(chunks, 3);
+		assertEquals(asList(asList(0L), asList(1L, 2L, 3L, 4L), asList(5L, 6L, 7L, 8L, 9L)), partitions.stream()
+				.map(partition -> partition.stream().map(AggregationChunk::getChunkId).collect(toList()))
+				.collect(toList()));
+
+		partitions = Aggregation.partitionChunks(chunks.subList(0, 3), 3);
+		assertEquals(3, partitions.size());
+	}
+
+	private Aggregation createAggregation() throws IOException {
+		return Aggregation.create(Eventloop.getCurrentEventloop(), executor, classLoader, storage, structure)
+				.withChunkSize(3_000)
+				.withTemporarySortDir(temporaryFolder.newFolder().toPath());
+	}
+
+	private void consume(Aggregation sequential, Aggregation parallel, List<Event> events, String... measures) {
+		Map<String, String> keyFields = new LinkedHashMap<>();
+		keyFields.put("site", "site");
+		keyFields.put("id", "id");
+		Map<String, String> measureFields = new LinkedHashMap<>();
+		for (String measure : measures) {
+			measureFields.put(measure, measure.equals("maxRevenue") ? "revenue" : measure);
+		}
+		AggregationDiff diff = await(sequential.consume(StreamSupplier.ofIterable(events), Event.class, keyFields, measureFields));
+		sequential.getState().apply(diff);
+		parallel.getState().apply(diff);
+		await(storage.finish(diff.getAddedChunks().stream()
+				.map(chunk -> (long) chunk.getChunkId())
+				.collect(toSet())));
+	}
+
+	private List<String> query(Aggregation aggregation, AggregationQuery query) {
+		return await(aggregation.query(query, Result.class, DefiningClassLoader.create(classLoader)).toList())
+				.stream()
+				.map(Result::toString)
+				.collect(toList());
+	}
+
+	private static List<Event> events(int from, int count) {
+		List<Event> events = new ArrayList<>();
+		for (int i = from; i < from + count; i++) {
+			events.add(new Event(SITES[i % SITES.length], i % 5_000, 1, (i % 13) * 0.5));
+		}
+		return events;
+	}
+}
@@ -50,6 +50,7 @@ import io.datakernel.ot.OTState;
 import io.datakernel.promise.Promise;
 import io.datakernel.promise.Promises;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,6 +85,7 @@ import static java.util.Collections.sort;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 
 /**
  * Represents an OLAP cube. Provides methods for loading and querying data.
@@ -129,6 +131,9 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 	private int aggregationsSorterItemsInMemory = Aggregation.DEFAULT_SORTER_ITEMS_IN_MEMORY;
 	private int aggregationsMaxChunksToConsolidate = Aggregation.DEFAULT_MAX_CHUNKS_TO_CONSOLIDATE;
 	private boolean aggregationsIgnoreChunkReadingExceptions = false;
+	private int aggregationsParallelQueryMinChunks = Aggregation.DEFAULT_PARALLEL_QUERY_MIN_CHUNKS;
+	private List<Eventloop> queryWorkers = Collections.emptyList();
+	private final Map<Eventloop, AggregationChunkStorage> queryWorkerStorages = new HashMap<>();
 
 	private int maxOverlappingChunksToProcessLogs = Cube.DEFAULT_OVERLAPPING_CHUNKS_THRESHOLD;
 	private Duration maxIncrementalReloadPeriod = Aggregation.DEFAULT_MAX_INCREMENTAL_RELOAD_PERIOD;
@@ -154,6 +159,8 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 	private final Map<String, AggregationContainer> aggregations = new LinkedHashMap<>();
 
 	private CubeClassLoaderCache classLoaderCache;
+	@Nullable
+	private CubeQueryResultCache queryResultCache;
 
 	// JMX
 	private final AggregationStats aggregationStats = new AggregationStats();
@@ -211,6 +218,11 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return this;
 	}
 
+	public Cube withQueryResultCache(CubeQueryResultCache queryResultCache) {
+		this.queryResultCache = queryResultCache;
+		return this;
+	}
+
 	public Cube withDimension(String dimensionId, FieldType type) {
 		addDimension(dimensionId, type);
 		return this;
@@ -242,6 +254,7 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		private final List<String> measures = new ArrayList<>();
 		private AggregationPredicate predicate = AggregationPredicates.alwaysTrue();
 		private final List<String> partitioningKey = new ArrayList<>();
+		private final List<String> bloomFilterDimensions = new ArrayList<>();
 		private int chunkSize;
 		private int reducerBufferSize;
 		private int sorterItemsInMemory;
@@ -292,6 +305,11 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 			return this;
 		}
 
+		public AggregationConfig withBloomFilters(String... dimensions) {
+			this.bloomFilterDimensions.addAll(asList(dimensions));
+			return this;
+		}
+
 		public AggregationConfig withChunkSize(int chunkSize) {
 			this.chunkSize = chunkSize;
 			return this;
@@ -356,7 +374,8 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 						s.withIgnoredMeasure(measureId, measure.getFieldType());
 					}
 				}))
-				.withPartitioningKey(config.partitioningKey);
+				.withPartitioningKey(config.partitioningKey)
+				.initialize(s -> config.bloomFilterDimensions.forEach(s::withBloomFilter));
 
 		Aggregation aggregation = Aggregation.create(eventloop, executor, classLoader, aggregationChunkStorage, structure)
 				.withTemporarySortDir(temporarySortDir)
@@ -365,6 +384,8 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 				.withSorterItemsInMemory(config.sorterItemsInMemory != 0 ? config.sorterItemsInMemory : aggregationsSorterItemsInMemory)
 				.withMaxChunksToConsolidate(config.maxChunksToConsolidate != 0 ? config.maxChunksToConsolidate : aggregationsMaxChunksToConsolidate)
 				.withIgnoreChunkReadingExceptions(aggregationsIgnoreChunkReadingExceptions)
+				.withQueryWorkers(queryWorkers, queryWorkerStorages::get)
+				.withParallelQueryMinChunks(aggregationsParallelQueryMinChunks)
 				.withStats(aggregationStats);
 
 		aggregations.put(config.id, new AggregationContainer(aggregation, config.measures, config.predicate));
@@ -445,13 +466,20 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		for (AggregationContainer container : aggregations.values()) {
 			container.aggregation.getState().init();
 		}
+		if (queryResultCache != null) {
+			queryResultCache.clear();
+		}
 	}
 
 	@Override
 	public void apply(CubeDiff op) {
 		for (String aggregationId : op.keySet()) {
 			AggregationDiff aggregationDiff = op.get(aggregationId);
-			aggregations.get(aggregationId).aggregation.getState().apply(aggregationDiff);
+			Aggregation aggregation = aggregations.get(aggregationId).aggregation;
+			aggregation.getState().apply(aggregationDiff);
+			if (queryResultCache != null) {
+				queryResultCache.onDiff(aggregation, aggregationDiff);
+			}
 		}
 	}
 
@@ -758,6 +786,22 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return classLoader;
 	}
 
+	/**
+	 * Attributes are resolved by external resolvers, which may change without any diff applied to the cube,
+	 * so results which refer to them are not cached
+	 */
+	private boolean hasResolvedAttributes(CubeQuery cubeQuery) {
+		for (Collection<String> fields : Arrays.<Collection<String>>asList(cubeQuery.getAttributes(),
+				cubeQuery.getWhere().getDimensions(), cubeQuery.getHaving().getDimensions())) {
+			for (String field : fields) {
+				if (attributes.containsKey(field)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	// region temp query() method
 	@Override
 	public Promise<QueryResult> query(CubeQuery cubeQuery) throws QueryException {
@@ -765,11 +809,32 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 				new LinkedHashSet<>(cubeQuery.getAttributes()),
 				new LinkedHashSet<>(cubeQuery.getMeasures()),
 				cubeQuery.getWhere().getDimensions()));
+		CubeQuery cacheKey = null;
+		long cacheVersion = 0;
+		if (queryResultCache != null && cubeQuery.getReportType() != ReportType.METADATA && !hasResolvedAttributes(cubeQuery)) {
+			cacheKey = CubeQueryResultCache.normalize(cubeQuery);
+			QueryResult cachedResult = queryResultCache.get(cacheKey);
+			if (cachedResult != null) {
+				return Promise.of(cachedResult);
+			}
+			cacheVersion = queryResultCache.getVersion();
+		}
+		CubeQuery finalCacheKey = cacheKey;
+		long finalCacheVersion = cacheVersion;
 		long queryStarted = eventloop.currentTimeMillis();
-		return new RequestContext<>().execute(queryClassLoader, cubeQuery)
+		RequestContext<Object> requestContext = new RequestContext<>();
+		return requestContext.execute(queryClassLoader, cubeQuery)
 				.whenComplete((queryResult, e) -> {
 					if (e == null) {
 						queryTimes.recordValue((int) (eventloop.currentTimeMillis() - queryStarted));
+						if (finalCacheKey != null) {
+							assert queryResultCache != null;
+							queryResultCache.put(finalCacheKey, finalCacheVersion,
+									requestContext.compatibleAggregations.stream()
+											.map(container -> container.aggregation)
+											.collect(toSet()),
+									queryResult);
+						}
 					} else {
 						queryErrors++;
 						queryLastError = e;
@@ -1273,6 +1338,42 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return this;
 	}
 
+	/**
+	 * Enables parallel execution of aggregation queries on the given worker eventloops,
+	 * should be called before aggregations are added.
+	 *
+	 * @see Aggregation#withQueryWorkers(List, Function)
+	 */
+	public Cube withQueryWorkers(List<Eventloop> workerEventloops,
+			Function<Eventloop, ? extends AggregationChunkStorage> storageFactory) {
+		checkState(aggregations.isEmpty(), "Cannot set query workers while aggregations are present");
+		this.queryWorkers = new ArrayList<>(workerEventloops);
+		for (Eventloop workerEventloop : workerEventloops) {
+			queryWorkerStorages.put(workerEventloop, storageFactory.apply(workerEventloop));
+		}
+		return this;
+	}
+
+	@JmxAttribute
+	public int getAggregationsParallelQueryMinChunks() {
+		return aggregationsParallelQueryMinChunks;
+	}
+
+	@JmxAttribute
+	public void setAggregationsParallelQueryMinChunks(int aggregationsParallelQueryMinChunks) {
+		checkArgument(aggregationsParallelQueryMinChunks > 0, "Min chunks per worker should be positive");
+		this.aggregationsParallelQueryMinChunks = aggregationsParallelQueryMinChunks;
+		for (AggregationContainer aggregationContainer : aggregations.values()) {
+			aggregationContainer.aggregation.setParallelQueryMinChunks(aggregationsParallelQueryMinChunks);
+		}
+	}
+
+	public Cube withAggregationsParallelQueryMinChunks(int aggregationsParallelQueryMinChunks) {
+		checkArgument(aggregationsParallelQueryMinChunks > 0, "Min chunks per worker should be positive");
+		this.aggregationsParallelQueryMinChunks = aggregationsParallelQueryMinChunks;
+		return this;
+	}
+
 	@JmxAttribute
 	public int getMaxOverlappingChunksToProcessLogs() {
 		return maxOverlappingChunksToProcessLogs;
@@ -1318,6 +1419,12 @@ public final class Cube implements ICube, OTState<CubeDiff>, Initializable<Cube>
 		return queryLastError;
 	}
 
+	@Nullable
+	@JmxAttribute
+	public CubeQueryResultCache getQueryResultCache() {
+		return queryResultCache;
+	}
+
 	@JmxAttribute
 	public AggregationStats getAggregationStats() {
 		return aggregationStats;
@@ -21,6 +21,7 @@ import io.datakernel.aggregation.AggregationPredicates;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import static java.util.Arrays.asList;
 
@@ -198,6 +199,26 @@ public final class CubeQuery {
 
 	// endregion
 
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		CubeQuery that = (CubeQuery) o;
+		return attributes.equals(that.attributes) &&
+				measures.equals(that.measures) &&
+				where.equals(that.where) &&
+				having.equals(that.having) &&
+				Objects.equals(limit, that.limit) &&
+				Objects.equals(offset, that.offset) &&
+				orderings.equals(that.orderings) &&
+				reportType == that.reportType;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(attributes, measures, where, having, limit, offset, orderings, reportType);
+	}
+
 	@Override
 	public String toString() {
 		return "CubeQuery{" +
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.cube;
+
+import io.datakernel.aggregation.Aggregation;
+import io.datakernel.aggregation.AggregationChunk;
+import io.datakernel.aggregation.ot.AggregationDiff;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.jmx.api.JmxOperation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * A bounded LRU cache of results of {@link Cube#query(CubeQuery)}.
+ * <p>
+ * Results are valid for the current state of a cube only. When a diff is applied to the cube,
+ * only those results are dropped which were computed by the changed aggregations
+ * and whose predicate might match the added or removed chunks.
+ * Results of queries which refer to attributes of {@link io.datakernel.cube.attributes.AttributeResolver resolvers}
+ * are never cached, as resolvers may change independently of the cube.
+ * <p>
+ * Cached results are shared between queries, so records of a result must not be modified.
+ */
+public final class CubeQueryResultCache {
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+	public static final int DEFAULT_MAX_RECORDS = 1_000_000;
+
+	// rough estimation of a memory used by a cached record and by each of its fields
+	private static final int RECORD_OVERHEAD_BYTES = 48;
+	private static final int FIELD_OVERHEAD_BYTES = 24;
+
+	static final class Entry {
+		final QueryResult result;
+		final CubeQuery query;
+		final Set<Aggregation> aggregations;
+		final int records;
+		final long estimatedBytes;
+
+		Entry(QueryResult result, CubeQuery query, Set<Aggregation> aggregations) {
+			this.result = result;
+			this.query = query;
+			this.aggregations = aggregations;
+			this.records = result.getRecords().size() + 1;
+			this.estimatedBytes = (long) records *
+					(RECORD_OVERHEAD_BYTES + FIELD_OVERHEAD_BYTES * result.getRecordScheme().getFields().size());
+		}
+	}
+
+	private final LinkedHashMap<CubeQuery, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private int maxRecords = DEFAULT_MAX_RECORDS;
+
+	private int cachedRecords;
+	private long cachedBytes;
+	private long version;
+
+	// JMX
+	private long requests;
+	private long hits;
+	private long evictions;
+	private long invalidations;
+
+	private CubeQueryResultCache() {
+	}
+
+	public static CubeQueryResultCache create() {
+		return new CubeQueryResultCache();
+	}
+
+	public CubeQueryResultCache withMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum total number of cached records, which bounds the memory used by the cache
+	 */
+	public CubeQueryResultCache withMaxRecords(int maxRecords) {
+		this.maxRecords = maxRecords;
+		return this;
+	}
+
+	/**
+	 * Returns a query with simplified predicates and copied lists, which is used as a key of the cache
+	 */
+	static CubeQuery normalize(CubeQuery query) {
+		return CubeQuery.create()
+				.withAttributes(new ArrayList<>(query.getAttributes()))
+				.withMeasures(new ArrayList<>(query.getMeasures()))
+				.withWhere(query.getWhere().simplify())
+				.withHaving(query.getHaving().simplify())
+				.withOrderings(new ArrayList<>(query.getOrderings()))
+				.withLimit(query.getLimit())
+				.withOffset(query.getOffset())
+				.withReportType(query.getReportType());
+	}
+
+	@Nullable
+	QueryResult get(CubeQuery normalizedQuery) {
+		requests++;
+		Entry entry = cache.get(normalizedQuery);
+		if (entry == null) return null;
+		hits++;
+		return entry.result;
+	}
+
+	/**
+	 * Returns a version of the cube state, which should be passed to {@link #put} when the query completes
+	 */
+	long getVersion() {
+		return version;
+	}
+
+	void put(CubeQuery normalizedQuery, long version, Set<Aggregation> aggregations, QueryResult result) {
+		if (version != this.version) return; // the state has changed while the query was running
+		Entry entry = new Entry(result, normalizedQuery, aggregations);
+		if (entry.records > maxRecords) return;
+		Entry old = cache.put(normalizedQuery, entry);
+		if (old != null) {
+			onRemoved(old);
+		}
+		cachedRecords += entry.records;
+		cachedBytes += entry.estimatedBytes;
+
+		Iterator<Entry> iterator = cache.values().iterator();
+		while ((cache.size() > maxEntries || cachedRecords > maxRecords) && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			onRemoved(eldest);
+			evictions++;
+		}
+	}
+
+	void onDiff(Aggregation aggregation, AggregationDiff diff) {
+		version++;
+		for (Iterator<Entry> iterator = cache.values().iterator(); iterator.hasNext(); ) {
+			Entry entry = iterator.next();
+			if (entry.aggregations.contains(aggregation) &&
+					(mightMatch(aggregation, entry.query, diff.getAddedChunks()) ||
+							mightMatch(aggregation, entry.query, diff.getRemovedChunks()))) {
+				iterator.remove();
+				onRemoved(entry);
+				invalidations++;
+			}
+		}
+	}
+
+	private static boolean mightMatch(Aggregation aggregation, CubeQuery query, Set<AggregationChunk> chunks) {
+		for (AggregationChunk chunk : chunks) {
+			if (aggregation.getState().chunkMightMatch(chunk, query.getWhere())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void onRemoved(Entry entry) {
+		cachedRecords -= entry.records;
+		cachedBytes -= entry.estimatedBytes;
+	}
+
+	// region JMX
+	@JmxOperation
+	public void clear() {
+		version++;
+		cache.clear();
+		cachedRecords = 0;
+		cachedBytes = 0;
+	}
+
+	@JmxAttribute
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@JmxAttribute
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	@JmxAttribute
+	public int getMaxRecords() {
+		return maxRecords;
+	}
+
+	@JmxAttribute
+	public void setMaxRecords(int maxRecords) {
+		this.maxRecords = maxRecords;
+	}
+
+	@JmxAttribute
+	public int getEntries() {
+		return cache.size();
+	}
+
+	@JmxAttribute
+	public int getCachedRecords() {
+		return cachedRecords;
+	}
+
+	@JmxAttribute
+	public long getEstimatedMemoryBytes() {
+		return cachedBytes;
+	}
+
+	@JmxAttribute
+	public long getRequests() {
+		return requests;
+	}
+
+	@JmxAttribute
+	public long getHits() {
+		return hits;
+	}
+
+	@JmxAttribute
+	public double getHitRatio() {
+		return requests == 0 ? 0.0 : (double) hits / requests;
+	}
+
+	@JmxAttribute
+	public long getEvictions() {
+		return evictions;
+	}
+
+	@JmxAttribute
+	public long getInvalidations() {
+		return invalidations;
+	}
+	// endregion
+}
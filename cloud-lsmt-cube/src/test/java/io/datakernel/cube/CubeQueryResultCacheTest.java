@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.cube;
+
+import io.datakernel.aggregation.AggregationChunkStorage;
+import io.datakernel.aggregation.ChunkIdCodec;
+import io.datakernel.aggregation.QueryException;
+import io.datakernel.aggregation.RemoteFsChunkStorage;
+import io.datakernel.codegen.DefiningClassLoader;
+import io.datakernel.cube.attributes.AbstractAttributeResolver;
+import io.datakernel.cube.bean.DataItem1;
+import io.datakernel.cube.ot.CubeDiff;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.remotefs.LocalFsClient;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static io.datakernel.aggregation.AggregationPredicates.*;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofInt;
+import static io.datakernel.aggregation.fieldtype.FieldTypes.ofLong;
+import static io.datakernel.aggregation.measure.Measures.sum;
+import static io.datakernel.cube.Cube.AggregationConfig.id;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.Assert.*;
+
+public final class CubeQueryResultCacheTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private final Executor executor = newSingleThreadExecutor();
+
+	private AggregationChunkStorage<Long> chunkStorage;
+	private CubeQueryResultCache cache;
+	private Cube cube;
+
+	@Before
+	public void setUp() throws Exception {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		LocalFsClient storage = LocalFsClient.create(eventloop, executor, temporaryFolder.newFolder().toPath());
+		chunkStorage = RemoteFsChunkStorage.create(eventloop, ChunkIdCodec.ofLong(), new IdGeneratorStub(), storage);
+		cache = CubeQueryResultCache.create();
+		cube = Cube.create(eventloop, executor, DefiningClassLoader.create(), chunkStorage)
+				.withQueryResultCache(cache)
+				.withDimension("key1", ofInt())
+				.withDimension("key2", ofInt())
+				.withMeasure("metric1", sum(ofLong()))
+				.withMeasure("metric2", sum(ofLong()))
+				.withAggregation(id("detailedAggregation").withDimensions("key1", "key2").withMeasures("metric1", "metric2"));
+	}
+
+	@Test
+	public void testInvalidationByChunkRange() throws QueryException {
+		await(consume(new DataItem1(1, 1, 10, 1), new DataItem1(2, 1, 20, 2)));
+
+		CubeQuery query = CubeQuery.create()
+				.withAttributes("key1", "key2")
+				.withMeasures("metric1")
+				.withWhere(and(eq("key1", 1), alwaysTrue()));
+		QueryResult result = await(cube.query(query));
+		assertEquals(10L, result.getRecords().get(0).get("metric1"));
+		assertSame(result, await(cube.query(CubeQuery.create()
+				.withAttributes("key1", "key2")
+				.withMeasures("metric1")
+				.withWhere(eq("key1", 1)))));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getEntries());
+		assertTrue(cache.getEstimatedMemoryBytes() > 0);
+
+		// chunk outside of the queried range keeps the result
+		await(consume(new DataItem1(5, 1, 50, 5)));
+		assertSame(result, await(cube.query(query)));
+		assertEquals(0, cache.getInvalidations());
+
+		// chunk within the queried range drops the result
+		await(consume(new DataItem1(1, 2, 100, 1)));
+		assertEquals(1, cache.getInvalidations());
+		QueryResult newResult = await(cube.query(query));
+		assertNotSame(result, newResult);
+		assertEquals(2, newResult.getRecords().size());
+		assertEquals(100L, newResult.getRecords().get(1).get("metric1"));
+		assertEquals(2, cache.getHits());
+	}
+
+	@Test
+	public void testEviction() throws QueryException {
+		cache.setMaxEntries(2);
+		await(consume(new DataItem1(1, 1, 10, 1), new DataItem1(2, 1, 20, 2), new DataItem1(3, 1, 30, 3)));
+
+		for (int key1 : asList(1, 2, 3)) {
+			await(cube.query(CubeQuery.create()
+					.withAttributes("key1")
+					.withMeasures("metric1", "metric2")
+					.withWhere(eq("key1", key1))));
+		}
+		assertEquals(2, cache.getEntries());
+		assertEquals(1, cache.getEvictions());
+		assertEquals(0, cache.getHits());
+
+		cube.init();
+		assertEquals(0, cache.getEntries());
+		assertEquals(0, cache.getCachedRecords());
+	}
+
+	@Test
+	public void testResolvedAttributesAreNotCached() throws QueryException {
+		Map<Integer, String> names = new HashMap<>();
+		names.put(1, "first");
+		cube.withAttribute("key1.name", new AbstractAttributeResolver<Integer, String>() {
+			@Override
+			public Class<?>[] getKeyTypes() {
+				return new Class[]{int.class};
+			}
+
+			@Override
+			protected Integer toKey(Object[] keyArray) {
+				return (int) keyArray[0];
+			}
+
+			@Override
+			public Map<String, Class<?>> getAttributeTypes() {
+				return singletonMap("name", String.class);
+			}
+
+			@Override
+			protected Object[] toAttributes(String attributes) {
+				return new Object[]{attributes};
+			}
+
+			@Override
+			protected String resolveAttributes(Integer key) {
+				return names.get(key);
+			}
+		});
+		await(consume(new DataItem1(1, 1, 10, 1)));
+
+		CubeQuery query = CubeQuery.create()
+				.withAttributes("key1", "key1.name")
+				.withMeasures("metric1");
+		assertEquals("first", await(cube.query(query)).getRecords().get(0).get("key1.name"));
+
+		names.put(1, "renamed");
+		assertEquals("renamed", await(cube.query(query)).getRecords().get(0).get("key1.name"));
+		assertEquals(0, cache.getRequests());
+		assertEquals(0, cache.getEntries());
+	}
+
+	private Promise<Void> consume(DataItem1... items) {
+		StreamConsumerWithResult<DataItem1, CubeDiff> consumer = cube.consume(DataItem1.class);
+		return StreamSupplier.of(items)
+				.streamTo(consumer.getConsumer())
+				.then($ -> consumer.getResult())
+				.then(cubeDiff -> chunkStorage.finish(cubeDiff.<Long>addedChunks().collect(toSet()))
+						.whenResult($ -> cube.apply(cubeDiff)));
+	}
+}
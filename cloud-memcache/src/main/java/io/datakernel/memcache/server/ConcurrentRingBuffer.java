@@ -0,0 +1,442 @@
+package io.datakernel.memcache.server;
+
+import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import static io.datakernel.common.StringFormatUtils.formatDuration;
+import static io.datakernel.eventloop.jmx.MBeanFormat.formatTimestamp;
+import static java.lang.System.currentTimeMillis;
+
+/**
+ * A variant of {@link RingBuffer} which may be shared by several eventloops.
+ * <p>
+ * Items are appended to the current buffer as records of a {@code [hash, key size, data size, key, data]} layout,
+ * while a fixed-size open-addressing index maps keys to the record addresses.
+ * Reads are lock-free: the record is copied out of a buffer optimistically and the copy is discarded
+ * if the buffer has been rotated meanwhile. Writes and rotations are serialized.
+ * <p>
+ * Eviction follows the CLOCK scheme: each read marks the index entry as referenced,
+ * and before the oldest buffer is cleared, referenced items are copied forward
+ * to the beginning of the same buffer, getting a second chance.
+ * <p>
+ * Buffers may be allocated off-heap, so that a large cache does not add up to GC pauses.
+ */
+public final class ConcurrentRingBuffer implements ConcurrentRingBufferMBean {
+	private static final int HEADER_SIZE = 12;
+	private static final int PROBES = 8;
+	private static final int AVERAGE_RECORD_SIZE = 256;
+	private static final int MIN_INDEX_CAPACITY = 1 << 10;
+	private static final int MAX_INDEX_CAPACITY = 1 << 30;
+
+	private static final long REFERENCED = 1L << 32;
+
+	private static final class Buffer {
+		private final ByteBuffer buffer;
+		@Nullable
+		private final byte[] array;
+		private final StampedLock lock = new StampedLock();
+
+		private int generation;
+		private int position;
+		private long timestamp;
+
+		Buffer(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.array = buffer.hasArray() ? buffer.array() : null;
+			this.timestamp = currentTimeMillis();
+		}
+
+		int capacity() {
+			return buffer.capacity();
+		}
+
+		int getInt(int pos) {
+			return buffer.getInt(pos);
+		}
+
+		void putInt(int pos, int value) {
+			buffer.putInt(pos, value);
+		}
+
+		void get(int pos, byte[] dst, int dstPos, int length) {
+			if (array != null) {
+				System.arraycopy(array, pos, dst, dstPos, length);
+			} else {
+				ByteBuffer dup = buffer.duplicate();
+				dup.position(pos);
+				dup.get(dst, dstPos, length);
+			}
+		}
+
+		void put(int pos, byte[] src, int srcPos, int length) {
+			if (array != null) {
+				System.arraycopy(src, srcPos, array, pos, length);
+			} else {
+				ByteBuffer dup = buffer.duplicate();
+				dup.position(pos);
+				dup.put(src, srcPos, length);
+			}
+		}
+
+		boolean equals(int pos, byte[] key) {
+			for (int i = 0; i < key.length; i++) {
+				if (buffer.get(pos + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Moves a region towards the beginning of the buffer, the regions may overlap
+		 */
+		void moveBack(int from, int to, int length, byte[] scratch) {
+			if (array != null) {
+				System.arraycopy(array, from, array, to, length);
+				return;
+			}
+			for (int i = 0; i < length; i += scratch.length) {
+				int chunk = Math.min(scratch.length, length - i);
+				get(from + i, scratch, 0, chunk);
+				put(to + i, scratch, 0, chunk);
+			}
+		}
+	}
+
+	private final Buffer[] ringBuffers;
+	private final AtomicLongArray index;
+	private final int indexMask;
+	private final boolean offHeap;
+	private final byte[] scratch = new byte[4096];
+
+	private volatile int currentGeneration = 1;
+
+	// JMX
+	private final LongAdder statsPuts = new LongAdder();
+	private final LongAdder statsGets = new LongAdder();
+	private final LongAdder statsMisses = new LongAdder();
+	private final LongAdder statsSecondChances = new LongAdder();
+	private volatile int countCycles = 0;
+
+	private ConcurrentRingBuffer(Buffer[] ringBuffers, int indexCapacity, boolean offHeap) {
+		this.ringBuffers = ringBuffers;
+		this.index = new AtomicLongArray(indexCapacity);
+		this.indexMask = indexCapacity - 1;
+		this.offHeap = offHeap;
+		ringBuffers[0].generation = 1;
+	}
+
+	public static ConcurrentRingBuffer create(int amountBuffers, long bufferCapacity) {
+		return create(amountBuffers, bufferCapacity, defaultIndexCapacity(amountBuffers, bufferCapacity), false);
+	}
+
+	public static ConcurrentRingBuffer createOffHeap(int amountBuffers, long bufferCapacity) {
+		return create(amountBuffers, bufferCapacity, defaultIndexCapacity(amountBuffers, bufferCapacity), true);
+	}
+
+	/**
+	 * Creates a ring buffer
+	 *
+	 * @param amountBuffers  number of buffers in a ring
+	 * @param bufferCapacity capacity of each buffer in bytes
+	 * @param indexCapacity  number of index entries, it is rounded up to a power of two
+	 * @param offHeap        whether buffers should be allocated as direct byte buffers
+	 */
+	public static ConcurrentRingBuffer create(int amountBuffers, long bufferCapacity, int indexCapacity, boolean offHeap) {
+		if (amountBuffers <= 0) throw new IllegalArgumentException("Amount of buffers should be positive");
+		if (bufferCapacity <= 0 || bufferCapacity > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Buffer capacity should be positive and should not exceed 2GB");
+		}
+		Buffer[] ringBuffers = new Buffer[amountBuffers];
+		for (int i = 0; i < amountBuffers; i++) {
+			ringBuffers[i] = new Buffer(offHeap ?
+					ByteBuffer.allocateDirect((int) bufferCapacity) :
+					ByteBuffer.allocate((int) bufferCapacity));
+		}
+		int capacity = MIN_INDEX_CAPACITY;
+		while (capacity < indexCapacity && capacity < MAX_INDEX_CAPACITY) {
+			capacity <<= 1;
+		}
+		return new ConcurrentRingBuffer(ringBuffers, capacity, offHeap);
+	}
+
+	private static int defaultIndexCapacity(int amountBuffers, long bufferCapacity) {
+		return (int) Math.min(MAX_INDEX_CAPACITY, amountBuffers * bufferCapacity / AVERAGE_RECORD_SIZE);
+	}
+
+	private static int hashOf(byte[] key) {
+		int result = 0;
+		for (byte element : key) {
+			result = 92821 * result + element;
+		}
+		return result;
+	}
+
+	private static long addressOf(int generation, int offset) {
+		return ((long) generation << 33) | (offset & 0xFFFFFFFFL);
+	}
+
+	private static int generationOf(long address) {
+		return (int) (address >>> 33);
+	}
+
+	private static int offsetOf(long address) {
+		return (int) address;
+	}
+
+	private Buffer bufferOf(int generation) {
+		return ringBuffers[(generation - 1) % ringBuffers.length];
+	}
+
+	/**
+	 * Returns a copy of the latest data which has been put for a given key, can be called from any thread
+	 *
+	 * @param key of your item
+	 * @return the item in case it is still present in one of the buffers, or {@code null} otherwise
+	 */
+	@Nullable
+	public Slice get(byte[] key) {
+		statsGets.increment();
+		int hash = hashOf(key);
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (hash + i) & indexMask;
+			long address = index.get(slot);
+			if (address == 0) continue;
+			int generation = generationOf(address);
+			Buffer buffer = bufferOf(generation);
+			long stamp = buffer.lock.tryOptimisticRead();
+			if (stamp == 0 || buffer.generation != generation) continue;
+			byte[] data = readData(buffer, offsetOf(address), hash, key);
+			if (!buffer.lock.validate(stamp) || data == null) continue;
+			if ((address & REFERENCED) == 0) {
+				index.compareAndSet(slot, address, address | REFERENCED);
+			}
+			return new Slice(data);
+		}
+		statsMisses.increment();
+		return null;
+	}
+
+	/**
+	 * Reads a record optimistically, so any of the values read may be garbage until validated
+	 */
+	@Nullable
+	private static byte[] readData(Buffer buffer, int offset, int hash, byte[] key) {
+		int capacity = buffer.capacity();
+		if (offset < 0 || offset > capacity - HEADER_SIZE) return null;
+		if (buffer.getInt(offset) != hash || buffer.getInt(offset + 4) != key.length) return null;
+		int length = buffer.getInt(offset + 8);
+		int keyOffset = offset + HEADER_SIZE;
+		if (length < 0 || length > capacity - keyOffset - key.length) return null;
+		if (!buffer.equals(keyOffset, key)) return null;
+		byte[] data = new byte[length];
+		buffer.get(keyOffset + key.length, data, 0, length);
+		return data;
+	}
+
+	public void put(byte[] key, byte[] data) {
+		put(key, data, 0, data.length);
+	}
+
+	/**
+	 * Caches the data for a given key, can be called from any thread.
+	 * Items which do not fit into a single buffer are ignored
+	 */
+	public synchronized void put(byte[] key, byte[] data, int offset, int length) {
+		statsPuts.increment();
+		long size = (long) HEADER_SIZE + key.length + length;
+		Buffer buffer = bufferOf(currentGeneration);
+		if (size > buffer.capacity()) return;
+		if (buffer.position + size > buffer.capacity()) {
+			rotate();
+			buffer = bufferOf(currentGeneration);
+		}
+		int position = buffer.position;
+		int hash = hashOf(key);
+		buffer.putInt(position, hash);
+		buffer.putInt(position + 4, key.length);
+		buffer.putInt(position + 8, length);
+		buffer.put(position + HEADER_SIZE, key, 0, key.length);
+		buffer.put(position + HEADER_SIZE + key.length, data, offset, length);
+		buffer.position = position + (int) size;
+		publish(key, hash, addressOf(currentGeneration, position));
+	}
+
+	private void publish(byte[] key, int hash, long newAddress) {
+		int freeSlot = -1;
+		int oldestSlot = -1;
+		int oldestGeneration = Integer.MAX_VALUE;
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (hash + i) & indexMask;
+			long address = index.get(slot);
+			int generation = generationOf(address);
+			if (address == 0 || bufferOf(generation).generation != generation) {
+				if (freeSlot == -1) freeSlot = slot;
+				continue;
+			}
+			Buffer buffer = bufferOf(generation);
+			int offset = offsetOf(address);
+			if (buffer.getInt(offset) == hash && buffer.getInt(offset + 4) == key.length &&
+					buffer.equals(offset + HEADER_SIZE, key)) {
+				index.set(slot, newAddress);
+				return;
+			}
+			if (generation < oldestGeneration) {
+				oldestGeneration = generation;
+				oldestSlot = slot;
+			}
+		}
+		index.set(freeSlot != -1 ? freeSlot : oldestSlot, newAddress);
+	}
+
+	/**
+	 * Moves to the next buffer, referenced items of that buffer are compacted to its beginning
+	 * (up to a half of its capacity) and the rest of it is cleared
+	 */
+	private void rotate() {
+		int generation = currentGeneration + 1;
+		Buffer buffer = bufferOf(generation);
+		long stamp = buffer.lock.writeLock();
+		try {
+			int oldGeneration = buffer.generation;
+			int limit = buffer.capacity() / 2;
+			int position = 0;
+			if (oldGeneration != 0) {
+				int end = buffer.position;
+				for (int offset = 0; offset < end; ) {
+					int size = HEADER_SIZE + buffer.getInt(offset + 4) + buffer.getInt(offset + 8);
+					if (position + size <= limit) {
+						int slot = findReferencedSlot(buffer.getInt(offset), addressOf(oldGeneration, offset));
+						if (slot != -1) {
+							buffer.moveBack(offset, position, size, scratch);
+							index.set(slot, addressOf(generation, position));
+							position += size;
+							statsSecondChances.increment();
+						}
+					}
+					offset += size;
+				}
+			}
+			buffer.generation = generation;
+			buffer.position = position;
+			buffer.timestamp = currentTimeMillis();
+		} finally {
+			buffer.lock.unlockWrite(stamp);
+		}
+		if ((generation - 1) % ringBuffers.length == 0) {
+			countCycles++;
+		}
+		currentGeneration = generation;
+	}
+
+	private int findReferencedSlot(int hash, long address) {
+		for (int i = 0; i < PROBES; i++) {
+			int slot = (hash + i) & indexMask;
+			if (index.get(slot) == (address | REFERENCED)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private long getLifetimeMillis() {
+		return currentTimeMillis() - bufferOf(currentGeneration + 1).timestamp;
+	}
+
+	// JMX
+	@Override
+	public void reset() {
+		countCycles = 0;
+		statsMisses.reset();
+	}
+
+	@Override
+	public long getStatsPutsTotal() {
+		return statsPuts.sum();
+	}
+
+	@Override
+	public long getStatsGetsTotal() {
+		return statsGets.sum();
+	}
+
+	@Override
+	public long getStatsMissesTotal() {
+		return statsMisses.sum();
+	}
+
+	@Override
+	public long getStatsSecondChancesTotal() {
+		return statsSecondChances.sum();
+	}
+
+	/**
+	 * Is used to figure out the amount of items which can be retrieved from the buffers
+	 *
+	 * @return amount of stored items
+	 */
+	@Override
+	public int getItems() {
+		int items = 0;
+		for (int i = 0; i < index.length(); i++) {
+			long address = index.get(i);
+			int generation = generationOf(address);
+			if (address != 0 && bufferOf(generation).generation == generation) {
+				items++;
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * Is used to get the occupied capacity
+	 *
+	 * @return amount of occupied capacity
+	 */
+	@Override
+	public long getSize() {
+		long size = 0;
+		for (Buffer ringBuffer : ringBuffers) {
+			size += ringBuffer.position;
+		}
+		return size;
+	}
+
+	@Override
+	public int getIndexCapacity() {
+		return index.length();
+	}
+
+	@Override
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	@Override
+	public String getLifetime() {
+		return formatDuration(Duration.ofMillis(getLifetimeMillis()));
+	}
+
+	@Override
+	public long getLifetimeSeconds() {
+		return getLifetimeMillis() / 1000;
+	}
+
+	@Override
+	public String getCurrentBuffer() {
+		int generation = currentGeneration;
+		return ((generation - 1) % ringBuffers.length + 1) + " / " + ringBuffers.length + " @ " +
+				formatTimestamp(bufferOf(generation).timestamp);
+	}
+
+	@Override
+	public int getFullCycles() {
+		return countCycles;
+	}
+}
@@ -0,0 +1,29 @@
+package io.datakernel.memcache.server;
+
+public interface ConcurrentRingBufferMBean {
+	void reset();
+
+	long getStatsPutsTotal();
+
+	long getStatsGetsTotal();
+
+	long getStatsMissesTotal();
+
+	long getStatsSecondChancesTotal();
+
+	int getItems();
+
+	long getSize();
+
+	int getIndexCapacity();
+
+	boolean isOffHeap();
+
+	String getCurrentBuffer();
+
+	int getFullCycles();
+
+	String getLifetime();
+
+	long getLifetimeSeconds();
+}
@@ -0,0 +1,170 @@
+package io.datakernel.memcache.server;
+
+import io.datakernel.memcache.protocol.MemcacheRpcMessage.Slice;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentRingBufferTest {
+
+	@Test
+	public void testPutAndGet() {
+		doTestPutAndGet(ConcurrentRingBuffer.create(4, 1000));
+		doTestPutAndGet(ConcurrentRingBuffer.createOffHeap(4, 1000));
+	}
+
+	private void doTestPutAndGet(ConcurrentRingBuffer buffer) {
+		buffer.put(key(1), value(1, 10));
+		buffer.put(keyOfSize(2, 4), value(2, 20));
+		buffer.put(keyOfSize(3, 8), value(3, 30));
+		buffer.put(key(1), value(11, 10));
+
+		assertValue(11, 10, buffer.get(key(1)));
+		assertValue(2, 20, buffer.get(keyOfSize(2, 4)));
+		assertValue(3, 30, buffer.get(keyOfSize(3, 8)));
+		assertNull(buffer.get(key(4)));
+		assertEquals(3, buffer.getItems());
+		assertEquals(4, buffer.getStatsGetsTotal());
+		assertEquals(1, buffer.getStatsMissesTotal());
+	}
+
+	@Test
+	public void testTooBigItemIsIgnored() {
+		ConcurrentRingBuffer buffer = ConcurrentRingBuffer.create(2, 100);
+		buffer.put(key(1), new byte[100]);
+		assertNull(buffer.get(key(1)));
+		assertEquals(0, buffer.getSize());
+	}
+
+	@Test
+	public void testEviction() {
+		ConcurrentRingBuffer buffer = ConcurrentRingBuffer.create(3, 1000);
+		for (int i = 0; i < 100; i++) {
+			buffer.put(key(i), value(i, 88));
+		}
+		assertNull(buffer.get(key(0)));
+		assertValue(99, 88, buffer.get(key(99)));
+		assertEquals(4, buffer.getFullCycles());
+	}
+
+	@Test
+	public void testSecondChance() {
+		doTestSecondChance(ConcurrentRingBuffer.create(3, 1000));
+		doTestSecondChance(ConcurrentRingBuffer.createOffHeap(3, 1000));
+	}
+
+	private void doTestSecondChance(ConcurrentRingBuffer buffer) {
+		// each item takes 100 bytes, so each buffer holds 10 items
+		for (int i = 0; i < 10; i++) {
+			buffer.put(key(i), value(i, 72));
+		}
+		assertValue(3, 72, buffer.get(key(3)));
+		assertValue(7, 72, buffer.get(key(7)));
+
+		for (int i = 10; i < 40; i++) {
+			buffer.put(key(i), value(i, 72));
+		}
+
+		assertNull(buffer.get(key(2)));
+		assertValue(3, 72, buffer.get(key(3)));
+		assertValue(7, 72, buffer.get(key(7)));
+		assertEquals(2, buffer.getStatsSecondChancesTotal());
+
+		// an item which is not read again after being copied forward is evicted
+		for (int i = 40; i < 70; i++) {
+			buffer.put(key(i), value(i, 72));
+		}
+		assertValue(3, 72, buffer.get(key(3)));
+		assertEquals(4, buffer.getStatsSecondChancesTotal());
+		for (int i = 70; i < 100; i++) {
+			buffer.put(key(i), value(i, 72));
+		}
+		assertEquals(5, buffer.getStatsSecondChancesTotal());
+		assertNull(buffer.get(key(7)));
+	}
+
+	@Test
+	public void testConcurrentReads() throws InterruptedException {
+		doTestConcurrentReads(ConcurrentRingBuffer.create(4, 10_000));
+		doTestConcurrentReads(ConcurrentRingBuffer.createOffHeap(4, 10_000));
+	}
+
+	private void doTestConcurrentReads(ConcurrentRingBuffer buffer) throws InterruptedException {
+		int keys = 1000;
+		int iterations = 200_000;
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		AtomicInteger hits = new AtomicInteger();
+
+		List<Thread> threads = new ArrayList<>();
+		threads.add(new Thread(() -> {
+			for (int i = 0; i < iterations; i++) {
+				int k = i % keys;
+				buffer.put(key(k), value(i, 1 + (i % 100)));
+			}
+		}));
+		for (int t = 0; t < 3; t++) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < iterations; i++) {
+						int k = ThreadLocalRandom.current().nextInt(keys);
+						Slice slice = buffer.get(key(k));
+						if (slice == null) continue;
+						ByteBuffer data = ByteBuffer.wrap(slice.array(), slice.offset(), slice.length());
+						int written = data.getInt();
+						assertEquals(k, written % keys);
+						assertEquals(1 + (written % 100), slice.length() - 4);
+						for (int j = 4; j < slice.length(); j++) {
+							assertEquals((byte) written, data.get());
+						}
+						hits.incrementAndGet();
+					}
+				} catch (Throwable e) {
+					error.set(e);
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+		assertTrue(hits.get() > 0);
+		assertTrue(buffer.getFullCycles() > 0);
+	}
+
+	private static byte[] key(int i) {
+		return keyOfSize(i, 12);
+	}
+
+	private static byte[] keyOfSize(int i, int size) {
+		byte[] key = new byte[size];
+		ByteBuffer.wrap(key).putInt(i);
+		return key;
+	}
+
+	/**
+	 * Value consists of 4-byte id followed by {@code size} bytes filled with the lower byte of id
+	 */
+	private static byte[] value(int id, int size) {
+		ByteBuffer buf = ByteBuffer.allocate(4 + size).putInt(id);
+		while (buf.hasRemaining()) {
+			buf.put((byte) id);
+		}
+		return buf.array();
+	}
+
+	private static void assertValue(int id, int size, Slice slice) {
+		assertNotNull(slice);
+		assertArrayEquals(value(id, size), slice.array());
+	}
+}
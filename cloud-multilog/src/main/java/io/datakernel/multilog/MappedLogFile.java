@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.multilog;
+
+import io.datakernel.async.function.AsyncSupplier;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.csp.process.ChannelLZ4Decompressor.Header;
+import io.datakernel.csp.process.LZ4BlockDecoder;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+import static io.datakernel.csp.process.LZ4BlockDecoder.HEADER_LENGTH;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Log file which is mapped into memory and shared by all of its readers.
+ * <p>
+ * Complete LZ4 blocks of the file are indexed once, as the file grows.
+ * The index keeps the offset of the first block that starts in each {@link #INDEX_INTERVAL}-byte interval of the file,
+ * so a position is found by looking up its interval and skipping at most a few block headers within it.
+ */
+final class MappedLogFile {
+	static final int INDEX_INTERVAL_BITS = 16;
+	static final int INDEX_INTERVAL = 1 << INDEX_INTERVAL_BITS;
+
+	final Path path;
+
+	// accessed from the eventloop thread only
+	Snapshot snapshot = Snapshot.EMPTY;
+	@Nullable
+	Promise<Snapshot> refreshing;
+
+	MappedLogFile(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Immutable view of the indexed part of a file
+	 */
+	static final class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(null, 0, new int[0], 0, 0, false);
+
+		@Nullable
+		final MappedByteBuffer buffer;
+		final long fileSize;
+		final int[] index;
+		final int intervals;
+		final int size;
+		final boolean finished;
+
+		Snapshot(@Nullable MappedByteBuffer buffer, long fileSize, int[] index, int intervals, int size, boolean finished) {
+			this.buffer = buffer;
+			this.fileSize = fileSize;
+			this.index = index;
+			this.intervals = intervals;
+			this.size = size;
+			this.finished = finished;
+		}
+
+		/**
+		 * Returns the number of bytes taken by complete blocks, excluding the end-of-stream block
+		 */
+		int getSize() {
+			return size;
+		}
+
+		boolean isFinished() {
+			return finished;
+		}
+
+		int seek(long position) throws ParseException {
+			if (position == size) return size;
+			if (position > size) {
+				throw new ParseException(MappedLogFile.class, "Position " + position + " is beyond the end of log file");
+			}
+			int interval = (int) (position >>> INDEX_INTERVAL_BITS);
+			if (interval < intervals) {
+				int offset = index[interval];
+				while (offset < position) {
+					offset += HEADER_LENGTH + readCompressedLen(offset);
+				}
+				if (offset == position) return offset;
+			}
+			throw new ParseException(MappedLogFile.class, "Position " + position + " is not at a block boundary");
+		}
+
+		private int readCompressedLen(int offset) {
+			//noinspection ConstantConditions - only called for positions within complete blocks
+			return Integer.reverseBytes(buffer.getInt(offset + LZ4BlockDecoder.COMPRESSED_LEN_OFFSET));
+		}
+
+		/**
+		 * Returns a supplier of decompressed blocks, which notifies about the length of each consumed block
+		 */
+		AsyncSupplier<ByteBuf> reader(int position, IntConsumer onBlock) {
+			LZ4BlockDecoder decoder = LZ4BlockDecoder.create();
+			Header header = new Header();
+			int[] current = {position};
+			return () -> {
+				int offset = current[0];
+				if (offset == size) return Promise.of(null);
+				try {
+					//noinspection ConstantConditions
+					decoder.readHeader(header, buffer, offset);
+					ByteBuf buf = decoder.decompress(header, buffer, offset + HEADER_LENGTH);
+					current[0] = offset + HEADER_LENGTH + header.compressedLen;
+					onBlock.accept(HEADER_LENGTH + header.compressedLen);
+					return Promise.of(buf);
+				} catch (ParseException e) {
+					return Promise.ofException(e);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Maps the file again if it has grown and indexes its new complete blocks.
+	 * Runs outside of the eventloop thread and does not modify the previous snapshot.
+	 *
+	 * @return {@code null} if the file is too large to be mapped as a whole
+	 */
+	@Nullable
+	static Snapshot refresh(Path path, Snapshot previous) throws IOException, ParseException {
+		MappedByteBuffer buffer;
+		long fileSize;
+		try (FileChannel channel = FileChannel.open(path, READ)) {
+			fileSize = channel.size();
+			if (fileSize > Integer.MAX_VALUE) return null;
+			if (fileSize == previous.fileSize) return previous;
+			buffer = channel.map(READ_ONLY, 0, fileSize);
+		}
+
+		LZ4BlockDecoder decoder = LZ4BlockDecoder.create();
+		Header header = new Header();
+		int[] index = previous.index;
+		int intervals = previous.intervals;
+		int size = previous.size;
+		boolean finished = false;
+		while (size + HEADER_LENGTH <= fileSize) {
+			decoder.readHeader(header, buffer, size);
+			if (header.finished) {
+				finished = true;
+				break;
+			}
+			long end = (long) size + HEADER_LENGTH + header.compressedLen;
+			if (end > fileSize) break;
+			while ((long) intervals << INDEX_INTERVAL_BITS <= size) {
+				if (intervals == index.length) {
+					// entries below previous.intervals are never changed, so an old snapshot may still share the array
+					index = Arrays.copyOf(index, Math.max(16, index.length * 2));
+				}
+				index[intervals++] = size;
+			}
+			size = (int) end;
+		}
+		return new Snapshot(buffer, fileSize, index, intervals, size, finished);
+	}
+
+	@Override
+	public String toString() {
+		Snapshot snapshot = this.snapshot;
+		return "MappedLogFile{path=" + path + ", size=" + snapshot.size + ", finished=" + snapshot.finished + '}';
+	}
+}
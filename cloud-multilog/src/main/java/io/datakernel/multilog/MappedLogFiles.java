@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.multilog;
+
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.multilog.MappedLogFile.Snapshot;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.jmx.PromiseStats;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Memory-mapped log files of a local directory, which is the storage of a {@code LocalFsClient}.
+ * <p>
+ * A single instance may be shared by many {@link MultilogImpl}s reading the same partitions:
+ * each file is mapped and indexed once, and concurrent readers of a growing file wait for the same refresh
+ * instead of downloading it on their own.
+ * A file which contains the end-of-stream block is never refreshed again.
+ */
+public final class MappedLogFiles implements EventloopJmxMBeanEx {
+	public static final int DEFAULT_MAX_FILES = 1024;
+	public static final Duration DEFAULT_SMOOTHING_WINDOW = Duration.ofMinutes(5);
+
+	private final Eventloop eventloop;
+	private final Executor executor;
+	private final Path storageDir;
+
+	private int maxFiles = DEFAULT_MAX_FILES;
+
+	// accessed from the eventloop thread only
+	private final Map<String, MappedLogFile> files = new LinkedHashMap<String, MappedLogFile>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, MappedLogFile> eldest) {
+			return size() > maxFiles;
+		}
+	};
+
+	// region JMX
+	private final PromiseStats promiseRefresh = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private long sharedRefreshes;
+	private long skippedRefreshes;
+	// endregion
+
+	private MappedLogFiles(Eventloop eventloop, Executor executor, Path storageDir) {
+		this.eventloop = eventloop;
+		this.executor = executor;
+		this.storageDir = storageDir;
+	}
+
+	public static MappedLogFiles create(Eventloop eventloop, Executor executor, Path storageDir) {
+		return new MappedLogFiles(eventloop, executor, storageDir);
+	}
+
+	public MappedLogFiles withMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+		return this;
+	}
+
+	/**
+	 * Returns an up-to-date snapshot of a file, or {@code null} if the file cannot be mapped
+	 *
+	 * @param path path of the file, relative to the storage directory
+	 */
+	Promise<Snapshot> get(String path) {
+		MappedLogFile file = files.computeIfAbsent(path, $ -> new MappedLogFile(storageDir.resolve(path)));
+		if (file.snapshot.isFinished()) {
+			skippedRefreshes++;
+			return Promise.of(file.snapshot);
+		}
+		if (file.refreshing != null) {
+			sharedRefreshes++;
+			return file.refreshing;
+		}
+		Snapshot previous = file.snapshot;
+		Promise<Snapshot> refreshing = Promise.ofBlockingCallable(executor, () -> MappedLogFile.refresh(file.path, previous))
+				.whenComplete(promiseRefresh.recordStats())
+				.whenComplete((snapshot, e) -> {
+					file.refreshing = null;
+					if (snapshot != null) {
+						file.snapshot = snapshot;
+					}
+				});
+		file.refreshing = refreshing;
+		return refreshing;
+	}
+
+	@NotNull
+	@Override
+	public Eventloop getEventloop() {
+		return eventloop;
+	}
+
+	// region JMX
+	@JmxAttribute
+	public int getFilesCount() {
+		return files.size();
+	}
+
+	@JmxAttribute
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+
+	@JmxAttribute
+	public void setMaxFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseRefresh() {
+		return promiseRefresh;
+	}
+
+	@JmxAttribute
+	public long getSharedRefreshes() {
+		return sharedRefreshes;
+	}
+
+	@JmxAttribute
+	public long getSkippedRefreshes() {
+		return skippedRefreshes;
+	}
+	// endregion
+}
@@ -20,7 +20,9 @@ import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.common.MemSize;
 import io.datakernel.common.Preconditions;
 import io.datakernel.common.Stopwatch;
+import io.datakernel.common.parse.ParseException;
 import io.datakernel.common.parse.TruncatedDataException;
+import io.datakernel.csp.ChannelSupplier;
 import io.datakernel.csp.process.ChannelLZ4Compressor;
 import io.datakernel.csp.process.ChannelLZ4Decompressor;
 import io.datakernel.datastream.StreamConsumer;
@@ -64,6 +66,8 @@ public final class MultilogImpl<T> implements Multilog<T>, EventloopJmxMBeanEx {
 
 	private MemSize bufferSize = DEFAULT_BUFFER_SIZE;
 	private Duration autoFlushInterval = null;
+	@Nullable
+	private MappedLogFiles mappedFiles;
 
 	private final StreamRegistry<String> streamReads = StreamRegistry.create();
 	private final StreamRegistry<String> streamWrites = StreamRegistry.create();
@@ -99,6 +103,16 @@ public final class MultilogImpl<T> implements Multilog<T>, EventloopJmxMBeanEx {
 		return this;
 	}
 
+	/**
+	 * Reads log files through memory mappings of the local storage directory of the {@link FsClient},
+	 * rather than by downloading them.
+	 * Positions are found with the block index of a file, and the mappings are shared by all readers of {@code mappedFiles}.
+	 */
+	public MultilogImpl<T> withMappedFiles(MappedLogFiles mappedFiles) {
+		this.mappedFiles = mappedFiles;
+		return this;
+	}
+
 	@Override
 	public Promise<StreamConsumer<T>> write(@NotNull String logPartition) {
 		validateLogPartition(logPartition);
@@ -174,36 +188,59 @@ public final class MultilogImpl<T> implements Multilog<T>, EventloopJmxMBeanEx {
 				if (logger.isTraceEnabled())
 					logger.trace("Read log file `{}` from: {}", currentLogFile, position);
 
+				String path = namingScheme.path(logPartition, currentLogFile);
+				Promise<ChannelSupplier<ByteBuf>> blocks = mappedFiles != null ?
+						mappedFiles.get(path)
+								.then(snapshot -> snapshot != null ? readMapped(snapshot, position) : download(path, position)) :
+						download(path, position);
+
 				return StreamSupplier.ofPromise(
-						client.download(namingScheme.path(logPartition, currentLogFile), position)
-								.map(fileStream -> {
-									inputStreamPosition = 0L;
-									sw.reset().start();
-									return fileStream
-											.transformWith(streamReads.register(logPartition + ":" + currentLogFile + "@" + position))
-											.transformWith(streamReadStats)
-											.transformWith(ChannelLZ4Decompressor.create()
-													.withInspector(new ChannelLZ4Decompressor.Inspector() {
-														@Override
-														public <Q extends ChannelLZ4Decompressor.Inspector> Q lookup(Class<Q> type) {
-															throw new UnsupportedOperationException();
-														}
-
-														@Override
-														public void onBlock(ChannelLZ4Decompressor self, ChannelLZ4Decompressor.Header header, ByteBuf inputBuf, ByteBuf outputBuf) {
-															inputStreamPosition += ChannelLZ4Decompressor.HEADER_LENGTH + header.compressedLen;
-														}
-													}))
-											.transformWith(supplier ->
-													supplier.withEndOfStream(eos ->
-															eos.thenEx(($, e) -> (e == null || e instanceof TruncatedDataException) ?
-																	Promise.complete() :
-																	Promise.ofException(e))))
-											.transformWith(ChannelDeserializer.create(serializer))
-											.withEndOfStream(eos ->
-													eos.whenComplete(($, e) -> log(e)))
-											.withLateBinding();
-								}));
+						blocks.map(blockStream -> {
+							inputStreamPosition = 0L;
+							sw.reset().start();
+							return blockStream
+									.transformWith(ChannelDeserializer.create(serializer))
+									.withEndOfStream(eos ->
+											eos.whenComplete(($, e) -> log(e)))
+									.withLateBinding();
+						}));
+			}
+
+			private Promise<ChannelSupplier<ByteBuf>> download(String path, long position) {
+				return client.download(path, position)
+						.map(fileStream -> fileStream
+								.transformWith(streamReads.register(logPartition + ":" + currentPosition.getLogFile() + "@" + position))
+								.transformWith(streamReadStats)
+								.transformWith(ChannelLZ4Decompressor.create()
+										.withInspector(new ChannelLZ4Decompressor.Inspector() {
+											@Override
+											public <Q extends ChannelLZ4Decompressor.Inspector> Q lookup(Class<Q> type) {
+												throw new UnsupportedOperationException();
+											}
+
+											@Override
+											public void onBlock(ChannelLZ4Decompressor self, ChannelLZ4Decompressor.Header header, ByteBuf inputBuf, ByteBuf outputBuf) {
+												inputStreamPosition += ChannelLZ4Decompressor.HEADER_LENGTH + header.compressedLen;
+											}
+										}))
+								.transformWith(supplier ->
+										supplier.withEndOfStream(eos ->
+												eos.thenEx(($, e) -> (e == null || e instanceof TruncatedDataException) ?
+														Promise.complete() :
+														Promise.ofException(e)))));
+			}
+
+			private Promise<ChannelSupplier<ByteBuf>> readMapped(MappedLogFile.Snapshot snapshot, long position) {
+				int offset;
+				try {
+					offset = snapshot.seek(position);
+				} catch (ParseException e) {
+					return Promise.ofException(e);
+				}
+				// blocks which are not complete yet are left for the next read, as with a truncated download
+				return Promise.of(ChannelSupplier.of(snapshot.reader(offset, blockLength -> inputStreamPosition += blockLength))
+						.transformWith(streamReads.register(logPartition + ":" + currentPosition.getLogFile() + "@" + position))
+						.transformWith(streamReadStats));
 			}
 
 			private void log(Throwable e) {
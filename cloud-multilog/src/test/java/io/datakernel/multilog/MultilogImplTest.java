@@ -1,5 +1,6 @@
 package io.datakernel.multilog;
 
+import io.datakernel.common.parse.ParseException;
 import io.datakernel.datastream.StreamConsumer;
 import io.datakernel.datastream.StreamConsumerToList;
 import io.datakernel.datastream.StreamSupplier;
@@ -14,12 +15,18 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static io.datakernel.multilog.LogNamingScheme.NAME_PARTITION_REMAINDER_SEQ;
 import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
 import static java.util.Arrays.asList;
-import static org.junit.Assert.assertEquals;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.*;
 
 public class MultilogImplTest {
 	@Rule
@@ -55,4 +62,46 @@ public class MultilogImplTest {
 		assertEquals(values, list);
 	}
 
+	@Test
+	public void testMappedFiles() {
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		Path storage = temporaryFolder.getRoot().toPath();
+		LocalFsClient client = LocalFsClient.create(eventloop, storage);
+		MappedLogFiles mappedFiles = MappedLogFiles.create(eventloop, Executors.newSingleThreadExecutor(), storage);
+		Multilog<String> multilog = MultilogImpl.create(eventloop, client, BinarySerializers.UTF8_SERIALIZER, NAME_PARTITION_REMAINDER_SEQ)
+				.withBufferSize(256);
+		Multilog<String> mapped = MultilogImpl.create(eventloop, client, BinarySerializers.UTF8_SERIALIZER, NAME_PARTITION_REMAINDER_SEQ)
+				.withMappedFiles(mappedFiles);
+		String testPartition = "testPartition";
+
+		List<String> values1 = values(0, 1000);
+		await(StreamSupplier.ofIterable(values1).streamTo(StreamConsumer.ofPromise(multilog.write(testPartition))));
+
+		LogPosition start = LogPosition.create(new LogFile("", 0), 0);
+		LogPosition position1 = read(multilog, testPartition, start, values1);
+		assertEquals(position1, read(mapped, testPartition, start, values1));
+
+		List<String> values2 = values(1000, 3000);
+		await(StreamSupplier.ofIterable(values2).streamTo(StreamConsumer.ofPromise(multilog.write(testPartition))));
+
+		LogPosition position2 = read(mapped, testPartition, position1, values2);
+		assertEquals(position2, read(multilog, testPartition, position1, values2));
+		assertEquals(position2, read(mapped, testPartition, position2, emptyList()));
+		assertTrue(mappedFiles.getSkippedRefreshes() > 0);
+
+		LogPosition insideBlock = LogPosition.create(position1.getLogFile(), position1.getPosition() - 1);
+		Throwable e = awaitException(mapped.read(testPartition, insideBlock.getLogFile(), insideBlock.getPosition(), null)
+				.then(supplier -> supplier.getSupplier().toList()));
+		assertTrue(e instanceof ParseException);
+	}
+
+	private static LogPosition read(Multilog<String> multilog, String partition, LogPosition position, List<String> expected) {
+		StreamSupplierWithResult<String, LogPosition> supplier = await(multilog.read(partition, position.getLogFile(), position.getPosition(), null));
+		assertEquals(expected, await(supplier.getSupplier().toList()));
+		return await(supplier.getResult());
+	}
+
+	private static List<String> values(int from, int to) {
+		return IntStream.range(from, to).mapToObj(i -> "value" + i).collect(Collectors.toList());
+	}
 }
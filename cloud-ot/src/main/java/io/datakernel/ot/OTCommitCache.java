@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.ot;
+
+import io.datakernel.ot.OTCommitFactory.DiffsWithLevel;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Bounded cache of loaded commits, indexed by level.
+ * <p>
+ * Commits are immutable once pushed, so a cache may be shared by several {@link OTRepositoryCached}
+ * instances of the same eventloop and kept across syncs.
+ * When the cache is full, commits of the lowest levels are evicted first,
+ * as graph walks start from the heads and rarely reach deep history.
+ */
+public final class OTCommitCache<K, D> {
+	public static final int DEFAULT_MAX_SIZE = 10_000;
+
+	private final int maxSize;
+
+	private final Map<K, OTCommit<K, D>> commits = new HashMap<>();
+	private final TreeMap<Long, Set<K>> levels = new TreeMap<>();
+	private final Map<K, Long> parentLevels = new HashMap<>();
+
+	private long hits;
+	private long misses;
+
+	private OTCommitCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public static <K, D> OTCommitCache<K, D> create() {
+		return new OTCommitCache<>(DEFAULT_MAX_SIZE);
+	}
+
+	public static <K, D> OTCommitCache<K, D> create(int maxSize) {
+		checkArgument(maxSize > 0, "Max size must be positive");
+		return new OTCommitCache<>(maxSize);
+	}
+
+	@Nullable
+	public OTCommit<K, D> get(K commitId) {
+		OTCommit<K, D> commit = commits.get(commitId);
+		if (commit != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return commit;
+	}
+
+	/**
+	 * Returns the level of a cached commit, or the level of a commit which is not cached,
+	 * but is a parent of some cached commit or has been evicted recently
+	 */
+	@Nullable
+	public Long getLevel(K commitId) {
+		OTCommit<K, D> commit = commits.get(commitId);
+		return commit != null ? Long.valueOf(commit.getLevel()) : parentLevels.get(commitId);
+	}
+
+	public void put(OTCommit<K, D> commit) {
+		doPut(commit);
+		evict();
+	}
+
+	public void putAll(Collection<OTCommit<K, D>> commits) {
+		for (OTCommit<K, D> commit : commits) {
+			doPut(commit);
+		}
+		evict();
+	}
+
+	private void doPut(OTCommit<K, D> commit) {
+		if (commits.put(commit.getId(), commit) != null) return;
+		levels.computeIfAbsent(commit.getLevel(), $ -> new HashSet<>()).add(commit.getId());
+		parentLevels.remove(commit.getId());
+		for (Map.Entry<K, DiffsWithLevel<D>> entry : commit.getParentsWithLevels().entrySet()) {
+			if (!commits.containsKey(entry.getKey())) {
+				parentLevels.put(entry.getKey(), entry.getValue().getLevel());
+			}
+		}
+	}
+
+	private void evict() {
+		while (commits.size() > maxSize) {
+			Map.Entry<Long, Set<K>> lowest = levels.pollFirstEntry();
+			for (K commitId : lowest.getValue()) {
+				commits.remove(commitId);
+				parentLevels.put(commitId, lowest.getKey());
+			}
+		}
+		if (parentLevels.size() > maxSize) {
+			parentLevels.clear();
+		}
+	}
+
+	public void clear() {
+		commits.clear();
+		levels.clear();
+		parentLevels.clear();
+	}
+
+	public int size() {
+		return commits.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@Nullable
+	public Long getMinLevel() {
+		return levels.isEmpty() ? null : levels.firstKey();
+	}
+
+	@Nullable
+	public Long getMaxLevel() {
+		return levels.isEmpty() ? null : levels.lastKey();
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public String toString() {
+		return "OTCommitCache{size=" + commits.size() + ", maxSize=" + maxSize +
+				", levels=" + getMinLevel() + ".." + getMaxLevel() + ", hits=" + hits + ", misses=" + misses + '}';
+	}
+}
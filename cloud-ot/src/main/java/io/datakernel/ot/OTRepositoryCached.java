@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.ot;
+
+import io.datakernel.async.function.AsyncSupplier;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static java.util.Collections.singleton;
+
+/**
+ * {@link OTRepository} which serves {@link #loadCommit} from an {@link OTCommitCache}.
+ * <p>
+ * If the underlying repository is an {@link OTRepositoryEx} and the level of a missing commit is known
+ * from its cached children, the commit is loaded together with its ancestors
+ * {@code prefetchLevels} levels down, so that a graph walk takes one request per batch of levels
+ * instead of one request per commit.
+ * Levels of cached commits and of their parents are served from the cache as well,
+ * without being counted in its hits and misses.
+ * All other calls are delegated to the underlying repository.
+ * <p>
+ * To keep commits loaded by an {@link OTUplinkImpl} across syncs, create the uplink over this repository.
+ */
+public final class OTRepositoryCached<K, D> implements OTRepository<K, D> {
+	public static final int DEFAULT_PREFETCH_LEVELS = 100;
+
+	private final OTRepository<K, D> repository;
+	private final OTCommitCache<K, D> cache;
+
+	private int prefetchLevels = DEFAULT_PREFETCH_LEVELS;
+
+	private OTRepositoryCached(OTRepository<K, D> repository, OTCommitCache<K, D> cache) {
+		this.repository = repository;
+		this.cache = cache;
+	}
+
+	public static <K, D> OTRepositoryCached<K, D> create(OTRepository<K, D> repository, OTCommitCache<K, D> cache) {
+		return new OTRepositoryCached<>(repository, cache);
+	}
+
+	public OTRepositoryCached<K, D> withPrefetchLevels(int prefetchLevels) {
+		checkArgument(prefetchLevels >= 0, "Prefetch levels cannot be negative");
+		this.prefetchLevels = prefetchLevels;
+		return this;
+	}
+
+	public OTRepository<K, D> getRepository() {
+		return repository;
+	}
+
+	public OTCommitCache<K, D> getCache() {
+		return cache;
+	}
+
+	@Override
+	public Promise<OTCommit<K, D>> createCommit(Map<K, DiffsWithLevel<D>> parentDiffs) {
+		return repository.createCommit(parentDiffs);
+	}
+
+	@Override
+	public Promise<Void> push(Collection<OTCommit<K, D>> commits) {
+		return repository.push(commits);
+	}
+
+	@Override
+	public Promise<Void> updateHeads(Set<K> newHeads, Set<K> excludedHeads) {
+		return repository.updateHeads(newHeads, excludedHeads);
+	}
+
+	@NotNull
+	@Override
+	public Promise<Set<K>> getHeads() {
+		return repository.getHeads();
+	}
+
+	@NotNull
+	@Override
+	public Promise<Set<K>> getAllHeads() {
+		return repository.getAllHeads();
+	}
+
+	@NotNull
+	@Override
+	public AsyncSupplier<Set<K>> pollHeads() {
+		return repository.pollHeads();
+	}
+
+	@NotNull
+	@Override
+	public Promise<Long> getLevel(@NotNull K commitId) {
+		Long level = cache.getLevel(commitId);
+		return level != null ? Promise.of(level) : repository.getLevel(commitId);
+	}
+
+	@NotNull
+	@Override
+	public Promise<Map<K, Long>> getLevels(@NotNull Set<K> commitIds) {
+		Map<K, Long> levels = new HashMap<>();
+		for (K commitId : commitIds) {
+			Long level = cache.getLevel(commitId);
+			if (level == null) return repository.getLevels(commitIds);
+			levels.put(commitId, level);
+		}
+		return Promise.of(levels);
+	}
+
+	@NotNull
+	@Override
+	public Promise<OTCommit<K, D>> loadCommit(@NotNull K revisionId) {
+		OTCommit<K, D> commit = cache.get(revisionId);
+		if (commit != null) return Promise.of(commit);
+		Long level = cache.getLevel(revisionId);
+		if (level != null && prefetchLevels != 0 && repository instanceof OTRepositoryEx) {
+			return ((OTRepositoryEx<K, D>) repository).loadCommits(singleton(revisionId), level - prefetchLevels)
+					.then(commits -> {
+						cache.putAll(commits.values());
+						OTCommit<K, D> loaded = commits.get(revisionId);
+						return loaded != null ? Promise.of(loaded) : doLoadCommit(revisionId);
+					});
+		}
+		return doLoadCommit(revisionId);
+	}
+
+	private Promise<OTCommit<K, D>> doLoadCommit(K revisionId) {
+		return repository.loadCommit(revisionId)
+				.whenResult(cache::put);
+	}
+
+	@NotNull
+	@Override
+	public Promise<Boolean> hasSnapshot(@NotNull K revisionId) {
+		return repository.hasSnapshot(revisionId);
+	}
+
+	@NotNull
+	@Override
+	public Promise<Optional<List<D>>> loadSnapshot(@NotNull K revisionId) {
+		return repository.loadSnapshot(revisionId);
+	}
+
+	@NotNull
+	@Override
+	public Promise<Void> saveSnapshot(@NotNull K revisionId, @NotNull List<D> diffs) {
+		return repository.saveSnapshot(revisionId, diffs);
+	}
+}
@@ -3,9 +3,18 @@ package io.datakernel.ot;
 import io.datakernel.promise.Promise;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface OTRepositoryEx<K, D> extends OTRepository<K, D> {
 	Promise<Void> cleanup(K revisionId);
 
 	Promise<Void> backup(OTCommit<K, D> commit, List<D> snapshot);
+
+	/**
+	 * Loads the given commits together with all their ancestors down to {@code minLevel} inclusive,
+	 * in as few requests to the underlying storage as possible.
+	 * The result may also contain other commits of the same levels.
+	 */
+	Promise<Map<K, OTCommit<K, D>>> loadCommits(Set<K> heads, long minLevel);
 }
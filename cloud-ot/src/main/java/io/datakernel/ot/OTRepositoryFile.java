@@ -0,0 +1,870 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.ot;
+
+import io.datakernel.async.process.AsyncExecutor;
+import io.datakernel.async.process.AsyncExecutors;
+import io.datakernel.async.service.EventloopService;
+import io.datakernel.codec.StructuredCodec;
+import io.datakernel.codec.json.JsonUtils;
+import io.datakernel.common.MemSize;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.ot.util.IdGenerator;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.jmx.PromiseStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import static io.datakernel.async.util.LogUtils.thisMethod;
+import static io.datakernel.async.util.LogUtils.toLogger;
+import static io.datakernel.codec.StructuredCodecs.ofList;
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.common.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Embedded {@link OTRepository} which keeps commits, heads and snapshots in append-only,
+ * memory-mapped segment files of a local directory.
+ * <p>
+ * The parent ids, levels and epochs of all commits, the heads and the positions of snapshots
+ * are indexed in memory, so graph walks and level lookups need no I/O.
+ * Only the diffs of commits and snapshots are read back from the mapped segments.
+ * <p>
+ * Every write is a single checksummed frame, forced to disk before its promise completes.
+ * A torn frame at the tail of the last segment is discarded on {@link #start()}.
+ * Old segments are compacted into a single base segment after snapshots are saved,
+ * or explicitly with {@link #cleanup}.
+ * <p>
+ * Segments are never unmapped explicitly, since the diffs being read may still refer to them.
+ * The mapping of a deleted or compacted segment is released only when its buffer is garbage collected,
+ * until then it keeps the disk space of the deleted file allocated.
+ * Mapped files cannot be deleted on Windows, so compaction is not supported there.
+ */
+public final class OTRepositoryFile<K, D> implements OTRepositoryEx<K, D>, EventloopService, EventloopJmxMBeanEx {
+	private static final Logger logger = LoggerFactory.getLogger(OTRepositoryFile.class);
+	public static final Duration DEFAULT_SMOOTHING_WINDOW = Duration.ofMinutes(5);
+	public static final MemSize DEFAULT_SEGMENT_SIZE = MemSize.megabytes(16);
+	public static final int DEFAULT_COMPACTION_THRESHOLD = 8;
+
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String BACKUP_FILE = "backup" + SEGMENT_SUFFIX;
+
+	private static final int FRAME_HEADER_SIZE = 8;
+
+	private static final byte COMMIT = 1;
+	private static final byte HEADS = 2;
+	private static final byte SNAPSHOT = 3;
+	private static final byte BASE = 4;
+
+	private final Eventloop eventloop;
+	private final Executor executor;
+	private final Path dir;
+	private final IdGenerator<K> idGenerator;
+	private final OTSystem<D> otSystem;
+	private final StructuredCodec<K> keyCodec;
+	private final StructuredCodec<List<D>> diffsCodec;
+
+	private MemSize segmentSize = DEFAULT_SEGMENT_SIZE;
+	private int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+	// accessed from the eventloop thread only
+	private final Map<K, CommitEntry<K>> commits = new HashMap<>();
+	private final Map<K, Location> snapshots = new HashMap<>();
+	private final Set<K> heads = new HashSet<>();
+
+	// accessed from the blocking tasks of the writer only, which are executed one at a time
+	private final AsyncExecutor writer = AsyncExecutors.sequential();
+	private final List<Segment> segments = new ArrayList<>();
+	private volatile int segmentCount;
+
+	private final PromiseStats promisePush = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseUpdateHeads = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseLoadCommit = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseLoadCommits = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseLoadSnapshot = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseSaveSnapshot = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseCompact = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+
+	private static final class Segment {
+		final long id;
+		final Path path;
+		final MappedByteBuffer buffer;
+		int position;
+
+		Segment(long id, Path path, MappedByteBuffer buffer) {
+			this.id = id;
+			this.path = path;
+			this.buffer = buffer;
+		}
+
+		int capacity() {
+			return buffer.capacity();
+		}
+
+		ByteBuffer slice(int offset, int length) {
+			ByteBuffer buf = buffer.duplicate();
+			buf.limit(offset + length).position(offset);
+			return buf.slice();
+		}
+	}
+
+	private static final class Location {
+		final Segment segment;
+		final int offset;
+		final int length;
+
+		Location(Segment segment, int offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		ByteBuffer read() {
+			return segment.slice(offset, length);
+		}
+	}
+
+	private static final class CommitEntry<K> {
+		final int epoch;
+		final long level;
+		final long timestamp;
+		final Map<K, Long> parentLevels;
+		Location location;
+
+		CommitEntry(int epoch, long level, long timestamp, Map<K, Long> parentLevels, Location location) {
+			this.epoch = epoch;
+			this.level = level;
+			this.timestamp = timestamp;
+			this.parentLevels = parentLevels;
+			this.location = location;
+		}
+	}
+
+	private OTRepositoryFile(Eventloop eventloop, Executor executor, Path dir, IdGenerator<K> idGenerator,
+			OTSystem<D> otSystem, StructuredCodec<K> keyCodec, StructuredCodec<List<D>> diffsCodec) {
+		this.eventloop = eventloop;
+		this.executor = executor;
+		this.dir = dir;
+		this.idGenerator = idGenerator;
+		this.otSystem = otSystem;
+		this.keyCodec = keyCodec;
+		this.diffsCodec = diffsCodec;
+	}
+
+	public static <K, D> OTRepositoryFile<K, D> create(Eventloop eventloop, Executor executor, Path dir, IdGenerator<K> idGenerator,
+			OTSystem<D> otSystem, StructuredCodec<K> keyCodec, StructuredCodec<D> diffCodec) {
+		return new OTRepositoryFile<>(eventloop, executor, dir, idGenerator, otSystem, keyCodec, ofList(diffCodec));
+	}
+
+	public OTRepositoryFile<K, D> withSegmentSize(MemSize segmentSize) {
+		checkArgument(segmentSize.toLong() > FRAME_HEADER_SIZE && segmentSize.toLong() <= Integer.MAX_VALUE,
+				"Segment size must fit a frame header and be less than 2GB");
+		this.segmentSize = segmentSize;
+		return this;
+	}
+
+	/**
+	 * Segments are compacted when a snapshot is saved and there are more than {@code compactionThreshold} of them
+	 */
+	public OTRepositoryFile<K, D> withCompactionThreshold(int compactionThreshold) {
+		checkArgument(compactionThreshold > 0, "Compaction threshold must be positive");
+		this.compactionThreshold = compactionThreshold;
+		return this;
+	}
+
+	public Path getDir() {
+		return dir;
+	}
+
+	// region OTRepository
+	@Override
+	public Promise<OTCommit<K, D>> createCommit(Map<K, DiffsWithLevel<D>> parentDiffs) {
+		return idGenerator.createId()
+				.map(newId -> OTCommit.of(0, newId, parentDiffs));
+	}
+
+	@Override
+	public Promise<Void> push(Collection<OTCommit<K, D>> commits) {
+		if (commits.isEmpty()) return Promise.complete();
+		List<OTCommit<K, D>> list = new ArrayList<>(commits);
+		long timestamp = eventloop.currentTimeMillis();
+		return writer.execute(() -> Promise.ofBlockingCallable(executor,
+				() -> {
+					List<byte[]> records = new ArrayList<>(list.size());
+					for (OTCommit<K, D> commit : list) {
+						records.add(encodeCommit(commit, commit.getTimestamp() != 0L ? commit.getTimestamp() : timestamp));
+					}
+					return append(records);
+				})
+				.map(locations -> {
+					for (int i = 0; i < list.size(); i++) {
+						OTCommit<K, D> commit = list.get(i);
+						Map<K, Long> parentLevels = new LinkedHashMap<>();
+						commit.getParentsWithLevels().forEach((parentId, diffs) -> parentLevels.put(parentId, diffs.getLevel()));
+						this.commits.put(commit.getId(), new CommitEntry<>(commit.getEpoch(), commit.getLevel(),
+								commit.getTimestamp() != 0L ? commit.getTimestamp() : timestamp, parentLevels, locations.get(i)));
+					}
+					return (Void) null;
+				}))
+				.whenComplete(promisePush.recordStats())
+				.whenComplete(toLogger(logger, thisMethod(), commits));
+	}
+
+	@NotNull
+	@Override
+	public Promise<Void> updateHeads(Set<K> newHeads, Set<K> excludedHeads) {
+		if (newHeads.isEmpty() && excludedHeads.isEmpty()) return Promise.complete();
+		Set<K> added = new HashSet<>(newHeads);
+		Set<K> removed = new HashSet<>(excludedHeads);
+		return writer.execute(() -> Promise.ofBlockingCallable(executor,
+				() -> append(Collections.singletonList(encodeHeads(added, removed))))
+				.map($ -> {
+					heads.addAll(added);
+					heads.removeAll(removed);
+					return (Void) null;
+				}))
+				.whenComplete(promiseUpdateHeads.recordStats())
+				.whenComplete(toLogger(logger, thisMethod(), newHeads, excludedHeads));
+	}
+
+	@NotNull
+	@Override
+	public Promise<Set<K>> getAllHeads() {
+		return Promise.of(new HashSet<>(heads));
+	}
+
+	@NotNull
+	@Override
+	public Promise<Long> getLevel(@NotNull K commitId) {
+		CommitEntry<K> entry = commits.get(commitId);
+		if (entry == null) return Promise.ofException(new IOException("No commit with id: " + commitId));
+		return Promise.of(entry.level);
+	}
+
+	@NotNull
+	@Override
+	public Promise<Map<K, Long>> getLevels(@NotNull Set<K> commitIds) {
+		Map<K, Long> result = new HashMap<>();
+		for (K commitId : commitIds) {
+			CommitEntry<K> entry = commits.get(commitId);
+			if (entry == null) return Promise.ofException(new IOException("No commit with id: " + commitId));
+			result.put(commitId, entry.level);
+		}
+		return Promise.of(result);
+	}
+
+	@NotNull
+	@Override
+	public Promise<OTCommit<K, D>> loadCommit(@NotNull K revisionId) {
+		CommitEntry<K> entry = commits.get(revisionId);
+		if (entry == null) return Promise.ofException(new IOException("No commit with id: " + revisionId));
+		if (entry.parentLevels.isEmpty()) {
+			return Promise.of(OTCommit.<K, D>of(entry.epoch, revisionId, Collections.emptyMap())
+					.withTimestamp(entry.timestamp));
+		}
+		Location location = entry.location;
+		return Promise.ofBlockingCallable(executor,
+				() -> {
+					Map<K, DiffsWithLevel<D>> parentDiffs = decodeCommitDiffs(location.read());
+					return OTCommit.of(entry.epoch, revisionId, parentDiffs)
+							.withTimestamp(entry.timestamp);
+				})
+				.whenComplete(promiseLoadCommit.recordStats())
+				.whenComplete(toLogger(logger, thisMethod(), revisionId));
+	}
+
+	@Override
+	public Promise<Map<K, OTCommit<K, D>>> loadCommits(Set<K> heads, long minLevel) {
+		Map<K, CommitEntry<K>> entries = new HashMap<>();
+		ArrayDeque<K> queue = new ArrayDeque<>(heads);
+		while (!queue.isEmpty()) {
+			K id = queue.poll();
+			CommitEntry<K> entry = commits.get(id);
+			if (entry == null || entry.level < minLevel || entries.put(id, entry) != null) continue;
+			queue.addAll(entry.parentLevels.keySet());
+		}
+		return Promise.ofBlockingCallable(executor,
+				() -> {
+					Map<K, OTCommit<K, D>> result = new HashMap<>();
+					for (Map.Entry<K, CommitEntry<K>> entry : entries.entrySet()) {
+						CommitEntry<K> commitEntry = entry.getValue();
+						Map<K, DiffsWithLevel<D>> parentDiffs = commitEntry.parentLevels.isEmpty() ?
+								Collections.emptyMap() :
+								decodeCommitDiffs(commitEntry.location.read());
+						result.put(entry.getKey(), OTCommit.of(commitEntry.epoch, entry.getKey(), parentDiffs)
+								.withTimestamp(commitEntry.timestamp));
+					}
+					return result;
+				})
+				.whenComplete(promiseLoadCommits.recordStats())
+				.whenComplete(toLogger(logger, thisMethod(), heads, minLevel));
+	}
+
+	@NotNull
+	@Override
+	public Promise<Boolean> hasSnapshot(@NotNull K revisionId) {
+		return Promise.of(snapshots.containsKey(revisionId));
+	}
+
+	@NotNull
+	@Override
+	public Promise<Optional<List<D>>> loadSnapshot(@NotNull K revisionId) {
+		Location location = snapshots.get(revisionId);
+		if (location == null) return Promise.of(Optional.empty());
+		return Promise.ofBlockingCallable(executor,
+				() -> Optional.of(decodeSnapshot(location.read())))
+				.whenComplete(promiseLoadSnapshot.recordStats())
+				.whenComplete(toLogger(logger, thisMethod(), revisionId));
+	}
+
+	@NotNull
+	@Override
+	public Promise<Void> saveSnapshot(@NotNull K revisionId, @NotNull List<D> diffs) {
+		return writer.execute(() -> Promise.ofBlockingCallable(executor,
+				() -> append(Collections.singletonList(encodeSnapshot(revisionId, otSystem.squash(diffs)))))
+				.map(locations -> {
+					snapshots.put(revisionId, locations.get(0));
+					return (Void) null;
+				}))
+				.then($ -> segmentCount > compactionThreshold ? compact() : Promise.complete())
+				.whenComplete(promiseSaveSnapshot.recordStats())
+				.whenComplete(toLogger(logger, thisMethod(), revisionId, diffs));
+	}
+	// endregion
+
+	// region OTRepositoryEx
+
+	/**
+	 * Removes commits which are more than one level below {@code minId}, together with their snapshots,
+	 * and compacts all the segments
+	 */
+	@Override
+	public Promise<Void> cleanup(K minId) {
+		CommitEntry<K> entry = commits.get(minId);
+		if (entry == null) return Promise.ofException(new IOException("No commit with id: " + minId));
+		return doCompact(entry.level - 1)
+				.whenComplete(toLogger(logger, thisMethod(), minId));
+	}
+
+	@Override
+	public Promise<Void> backup(OTCommit<K, D> commit, List<D> snapshot) {
+		return writer.execute(() -> Promise.ofBlockingRunnable(executor,
+				() -> {
+					byte[] record = encodeSnapshot(commit.getId(), snapshot);
+					try (FileChannel channel = FileChannel.open(dir.resolve(BACKUP_FILE), CREATE, WRITE, APPEND)) {
+						channel.write(frame(Collections.singletonList(record)));
+						channel.force(false);
+					}
+				}))
+				.whenComplete(toLogger(logger, thisMethod(), commit.getId(), snapshot));
+	}
+	// endregion
+
+	/**
+	 * Rewrites all live records into a single base segment and deletes the older segments.
+	 * The mappings of deleted segments are released once they are garbage collected.
+	 */
+	public Promise<Void> compact() {
+		return doCompact(Long.MIN_VALUE);
+	}
+
+	private Promise<Void> doCompact(long minLevel) {
+		return writer.execute(() -> {
+			List<K> keptCommits = new ArrayList<>();
+			List<Location> recordLocations = new ArrayList<>();
+			for (Map.Entry<K, CommitEntry<K>> entry : commits.entrySet()) {
+				if (entry.getValue().level >= minLevel) {
+					keptCommits.add(entry.getKey());
+					recordLocations.add(entry.getValue().location);
+				}
+			}
+			List<K> keptSnapshots = new ArrayList<>();
+			for (Map.Entry<K, Location> entry : snapshots.entrySet()) {
+				CommitEntry<K> commit = commits.get(entry.getKey());
+				if (commit == null || commit.level >= minLevel) {
+					keptSnapshots.add(entry.getKey());
+					recordLocations.add(entry.getValue());
+				}
+			}
+			Set<K> currentHeads = new HashSet<>(heads);
+			return Promise.ofBlockingCallable(executor,
+					() -> writeBase(encodeHeads(currentHeads, Collections.emptySet()), recordLocations))
+					.map(locations -> {
+						Map<K, CommitEntry<K>> newCommits = new HashMap<>();
+						for (int i = 0; i < keptCommits.size(); i++) {
+							CommitEntry<K> entry = commits.get(keptCommits.get(i));
+							entry.location = locations.get(i);
+							newCommits.put(keptCommits.get(i), entry);
+						}
+						commits.clear();
+						commits.putAll(newCommits);
+						snapshots.clear();
+						for (int i = 0; i < keptSnapshots.size(); i++) {
+							snapshots.put(keptSnapshots.get(i), locations.get(keptCommits.size() + i));
+						}
+						return (Void) null;
+					});
+		})
+				.whenComplete(promiseCompact.recordStats())
+				.whenComplete(toLogger(logger, thisMethod(), minLevel));
+	}
+
+	// region EventloopService
+	@NotNull
+	@Override
+	public Eventloop getEventloop() {
+		return eventloop;
+	}
+
+	@NotNull
+	@Override
+	public Promise<Void> start() {
+		return writer.execute(() -> Promise.ofBlockingRunnable(executor, this::recover))
+				.whenComplete(toLogger(logger, thisMethod(), dir));
+	}
+
+	@NotNull
+	@Override
+	public Promise<Void> stop() {
+		return writer.execute(Promise::complete);
+	}
+	// endregion
+
+	// region segments
+	private void recover() throws IOException {
+		Files.createDirectories(dir);
+		List<Long> ids = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				String fileName = path.getFileName().toString();
+				if (fileName.endsWith(TEMP_SUFFIX)) {
+					logger.info("Deleting unfinished compaction {}", path);
+					Files.delete(path);
+					continue;
+				}
+				Long id = parseSegmentId(fileName);
+				if (id != null) {
+					ids.add(id);
+				}
+			}
+		}
+		Collections.sort(ids);
+
+		Map<K, CommitEntry<K>> recoveredCommits = new HashMap<>();
+		Map<K, Location> recoveredSnapshots = new HashMap<>();
+		Set<K> recoveredHeads = new HashSet<>();
+		segments.clear();
+		for (int i = 0; i < ids.size(); i++) {
+			boolean last = i == ids.size() - 1;
+			Path path = segmentPath(ids.get(i));
+			MappedByteBuffer buffer;
+			try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			}
+			Segment segment = new Segment(ids.get(i), path, buffer);
+			if (scan(segment, last, recoveredCommits, recoveredSnapshots, recoveredHeads)) {
+				for (Segment superseded : segments) {
+					logger.info("Deleting segment {} superseded by compacted segment {}", superseded.path, path);
+					Files.deleteIfExists(superseded.path);
+				}
+				segments.clear();
+			}
+			segments.add(segment);
+		}
+		segmentCount = segments.size();
+
+		eventloop.execute(() -> {
+			commits.clear();
+			commits.putAll(recoveredCommits);
+			snapshots.clear();
+			snapshots.putAll(recoveredSnapshots);
+			heads.clear();
+			heads.addAll(recoveredHeads);
+		});
+	}
+
+	/**
+	 * Reads all frames of a segment into the index
+	 *
+	 * @return whether the segment is a compacted base which supersedes all previous segments
+	 */
+	private boolean scan(Segment segment, boolean last,
+			Map<K, CommitEntry<K>> commits, Map<K, Location> snapshots, Set<K> heads) throws IOException {
+		MappedByteBuffer buffer = segment.buffer;
+		boolean base = false;
+		int position = 0;
+		while (segment.capacity() - position >= FRAME_HEADER_SIZE) {
+			int length = buffer.getInt(position);
+			if (length == 0) break;
+			int crc = buffer.getInt(position + 4);
+			if (length < 0 || length > segment.capacity() - position - FRAME_HEADER_SIZE ||
+					crc != crc32(segment.slice(position + FRAME_HEADER_SIZE, length))) {
+				if (!last) {
+					throw new IOException("Corrupted frame at " + position + " in segment " + segment.path);
+				}
+				logger.warn("Discarding torn frame at {} in segment {}", position, segment.path);
+				for (int i = position; i < segment.capacity(); i++) {
+					buffer.put(i, (byte) 0);
+				}
+				buffer.force();
+				break;
+			}
+			int recordOffset = position + FRAME_HEADER_SIZE;
+			int frameEnd = recordOffset + length;
+			while (recordOffset < frameEnd) {
+				ByteBuffer record = segment.slice(recordOffset, frameEnd - recordOffset);
+				byte type = record.get();
+				if (type == BASE) {
+					commits.clear();
+					snapshots.clear();
+					heads.clear();
+					base = true;
+				} else if (type == COMMIT) {
+					K id = readKey(record);
+					int epoch = record.getInt();
+					long level = record.getLong();
+					long timestamp = record.getLong();
+					int parentsCount = record.getInt();
+					Map<K, Long> parentLevels = new LinkedHashMap<>();
+					for (int i = 0; i < parentsCount; i++) {
+						K parentId = readKey(record);
+						parentLevels.put(parentId, record.getLong());
+						skipString(record);
+					}
+					commits.put(id, new CommitEntry<>(epoch, level, timestamp, parentLevels,
+							new Location(segment, recordOffset, record.position())));
+				} else if (type == HEADS) {
+					List<K> added = readKeys(record);
+					List<K> removed = readKeys(record);
+					heads.addAll(added);
+					heads.removeAll(removed);
+				} else if (type == SNAPSHOT) {
+					K id = readKey(record);
+					skipString(record);
+					snapshots.put(id, new Location(segment, recordOffset, record.position()));
+				} else {
+					throw new IOException("Unknown record type " + type + " at " + recordOffset + " in segment " + segment.path);
+				}
+				recordOffset += record.position();
+			}
+			position = frameEnd;
+		}
+		segment.position = position;
+		return base;
+	}
+
+	/**
+	 * Appends records as a single frame to the last segment, rolling over to a new segment if it does not fit
+	 */
+	private List<Location> append(List<byte[]> records) throws IOException {
+		ByteBuffer frame = frame(records);
+		Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (segment == null || segment.capacity() - segment.position < frame.remaining()) {
+			segment = createSegment(Math.max(segmentSize.toInt(), frame.remaining()));
+			segments.add(segment);
+			segmentCount = segments.size();
+		}
+		int position = segment.position;
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(position);
+		buffer.put(frame);
+		segment.buffer.force();
+		segment.position = buffer.position();
+		return locations(segment, position, records);
+	}
+
+	/**
+	 * Writes a base segment, which consists of a base marker, the current heads and the given records,
+	 * then atomically publishes it and deletes all the older segments
+	 */
+	private List<Location> writeBase(byte[] headsRecord, List<Location> recordLocations) throws IOException {
+		List<byte[]> records = new ArrayList<>(recordLocations.size() + 2);
+		records.add(new byte[]{BASE});
+		records.add(headsRecord);
+		for (Location location : recordLocations) {
+			ByteBuffer buf = location.read();
+			byte[] record = new byte[buf.remaining()];
+			buf.get(record);
+			records.add(record);
+		}
+		ByteBuffer frame = frame(records);
+
+		long id = segments.isEmpty() ? 1L : segments.get(segments.size() - 1).id + 1;
+		Path tempPath = dir.resolve(segmentFileName(id) + TEMP_SUFFIX);
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(tempPath, CREATE_NEW, READ, WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, frame.remaining());
+		}
+		buffer.put(frame);
+		buffer.force();
+		Path path = segmentPath(id);
+		Files.move(tempPath, path, ATOMIC_MOVE);
+		syncDir();
+
+		for (Segment segment : segments) {
+			Files.deleteIfExists(segment.path);
+		}
+		segments.clear();
+		Segment segment = new Segment(id, path, buffer);
+		segment.position = segment.capacity();
+		segments.add(segment);
+		segmentCount = segments.size();
+
+		List<Location> locations = locations(segment, 0, records);
+		return locations.subList(2, locations.size());
+	}
+
+	private Segment createSegment(int size) throws IOException {
+		long id = segments.isEmpty() ? 1L : segments.get(segments.size() - 1).id + 1;
+		Path path = segmentPath(id);
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		syncDir();
+		return new Segment(id, path, buffer);
+	}
+
+	private void syncDir() {
+		// directories cannot be opened for fsync on every platform
+		try (FileChannel channel = FileChannel.open(dir, READ)) {
+			channel.force(true);
+		} catch (IOException ignored) {
+		}
+	}
+
+	private static ByteBuffer frame(List<byte[]> records) {
+		int length = records.stream().mapToInt(record -> record.length).sum();
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + length);
+		frame.position(FRAME_HEADER_SIZE);
+		for (byte[] record : records) {
+			frame.put(record);
+		}
+		frame.putInt(0, length);
+		frame.putInt(4, crc32(ByteBuffer.wrap(frame.array(), FRAME_HEADER_SIZE, length)));
+		frame.flip();
+		return frame;
+	}
+
+	private static List<Location> locations(Segment segment, int framePosition, List<byte[]> records) {
+		List<Location> locations = new ArrayList<>(records.size());
+		int offset = framePosition + FRAME_HEADER_SIZE;
+		for (byte[] record : records) {
+			locations.add(new Location(segment, offset, record.length));
+			offset += record.length;
+		}
+		return locations;
+	}
+
+	private static int crc32(ByteBuffer buf) {
+		CRC32 crc32 = new CRC32();
+		crc32.update(buf);
+		return (int) crc32.getValue();
+	}
+
+	private Path segmentPath(long id) {
+		return dir.resolve(segmentFileName(id));
+	}
+
+	private static String segmentFileName(long id) {
+		return String.format("%016d", id) + SEGMENT_SUFFIX;
+	}
+
+	@Nullable
+	private static Long parseSegmentId(String fileName) {
+		if (!fileName.endsWith(SEGMENT_SUFFIX) || fileName.equals(BACKUP_FILE)) return null;
+		try {
+			return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	// endregion
+
+	// region records
+	private byte[] encodeCommit(OTCommit<K, D> commit, long timestamp) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(COMMIT);
+		writeString(out, JsonUtils.toJson(keyCodec, commit.getId()));
+		out.writeInt(commit.getEpoch());
+		out.writeLong(commit.getLevel());
+		out.writeLong(timestamp);
+		out.writeInt(commit.getParentsWithLevels().size());
+		for (Map.Entry<K, DiffsWithLevel<D>> entry : commit.getParentsWithLevels().entrySet()) {
+			writeString(out, JsonUtils.toJson(keyCodec, entry.getKey()));
+			out.writeLong(entry.getValue().getLevel());
+			writeString(out, JsonUtils.toJson(diffsCodec, entry.getValue().getDiffs()));
+		}
+		return bytes.toByteArray();
+	}
+
+	private byte[] encodeHeads(Set<K> added, Set<K> removed) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(HEADS);
+		writeKeys(out, added);
+		writeKeys(out, removed);
+		return bytes.toByteArray();
+	}
+
+	private byte[] encodeSnapshot(K revisionId, List<D> diffs) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(SNAPSHOT);
+		writeString(out, JsonUtils.toJson(keyCodec, revisionId));
+		writeString(out, JsonUtils.toJson(diffsCodec, diffs));
+		return bytes.toByteArray();
+	}
+
+	private Map<K, DiffsWithLevel<D>> decodeCommitDiffs(ByteBuffer record) throws IOException, ParseException {
+		checkState(record.get() == COMMIT, "Not a commit record");
+		skipString(record);
+		record.position(record.position() + 4 + 8 + 8);
+		int parentsCount = record.getInt();
+		Map<K, DiffsWithLevel<D>> parentDiffs = new LinkedHashMap<>();
+		for (int i = 0; i < parentsCount; i++) {
+			K parentId = readKey(record);
+			long parentLevel = record.getLong();
+			List<D> diffs = JsonUtils.fromJson(diffsCodec, readString(record));
+			parentDiffs.put(parentId, new DiffsWithLevel<>(parentLevel, diffs));
+		}
+		return parentDiffs;
+	}
+
+	private List<D> decodeSnapshot(ByteBuffer record) throws ParseException {
+		checkState(record.get() == SNAPSHOT, "Not a snapshot record");
+		skipString(record);
+		return JsonUtils.fromJson(diffsCodec, readString(record));
+	}
+
+	private void writeKeys(DataOutputStream out, Set<K> keys) throws IOException {
+		out.writeInt(keys.size());
+		for (K key : keys) {
+			writeString(out, JsonUtils.toJson(keyCodec, key));
+		}
+	}
+
+	private List<K> readKeys(ByteBuffer record) throws IOException {
+		int size = record.getInt();
+		List<K> keys = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			keys.add(readKey(record));
+		}
+		return keys;
+	}
+
+	private K readKey(ByteBuffer record) throws IOException {
+		try {
+			return JsonUtils.fromJson(keyCodec, readString(record));
+		} catch (ParseException e) {
+			throw new IOException("Could not parse commit id", e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static void skipString(ByteBuffer buf) {
+		int length = buf.getInt();
+		buf.position(buf.position() + length);
+	}
+	// endregion
+
+	// region JMX
+	@JmxAttribute
+	public int getCommitsCount() {
+		return commits.size();
+	}
+
+	@JmxAttribute
+	public int getSnapshotsCount() {
+		return snapshots.size();
+	}
+
+	@JmxAttribute
+	public int getSegmentsCount() {
+		return segmentCount;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromisePush() {
+		return promisePush;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseUpdateHeads() {
+		return promiseUpdateHeads;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseLoadCommit() {
+		return promiseLoadCommit;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseLoadCommits() {
+		return promiseLoadCommits;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseLoadSnapshot() {
+		return promiseLoadSnapshot;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseSaveSnapshot() {
+		return promiseSaveSnapshot;
+	}
+
+	@JmxAttribute
+	public PromiseStats getPromiseCompact() {
+		return promiseCompact;
+	}
+	// endregion
+}
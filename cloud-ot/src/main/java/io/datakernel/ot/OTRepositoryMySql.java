@@ -50,6 +50,7 @@ import static io.datakernel.common.sql.SqlUtils.execute;
 import static io.datakernel.promise.Promises.retry;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.sql.Connection.TRANSACTION_READ_COMMITTED;
+import static java.util.Collections.emptyMap;
 import static java.util.stream.Collectors.joining;
 
 public class OTRepositoryMySql<D> implements OTRepositoryEx<Long, D>, EventloopJmxMBeanEx {
@@ -79,6 +80,7 @@ public class OTRepositoryMySql<D> implements OTRepositoryEx<Long, D>, EventloopJ
 	private final PromiseStats promisePush = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
 	private final PromiseStats promiseGetHeads = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
 	private final PromiseStats promiseLoadCommit = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
+	private final PromiseStats promiseLoadCommits = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
 	private final PromiseStats promiseIsSnapshot = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
 	private final PromiseStats promiseUpdateHeads = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
 	private final PromiseStats promiseLoadSnapshot = PromiseStats.create(DEFAULT_SMOOTHING_WINDOW);
@@ -339,6 +341,69 @@ public class OTRepositoryMySql<D> implements OTRepositoryEx<Long, D>, EventloopJ
 				.whenComplete(toLogger(logger, thisMethod(), revisionId));
 	}
 
+	@Override
+	public Promise<Map<Long, OTCommit<Long, D>>> loadCommits(Set<Long> heads, long minLevel) {
+		if (heads.isEmpty()) return Promise.of(emptyMap());
+		return Promise.ofBlockingCallable(executor,
+				() -> {
+					try (Connection connection = dataSource.getConnection()) {
+						Map<Long, Integer> epochs = new HashMap<>();
+						Map<Long, Long> levels = new HashMap<>();
+						Map<Long, Long> timestamps = new HashMap<>();
+						Map<Long, Map<Long, List<D>>> parentDiffs = new HashMap<>();
+
+						try (PreparedStatement ps = connection.prepareStatement(sql("" +
+								"SELECT " +
+								" {revisions}.`id`," +
+								" {revisions}.`epoch`," +
+								" {revisions}.`level`," +
+								" UNIX_TIMESTAMP({revisions}.`timestamp`) AS `timestamp`, " +
+								" {diffs}.`parent_id`, " +
+								" {diffs}.`diff` " +
+								"FROM {revisions} " +
+								"LEFT JOIN {diffs} ON {diffs}.`revision_id`={revisions}.`id` " +
+								"WHERE {revisions}.`level`>=? AND {revisions}.`level`<=" +
+								" (SELECT MAX(t.`level`) FROM {revisions} t WHERE t.`id` IN " +
+								Stream.generate(() -> "?").limit(heads.size()).collect(joining(", ", "(", ")")) + ")" +
+								" AND `type` IN ('HEAD', 'INNER')"
+						))) {
+							int pos = 1;
+							ps.setLong(pos++, minLevel);
+							for (Long head : heads) {
+								ps.setLong(pos++, head);
+							}
+							ResultSet resultSet = ps.executeQuery();
+
+							while (resultSet.next()) {
+								long id = resultSet.getLong(1);
+								epochs.put(id, resultSet.getInt(2));
+								levels.put(id, resultSet.getLong(3));
+								timestamps.put(id, resultSet.getLong(4) * 1000L);
+								Map<Long, List<D>> diffs = parentDiffs.computeIfAbsent(id, $ -> new HashMap<>());
+								String diffString = resultSet.getString(6);
+								if (diffString != null) {
+									diffs.put(resultSet.getLong(5), fromJson(diffString));
+								}
+							}
+						}
+
+						Map<Long, OTCommit<Long, D>> result = new HashMap<>();
+						for (Map.Entry<Long, Map<Long, List<D>>> entry : parentDiffs.entrySet()) {
+							long id = entry.getKey();
+							long level = levels.get(id);
+							Map<Long, DiffsWithLevel<D>> parents = new HashMap<>();
+							entry.getValue().forEach((parentId, diffs) ->
+									parents.put(parentId, new DiffsWithLevel<>(levels.getOrDefault(parentId, level - 1), diffs)));
+							result.put(id, OTCommit.of(epochs.get(id), id, parents)
+									.withTimestamp(timestamps.get(id)));
+						}
+						return result;
+					}
+				})
+				.whenComplete(promiseLoadCommits.recordStats())
+				.whenComplete(toLogger(logger, thisMethod(), heads, minLevel));
+	}
+
 	@NotNull
 	@Override
 	public Promise<Void> saveSnapshot(@NotNull Long revisionId, @NotNull List<D> diffs) {
@@ -462,6 +527,11 @@ public class OTRepositoryMySql<D> implements OTRepositoryEx<Long, D>, EventloopJ
 		return promiseLoadCommit;
 	}
 
+	@JmxAttribute
+	public PromiseStats getPromiseLoadCommits() {
+		return promiseLoadCommits;
+	}
+
 	@JmxAttribute
 	public PromiseStats getPromiseIsSnapshot() {
 		return promiseIsSnapshot;
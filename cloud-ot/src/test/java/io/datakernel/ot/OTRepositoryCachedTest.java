@@ -0,0 +1,103 @@
+package io.datakernel.ot;
+
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.ot.utils.OTRepositoryStub;
+import io.datakernel.ot.utils.TestOp;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.codec.StructuredCodecs.LONG_CODEC;
+import static io.datakernel.ot.OTCommit.ofCommit;
+import static io.datakernel.ot.OTCommit.ofRoot;
+import static io.datakernel.ot.utils.Utils.*;
+import static io.datakernel.promise.TestUtils.await;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public final class OTRepositoryCachedTest {
+	private static final OTSystem<TestOp> SYSTEM = createTestOp();
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private OTRepositoryFile<Long, TestOp> repository;
+
+	@Before
+	public void setUp() throws IOException {
+		IdGeneratorStub idGenerator = new IdGeneratorStub();
+		idGenerator.id = 1000;
+		repository = OTRepositoryFile.create(Eventloop.getCurrentEventloop(), Executors.newSingleThreadExecutor(),
+				temporaryFolder.newFolder().toPath(), idGenerator, SYSTEM, LONG_CODEC, OP_CODEC);
+		await(repository.start());
+		await(repository.pushAndUpdateHead(ofRoot(1L)));
+		for (long id = 2; id <= 100; id++) {
+			await(repository.pushAndUpdateHead(ofCommit(0, id, id - 1, singletonList(add(1)), id - 1)));
+		}
+	}
+
+	@Test
+	public void testLoadCommits() {
+		Map<Long, OTCommit<Long, TestOp>> commits = await(repository.loadCommits(singleton(50L), 41));
+		assertEquals(10, commits.size());
+		for (long id = 41; id <= 50; id++) {
+			assertEquals(singletonList(add(1)), commits.get(id).getParents().get(id - 1));
+		}
+	}
+
+	@Test
+	public void testPrefetch() {
+		OTCommitCache<Long, TestOp> cache = OTCommitCache.create();
+		OTRepositoryCached<Long, TestOp> cached = OTRepositoryCached.create(repository, cache)
+				.withPrefetchLevels(30);
+
+		assertEquals(singletonList(add(99)), SYSTEM.squash(await(OTAlgorithms.diff(cached, SYSTEM, 1L, 100L))));
+		// both start nodes are loaded one by one, the rest of the graph in batches of 31 levels
+		assertEquals(6, cache.getMisses());
+		assertEquals(100, cache.size());
+
+		assertEquals(singletonList(add(-49)), SYSTEM.squash(await(OTAlgorithms.diff(cached, SYSTEM, 100L, 51L))));
+		assertEquals(6, cache.getMisses());
+	}
+
+	@Test
+	public void testWithoutBatchLoading() {
+		OTRepositoryStub<Integer, TestOp> stub = OTRepositoryStub.create();
+		stub.setGraph(g -> {
+			g.add(1, 2, add(1));
+			g.add(2, 3, add(1));
+			g.add(3, 4, add(1));
+		});
+		OTCommitCache<Integer, TestOp> cache = OTCommitCache.create();
+		OTRepositoryCached<Integer, TestOp> cached = OTRepositoryCached.create(stub, cache);
+
+		assertEquals(singletonList(add(3)), SYSTEM.squash(await(OTAlgorithms.diff(cached, SYSTEM, 1, 4))));
+		assertEquals(4, cache.size());
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void testEviction() {
+		OTCommitCache<Long, TestOp> cache = OTCommitCache.create(10);
+		for (long id = 1; id <= 30; id++) {
+			cache.put(await(repository.loadCommit(id)));
+		}
+		assertEquals(10, cache.size());
+		assertEquals(21L, (long) cache.getMinLevel());
+		assertEquals(30L, (long) cache.getMaxLevel());
+		assertNull(cache.get(20L));
+		assertNotNull(cache.get(21L));
+		assertEquals(20L, (long) cache.getLevel(20L));
+	}
+}
@@ -0,0 +1,181 @@
+package io.datakernel.ot;
+
+import io.datakernel.common.MemSize;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.ot.utils.TestOp;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.datakernel.codec.StructuredCodecs.LONG_CODEC;
+import static io.datakernel.ot.OTCommit.ofCommit;
+import static io.datakernel.ot.OTCommit.ofRoot;
+import static io.datakernel.ot.utils.Utils.*;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static java.util.Arrays.asList;
+import static java.util.Collections.*;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class OTRepositoryFileTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private Path dir;
+	private OTRepositoryFile<Long, TestOp> repository;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = temporaryFolder.newFolder().toPath();
+		repository = open();
+	}
+
+	private OTRepositoryFile<Long, TestOp> open() {
+		IdGeneratorStub idGenerator = new IdGeneratorStub();
+		idGenerator.id = 1000;
+		OTRepositoryFile<Long, TestOp> repository = OTRepositoryFile.create(Eventloop.getCurrentEventloop(), executor, dir, idGenerator,
+				createTestOp(), LONG_CODEC, OP_CODEC)
+				.withSegmentSize(MemSize.bytes(256))
+				.withCompactionThreshold(4);
+		await(repository.start());
+		return repository;
+	}
+
+	private OTRepositoryFile<Long, TestOp> reopen() {
+		await(repository.stop());
+		repository = open();
+		return repository;
+	}
+
+	private void pushChain(long from, long to) {
+		for (long id = from; id <= to; id++) {
+			await(repository.pushAndUpdateHead(id == 1 ?
+					ofRoot(id) :
+					ofCommit(0, id, id - 1, singletonList(add(1)), id - 1)));
+		}
+	}
+
+	@Test
+	public void testPushAndLoad() {
+		pushChain(1, 10);
+
+		assertEquals(singleton(10L), await(repository.getHeads()));
+		assertEquals(5L, (long) await(repository.getLevel(5L)));
+
+		OTCommit<Long, TestOp> commit = await(repository.loadCommit(5L));
+		assertEquals(singleton(4L), commit.getParentIds());
+		assertEquals(singletonList(add(1)), commit.getParents().get(4L));
+		assertNotEquals(0L, commit.getTimestamp());
+
+		awaitException(repository.loadCommit(100L));
+	}
+
+	@Test
+	public void testRecovery() {
+		pushChain(1, 10);
+		await(repository.saveSnapshot(5L, asList(add(2), add(3))));
+
+		reopen();
+
+		assertEquals(singleton(10L), await(repository.getHeads()));
+		assertEquals(singletonList(add(1)), await(repository.loadCommit(7L)).getParents().get(6L));
+		assertEquals(Optional.of(singletonList(add(5))), await(repository.loadSnapshot(5L)));
+		assertFalse(await(repository.hasSnapshot(6L)));
+	}
+
+	@Test
+	public void testMerge() {
+		await(repository.pushAndUpdateHeads(commits(asLong(g -> {
+			g.add(1, 2, add(1));
+			g.add(1, 3, add(1));
+			g.add(1, 4, add(1));
+		}))));
+		Long mergeId = await(OTAlgorithms.mergeAndUpdateHeads(repository, createTestOp()));
+
+		reopen();
+
+		assertEquals(singleton(mergeId), await(repository.getHeads()));
+		assertEquals(asList(2L, 3L, 4L), await(repository.loadCommit(mergeId)).getParentIds().stream().sorted().collect(toList()));
+	}
+
+	@Test
+	public void testCompactionAfterSnapshot() throws IOException {
+		pushChain(1, 20);
+		assertTrue(repository.getSegmentsCount() > 4);
+
+		await(repository.saveSnapshot(20L, singletonList(add(19))));
+		assertEquals(1, repository.getSegmentsCount());
+		assertEquals(1, segmentFiles().size());
+
+		reopen();
+
+		assertEquals(20, repository.getCommitsCount());
+		assertEquals(singleton(20L), await(repository.getHeads()));
+		assertEquals(singletonList(add(1)), await(repository.loadCommit(15L)).getParents().get(14L));
+		assertEquals(Optional.of(singletonList(add(19))), await(repository.loadSnapshot(20L)));
+	}
+
+	@Test
+	public void testCleanup() {
+		pushChain(1, 10);
+		await(repository.saveSnapshot(8L, singletonList(add(7))));
+
+		await(repository.cleanup(8L));
+		assertEquals(4, repository.getCommitsCount());
+		awaitException(repository.loadCommit(6L));
+
+		reopen();
+
+		assertEquals(4, repository.getCommitsCount());
+		assertEquals(singletonList(add(1)), await(repository.loadCommit(8L)).getParents().get(7L));
+		assertTrue(await(repository.hasSnapshot(8L)));
+	}
+
+	@Test
+	public void testTornFrameIsDiscarded() throws IOException {
+		pushChain(1, 3);
+		await(repository.stop());
+
+		Path last = segmentFiles().get(segmentFiles().size() - 1);
+		byte[] bytes = Files.readAllBytes(last);
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		int lastFrame = 0;
+		for (int position = 0; position + 8 <= bytes.length && buf.getInt(position) != 0; position += 8 + buf.getInt(position)) {
+			lastFrame = position;
+		}
+		bytes[lastFrame + 8] ^= 0x55;
+		Files.write(last, bytes);
+
+		repository = open();
+		assertEquals(3, repository.getCommitsCount());
+		assertEquals(singleton(2L), await(repository.getHeads()));
+
+		await(repository.pushAndUpdateHead(ofCommit(0, 4L, 2L, singletonList(add(2)), 2L)));
+		reopen();
+		assertEquals(singleton(4L), await(repository.getHeads()));
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		return Files.list(dir)
+				.filter(path -> !path.getFileName().toString().startsWith("backup"))
+				.sorted()
+				.collect(toList());
+	}
+}
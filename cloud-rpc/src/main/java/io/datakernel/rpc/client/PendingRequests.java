@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client;
+
+import io.datakernel.async.callback.Callback;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Callbacks of the requests sent through a connection, which are found by cookies without boxing or allocations.
+ * <p>
+ * Cookies are chosen by the table itself: the next cookie which maps to a free slot is taken,
+ * so that a slot is never shared, and the table grows only when more than half of it is used.
+ * <p>
+ * Deadlines are kept in a hashed wheel of {@code tickMillis}-wide buckets, each bucket holds cookies.
+ * A bucket is checked once a rotation, an entry stays in it until its deadline has passed or its request is completed.
+ * Buckets are reused, so once warmed up neither the table nor the wheel allocate memory.
+ */
+final class PendingRequests {
+	static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private Callback<?>[] callbacks;
+	private int[] cookies;
+	private long[] timestamps;
+	private long[] deadlines;
+	private int mask;
+	private int size;
+	private int cookie;
+
+	private long removedTimestamp;
+
+	private final int[][] buckets;
+	private final int[] bucketSizes;
+	private final int bucketCapacity;
+	private final long tickMillis;
+	private int wheelSize;
+	private long nextTick;
+	private int bucketPosition;
+
+	PendingRequests(int initialCapacity, int wheelBuckets, int bucketCapacity, long tickMillis) {
+		checkArgument(Integer.bitCount(initialCapacity) == 1, "Initial capacity should be a power of two");
+		checkArgument(Integer.bitCount(wheelBuckets) == 1, "Number of wheel buckets should be a power of two");
+		this.callbacks = new Callback<?>[initialCapacity];
+		this.cookies = new int[initialCapacity];
+		this.timestamps = new long[initialCapacity];
+		this.deadlines = new long[initialCapacity];
+		this.mask = initialCapacity - 1;
+		this.buckets = new int[wheelBuckets][];
+		this.bucketSizes = new int[wheelBuckets];
+		this.bucketCapacity = bucketCapacity;
+		this.tickMillis = tickMillis;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Adds a callback and returns the cookie of its request
+	 */
+	int add(Callback<?> cb, long timestamp, long deadline) {
+		if ((size + 1) * 2 > callbacks.length) {
+			grow();
+		}
+		do {
+			cookie++;
+		} while (callbacks[cookie & mask] != null);
+		int slot = cookie & mask;
+		callbacks[slot] = cb;
+		cookies[slot] = cookie;
+		timestamps[slot] = timestamp;
+		deadlines[slot] = deadline;
+		size++;
+		if (deadline != NO_DEADLINE) {
+			addToWheel(cookie, deadline);
+		}
+		return cookie;
+	}
+
+	/**
+	 * Removes the callback of a request, the time when the request was sent is then available
+	 * with {@link #getRemovedTimestamp()}
+	 */
+	@Nullable
+	Callback<?> remove(int cookie) {
+		int slot = cookie & mask;
+		Callback<?> cb = callbacks[slot];
+		if (cb == null || cookies[slot] != cookie) return null;
+		removeSlot(slot);
+		return cb;
+	}
+
+	long getRemovedTimestamp() {
+		return removedTimestamp;
+	}
+
+	/**
+	 * Removes all the callbacks in a single pass over the table and passes each of them to the consumer,
+	 * for example to fail all the requests of a closed connection.
+	 * The consumer must not add requests to this table.
+	 */
+	void drain(Consumer<Callback<?>> consumer) {
+		for (int slot = 0; slot < callbacks.length && size != 0; slot++) {
+			Callback<?> cb = callbacks[slot];
+			if (cb != null) {
+				removeSlot(slot);
+				consumer.accept(cb);
+			}
+		}
+	}
+
+	private void removeSlot(int slot) {
+		removedTimestamp = timestamps[slot];
+		callbacks[slot] = null;
+		size--;
+	}
+
+	private void grow() {
+		Callback<?>[] oldCallbacks = callbacks;
+		int[] oldCookies = cookies;
+		long[] oldTimestamps = timestamps;
+		long[] oldDeadlines = deadlines;
+		int capacity = oldCallbacks.length * 2;
+		callbacks = new Callback<?>[capacity];
+		cookies = new int[capacity];
+		timestamps = new long[capacity];
+		deadlines = new long[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldCallbacks.length; i++) {
+			if (oldCallbacks[i] == null) continue;
+			// cookies which shared no slot in the smaller table share none in the larger one
+			int slot = oldCookies[i] & mask;
+			callbacks[slot] = oldCallbacks[i];
+			cookies[slot] = oldCookies[i];
+			timestamps[slot] = oldTimestamps[i];
+			deadlines[slot] = oldDeadlines[i];
+		}
+	}
+
+	// region expiration wheel
+	private void addToWheel(int cookie, long deadline) {
+		long tick = deadline / tickMillis;
+		if (wheelSize == 0 || tick < nextTick) {
+			nextTick = tick;
+			bucketPosition = 0;
+		}
+		int index = (int) (tick & (buckets.length - 1));
+		int[] bucket = buckets[index];
+		if (bucket == null) {
+			bucket = buckets[index] = new int[bucketCapacity];
+		} else if (bucketSizes[index] == bucket.length) {
+			bucket = buckets[index] = Arrays.copyOf(bucket, bucket.length * 2);
+		}
+		bucket[bucketSizes[index]++] = cookie;
+		wheelSize++;
+	}
+
+	/**
+	 * Returns the time when the wheel should be checked next, or {@link #NO_DEADLINE} if the wheel is empty.
+	 * It may be earlier than the nearest deadline, if a bucket holds entries for the next rotations only.
+	 */
+	long getNextCheckTime() {
+		if (wheelSize == 0) return NO_DEADLINE;
+		for (int i = 0; i < buckets.length; i++) {
+			long tick = nextTick + i;
+			if (bucketSizes[(int) (tick & (buckets.length - 1))] != 0) {
+				return tick * tickMillis + tickMillis - 1;
+			}
+		}
+		throw new AssertionError();
+	}
+
+	/**
+	 * Removes a callback whose deadline has passed, returns {@code null} if there are no more of them
+	 */
+	@Nullable
+	Callback<?> pollExpired(long now) {
+		// all the deadlines of a bucket have passed only once its tick is over
+		long lastTick = (now + 1) / tickMillis - 1;
+		if (wheelSize == 0 || nextTick > lastTick) return null;
+		if (lastTick - nextTick >= buckets.length) {
+			// every bucket is to be checked once
+			nextTick = lastTick - buckets.length + 1;
+			bucketPosition = 0;
+		}
+		while (nextTick <= lastTick) {
+			int index = (int) (nextTick & (buckets.length - 1));
+			int[] bucket = buckets[index];
+			while (bucketPosition < bucketSizes[index]) {
+				int cookie = bucket[bucketPosition];
+				int slot = cookie & mask;
+				boolean active = callbacks[slot] != null && cookies[slot] == cookie;
+				if (active && deadlines[slot] > now) {
+					bucketPosition++;
+					continue;
+				}
+				bucket[bucketPosition] = bucket[--bucketSizes[index]];
+				wheelSize--;
+				if (active) {
+					Callback<?> cb = callbacks[slot];
+					removeSlot(slot);
+					return cb;
+				}
+			}
+			nextTick++;
+			bucketPosition = 0;
+		}
+		return null;
+	}
+	// endregion
+}
@@ -21,6 +21,8 @@ import io.datakernel.async.service.EventloopService;
 import io.datakernel.common.Initializable;
 import io.datakernel.common.MemSize;
 import io.datakernel.common.exception.StacklessException;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.datastream.csp.ChannelSerializer;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
@@ -412,6 +414,22 @@ public final class RpcClient implements IRpcClient, EventloopService, Initializa
 		requestSender.sendRequest(request, cb);
 	}
 
+	/**
+	 * Sends a request which is handled on the server by
+	 * {@link RpcServer#withServerStreamingHandler server streaming handler}
+	 */
+	public <I, O> StreamSupplier<O> receiveStream(I request) {
+		return requestSender.receiveStream(request);
+	}
+
+	/**
+	 * Sends a request followed by a stream of items, which are handled on the server by
+	 * {@link RpcServer#withClientStreamingHandler client streaming handler}
+	 */
+	public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+		return requestSender.sendStream(request);
+	}
+
 	public IRpcClient adaptToAnotherEventloop(Eventloop anotherEventloop) {
 		if (anotherEventloop == this.eventloop) {
 			return this;
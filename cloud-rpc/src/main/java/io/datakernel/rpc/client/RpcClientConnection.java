@@ -20,57 +20,72 @@ import io.datakernel.async.callback.Callback;
 import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.Stopwatch;
 import io.datakernel.common.exception.AsyncTimeoutException;
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.datastream.StreamConsumerWithResult;
 import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.ScheduledRunnable;
 import io.datakernel.eventloop.jmx.EventStats;
 import io.datakernel.eventloop.jmx.JmxRefreshable;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.jmx.api.JmxReducers.JmxReducerSum;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
 import io.datakernel.rpc.client.jmx.RpcRequestStats;
-import io.datakernel.rpc.client.sender.RpcSender;
+import io.datakernel.rpc.client.sender.PeakEwma;
+import io.datakernel.rpc.client.sender.RpcLoadAwareSender;
 import io.datakernel.rpc.protocol.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
 import java.net.InetSocketAddress;
-import java.util.*;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
 
 import static io.datakernel.rpc.client.IRpcClient.RPC_OVERLOAD_EXCEPTION;
 import static io.datakernel.rpc.client.IRpcClient.RPC_TIMEOUT_EXCEPTION;
 import static org.slf4j.LoggerFactory.getLogger;
 
-public final class RpcClientConnection implements RpcStream.Listener, RpcSender, JmxRefreshable {
+public final class RpcClientConnection implements RpcStream.Listener, RpcLoadAwareSender, JmxRefreshable {
 	private static final Logger logger = getLogger(RpcClientConnection.class);
 	private static final int BUCKET_CAPACITY = ApplicationSettings.getInt(RpcClientConnection.class, "bucketCapacity", 16);
+	private static final int INITIAL_REQUESTS_CAPACITY = ApplicationSettings.getInt(RpcClientConnection.class, "initialRequestsCapacity", 1024);
+	private static final int EXPIRATION_WHEEL_SIZE = ApplicationSettings.getInt(RpcClientConnection.class, "expirationWheelSize", 4096);
+	private static final Duration EXPIRATION_TICK = ApplicationSettings.getDuration(RpcClientConnection.class, "expirationTick", Duration.ofMillis(1));
+	private static final Duration RESPONSE_TIME_DECAY = ApplicationSettings.getDuration(RpcClientConnection.class, "responseTimeDecay", PeakEwma.DEFAULT_DECAY_TIME);
+	private static final Duration OVERLOAD_PENALTY = ApplicationSettings.getDuration(RpcClientConnection.class, "overloadPenalty", Duration.ofSeconds(1));
 
 	private StreamDataAcceptor<RpcMessage> downstreamDataAcceptor = this::addIntoInitialBuffer;
 	private boolean overloaded = false;
 
 	public static final RpcException CONNECTION_CLOSED = new RpcException(RpcClientConnection.class, "Connection closed.");
+	public static final RpcOverloadException SERVER_OVERLOADED = new RpcOverloadException(RpcClientConnection.class, "Server is overloaded");
+
+	// a stream is completed by the multiplexer, its cookie is only reserved in the active requests
+	private static final Callback<Object> STREAM_CALLBACK = (result, e) -> {};
 
 	private final Eventloop eventloop;
 	private final RpcClient rpcClient;
 	private final RpcStream stream;
 	private final InetSocketAddress address;
-	private final Map<Integer, Callback<?>> activeRequests = new HashMap<>();
-	private final Map<Long, ExpirationList> expirationLists = new HashMap<>();
-
-	private ArrayList<RpcMessage> initialBuffer = new ArrayList<>();
+	private final PendingRequests activeRequests = new PendingRequests(INITIAL_REQUESTS_CAPACITY,
+			EXPIRATION_WHEEL_SIZE, BUCKET_CAPACITY, EXPIRATION_TICK.toMillis());
+	@Nullable
+	private ScheduledRunnable expirationTask;
+	private long expirationTime = PendingRequests.NO_DEADLINE;
 
-	private static final class ExpirationList {
-		private int size;
-		private int[] cookies;
+	private final RpcStreamMultiplexer streams = new RpcStreamMultiplexer(message -> downstreamDataAcceptor.accept(message),
+			RpcStreamMultiplexer.DEFAULT_WINDOW, false);
 
-		ExpirationList(int[] cookies) {
-			this.cookies = cookies;
-		}
-	}
+	private ArrayList<RpcMessage> initialBuffer = new ArrayList<>();
 
-	private int cookie = 0;
 	private boolean serverClosing;
 
+	private final PeakEwma responseTime = PeakEwma.create(RESPONSE_TIME_DECAY);
+
 	// JMX
 	private boolean monitoring;
 	private final RpcRequestStats connectionStats;
@@ -101,45 +116,18 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		connectionRequests.recordEvent();
 
 		if (!overloaded || request instanceof RpcMandatoryData) {
-			cookie++;
-
 			// jmx
 			if (monitoring) {
 				cb = doJmxMonitoring(request, timeout, cb);
 			}
 
-			if (timeout != Integer.MAX_VALUE) {
-				ExpirationList list = expirationLists.computeIfAbsent(eventloop.currentTimeMillis() + timeout, t -> {
-					ExpirationList l = new ExpirationList(new int[BUCKET_CAPACITY]);
-					eventloop.scheduleBackground(t, () -> {
-						expirationLists.remove(t);
-
-						for (int i = 0; i < l.size; i++) {
-							Callback<?> expiredCb = activeRequests.remove(l.cookies[i]);
-							if (expiredCb != null) {
-								// jmx
-								connectionStats.getExpiredRequests().recordEvent();
-								rpcClient.getGeneralRequestsStats().getExpiredRequests().recordEvent();
-
-								expiredCb.accept(null, RPC_TIMEOUT_EXCEPTION);
-							}
-						}
-
-						if (serverClosing && activeRequests.size() == 0) {
-							shutdown();
-						}
-					});
-					return l;
-				});
-
-				if (list.size >= list.cookies.length) {
-					list.cookies = Arrays.copyOf(list.cookies, list.cookies.length * 2);
-				}
-				list.cookies[list.size++] = cookie;
+			long timestamp = eventloop.currentTimeMillis();
+			long deadline = timeout != Integer.MAX_VALUE ? timestamp + timeout : PendingRequests.NO_DEADLINE;
+			int cookie = activeRequests.add(cb, timestamp, deadline);
+			if (deadline < expirationTime) {
+				scheduleExpiration(deadline);
 			}
 
-			activeRequests.put(cookie, cb);
-
 			downstreamDataAcceptor.accept(RpcMessage.of(cookie, request));
 		} else {
 			doProcessOverloaded(cb);
@@ -155,14 +143,12 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		connectionRequests.recordEvent();
 
 		if (!overloaded || request instanceof RpcMandatoryData) {
-			cookie++;
-
 			// jmx
 			if (monitoring) {
 				cb = doJmxMonitoring(request, Integer.MAX_VALUE, cb);
 			}
 
-			activeRequests.put(cookie, cb);
+			int cookie = activeRequests.add(cb, eventloop.currentTimeMillis(), PendingRequests.NO_DEADLINE);
 
 			downstreamDataAcceptor.accept(RpcMessage.of(cookie, request));
 		} else {
@@ -170,6 +156,94 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		}
 	}
 
+	@Override
+	public <I, O> StreamSupplier<O> receiveStream(I request) {
+		assert eventloop.inEventloopThread();
+
+		// jmx
+		totalRequests.recordEvent();
+		connectionRequests.recordEvent();
+
+		if (overloaded && !(request instanceof RpcMandatoryData)) {
+			doProcessOverloaded(STREAM_CALLBACK);
+			return StreamSupplier.closingWithError(RPC_OVERLOAD_EXCEPTION);
+		}
+
+		int cookie = activeRequests.add(STREAM_CALLBACK, eventloop.currentTimeMillis(), PendingRequests.NO_DEADLINE);
+		downstreamDataAcceptor.accept(RpcMessage.of(cookie, request));
+		StreamSupplier<O> supplier = streams.receive(cookie);
+		supplier.getEndOfStream()
+				.whenComplete(($, e) -> completeStream(cookie, e));
+		return supplier;
+	}
+
+	@Override
+	public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+		assert eventloop.inEventloopThread();
+
+		// jmx
+		totalRequests.recordEvent();
+		connectionRequests.recordEvent();
+
+		if (overloaded && !(request instanceof RpcMandatoryData)) {
+			doProcessOverloaded(STREAM_CALLBACK);
+			return StreamConsumerWithResult.of(StreamConsumer.closingWithError(RPC_OVERLOAD_EXCEPTION),
+					Promise.ofException(RPC_OVERLOAD_EXCEPTION));
+		}
+
+		// the cookie is released by the reply, which is processed as an ordinary response
+		SettablePromise<O> result = new SettablePromise<>();
+		int cookie = activeRequests.add(result, eventloop.currentTimeMillis(), PendingRequests.NO_DEADLINE);
+		downstreamDataAcceptor.accept(RpcMessage.of(cookie, request));
+		return StreamConsumerWithResult.of(streams.send(cookie), result);
+	}
+
+	private void completeStream(int cookie, @Nullable Throwable e) {
+		if (activeRequests.remove(cookie) == null) return;
+		// jmx
+		if (e != null) {
+			connectionStats.getFailedRequests().recordEvent();
+			rpcClient.getGeneralRequestsStats().getFailedRequests().recordEvent();
+		}
+
+		if (serverClosing && activeRequests.isEmpty()) {
+			shutdown();
+		}
+	}
+
+	private void scheduleExpiration(long time) {
+		if (expirationTask != null) {
+			expirationTask.cancel();
+		}
+		expirationTime = time;
+		expirationTask = eventloop.scheduleBackground(time, this::expireRequests);
+	}
+
+	private void expireRequests() {
+		expirationTask = null;
+		expirationTime = PendingRequests.NO_DEADLINE;
+
+		long now = eventloop.currentTimeMillis();
+		Callback<?> expiredCb;
+		while ((expiredCb = activeRequests.pollExpired(now)) != null) {
+			recordResponseTime(now);
+			// jmx
+			connectionStats.getExpiredRequests().recordEvent();
+			rpcClient.getGeneralRequestsStats().getExpiredRequests().recordEvent();
+
+			expiredCb.accept(null, RPC_TIMEOUT_EXCEPTION);
+		}
+
+		long nextCheckTime = activeRequests.getNextCheckTime();
+		if (nextCheckTime < expirationTime) {
+			scheduleExpiration(nextCheckTime);
+		}
+
+		if (serverClosing && activeRequests.isEmpty()) {
+			shutdown();
+		}
+	}
+
 	private <I, O> Callback<O> doJmxMonitoring(I request, int timeout, @NotNull Callback<O> cb) {
 		RpcRequestStats requestStatsPerClass = rpcClient.ensureRequestStatsPerClass(request.getClass());
 		requestStatsPerClass.getTotalRequests().recordEvent();
@@ -187,17 +261,20 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 
 	@Override
 	public void accept(RpcMessage message) {
+		if (streams.accept(message)) return;
+
 		if (message.getData().getClass() == RpcRemoteException.class) {
 			processErrorMessage(message);
 		} else if (message.getData().getClass() == RpcControlMessage.class) {
-			processControlMessage((RpcControlMessage) message.getData());
+			processControlMessage(message.getCookie(), (RpcControlMessage) message.getData());
 		} else {
 			@SuppressWarnings("unchecked")
 			Callback<Object> cb = (Callback<Object>) activeRequests.remove(message.getCookie());
 			if (cb == null) return;
+			recordResponseTime(eventloop.currentTimeMillis());
 
 			cb.accept(message.getData(), null);
-			if (serverClosing && activeRequests.size() == 0) {
+			if (serverClosing && activeRequests.isEmpty()) {
 				shutdown();
 			}
 		}
@@ -213,22 +290,50 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 
 		Callback<?> cb = activeRequests.remove(message.getCookie());
 		if (cb != null) {
+			recordResponseTime(eventloop.currentTimeMillis());
 			cb.accept(null, remoteException);
 		}
 	}
 
-	private void processControlMessage(RpcControlMessage controlMessage) {
+	/**
+	 * Records the response time of the request which has just been removed from active requests
+	 */
+	private void recordResponseTime(long now) {
+		responseTime.recordValue(now, now - activeRequests.getRemovedTimestamp());
+	}
+
+	private void processControlMessage(int cookie, RpcControlMessage controlMessage) {
 		if (controlMessage == RpcControlMessage.CLOSE) {
 			rpcClient.removeConnection(address);
 			serverClosing = true;
-			if (activeRequests.size() == 0) {
+			if (activeRequests.isEmpty()) {
 				shutdown();
 			}
+		} else if (controlMessage == RpcControlMessage.OVERLOADED) {
+			processOverloadedMessage(cookie);
 		} else {
 			throw new RuntimeException("Received unknown RpcControlMessage");
 		}
 	}
 
+	private void processOverloadedMessage(int cookie) {
+		Callback<?> cb = activeRequests.remove(cookie);
+		if (cb == null) return;
+		// the penalty makes load-aware strategies send requests to other servers until it decays
+		long now = eventloop.currentTimeMillis();
+		responseTime.recordValue(now, Math.max(now - activeRequests.getRemovedTimestamp(), OVERLOAD_PENALTY.toMillis()));
+
+		// jmx
+		rpcClient.getGeneralRequestsStats().getRejectedRequests().recordEvent();
+		connectionStats.getRejectedRequests().recordEvent();
+		if (logger.isTraceEnabled()) logger.trace("RPC server is overloaded: {}", address);
+
+		cb.accept(null, SERVER_OVERLOADED);
+		if (serverClosing && activeRequests.isEmpty()) {
+			shutdown();
+		}
+	}
+
 	@Override
 	public void onReceiverEndOfStream() {
 		logger.info("Receiver EOS: " + address);
@@ -266,22 +371,27 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 			}
 			initialBuffer = null;
 		}
+		streams.onSenderReady();
 	}
 
 	@Override
 	public void onSenderSuspended() {
 		overloaded = true;
+		streams.onSenderSuspended();
 	}
 
 	private void doClose() {
 		rpcClient.removeConnection(address);
 
-		while (!activeRequests.isEmpty()) {
-			for (Integer cookie : new HashSet<>(activeRequests.keySet())) {
-				Callback<?> cb = activeRequests.remove(cookie);
-				cb.accept(null, CONNECTION_CLOSED);
-			}
+		if (expirationTask != null) {
+			expirationTask.cancel();
+			expirationTask = null;
+			expirationTime = PendingRequests.NO_DEADLINE;
 		}
+
+		streams.closeAll(CONNECTION_CLOSED);
+
+		activeRequests.drain(cb -> cb.accept(null, CONNECTION_CLOSED));
 	}
 
 	public void shutdown() {
@@ -312,11 +422,23 @@ public final class RpcClientConnection implements RpcStream.Listener, RpcSender,
 		return connectionStats;
 	}
 
+	@Override
 	@JmxAttribute(reducer = JmxReducerSum.class)
 	public int getActiveRequests() {
 		return activeRequests.size();
 	}
 
+	@JmxAttribute(reducer = JmxReducerSum.class)
+	public int getActiveStreams() {
+		return streams.getActiveStreams();
+	}
+
+	@Override
+	@JmxAttribute
+	public double getSmoothedResponseTime() {
+		return responseTime.get();
+	}
+
 	@Override
 	public void refresh(long timestamp) {
 		connectionStats.refresh(timestamp);
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.sender;
+
+import java.time.Duration;
+
+/**
+ * Moving average of response times, which decays exponentially with time rather than with the number of samples.
+ * <p>
+ * A sample greater than the current average replaces it at once,
+ * so a server which has suddenly become slow is penalized by the next response
+ * and is trusted again only after the decay time.
+ */
+public final class PeakEwma {
+	public static final Duration DEFAULT_DECAY_TIME = Duration.ofSeconds(10);
+
+	private final double decayMillis;
+
+	private double value;
+	private long timestamp;
+
+	private PeakEwma(double decayMillis) {
+		this.decayMillis = decayMillis;
+	}
+
+	public static PeakEwma create() {
+		return create(DEFAULT_DECAY_TIME);
+	}
+
+	public static PeakEwma create(Duration decayTime) {
+		return new PeakEwma(decayTime.toMillis());
+	}
+
+	public void recordValue(long now, double sample) {
+		if (sample >= value) {
+			value = sample;
+		} else {
+			double weight = Math.exp(-(now - timestamp) / decayMillis);
+			value = value * weight + sample * (1.0 - weight);
+		}
+		timestamp = now;
+	}
+
+	public double get() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.2f", value);
+	}
+}
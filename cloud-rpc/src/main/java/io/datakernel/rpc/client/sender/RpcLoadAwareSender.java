@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.sender;
+
+/**
+ * Sender which reports how busy its server is, so that a strategy may prefer the least loaded one
+ *
+ * @see RpcStrategyLeastLoaded
+ */
+public interface RpcLoadAwareSender extends RpcSender {
+	/**
+	 * Returns the number of requests which were sent, but have not been completed yet
+	 */
+	int getActiveRequests();
+
+	/**
+	 * Returns the smoothed response time in milliseconds
+	 */
+	double getSmoothedResponseTime();
+}
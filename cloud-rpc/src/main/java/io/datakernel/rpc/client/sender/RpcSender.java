@@ -17,15 +17,37 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.promise.Promise;
 import io.datakernel.rpc.protocol.RpcException;
 import org.jetbrains.annotations.NotNull;
 
 public interface RpcSender {
 	RpcException NO_SENDER_AVAILABLE_EXCEPTION = new RpcException(RpcSender.class, "No senders available");
+	RpcException STREAMING_NOT_SUPPORTED_EXCEPTION = new RpcException(RpcSender.class, "Sender does not support streaming");
 
 	<I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb);
 
 	default <I, O> void sendRequest(I request, @NotNull Callback<O> cb) {
 		sendRequest(request, Integer.MAX_VALUE, cb);
 	}
+
+	/**
+	 * Sends a request which is replied with a stream of items.
+	 * Only senders which pass each request to a single connection support streaming.
+	 */
+	default <I, O> StreamSupplier<O> receiveStream(I request) {
+		return StreamSupplier.closingWithError(STREAMING_NOT_SUPPORTED_EXCEPTION);
+	}
+
+	/**
+	 * Sends a request followed by a stream of items, the request is replied once the items are received.
+	 * Only senders which pass each request to a single connection support streaming.
+	 */
+	default <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+		return StreamConsumerWithResult.of(StreamConsumer.closingWithError(STREAMING_NOT_SUPPORTED_EXCEPTION),
+				Promise.ofException(STREAMING_NOT_SUPPORTED_EXCEPTION));
+	}
 }
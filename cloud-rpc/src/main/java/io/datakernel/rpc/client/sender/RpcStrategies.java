@@ -73,6 +73,18 @@ public final class RpcStrategies {
 		return RpcStrategyFirstValidResult.create(list);
 	}
 
+	public static RpcStrategyHedged hedged(RpcStrategy... senders) {
+		return hedged(asList(senders));
+	}
+
+	public static RpcStrategyHedged hedged(List<RpcStrategy> senders) {
+		return RpcStrategyHedged.create(RpcStrategyList.ofStrategies(senders));
+	}
+
+	public static RpcStrategyHedged hedged(RpcStrategyList list) {
+		return RpcStrategyHedged.create(list);
+	}
+
 	public static RpcStrategyRoundRobin roundRobin(RpcStrategy... senders) {
 		return roundRobin(asList(senders));
 	}
@@ -85,6 +97,18 @@ public final class RpcStrategies {
 		return RpcStrategyRoundRobin.create(list);
 	}
 
+	public static RpcStrategyLeastLoaded leastLoaded(RpcStrategy... senders) {
+		return leastLoaded(asList(senders));
+	}
+
+	public static RpcStrategyLeastLoaded leastLoaded(List<RpcStrategy> senders) {
+		return RpcStrategyLeastLoaded.create(RpcStrategyList.ofStrategies(senders));
+	}
+
+	public static RpcStrategyLeastLoaded leastLoaded(RpcStrategyList list) {
+		return RpcStrategyLeastLoaded.create(list);
+	}
+
 	public static RpcStrategySharding sharding(ShardingFunction<?> hashFunction,
 			RpcStrategy... senders) {
 		return sharding(hashFunction, asList(senders));
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.ScheduledRunnable;
+import io.datakernel.rpc.client.RpcClientConnectionPool;
+import io.datakernel.rpc.protocol.RpcOverloadException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.eventloop.Eventloop.getCurrentEventloop;
+import static io.datakernel.rpc.client.RpcClientConnection.CONNECTION_CLOSED;
+import static java.lang.Integer.numberOfLeadingZeros;
+
+/**
+ * Strategy which sends a request to one sender, and sends a copy of it to the next sender
+ * if there is no response within a percentile of recent response times.
+ * The first result is passed to the callback, a response to the other copy is ignored.
+ * <p>
+ * Unlike {@link RpcStrategyFirstValidResult}, which multiplies the load by the number of senders,
+ * only slow requests are hedged, and no more than a {@link #withMaxHedgedRatio ratio} of all requests.
+ * A request which is rejected by an overloaded server or whose connection is closed
+ * is sent to the next sender right away, within the same ratio.
+ * Any other error, including an exception of the request handler, is passed to the callback as is.
+ * <p>
+ * Primary senders are chosen in a round-robin fashion.
+ * Response times are tracked by the sender itself, as {@link io.datakernel.rpc.client.jmx.RpcRequestStats}
+ * are only collected while JMX monitoring is on, and its histogram is not limited to recent requests.
+ */
+public final class RpcStrategyHedged implements RpcStrategy {
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	public static final double DEFAULT_MAX_HEDGED_RATIO = 0.1;
+	public static final Duration DEFAULT_MIN_DELAY = Duration.ofMillis(1);
+
+	private final RpcStrategyList list;
+	private final double percentile;
+	private final double maxHedgedRatio;
+	private final Duration minDelay;
+
+	private RpcStrategyHedged(RpcStrategyList list, double percentile, double maxHedgedRatio, Duration minDelay) {
+		this.list = list;
+		this.percentile = percentile;
+		this.maxHedgedRatio = maxHedgedRatio;
+		this.minDelay = minDelay;
+	}
+
+	public static RpcStrategyHedged create(RpcStrategyList list) {
+		return new RpcStrategyHedged(list, DEFAULT_PERCENTILE, DEFAULT_MAX_HEDGED_RATIO, DEFAULT_MIN_DELAY);
+	}
+
+	public RpcStrategyHedged withPercentile(double percentile) {
+		checkArgument(percentile > 0.0 && percentile < 1.0, "Percentile should be between 0 and 1");
+		return new RpcStrategyHedged(list, percentile, maxHedgedRatio, minDelay);
+	}
+
+	public RpcStrategyHedged withMaxHedgedRatio(double maxHedgedRatio) {
+		checkArgument(maxHedgedRatio >= 0.0 && maxHedgedRatio <= 1.0, "Ratio of hedged requests should be between 0 and 1");
+		return new RpcStrategyHedged(list, percentile, maxHedgedRatio, minDelay);
+	}
+
+	public RpcStrategyHedged withMinDelay(Duration minDelay) {
+		return new RpcStrategyHedged(list, percentile, maxHedgedRatio, minDelay);
+	}
+
+	@Override
+	public Set<InetSocketAddress> getAddresses() {
+		return list.getAddresses();
+	}
+
+	@Nullable
+	@Override
+	public RpcSender createSender(RpcClientConnectionPool pool) {
+		List<RpcSender> subSenders = list.listOfSenders(pool);
+		if (subSenders.size() == 0)
+			return null;
+		if (subSenders.size() == 1)
+			return subSenders.get(0);
+		return new Sender(getCurrentEventloop(), subSenders, percentile, maxHedgedRatio, minDelay.toMillis());
+	}
+
+	static final class Sender implements RpcSender {
+		private static final int MIN_SAMPLES = 16;
+		private static final double MAX_BUDGET = 10.0;
+
+		private final Eventloop eventloop;
+		private final RpcSender[] subSenders;
+		private final double percentile;
+		private final double maxHedgedRatio;
+		private final long minDelay;
+
+		private final LatencyHistogram responseTimes = new LatencyHistogram();
+		private int nextSender;
+		private double budget;
+
+		Sender(Eventloop eventloop, @NotNull List<RpcSender> senders, double percentile, double maxHedgedRatio, long minDelay) {
+			checkArgument(senders.size() > 1, "List of senders must contain at least two senders");
+			this.eventloop = eventloop;
+			this.subSenders = senders.toArray(new RpcSender[0]);
+			this.percentile = percentile;
+			this.maxHedgedRatio = maxHedgedRatio;
+			this.minDelay = minDelay;
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			RpcSender primary = subSenders[nextSender];
+			nextSender = (nextSender + 1) % subSenders.length;
+			RpcSender secondary = subSenders[nextSender];
+			budget = Math.min(budget + maxHedgedRatio, MAX_BUDGET);
+
+			HedgedRequest<I, O> hedgedRequest = new HedgedRequest<>(request, timeout, secondary, cb);
+			hedgedRequest.send(primary, timeout);
+
+			if (responseTimes.getCount() < MIN_SAMPLES) return;
+			long delay = Math.max(responseTimes.getPercentile(percentile), minDelay);
+			if (delay < timeout && hedgedRequest.isPending()) {
+				hedgedRequest.timer = eventloop.delay(delay, hedgedRequest::onDelay);
+			}
+		}
+
+		private boolean tryAcquireBudget() {
+			if (budget < 1.0) return false;
+			budget -= 1.0;
+			return true;
+		}
+
+		private final class HedgedRequest<I, O> {
+			private final I request;
+			private final int timeout;
+			private final long timestamp;
+			private final RpcSender secondary;
+			private final Callback<O> cb;
+
+			@Nullable
+			ScheduledRunnable timer;
+			private int activeRequests;
+			private boolean hedged;
+			private boolean completed;
+
+			HedgedRequest(I request, int timeout, RpcSender secondary, Callback<O> cb) {
+				this.request = request;
+				this.timeout = timeout;
+				this.timestamp = eventloop.currentTimeMillis();
+				this.secondary = secondary;
+				this.cb = cb;
+			}
+
+			void send(RpcSender sender, int timeout) {
+				long sendTimestamp = eventloop.currentTimeMillis();
+				activeRequests++;
+				sender.sendRequest(request, timeout, (O result, Throwable e) -> onResponse(sendTimestamp, result, e));
+			}
+
+			boolean isPending() {
+				return !completed && !hedged;
+			}
+
+			void onDelay() {
+				timer = null;
+				if (isPending() && tryAcquireBudget()) {
+					hedge();
+				}
+			}
+
+			private boolean hedge() {
+				int remaining = timeout;
+				if (timeout != Integer.MAX_VALUE) {
+					remaining = (int) (timeout - (eventloop.currentTimeMillis() - timestamp));
+					if (remaining <= 0) return false;
+				}
+				hedged = true;
+				send(secondary, remaining);
+				return true;
+			}
+
+			private void onResponse(long sendTimestamp, O result, @Nullable Throwable e) {
+				activeRequests--;
+				if (e == null) {
+					responseTimes.recordValue(eventloop.currentTimeMillis() - sendTimestamp);
+				}
+				if (completed) return;
+				if (e == null) {
+					complete(result, null);
+					return;
+				}
+				if (!isRetryable(e)) {
+					complete(null, e);
+					return;
+				}
+				if (!hedged && tryAcquireBudget() && hedge()) {
+					if (timer != null) {
+						timer.cancel();
+						timer = null;
+					}
+					return;
+				}
+				if (activeRequests == 0) {
+					complete(null, e);
+				}
+			}
+
+			// the request was not handled, so it is safe to send it elsewhere
+			private boolean isRetryable(Throwable e) {
+				return e instanceof RpcOverloadException || e == CONNECTION_CLOSED;
+			}
+
+			private void complete(@Nullable O result, @Nullable Throwable e) {
+				completed = true;
+				if (timer != null) {
+					timer.cancel();
+					timer = null;
+				}
+				cb.accept(result, e);
+			}
+		}
+	}
+
+	/**
+	 * Histogram of response times in milliseconds with power-of-two buckets,
+	 * whose counts are halved every {@link #WINDOW} values, so that recent values prevail
+	 */
+	static final class LatencyHistogram {
+		private static final int WINDOW = 1024;
+
+		// bucket 0 counts zeroes, bucket i counts values in [2^(i-1), 2^i)
+		private final int[] counts = new int[33];
+		private int count;
+		private int recorded;
+
+		void recordValue(long value) {
+			int v = (int) Math.min(Math.max(value, 0), Integer.MAX_VALUE);
+			counts[32 - numberOfLeadingZeros(v)]++;
+			count++;
+			if (++recorded == WINDOW) {
+				recorded = 0;
+				count = 0;
+				for (int i = 0; i < counts.length; i++) {
+					counts[i] >>= 1;
+					count += counts[i];
+				}
+			}
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns an estimate of the percentile, interpolated linearly within a bucket
+		 */
+		long getPercentile(double percentile) {
+			double threshold = Math.ceil(percentile * count);
+			int accumulated = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] != 0 && accumulated + counts[i] >= threshold) {
+					if (i == 0) return 0;
+					long lower = 1L << (i - 1);
+					long upper = 1L << i;
+					return lower + (long) ((upper - lower) * (threshold - accumulated) / counts[i]);
+				}
+				accumulated += counts[i];
+			}
+			return 0;
+		}
+	}
+}
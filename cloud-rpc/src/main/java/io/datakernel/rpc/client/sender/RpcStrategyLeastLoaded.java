@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.common.time.CurrentTimeProvider;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.rpc.client.RpcClientConnectionPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Load balancing strategy, which picks two senders at random and sends a request to the less loaded of them.
+ * <p>
+ * By default the load of a sender is its smoothed response time multiplied by its number of active requests,
+ * so that a server which stalls (e.g. on a GC pause) quickly stops receiving its share of requests.
+ * Connections to servers report their load themselves,
+ * other senders are tracked by this strategy for as long as the sender it creates is in use.
+ */
+public final class RpcStrategyLeastLoaded implements RpcStrategy {
+	private final Random random = new Random();
+
+	private final RpcStrategyList list;
+	private final int minActiveSubStrategies;
+	private final boolean responseTimeAware;
+
+	private RpcStrategyLeastLoaded(RpcStrategyList list, int minActiveSubStrategies, boolean responseTimeAware) {
+		this.list = list;
+		this.minActiveSubStrategies = minActiveSubStrategies;
+		this.responseTimeAware = responseTimeAware;
+	}
+
+	public static RpcStrategyLeastLoaded create(RpcStrategyList list) {
+		return new RpcStrategyLeastLoaded(list, 0, true);
+	}
+
+	public RpcStrategyLeastLoaded withMinActiveSubStrategies(int minActiveSubStrategies) {
+		return new RpcStrategyLeastLoaded(list, minActiveSubStrategies, responseTimeAware);
+	}
+
+	/**
+	 * Compares senders by their active requests only, if {@code responseTimeAware} is {@code false}
+	 */
+	public RpcStrategyLeastLoaded withResponseTimeAware(boolean responseTimeAware) {
+		return new RpcStrategyLeastLoaded(list, minActiveSubStrategies, responseTimeAware);
+	}
+
+	@Override
+	public Set<InetSocketAddress> getAddresses() {
+		return list.getAddresses();
+	}
+
+	@Nullable
+	@Override
+	public RpcSender createSender(RpcClientConnectionPool pool) {
+		List<RpcSender> subSenders = list.listOfSenders(pool);
+		if (subSenders.size() < minActiveSubStrategies)
+			return null;
+		if (subSenders.size() == 0)
+			return null;
+		if (subSenders.size() == 1)
+			return subSenders.get(0);
+
+		long randomLong = random.nextLong();
+		long seed = randomLong != 0L ? randomLong : 2347230858016798896L;
+
+		return new Sender(subSenders, responseTimeAware, seed);
+	}
+
+	static final class Sender implements RpcSender {
+		private final RpcLoadAwareSender[] subSenders;
+		private final boolean responseTimeAware;
+
+		private long lastRandomLong;
+
+		Sender(@NotNull List<RpcSender> senders, boolean responseTimeAware, long seed) {
+			checkArgument(senders.size() > 1, "List of senders must contain at least two senders");
+			this.subSenders = new RpcLoadAwareSender[senders.size()];
+			for (int i = 0; i < subSenders.length; i++) {
+				RpcSender sender = senders.get(i);
+				subSenders[i] = sender instanceof RpcLoadAwareSender ?
+						(RpcLoadAwareSender) sender :
+						new LoadTrackingSender(sender);
+			}
+			this.responseTimeAware = responseTimeAware;
+			this.lastRandomLong = seed;
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			nextSender().sendRequest(request, timeout, cb);
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> receiveStream(I request) {
+			return nextSender().receiveStream(request);
+		}
+
+		@Override
+		public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+			return nextSender().sendStream(request);
+		}
+
+		private RpcLoadAwareSender nextSender() {
+			int first = nextRandomInt(subSenders.length);
+			int second = nextRandomInt(subSenders.length - 1);
+			if (second >= first) second++;
+			RpcLoadAwareSender sender1 = subSenders[first];
+			RpcLoadAwareSender sender2 = subSenders[second];
+			return load(sender2) < load(sender1) ? sender2 : sender1;
+		}
+
+		private double load(RpcLoadAwareSender sender) {
+			return responseTimeAware ?
+					(sender.getSmoothedResponseTime() + 1.0) * (sender.getActiveRequests() + 1) :
+					sender.getActiveRequests();
+		}
+
+		private int nextRandomInt(int bound) {
+			lastRandomLong ^= (lastRandomLong << 21);
+			lastRandomLong ^= (lastRandomLong >>> 35);
+			lastRandomLong ^= (lastRandomLong << 4);
+			return (int) ((lastRandomLong & Long.MAX_VALUE) % bound);
+		}
+	}
+
+	static final class LoadTrackingSender implements RpcLoadAwareSender {
+		private final RpcSender sender;
+		private final PeakEwma responseTime = PeakEwma.create();
+		private final CurrentTimeProvider now = CurrentTimeProvider.ofSystem();
+
+		private int activeRequests;
+
+		LoadTrackingSender(RpcSender sender) {
+			this.sender = sender;
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			long timestamp = now.currentTimeMillis();
+			activeRequests++;
+			sender.sendRequest(request, timeout, (O result, Throwable e) -> {
+				activeRequests--;
+				long currentTime = now.currentTimeMillis();
+				responseTime.recordValue(currentTime, currentTime - timestamp);
+				cb.accept(result, e);
+			});
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> receiveStream(I request) {
+			return sender.receiveStream(request);
+		}
+
+		@Override
+		public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+			return sender.sendStream(request);
+		}
+
+		@Override
+		public int getActiveRequests() {
+			return activeRequests;
+		}
+
+		@Override
+		public double getSmoothedResponseTime() {
+			return responseTime.get();
+		}
+	}
+}
@@ -17,6 +17,8 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import org.jetbrains.annotations.NotNull;
 
@@ -100,6 +102,20 @@ public class RpcStrategyRandomSampling implements RpcStrategy {
 
 		@Override
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			nextSender().sendRequest(request, timeout, cb);
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> receiveStream(I request) {
+			return nextSender().receiveStream(request);
+		}
+
+		@Override
+		public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+			return nextSender().sendStream(request);
+		}
+
+		private RpcSender nextSender() {
 			lastRandomLong ^= (lastRandomLong << 21);
 			lastRandomLong ^= (lastRandomLong >>> 35);
 			lastRandomLong ^= (lastRandomLong << 4);
@@ -114,7 +130,7 @@ public class RpcStrategyRandomSampling implements RpcStrategy {
 					upperIndex = middle;
 				}
 			}
-			senders.get(lowerIndex).sendRequest(request, timeout, cb);
+			return senders.get(lowerIndex);
 		}
 	}
 
@@ -18,6 +18,8 @@ package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
 import io.datakernel.common.HashUtils;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import io.datakernel.rpc.hash.HashBucketFunction;
 import io.datakernel.rpc.hash.HashFunction;
@@ -142,12 +144,25 @@ public final class RpcStrategyRendezvousHashing implements RpcStrategy {
 			this.hashBuckets = hashBuckets;
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			getSender(request).sendRequest(request, timeout, cb);
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> receiveStream(I request) {
+			return getSender(request).receiveStream(request);
+		}
+
+		@Override
+		public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+			return getSender(request).sendStream(request);
+		}
+
+		@SuppressWarnings("unchecked")
+		private RpcSender getSender(Object request) {
 			int hash = ((HashFunction<Object>) hashFunction).hashCode(request);
-			RpcSender sender = hashBuckets[hash & (hashBuckets.length - 1)];
-			sender.sendRequest(request, timeout, cb);
+			return hashBuckets[hash & (hashBuckets.length - 1)];
 		}
 
 	}
@@ -17,6 +17,8 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -74,9 +76,23 @@ public final class RpcStrategyRoundRobin implements RpcStrategy {
 
 		@Override
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			nextSender().sendRequest(request, timeout, cb);
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> receiveStream(I request) {
+			return nextSender().receiveStream(request);
+		}
+
+		@Override
+		public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+			return nextSender().sendStream(request);
+		}
+
+		private RpcSender nextSender() {
 			RpcSender sender = subSenders[nextSender];
 			nextSender = (nextSender + 1) % subSenders.length;
-			sender.sendRequest(request, timeout, cb);
+			return sender;
 		}
 
 	}
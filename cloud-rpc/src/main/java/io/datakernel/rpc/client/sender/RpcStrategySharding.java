@@ -17,6 +17,10 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.promise.Promise;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import io.datakernel.rpc.hash.ShardingFunction;
 import org.jetbrains.annotations.NotNull;
@@ -81,11 +85,9 @@ public final class RpcStrategySharding implements RpcStrategy {
 			this.subSenders = senders.toArray(new RpcSender[0]);
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
-			int shardIndex = ((ShardingFunction<Object>) shardingFunction).getShard(request);
-			RpcSender sender = subSenders[shardIndex];
+			RpcSender sender = getSender(request);
 			if (sender != null) {
 				sender.sendRequest(request, timeout, cb);
 			} else {
@@ -93,5 +95,29 @@ public final class RpcStrategySharding implements RpcStrategy {
 			}
 		}
 
+		@Override
+		public <I, O> StreamSupplier<O> receiveStream(I request) {
+			RpcSender sender = getSender(request);
+			return sender != null ?
+					sender.receiveStream(request) :
+					StreamSupplier.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION);
+		}
+
+		@Override
+		public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+			RpcSender sender = getSender(request);
+			return sender != null ?
+					sender.sendStream(request) :
+					StreamConsumerWithResult.of(StreamConsumer.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION),
+							Promise.ofException(NO_SENDER_AVAILABLE_EXCEPTION));
+		}
+
+		@SuppressWarnings("unchecked")
+		@Nullable
+		private RpcSender getSender(Object request) {
+			int shardIndex = ((ShardingFunction<Object>) shardingFunction).getShard(request);
+			return subSenders[shardIndex];
+		}
+
 	}
 }
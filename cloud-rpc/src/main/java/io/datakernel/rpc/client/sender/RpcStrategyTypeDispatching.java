@@ -17,6 +17,10 @@
 package io.datakernel.rpc.client.sender;
 
 import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamConsumer;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.promise.Promise;
 import io.datakernel.rpc.client.RpcClientConnectionPool;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -93,15 +97,35 @@ public final class RpcStrategyTypeDispatching implements RpcStrategy {
 
 		@Override
 		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
-			RpcSender sender = typeToSender.get(request.getClass());
-			if (sender == null) {
-				sender = defaultSender;
-			}
+			RpcSender sender = getSender(request);
 			if (sender != null) {
 				sender.sendRequest(request, timeout, cb);
 			} else {
 				cb.accept(null, NO_SENDER_AVAILABLE_EXCEPTION);
 			}
 		}
+
+		@Override
+		public <I, O> StreamSupplier<O> receiveStream(I request) {
+			RpcSender sender = getSender(request);
+			return sender != null ?
+					sender.receiveStream(request) :
+					StreamSupplier.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION);
+		}
+
+		@Override
+		public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+			RpcSender sender = getSender(request);
+			return sender != null ?
+					sender.sendStream(request) :
+					StreamConsumerWithResult.of(StreamConsumer.closingWithError(NO_SENDER_AVAILABLE_EXCEPTION),
+							Promise.ofException(NO_SENDER_AVAILABLE_EXCEPTION));
+		}
+
+		@Nullable
+		private RpcSender getSender(Object request) {
+			RpcSender sender = typeToSender.get(request.getClass());
+			return sender != null ? sender : defaultSender;
+		}
 	}
 }
@@ -17,5 +17,13 @@
 package io.datakernel.rpc.protocol;
 
 public enum RpcControlMessage {
-	CLOSE
+	CLOSE,
+	/**
+	 * The last message of a stream with the same cookie
+	 */
+	END_OF_STREAM,
+	/**
+	 * A reply to a request with the same cookie, which was rejected by the server without being handled
+	 */
+	OVERLOADED
 }
@@ -43,7 +43,7 @@ public final class RpcMessage {
 
 	@Serialize(order = 2)
 	@SerializeSubclasses(
-			startIndex = -1, value = {RpcControlMessage.class, RpcRemoteException.class},
+			startIndex = -2, value = {RpcStreamCredit.class, RpcControlMessage.class, RpcRemoteException.class},
 			extraSubclassesId = MESSAGE_TYPES
 	)
 
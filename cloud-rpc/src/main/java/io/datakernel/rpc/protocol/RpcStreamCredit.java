@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.protocol;
+
+import io.datakernel.serializer.annotations.Deserialize;
+import io.datakernel.serializer.annotations.Serialize;
+
+/**
+ * Allows the other side of a connection to send more items of the stream with the same cookie
+ */
+public final class RpcStreamCredit {
+	private final int credits;
+
+	public RpcStreamCredit(@Deserialize("credits") int credits) {
+		this.credits = credits;
+	}
+
+	@Serialize(order = 0)
+	public int getCredits() {
+		return credits;
+	}
+
+	@Override
+	public String toString() {
+		return "RpcStreamCredit{credits=" + credits + '}';
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.protocol;
+
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.datastream.*;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+import static io.datakernel.datastream.StreamCapability.LATE_BINDING;
+
+/**
+ * Streams of items which are multiplexed over a single {@link RpcStream} by cookies.
+ * <p>
+ * Items are sent as ordinary messages with the cookie of their stream.
+ * A sender sends no more items than its receiver has allowed with {@link RpcStreamCredit} messages,
+ * and finishes with {@link RpcControlMessage#END_OF_STREAM}, or with {@link RpcRemoteException} if its supplier fails.
+ * A receiver grants credits as its consumer takes items, so a suspended consumer stops the remote sender
+ * as soon as the items in flight are buffered.
+ * <p>
+ * A client receiver which is closed cancels its stream with {@link RpcRemoteException}.
+ * A server receiver is kept until the end of its stream, as late items would otherwise be taken for requests,
+ * it is up to a client streaming handler to stop the client by replying.
+ */
+public final class RpcStreamMultiplexer {
+	public static final int DEFAULT_WINDOW = ApplicationSettings.getInt(RpcStreamMultiplexer.class, "window", 256);
+
+	private final StreamDataAcceptor<RpcMessage> output;
+	private final int window;
+	private final boolean server;
+
+	private final Map<Integer, Receiver<?>> receivers = new HashMap<>();
+	private final Map<Integer, Sender<?>> senders = new HashMap<>();
+
+	private boolean ready = true;
+
+	public RpcStreamMultiplexer(StreamDataAcceptor<RpcMessage> output, int window, boolean server) {
+		this.output = output;
+		this.window = window;
+		this.server = server;
+	}
+
+	/**
+	 * Registers a stream of items which are received with the given cookie, and grants credits for it
+	 */
+	public <T> StreamSupplier<T> receive(int cookie) {
+		Receiver<T> receiver = new Receiver<>(cookie);
+		receivers.put(cookie, receiver);
+		output.accept(RpcMessage.of(cookie, new RpcStreamCredit(window)));
+		return receiver;
+	}
+
+	/**
+	 * Registers a stream of items which are sent with the given cookie once credits are granted
+	 */
+	public <T> StreamConsumer<T> send(int cookie) {
+		Sender<T> sender = new Sender<>(cookie);
+		senders.put(cookie, sender);
+		return sender;
+	}
+
+	/**
+	 * Processes a message of a stream.
+	 *
+	 * @return {@code true} if the message has been consumed, {@code false} if it should be processed as a response
+	 * to the request with the same cookie, which may have finished a stream being sent
+	 */
+	public boolean accept(RpcMessage message) {
+		Object data = message.getData();
+		int cookie = message.getCookie();
+		if (data instanceof RpcStreamCredit) {
+			Sender<?> sender = senders.get(cookie);
+			if (sender != null) {
+				sender.onCredit(((RpcStreamCredit) data).getCredits());
+			}
+			return true;
+		}
+		if (data == RpcControlMessage.END_OF_STREAM) {
+			Receiver<?> receiver = receivers.remove(cookie);
+			if (receiver != null) {
+				receiver.onRemoteEndOfStream();
+			}
+			return true;
+		}
+		if (receivers.isEmpty() && senders.isEmpty()) return false;
+
+		Receiver<?> receiver = receivers.get(cookie);
+		if (receiver != null) {
+			if (data instanceof RpcRemoteException) {
+				receivers.remove(cookie);
+				receiver.onRemoteError((RpcRemoteException) data);
+			} else {
+				receiver.onItem(data);
+			}
+			return true;
+		}
+		Sender<?> sender = senders.get(cookie);
+		if (sender != null) {
+			sender.onRemoteReply(data);
+		}
+		return false;
+	}
+
+	public void onSenderReady() {
+		ready = true;
+		for (Sender<?> sender : new ArrayList<>(senders.values())) {
+			sender.tryResume();
+		}
+	}
+
+	public void onSenderSuspended() {
+		ready = false;
+		for (Sender<?> sender : senders.values()) {
+			sender.suspend();
+		}
+	}
+
+	/**
+	 * Closes all the streams without notifying the other side, for example when a connection is closed
+	 */
+	public void closeAll(Throwable e) {
+		List<Receiver<?>> receivers = new ArrayList<>(this.receivers.values());
+		List<Sender<?>> senders = new ArrayList<>(this.senders.values());
+		this.receivers.clear();
+		this.senders.clear();
+		for (Receiver<?> receiver : receivers) {
+			receiver.terminated = true;
+			receiver.close(e);
+		}
+		for (Sender<?> sender : senders) {
+			sender.terminated = true;
+			sender.close(e);
+		}
+	}
+
+	public int getActiveStreams() {
+		return receivers.size() + senders.size();
+	}
+
+	private final class Receiver<T> extends AbstractStreamSupplier<T> {
+		private final int cookie;
+		private final ArrayDeque<T> buffer = new ArrayDeque<>();
+		private int consumed;
+		private boolean endOfStream;
+		private boolean terminated;
+
+		Receiver(int cookie) {
+			this.cookie = cookie;
+		}
+
+		@SuppressWarnings("unchecked")
+		void onItem(Object item) {
+			if (isClosed()) return;
+			buffer.add((T) item);
+			tryProduce();
+		}
+
+		void onRemoteEndOfStream() {
+			terminated = true;
+			endOfStream = true;
+			if (isClosed()) return;
+			tryProduce();
+		}
+
+		void onRemoteError(RpcRemoteException e) {
+			terminated = true;
+			close(e);
+		}
+
+		@Override
+		protected void produce(AsyncProduceController async) {
+			while (isReceiverReady() && !buffer.isEmpty()) {
+				send(buffer.poll());
+				if (++consumed >= Math.max(1, window / 2) && !endOfStream) {
+					output.accept(RpcMessage.of(cookie, new RpcStreamCredit(consumed)));
+					consumed = 0;
+				}
+			}
+			if (endOfStream && buffer.isEmpty()) {
+				sendEndOfStream();
+			}
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+			buffer.clear();
+			if (terminated || server) return;
+			terminated = true;
+			receivers.remove(cookie);
+			output.accept(RpcMessage.of(cookie, new RpcRemoteException(e)));
+		}
+
+		@Override
+		public Set<StreamCapability> getCapabilities() {
+			return EnumSet.of(LATE_BINDING);
+		}
+	}
+
+	private final class Sender<T> extends AbstractStreamConsumer<T> implements StreamDataAcceptor<T> {
+		private final int cookie;
+		private int credits;
+		private boolean terminated;
+
+		Sender(int cookie) {
+			this.cookie = cookie;
+		}
+
+		@Override
+		protected void onStarted() {
+			tryResume();
+		}
+
+		void onCredit(int credits) {
+			this.credits += credits;
+			tryResume();
+		}
+
+		void tryResume() {
+			if (ready && credits > 0 && !terminated && isWired()) {
+				getSupplier().resume(this);
+			}
+		}
+
+		void suspend() {
+			if (isWired()) {
+				getSupplier().suspend();
+			}
+		}
+
+		@Override
+		public void accept(T item) {
+			if (terminated) return;
+			output.accept(RpcMessage.of(cookie, item));
+			if (--credits == 0) {
+				getSupplier().suspend();
+			}
+		}
+
+		/**
+		 * The receiver has replied before the end of the stream, either with a result or with an error
+		 */
+		void onRemoteReply(Object data) {
+			terminate(RpcControlMessage.END_OF_STREAM);
+			if (data instanceof RpcRemoteException) {
+				close((RpcRemoteException) data);
+			} else {
+				suspend();
+				acknowledge();
+			}
+		}
+
+		@Override
+		protected Promise<Void> onEndOfStream() {
+			terminate(RpcControlMessage.END_OF_STREAM);
+			return Promise.complete();
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+			terminate(new RpcRemoteException(e));
+		}
+
+		private void terminate(@NotNull Object lastMessage) {
+			if (terminated) return;
+			terminated = true;
+			senders.remove(cookie);
+			output.accept(RpcMessage.of(cookie, lastMessage));
+		}
+
+		@Override
+		public Set<StreamCapability> getCapabilities() {
+			return EnumSet.of(LATE_BINDING);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.server;
+
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.promise.Promise;
+
+/**
+ * Handles a request which is followed by a stream of items, and replies once the items are processed.
+ * <p>
+ * The client sends items as long as the supplier is consumed.
+ * A reply stops the client from sending the rest of the items.
+ *
+ * @param <I> class of request
+ * @param <T> class of items
+ * @param <O> class of response
+ */
+@FunctionalInterface
+public interface RpcClientStreamingHandler<I, T, O> {
+	Promise<O> run(I request, StreamSupplier<T> items);
+}
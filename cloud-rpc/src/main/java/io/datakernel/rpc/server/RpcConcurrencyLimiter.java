@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.rpc.server;
+
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.eventloop.EventloopStats;
+import io.datakernel.eventloop.jmx.EventStats;
+import io.datakernel.eventloop.jmx.ValueStats;
+import io.datakernel.jmx.api.JmxAttribute;
+import io.datakernel.jmx.api.JmxReducers.JmxReducerSum;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+
+/**
+ * Adaptive limit of requests which are handled by an {@link RpcServer} at the same time.
+ * <p>
+ * The limit follows the gradient between the long-term and the recent request handling time:
+ * while requests are handled as fast as usual, the limit grows by a queue allowance of {@code sqrt(limit)},
+ * once they start waiting for something (a downstream service, a lock, a saturated eventloop),
+ * it shrinks in proportion to the slowdown.
+ * Besides, the limit is cut by {@link #withBackoffRatio backoff ratio} every {@link #withCheckInterval check interval}
+ * while the smoothed business logic time of the eventloop exceeds its target.
+ * <p>
+ * A request over the limit is rejected before it is handled, with a reply
+ * which is completed on the client with an {@link io.datakernel.rpc.protocol.RpcOverloadException}.
+ * {@link io.datakernel.rpc.protocol.RpcMandatoryData Mandatory} and streaming requests are never rejected.
+ */
+public final class RpcConcurrencyLimiter {
+	public static final int DEFAULT_INITIAL_LIMIT = ApplicationSettings.getInt(RpcConcurrencyLimiter.class, "initialLimit", 100);
+	public static final int DEFAULT_MIN_LIMIT = ApplicationSettings.getInt(RpcConcurrencyLimiter.class, "minLimit", 10);
+	public static final int DEFAULT_MAX_LIMIT = ApplicationSettings.getInt(RpcConcurrencyLimiter.class, "maxLimit", 10_000);
+	public static final double DEFAULT_TOLERANCE = ApplicationSettings.getDouble(RpcConcurrencyLimiter.class, "tolerance", 1.5);
+	public static final double DEFAULT_SMOOTHING = ApplicationSettings.getDouble(RpcConcurrencyLimiter.class, "smoothing", 0.2);
+	public static final Duration DEFAULT_TARGET_BUSINESS_LOGIC_TIME = ApplicationSettings.getDuration(RpcConcurrencyLimiter.class, "targetBusinessLogicTime", Duration.ofMillis(20));
+	public static final double DEFAULT_BACKOFF_RATIO = ApplicationSettings.getDouble(RpcConcurrencyLimiter.class, "backoffRatio", 0.9);
+	public static final Duration DEFAULT_CHECK_INTERVAL = ApplicationSettings.getDuration(RpcConcurrencyLimiter.class, "checkInterval", Duration.ofMillis(100));
+
+	private static final double SHORT_RTT_WEIGHT = 0.1;
+	private static final double LONG_RTT_WEIGHT = 0.002;
+
+	private int minLimit = DEFAULT_MIN_LIMIT;
+	private int maxLimit = DEFAULT_MAX_LIMIT;
+	private double tolerance = DEFAULT_TOLERANCE;
+	private double smoothing = DEFAULT_SMOOTHING;
+	private long targetBusinessLogicTime = DEFAULT_TARGET_BUSINESS_LOGIC_TIME.toMillis();
+	private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+	private long checkIntervalNanos = DEFAULT_CHECK_INTERVAL.toNanos();
+
+	@Nullable
+	private EventloopStats eventloopStats;
+
+	private double limit = DEFAULT_INITIAL_LIMIT;
+	private int inFlight;
+
+	// handling times in nanoseconds, 0 until the first request is completed
+	private double shortRtt;
+	private double longRtt;
+	private long nextCheckTime;
+
+	// region JMX
+	private final EventStats rejectedRequests = EventStats.create(RpcServer.SMOOTHING_WINDOW);
+	private final EventStats businessLogicBackoffs = EventStats.create(RpcServer.SMOOTHING_WINDOW);
+	// endregion
+
+	private RpcConcurrencyLimiter() {
+	}
+
+	public static RpcConcurrencyLimiter create() {
+		return new RpcConcurrencyLimiter();
+	}
+
+	// region builders
+	public RpcConcurrencyLimiter withInitialLimit(int initialLimit) {
+		checkArgument(initialLimit > 0, "Initial limit must be positive");
+		this.limit = initialLimit;
+		return this;
+	}
+
+	public RpcConcurrencyLimiter withLimits(int minLimit, int maxLimit) {
+		checkArgument(minLimit > 0 && minLimit <= maxLimit, "Limits must be positive, min limit must not exceed max limit");
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = clamp(limit);
+		return this;
+	}
+
+	/**
+	 * Sets how many times the recent handling time may exceed the long-term one before the limit is decreased
+	 */
+	public RpcConcurrencyLimiter withTolerance(double tolerance) {
+		checkArgument(tolerance >= 1.0, "Tolerance must not be less than 1");
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	/**
+	 * Sets the weight of a newly estimated limit, the rest is the weight of the current limit
+	 */
+	public RpcConcurrencyLimiter withSmoothing(double smoothing) {
+		checkArgument(smoothing > 0.0 && smoothing <= 1.0, "Smoothing must be within (0, 1]");
+		this.smoothing = smoothing;
+		return this;
+	}
+
+	/**
+	 * Sets the smoothed business logic time of an eventloop, above which the limit is decreased regardless of handling times
+	 */
+	public RpcConcurrencyLimiter withTargetBusinessLogicTime(Duration targetBusinessLogicTime) {
+		this.targetBusinessLogicTime = targetBusinessLogicTime.toMillis();
+		return this;
+	}
+
+	public RpcConcurrencyLimiter withBackoffRatio(double backoffRatio) {
+		checkArgument(backoffRatio > 0.0 && backoffRatio < 1.0, "Backoff ratio must be within (0, 1)");
+		this.backoffRatio = backoffRatio;
+		return this;
+	}
+
+	public RpcConcurrencyLimiter withCheckInterval(Duration checkInterval) {
+		this.checkIntervalNanos = checkInterval.toNanos();
+		return this;
+	}
+	// endregion
+
+	/**
+	 * Sets eventloop stats to check the business logic time against, the check is skipped if they are {@code null}
+	 */
+	void setEventloopStats(@Nullable EventloopStats eventloopStats) {
+		this.eventloopStats = eventloopStats;
+	}
+
+	/**
+	 * Admits a request if the limit is not reached, an admitted request must be {@link #release released} once it is handled
+	 */
+	public boolean tryAcquire() {
+		if (inFlight >= (int) limit) {
+			rejectedRequests.recordEvent();
+			return false;
+		}
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * Releases a request which was acquired at {@code acquireTime}, as returned by {@link System#nanoTime()}
+	 */
+	public void release(long acquireTime) {
+		release(acquireTime, System.nanoTime());
+	}
+
+	void release(long acquireTime, long now) {
+		int inFlight = this.inFlight--;
+		double rtt = Math.max(now - acquireTime, 1);
+		if (longRtt == 0.0) {
+			shortRtt = longRtt = rtt;
+			nextCheckTime = now;
+		} else {
+			shortRtt += (rtt - shortRtt) * SHORT_RTT_WEIGHT;
+			longRtt += (rtt - longRtt) * LONG_RTT_WEIGHT;
+		}
+
+		// the long-term time follows a sustained speedup faster, so that the limit may grow again
+		if (longRtt > 2 * shortRtt) {
+			longRtt *= 0.95;
+		}
+
+		if (now - nextCheckTime >= 0) {
+			nextCheckTime = now + checkIntervalNanos;
+			if (eventloopStats != null && getBusinessLogicTime(eventloopStats) > targetBusinessLogicTime) {
+				businessLogicBackoffs.recordEvent();
+				limit = clamp(limit * backoffRatio);
+				return;
+			}
+		}
+
+		double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+		double newLimit = limit * gradient + Math.sqrt(limit);
+		// a server which is not loaded enough does not prove that it can take more
+		if (newLimit > limit && inFlight < limit / 2) return;
+		limit = clamp(limit * (1.0 - smoothing) + newLimit * smoothing);
+	}
+
+	private static double getBusinessLogicTime(EventloopStats eventloopStats) {
+		ValueStats businessLogicTime = eventloopStats.getBusinessLogicTime();
+		// the stats are not refreshed unless they are exposed via JMX
+		businessLogicTime.refresh(System.currentTimeMillis());
+		return businessLogicTime.getSmoothedAverage();
+	}
+
+	private double clamp(double limit) {
+		return Math.max(minLimit, Math.min(maxLimit, limit));
+	}
+
+	// region JMX
+	@JmxAttribute(reducer = JmxReducerSum.class)
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	@JmxAttribute(reducer = JmxReducerSum.class)
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	@JmxAttribute(description = "recent request handling time in microseconds")
+	public double getShortHandlingTime() {
+		return shortRtt / 1000.0;
+	}
+
+	@JmxAttribute(description = "long-term request handling time in microseconds")
+	public double getLongHandlingTime() {
+		return longRtt / 1000.0;
+	}
+
+	@JmxAttribute(extraSubAttributes = "totalCount")
+	public EventStats getRejectedRequests() {
+		return rejectedRequests;
+	}
+
+	@JmxAttribute(extraSubAttributes = "totalCount", description = "number of times the limit was decreased " +
+			"because the business logic time of the eventloop exceeded its target")
+	public EventStats getBusinessLogicBackoffs() {
+		return businessLogicBackoffs;
+	}
+	// endregion
+
+	@Override
+	public String toString() {
+		return "RpcConcurrencyLimiter{limit=" + (int) limit + ", inFlight=" + inFlight + '}';
+	}
+}
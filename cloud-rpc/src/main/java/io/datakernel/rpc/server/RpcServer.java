@@ -36,6 +36,7 @@ import io.datakernel.rpc.protocol.RpcStream;
 import io.datakernel.serializer.BinarySerializer;
 import io.datakernel.serializer.SerializerBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.net.InetAddress;
 import java.time.Duration;
@@ -86,9 +87,13 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 	private Duration autoFlushInterval = Duration.ZERO;
 
 	private final Map<Class<?>, RpcRequestHandler<?, ?>> handlers = new LinkedHashMap<>();
+	private final Map<Class<?>, RpcServerStreamingHandler<?, ?>> serverStreamingHandlers = new LinkedHashMap<>();
+	private final Map<Class<?>, RpcClientStreamingHandler<?, ?, ?>> clientStreamingHandlers = new LinkedHashMap<>();
 	private ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 	private SerializerBuilder serializerBuilder = SerializerBuilder.create(classLoader);
 	private List<Class<?>> messageTypes;
+	@Nullable
+	private RpcConcurrencyLimiter concurrencyLimiter;
 
 	private final List<RpcServerConnection> connections = new ArrayList<>();
 
@@ -185,13 +190,63 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 		return this;
 	}
 
+	/**
+	 * Adds a handler for requests which are replied with a stream of items.
+	 * <p>
+	 * A client sends such requests with {@link RpcClient#receiveStream}.
+	 *
+	 * @param requestClass a class representing a request structure
+	 * @param itemClass    a class representing an item of the response stream
+	 * @param handler      a class containing logic of request processing and creating a stream of items
+	 * @param <I>          class of request
+	 * @param <O>          class of items
+	 * @return server instance capable for handling requests of concrete types
+	 */
+	public <I, O> RpcServer withServerStreamingHandler(Class<I> requestClass, Class<O> itemClass, RpcServerStreamingHandler<I, O> handler) {
+		serverStreamingHandlers.put(requestClass, handler);
+		return this;
+	}
+
+	/**
+	 * Adds a handler for requests which are followed by a stream of items.
+	 * <p>
+	 * A client sends such requests with {@link RpcClient#sendStream}.
+	 *
+	 * @param requestClass  a class representing a request structure
+	 * @param itemClass     a class representing an item of the request stream
+	 * @param responseClass a class representing a response structure
+	 * @param handler       a class containing logic of processing the request with its items and creating a response
+	 * @param <I>           class of request
+	 * @param <T>           class of items
+	 * @param <O>           class of response
+	 * @return server instance capable for handling requests of concrete types
+	 */
+	public <I, T, O> RpcServer withClientStreamingHandler(Class<I> requestClass, Class<T> itemClass, Class<O> responseClass,
+			RpcClientStreamingHandler<I, T, O> handler) {
+		clientStreamingHandlers.put(requestClass, handler);
+		return this;
+	}
+
+	/**
+	 * Limits the number of requests which are handled at the same time,
+	 * the requests over the limit are rejected so that clients may send them to other servers.
+	 *
+	 * @param concurrencyLimiter an adaptive limit of requests, shared by all the connections of this server
+	 * @return server instance which rejects requests over the limit
+	 */
+	public RpcServer withConcurrencyLimiter(@Nullable RpcConcurrencyLimiter concurrencyLimiter) {
+		this.concurrencyLimiter = concurrencyLimiter;
+		return this;
+	}
+
 	// endregion
 
 	@Override
 	protected void serve(AsyncTcpSocket socket, InetAddress remoteAddress) {
 		RpcStream stream = new RpcStream(socket, serializer, initialBufferSize, maxMessageSize,
 				autoFlushInterval, compression, true); // , statsSerializer, statsDeserializer, statsCompressor, statsDecompressor);
-		RpcServerConnection connection = new RpcServerConnection(this, remoteAddress, handlers, stream);
+		RpcServerConnection connection = new RpcServerConnection(this, remoteAddress, handlers,
+				serverStreamingHandlers, clientStreamingHandlers, concurrencyLimiter, stream);
 		stream.setListener(connection);
 		add(connection);
 
@@ -204,6 +259,9 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 	protected void onListen() {
 		checkState(messageTypes != null, "Message types must be specified");
 		serializer = serializerBuilder.withSubclasses(RpcMessage.MESSAGE_TYPES, messageTypes).build(RpcMessage.class);
+		if (concurrencyLimiter != null) {
+			concurrencyLimiter.setEventloopStats(eventloop.getStats());
+		}
 	}
 
 	@Override
@@ -326,6 +384,12 @@ public final class RpcServer extends AbstractServer<RpcServer> {
 		return lastRequestHandlingException;
 	}
 
+	@Nullable
+	@JmxAttribute(description = "adaptive limit of requests which are handled at the same time")
+	public RpcConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
 	@JmxAttribute(description = "exception that occurred because of protocol error " +
 			"(serialization, deserialization, compression, decompression, etc)")
 	public ExceptionStats getLastProtocolError() {
@@ -18,17 +18,16 @@ package io.datakernel.rpc.server;
 
 import io.datakernel.common.parse.ParseException;
 import io.datakernel.datastream.StreamDataAcceptor;
+import io.datakernel.datastream.StreamSupplier;
 import io.datakernel.eventloop.jmx.EventStats;
 import io.datakernel.eventloop.jmx.ExceptionStats;
 import io.datakernel.eventloop.jmx.JmxRefreshable;
 import io.datakernel.eventloop.jmx.ValueStats;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.promise.Promise;
-import io.datakernel.rpc.protocol.RpcControlMessage;
-import io.datakernel.rpc.protocol.RpcMessage;
-import io.datakernel.rpc.protocol.RpcRemoteException;
-import io.datakernel.rpc.protocol.RpcStream;
+import io.datakernel.rpc.protocol.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,12 +36,19 @@ import java.util.Map;
 
 public final class RpcServerConnection implements RpcStream.Listener, JmxRefreshable {
 	private static final Logger logger = LoggerFactory.getLogger(RpcServerConnection.class);
+	private static final RpcException CONNECTION_CLOSED = new RpcException(RpcServerConnection.class, "Connection closed");
 
 	private StreamDataAcceptor<RpcMessage> downstreamDataAcceptor;
 
 	private final RpcServer rpcServer;
 	private final RpcStream stream;
 	private final Map<Class<?>, RpcRequestHandler<?, ?>> handlers;
+	private final Map<Class<?>, RpcServerStreamingHandler<?, ?>> serverStreamingHandlers;
+	private final Map<Class<?>, RpcClientStreamingHandler<?, ?, ?>> clientStreamingHandlers;
+	@Nullable
+	private final RpcConcurrencyLimiter concurrencyLimiter;
+	private final RpcStreamMultiplexer streams = new RpcStreamMultiplexer(message -> downstreamDataAcceptor.accept(message),
+			RpcStreamMultiplexer.DEFAULT_WINDOW, true);
 
 	private int activeRequests = 1;
 
@@ -55,66 +61,106 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 	private boolean monitoring = false;
 
 	RpcServerConnection(RpcServer rpcServer, InetAddress remoteAddress,
-			Map<Class<?>, RpcRequestHandler<?, ?>> handlers, RpcStream stream) {
+			Map<Class<?>, RpcRequestHandler<?, ?>> handlers,
+			Map<Class<?>, RpcServerStreamingHandler<?, ?>> serverStreamingHandlers,
+			Map<Class<?>, RpcClientStreamingHandler<?, ?, ?>> clientStreamingHandlers,
+			@Nullable RpcConcurrencyLimiter concurrencyLimiter,
+			RpcStream stream) {
 		this.rpcServer = rpcServer;
 		this.stream = stream;
 		this.handlers = handlers;
+		this.serverStreamingHandlers = serverStreamingHandlers;
+		this.clientStreamingHandlers = clientStreamingHandlers;
+		this.concurrencyLimiter = concurrencyLimiter;
 
 		// jmx
 		this.remoteAddress = remoteAddress;
 	}
 
 	@SuppressWarnings("unchecked")
-	private Promise<Object> serve(Object request) {
+	private Promise<Object> serve(int cookie, Object request) {
 		RpcRequestHandler<Object, Object> requestHandler = (RpcRequestHandler<Object, Object>) handlers.get(request.getClass());
-		if (requestHandler == null) {
-			return Promise.ofException(new ParseException(RpcServerConnection.class, "Failed to process request " + request));
+		if (requestHandler != null) {
+			return requestHandler.run(request);
 		}
-		return requestHandler.run(request);
+		RpcClientStreamingHandler<Object, Object, Object> clientStreamingHandler =
+				(RpcClientStreamingHandler<Object, Object, Object>) clientStreamingHandlers.get(request.getClass());
+		if (clientStreamingHandler != null) {
+			return clientStreamingHandler.run(request, streams.receive(cookie));
+		}
+		return Promise.ofException(new ParseException(RpcServerConnection.class, "Failed to process request " + request));
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public void accept(RpcMessage message) {
-		activeRequests++;
+		// the client may cancel a stream which has already been sent
+		if (streams.accept(message) || message.getData() instanceof RpcRemoteException) return;
 
 		int cookie = message.getCookie();
+		Object messageData = message.getData();
+
+		// only plain requests are limited, as items of a stream may follow its request
+		boolean limited = concurrencyLimiter != null && !(messageData instanceof RpcMandatoryData) &&
+				handlers.containsKey(messageData.getClass());
+		if (limited && !concurrencyLimiter.tryAcquire()) {
+			downstreamDataAcceptor.accept(RpcMessage.of(cookie, RpcControlMessage.OVERLOADED));
+			return;
+		}
+
+		activeRequests++;
+
 		long startTime = monitoring ? System.currentTimeMillis() : 0;
 
-		Object messageData = message.getData();
-		serve(messageData)
+		RpcServerStreamingHandler<Object, Object> serverStreamingHandler = serverStreamingHandlers.isEmpty() ? null :
+				(RpcServerStreamingHandler<Object, Object>) serverStreamingHandlers.get(messageData.getClass());
+		if (serverStreamingHandler != null) {
+			// items and the end of stream are sent by the multiplexer
+			StreamSupplier<Object> supplier = serverStreamingHandler.run(messageData);
+			supplier.streamTo(streams.send(cookie))
+					.whenComplete(($, e) -> onRequestCompleted(cookie, messageData, startTime, e));
+			return;
+		}
+
+		long acquireTime = limited ? System.nanoTime() : 0;
+		serve(cookie, messageData)
 				.whenComplete((result, e) -> {
-					if (startTime != 0) {
-						int value = (int) (System.currentTimeMillis() - startTime);
-						requestHandlingTime.recordValue(value);
-						rpcServer.getRequestHandlingTime().recordValue(value);
-					}
-					if (e == null) {
-						downstreamDataAcceptor.accept(RpcMessage.of(cookie, result));
-
-						successfulRequests.recordEvent();
-						rpcServer.getSuccessfulRequests().recordEvent();
-
-						if (--activeRequests == 0) {
-							doClose();
-							stream.sendEndOfStream();
-						}
-					} else {
-						downstreamDataAcceptor.accept(RpcMessage.of(cookie, new RpcRemoteException(e)));
-
-						lastRequestHandlingException.recordException(e, messageData);
-						rpcServer.getLastRequestHandlingException().recordException(e, messageData);
-						failedRequests.recordEvent();
-						rpcServer.getFailedRequests().recordEvent();
-
-						if (--activeRequests == 0) {
-							doClose();
-							stream.sendEndOfStream();
-						}
-						logger.warn("Exception while processing request ID {}", cookie, e);
+					if (limited) {
+						concurrencyLimiter.release(acquireTime);
 					}
+					downstreamDataAcceptor.accept(RpcMessage.of(cookie, e == null ? result : new RpcRemoteException(e)));
+					onRequestCompleted(cookie, messageData, startTime, e);
 				});
 	}
 
+	private void onRequestCompleted(int cookie, Object messageData, long startTime, @Nullable Throwable e) {
+		if (startTime != 0) {
+			int value = (int) (System.currentTimeMillis() - startTime);
+			requestHandlingTime.recordValue(value);
+			rpcServer.getRequestHandlingTime().recordValue(value);
+		}
+		if (e == null) {
+			successfulRequests.recordEvent();
+			rpcServer.getSuccessfulRequests().recordEvent();
+
+			if (--activeRequests == 0) {
+				doClose();
+				stream.sendEndOfStream();
+			}
+		} else {
+			lastRequestHandlingException.recordException(e, messageData);
+			rpcServer.getLastRequestHandlingException().recordException(e, messageData);
+			failedRequests.recordEvent();
+			rpcServer.getFailedRequests().recordEvent();
+
+			if (--activeRequests == 0) {
+				doClose();
+				stream.sendEndOfStream();
+			}
+			logger.warn("Exception while processing request ID {}", cookie, e);
+		}
+	}
+
 	@Override
 	public void onReceiverEndOfStream() {
 		activeRequests--;
@@ -143,14 +189,17 @@ public final class RpcServerConnection implements RpcStream.Listener, JmxRefresh
 	@Override
 	public void onSenderReady(@NotNull StreamDataAcceptor<RpcMessage> acceptor) {
 		this.downstreamDataAcceptor = acceptor;
+		streams.onSenderReady();
 	}
 
 	@Override
 	public void onSenderSuspended() {
+		streams.onSenderSuspended();
 	}
 
 	private void doClose() {
 		rpcServer.remove(this);
+		streams.closeAll(CONNECTION_CLOSED);
 	}
 
 	public void shutdown() {
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.rpc.server;
+
+import io.datakernel.datastream.StreamSupplier;
+
+/**
+ * Handles a request which is replied with a stream of items.
+ * <p>
+ * Items are sent as long as the client grants credits for them,
+ * so the returned supplier is suspended whenever the client consumes items slower than they are produced.
+ *
+ * @param <I> class of request
+ * @param <O> class of items
+ */
+@FunctionalInterface
+public interface RpcServerStreamingHandler<I, O> {
+	StreamSupplier<O> run(I request);
+}
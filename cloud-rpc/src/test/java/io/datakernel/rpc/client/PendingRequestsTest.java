@@ -0,0 +1,93 @@
+package io.datakernel.rpc.client;
+
+import io.datakernel.async.callback.Callback;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.datakernel.rpc.client.PendingRequests.NO_DEADLINE;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public final class PendingRequestsTest {
+	private static Callback<Object> callback(List<Integer> results, int id) {
+		return (result, e) -> results.add(id);
+	}
+
+	@Test
+	public void testAddRemove() {
+		PendingRequests requests = new PendingRequests(4, 16, 2, 1);
+		List<Integer> results = new ArrayList<>();
+		List<Integer> cookies = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			cookies.add(requests.add(callback(results, i), i, NO_DEADLINE));
+		}
+		assertEquals(100, requests.size());
+		assertEquals(100, new HashSet<>(cookies).size());
+
+		for (int i = 0; i < 100; i += 2) {
+			requests.remove(cookies.get(i)).accept(null, null);
+			assertEquals(i, requests.getRemovedTimestamp());
+			assertNull(requests.remove(cookies.get(i)));
+		}
+		assertEquals(50, requests.size());
+
+		// a long-lived request does not stop cookies from being reused
+		for (int i = 0; i < 10_000; i++) {
+			int cookie = requests.add(callback(results, -1), 0, NO_DEADLINE);
+			assertNotNull(requests.remove(cookie));
+		}
+		assertEquals(50, requests.size());
+
+		Set<Integer> remaining = new HashSet<>();
+		requests.drain(cb -> cb.accept(null, null));
+		for (int i = 1; i < 100; i += 2) {
+			remaining.add(i);
+		}
+		assertTrue(requests.isEmpty());
+		assertEquals(remaining, new HashSet<>(results.subList(50, results.size())));
+	}
+
+	@Test
+	public void testExpiration() {
+		PendingRequests requests = new PendingRequests(16, 8, 1, 10);
+		List<Integer> results = new ArrayList<>();
+		assertEquals(NO_DEADLINE, requests.getNextCheckTime());
+
+		int completed = requests.add(callback(results, 0), 0, 25);
+		requests.add(callback(results, 1), 0, 25);
+		// the same bucket one rotation later
+		requests.add(callback(results, 2), 0, 105);
+		requests.add(callback(results, 3), 0, 1000);
+		requests.add(callback(results, 4), 0, NO_DEADLINE);
+		assertNotNull(requests.remove(completed));
+
+		assertEquals(29, requests.getNextCheckTime());
+		assertNull(requests.pollExpired(28));
+
+		expire(requests, 29);
+		assertNull(requests.pollExpired(29));
+		assertEquals(asList(1), results);
+
+		// the bucket of the last request is reached before its rotation
+		assertEquals(49, requests.getNextCheckTime());
+		expire(requests, 500);
+		assertNull(requests.pollExpired(500));
+		assertEquals(asList(1, 2), results);
+
+		expire(requests, 1009);
+		assertNull(requests.pollExpired(2000));
+		assertEquals(asList(1, 2, 3), results);
+		assertEquals(NO_DEADLINE, requests.getNextCheckTime());
+		assertEquals(1, requests.size());
+	}
+
+	private static void expire(PendingRequests requests, long now) {
+		Callback<?> cb = requests.pollExpired(now);
+		assertNotNull(cb);
+		cb.accept(null, null);
+	}
+}
@@ -0,0 +1,162 @@
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.rpc.client.sender.helper.RpcClientConnectionPoolStub;
+import io.datakernel.rpc.client.sender.helper.RpcMessageDataStub;
+import io.datakernel.rpc.protocol.RpcRemoteException;
+import io.datakernel.test.rules.EventloopRule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.rpc.client.RpcClientConnection.CONNECTION_CLOSED;
+import static io.datakernel.rpc.client.RpcClientConnection.SERVER_OVERLOADED;
+import static io.datakernel.rpc.client.sender.Callbacks.ignore;
+import static io.datakernel.rpc.client.sender.RpcStrategies.hedged;
+import static io.datakernel.rpc.client.sender.RpcStrategies.servers;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static org.junit.Assert.*;
+
+public class RpcStrategyHedgedTest {
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	private static final String HOST = "localhost";
+
+	private static final InetSocketAddress ADDRESS_1 = new InetSocketAddress(HOST, getFreePort());
+	private static final InetSocketAddress ADDRESS_2 = new InetSocketAddress(HOST, getFreePort());
+
+	private final RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+	private final ControlledSender connection1 = new ControlledSender();
+	private final ControlledSender connection2 = new ControlledSender();
+
+	@Before
+	public void setUp() {
+		pool.put(ADDRESS_1, connection1);
+		pool.put(ADDRESS_2, connection2);
+	}
+
+	@Test
+	public void itShouldHedgeSlowRequest() {
+		RpcSender sender = hedged(servers(ADDRESS_1, ADDRESS_2)).createSender(pool);
+		warmUp(sender);
+
+		connection1.stalled = true;
+		List<Object> results = new ArrayList<>();
+		sender.sendRequest(new RpcMessageDataStub(), 1000, (result, e) -> results.add(e == null ? result : e));
+		assertTrue(results.isEmpty());
+
+		Eventloop.getCurrentEventloop().run();
+		assertEquals(1, results.size());
+		assertEquals("response", results.get(0));
+		assertEquals(1, connection1.stalledCallbacks.size());
+
+		// the response to the primary request is ignored
+		connection1.respond();
+		assertEquals(1, results.size());
+	}
+
+	@Test
+	public void itShouldNotHedgeFastRequests() {
+		RpcSender sender = hedged(servers(ADDRESS_1, ADDRESS_2)).createSender(pool);
+		for (int i = 0; i < 100; i++) {
+			sender.sendRequest(new RpcMessageDataStub(), 1000, ignore());
+		}
+		Eventloop.getCurrentEventloop().run();
+
+		assertEquals(50, connection1.requests);
+		assertEquals(50, connection2.requests);
+	}
+
+	@Test
+	public void itShouldNotExceedMaxHedgedRatio() {
+		RpcSender sender = hedged(servers(ADDRESS_1, ADDRESS_2)).withMaxHedgedRatio(0.0).createSender(pool);
+		warmUp(sender);
+
+		connection1.stalled = true;
+		List<Object> results = new ArrayList<>();
+		sender.sendRequest(new RpcMessageDataStub(), 1000, (result, e) -> results.add(result));
+		int requests = connection2.requests;
+		Eventloop.getCurrentEventloop().run();
+
+		assertTrue(results.isEmpty());
+		assertEquals(requests, connection2.requests);
+	}
+
+	@Test
+	public void itShouldSendFailedRequestToNextSender() {
+		RpcSender sender = hedged(servers(ADDRESS_1, ADDRESS_2)).createSender(pool);
+		warmUp(sender);
+
+		connection1.failure = SERVER_OVERLOADED;
+		List<Object> results = new ArrayList<>();
+		sender.sendRequest(new RpcMessageDataStub(), 1000, (result, e) -> results.add(e == null ? result : e));
+		assertEquals(1, results.size());
+		assertEquals("response", results.get(0));
+
+		connection1.failure = null;
+		connection2.failure = CONNECTION_CLOSED;
+		sender.sendRequest(new RpcMessageDataStub(), 1000, (result, e) -> results.add(e == null ? result : e));
+		assertEquals(2, results.size());
+		assertEquals("response", results.get(1));
+
+		connection1.failure = SERVER_OVERLOADED;
+		sender.sendRequest(new RpcMessageDataStub(), 1000, (result, e) -> results.add(e == null ? result : e));
+		assertEquals(3, results.size());
+		assertSame(CONNECTION_CLOSED, results.get(2));
+	}
+
+	@Test
+	public void itShouldNotResendRequestFailedByHandler() {
+		RpcSender sender = hedged(servers(ADDRESS_1, ADDRESS_2)).createSender(pool);
+		warmUp(sender);
+
+		connection1.failure = new RpcRemoteException("failure");
+		connection2.failure = new RpcRemoteException("failure");
+		int requests = connection1.requests + connection2.requests;
+		List<Object> results = new ArrayList<>();
+		sender.sendRequest(new RpcMessageDataStub(), 1000, (result, e) -> results.add(e == null ? result : e));
+		assertEquals(1, results.size());
+		assertTrue(results.get(0) instanceof RpcRemoteException);
+		assertEquals(requests + 1, connection1.requests + connection2.requests);
+	}
+
+	private static void warmUp(RpcSender sender) {
+		for (int i = 0; i < 100; i++) {
+			sender.sendRequest(new RpcMessageDataStub(), 1000, ignore());
+		}
+	}
+
+	private static final class ControlledSender implements RpcSender {
+		final List<Callback<Object>> stalledCallbacks = new ArrayList<>();
+		boolean stalled;
+		@Nullable
+		Throwable failure;
+		int requests;
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			requests++;
+			if (stalled) {
+				stalledCallbacks.add((Callback<Object>) cb);
+			} else if (failure != null) {
+				cb.accept(null, failure);
+			} else {
+				cb.accept((O) "response", null);
+			}
+		}
+
+		void respond() {
+			stalledCallbacks.forEach(cb -> cb.accept("late response", null));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package io.datakernel.rpc.client.sender;
+
+import io.datakernel.async.callback.Callback;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.rpc.client.sender.helper.RpcClientConnectionPoolStub;
+import io.datakernel.rpc.client.sender.helper.RpcMessageDataStub;
+import io.datakernel.rpc.client.sender.helper.RpcSenderStub;
+import io.datakernel.test.rules.EventloopRule;
+import org.jetbrains.annotations.NotNull;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static io.datakernel.rpc.client.sender.Callbacks.ignore;
+import static io.datakernel.rpc.client.sender.RpcStrategies.*;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static org.junit.Assert.*;
+
+@SuppressWarnings("ConstantConditions")
+public class RpcStrategyLeastLoadedTest {
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	private static final String HOST = "localhost";
+
+	private static final InetSocketAddress ADDRESS_1 = new InetSocketAddress(HOST, getFreePort());
+	private static final InetSocketAddress ADDRESS_2 = new InetSocketAddress(HOST, getFreePort());
+	private static final InetSocketAddress ADDRESS_3 = new InetSocketAddress(HOST, getFreePort());
+
+	@Test
+	public void itShouldAvoidSenderWithActiveRequests() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		RpcSenderStub stalled = new RpcSenderStub();
+		RespondingSender connection2 = new RespondingSender();
+		RespondingSender connection3 = new RespondingSender();
+		pool.put(ADDRESS_1, stalled);
+		pool.put(ADDRESS_2, connection2);
+		pool.put(ADDRESS_3, connection3);
+		RpcSender sender = leastLoaded(servers(ADDRESS_1, ADDRESS_2, ADDRESS_3))
+				.withResponseTimeAware(false)
+				.createSender(pool);
+		int callsAmount = 300;
+
+		for (int i = 0; i < callsAmount; i++) {
+			sender.sendRequest(new RpcMessageDataStub(), 50, ignore());
+		}
+
+		// once the stalled sender has an active request, any other sender is preferred to it
+		assertTrue(stalled.getRequests() <= 1);
+		assertEquals(callsAmount, stalled.getRequests() + connection2.requests + connection3.requests);
+		assertTrue(connection2.requests > 0);
+		assertTrue(connection3.requests > 0);
+	}
+
+	@Test
+	public void itShouldPreferSenderWithLowerResponseTime() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		LoadAwareSenderStub slow = new LoadAwareSenderStub(1, 100.0);
+		LoadAwareSenderStub fast = new LoadAwareSenderStub(2, 5.0);
+		pool.put(ADDRESS_1, slow);
+		pool.put(ADDRESS_2, fast);
+
+		RpcSender sender = leastLoaded(servers(ADDRESS_1, ADDRESS_2)).createSender(pool);
+		for (int i = 0; i < 10; i++) {
+			sender.sendRequest(new RpcMessageDataStub(), 50, ignore());
+		}
+		assertEquals(0, slow.requests);
+		assertEquals(10, fast.requests);
+
+		// compared by active requests only
+		sender = leastLoaded(servers(ADDRESS_1, ADDRESS_2)).withResponseTimeAware(false).createSender(pool);
+		for (int i = 0; i < 10; i++) {
+			sender.sendRequest(new RpcMessageDataStub(), 50, ignore());
+		}
+		assertEquals(10, slow.requests);
+		assertEquals(10, fast.requests);
+	}
+
+	@Test
+	public void itShouldNotBeCreatedWhenNotEnoughSubSendersAreActive() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		RpcSenderStub connection1 = new RpcSenderStub();
+		pool.put(ADDRESS_1, connection1);
+		RpcStrategy strategy = leastLoaded(servers(ADDRESS_1, ADDRESS_2, ADDRESS_3));
+
+		assertSame(connection1, strategy.createSender(pool));
+		assertNull(((RpcStrategyLeastLoaded) strategy).withMinActiveSubStrategies(2).createSender(pool));
+		assertNull(strategy.createSender(new RpcClientConnectionPoolStub()));
+	}
+
+	@Test
+	public void itShouldPassStreamsToSubSenders() {
+		RpcClientConnectionPoolStub pool = new RpcClientConnectionPoolStub();
+		RespondingSender connection1 = new RespondingSender();
+		RespondingSender connection2 = new RespondingSender();
+		pool.put(ADDRESS_1, connection1);
+		pool.put(ADDRESS_2, connection2);
+		RpcSender sender = leastLoaded(servers(ADDRESS_1, ADDRESS_2)).createSender(pool);
+
+		for (int i = 0; i < 10; i++) {
+			sender.receiveStream(new RpcMessageDataStub());
+			sender.sendStream(new RpcMessageDataStub());
+		}
+		assertEquals(20, connection1.streams + connection2.streams);
+	}
+
+	private static final class RespondingSender implements RpcSender {
+		int requests;
+		int streams;
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			requests++;
+			cb.accept(null, null);
+		}
+
+		@Override
+		public <I, O> StreamSupplier<O> receiveStream(I request) {
+			streams++;
+			return RpcSender.super.receiveStream(request);
+		}
+
+		@Override
+		public <I, T, O> StreamConsumerWithResult<T, O> sendStream(I request) {
+			streams++;
+			return RpcSender.super.sendStream(request);
+		}
+	}
+
+	private static final class LoadAwareSenderStub implements RpcLoadAwareSender {
+		final int activeRequests;
+		final double responseTime;
+		int requests;
+
+		LoadAwareSenderStub(int activeRequests, double responseTime) {
+			this.activeRequests = activeRequests;
+			this.responseTime = responseTime;
+		}
+
+		@Override
+		public <I, O> void sendRequest(I request, int timeout, @NotNull Callback<O> cb) {
+			requests++;
+		}
+
+		@Override
+		public int getActiveRequests() {
+			return activeRequests;
+		}
+
+		@Override
+		public double getSmoothedResponseTime() {
+			return responseTime;
+		}
+	}
+}
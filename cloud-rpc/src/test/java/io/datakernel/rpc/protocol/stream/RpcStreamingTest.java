@@ -0,0 +1,156 @@
+package io.datakernel.rpc.protocol.stream;
+
+import io.datakernel.datastream.StreamConsumerToList;
+import io.datakernel.datastream.StreamConsumerWithResult;
+import io.datakernel.datastream.StreamSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.client.RpcClient;
+import io.datakernel.rpc.protocol.RpcRemoteException;
+import io.datakernel.rpc.protocol.RpcStreamMultiplexer;
+import io.datakernel.rpc.server.RpcServer;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class RpcStreamingTest {
+	private static final int ITEMS = 5 * RpcStreamMultiplexer.DEFAULT_WINDOW;
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private RpcServer server;
+	private RpcClient client;
+	private int produced;
+	private int activeRequests;
+
+	@Before
+	public void setUp() throws IOException {
+		int port = getFreePort();
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		server = RpcServer.create(eventloop)
+				.withMessageTypes(Integer.class, Long.class, String.class)
+				.withHandler(String.class, String.class, request -> Promise.of("Hello, " + request + "!"))
+				.withServerStreamingHandler(Integer.class, String.class, count -> count >= 0 ?
+						StreamSupplier.ofStream(IntStream.range(0, count).mapToObj(i -> "item " + i)) :
+						StreamSupplier.ofIterator(new CountingIterator()))
+				.withClientStreamingHandler(Long.class, String.class, Integer.class, (ignored, items) ->
+						items.toList().map(List::size))
+				.withListenPort(port);
+		server.listen();
+		client = RpcClient.create(eventloop)
+				.withMessageTypes(Integer.class, Long.class, String.class)
+				.withStrategy(server(new InetSocketAddress("localhost", port)));
+	}
+
+	private <T> Promise<T> withClient(Supplier<Promise<T>> test) {
+		return client.start()
+				.then($ -> test.get())
+				.whenComplete(() -> {
+					activeRequests = client.getActiveRequests();
+					client.stop();
+					server.close();
+				});
+	}
+
+	@Test
+	public void testServerStreaming() {
+		List<String> list = await(withClient(() -> {
+			StreamSupplier<String> items = client.receiveStream(ITEMS);
+			return client.sendRequest("World", 1000)
+					.whenResult(response -> assertEquals("Hello, World!", response))
+					.then($ -> items.toList());
+		}));
+
+		assertEquals(IntStream.range(0, ITEMS).mapToObj(i -> "item " + i).collect(toList()), list);
+		assertEquals(0, activeRequests);
+	}
+
+	@Test
+	public void testClientStreaming() {
+		Integer result = await(withClient(() -> {
+			StreamConsumerWithResult<String, Integer> consumer = client.sendStream(0L);
+			return StreamSupplier.ofStream(IntStream.range(0, ITEMS).mapToObj(i -> "item " + i))
+					.streamTo(consumer.getConsumer())
+					.then($ -> consumer.getResult());
+		}));
+
+		assertEquals((Integer) ITEMS, result);
+		assertEquals(0, activeRequests);
+	}
+
+	@Test
+	public void testFlowControl() {
+		Exception exception = new Exception("Test");
+		StreamConsumerToList<String> consumer = StreamConsumerToList.create();
+		int[] producedAt = new int[3];
+		await(withClient(() -> {
+			StreamSupplier<String> items = client.receiveStream(-1);
+			return Promises.delay(100L)
+					.then($ -> {
+						producedAt[0] = produced;
+						items.streamTo(consumer);
+						return Promises.delay(100L);
+					})
+					.then($ -> {
+						producedAt[1] = produced;
+						items.close(exception);
+						return Promises.delay(100L);
+					})
+					.then($ -> {
+						producedAt[2] = produced;
+						return Promises.delay(100L);
+					});
+		}));
+
+		// nothing is consumed, so the server stops as soon as the initial credits are used
+		assertEquals(RpcStreamMultiplexer.DEFAULT_WINDOW, producedAt[0]);
+		assertTrue(producedAt[1] > RpcStreamMultiplexer.DEFAULT_WINDOW);
+		// the server stops once the stream is cancelled
+		assertEquals(producedAt[2], produced);
+		assertEquals(exception, awaitException(consumer.getResult()));
+		assertEquals(0, activeRequests);
+	}
+
+	@Test
+	public void testServerStreamingError() {
+		server.withServerStreamingHandler(Integer.class, String.class, count ->
+				StreamSupplier.concat(StreamSupplier.of("a", "b"), StreamSupplier.closingWithError(new Exception("Test"))));
+
+		Throwable e = awaitException(withClient(() -> client.<Integer, String>receiveStream(10).toList()));
+		assertTrue(e instanceof RpcRemoteException);
+		assertEquals(0, activeRequests);
+	}
+
+	private final class CountingIterator implements Iterator<String> {
+		@Override
+		public boolean hasNext() {
+			return true;
+		}
+
+		@Override
+		public String next() {
+			return "item " + produced++;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package io.datakernel.rpc.server;
+
+import io.datakernel.common.collection.Try;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.EventloopStats;
+import io.datakernel.promise.Promises;
+import io.datakernel.rpc.client.RpcClient;
+import io.datakernel.rpc.client.RpcClientConnection;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.rpc.client.sender.RpcStrategies.server;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static org.junit.Assert.*;
+
+public final class RpcConcurrencyLimiterTest {
+	private static final long MILLIS = 1_000_000;
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Test
+	public void testLimitFollowsHandlingTime() {
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(10)
+				.withLimits(1, 1000);
+		long now = 0;
+
+		// fully loaded and as fast as usual
+		for (int i = 0; i < 1000; i++) {
+			fill(limiter);
+			limiter.release(now, now + MILLIS);
+			now += MILLIS;
+		}
+		int grownLimit = limiter.getLimit();
+		assertTrue(grownLimit > 100);
+
+		// ten times slower
+		for (int i = 0; i < 100; i++) {
+			fill(limiter);
+			limiter.release(now, now + 10 * MILLIS);
+			now += 10 * MILLIS;
+		}
+		assertTrue(limiter.getLimit() < grownLimit / 10);
+	}
+
+	@Test
+	public void testLimitDoesNotGrowWithoutLoad() {
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(10)
+				.withLimits(1, 1000);
+		for (long now = 0; now < 1000 * MILLIS; now += MILLIS) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(now, now + MILLIS);
+		}
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void testBusinessLogicTimeBackoff() {
+		EventloopStats stats = EventloopStats.create();
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(100)
+				.withLimits(10, 1000)
+				.withTargetBusinessLogicTime(Duration.ofMillis(20))
+				.withCheckInterval(Duration.ofMillis(100));
+		limiter.setEventloopStats(stats);
+		stats.onUpdateBusinessLogicTime(true, false, 50);
+
+		long now = 0;
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(now, now + MILLIS);
+			now += 100 * MILLIS;
+		}
+		// 100 * 0.9^10
+		assertEquals(34, limiter.getLimit());
+		limiter.getBusinessLogicBackoffs().refresh(System.currentTimeMillis());
+		assertEquals(10, limiter.getBusinessLogicBackoffs().getTotalCount());
+	}
+
+	@Test
+	public void testOverloadedServerRejectsRequests() throws IOException {
+		int port = getFreePort();
+		Eventloop eventloop = Eventloop.getCurrentEventloop();
+		RpcConcurrencyLimiter limiter = RpcConcurrencyLimiter.create()
+				.withInitialLimit(1)
+				.withLimits(1, 1);
+		RpcServer server = RpcServer.create(eventloop)
+				.withMessageTypes(String.class)
+				.withHandler(String.class, String.class, request -> Promises.delay(100L, "Hello, " + request + "!"))
+				.withConcurrencyLimiter(limiter)
+				.withListenPort(port);
+		server.listen();
+		RpcClient client = RpcClient.create(eventloop)
+				.withMessageTypes(String.class)
+				.withStrategy(server(new InetSocketAddress("localhost", port)));
+
+		double[] responseTime = new double[1];
+		List<Try<String>> results = new ArrayList<>();
+		await(client.start()
+				.then($ -> Promises.all(
+						client.<String, String>sendRequest("first", 1000).toTry().whenResult(results::add),
+						client.<String, String>sendRequest("second", 1000).toTry().whenResult(results::add)))
+				.then($ -> client.<String, String>sendRequest("third", 1000).toTry().whenResult(results::add))
+				.whenComplete(() -> {
+					responseTime[0] = client.getRequestStatsPerConnection().values().iterator().next().getSmoothedResponseTime();
+					client.stop();
+					server.close();
+				}));
+
+		// the rejected request is completed first
+		assertSame(RpcClientConnection.SERVER_OVERLOADED, results.get(0).getException());
+		assertEquals("Hello, first!", results.get(1).get());
+		assertEquals("Hello, third!", results.get(2).get());
+		limiter.getRejectedRequests().refresh(System.currentTimeMillis());
+		assertEquals(1, limiter.getRejectedRequests().getTotalCount());
+		assertEquals(0, limiter.getInFlight());
+		// the client avoids the server for a while
+		assertTrue(responseTime[0] > 500);
+	}
+
+	private static void fill(RpcConcurrencyLimiter limiter) {
+		while (limiter.tryAcquire()) {
+		}
+	}
+}
@@ -37,6 +37,44 @@ final class ByteBufConcurrentStack {
 		return oldHead;
 	}
 
+	/**
+	 * Pushes a chain of ByteBufs, linked through their {@code next} fields, with a single CAS.
+	 */
+	public void pushAll(ByteBuf first, ByteBuf last) {
+		ByteBufRef oldHeadRef;
+		ByteBufRef newHeadRef = new ByteBufRef();
+		newHeadRef.buf = first;
+		do {
+			oldHeadRef = head.get();
+			last.next = oldHeadRef.buf;
+		} while (!head.compareAndSet(oldHeadRef, newHeadRef));
+	}
+
+	/**
+	 * Pops up to {@code max} ByteBufs with a single CAS and puts them into the given array.
+	 *
+	 * @return number of ByteBufs popped
+	 */
+	public int popAll(ByteBuf[] to, int max) {
+		ByteBufRef oldHeadRef;
+		ByteBufRef newHeadRef = new ByteBufRef();
+		int count;
+		do {
+			oldHeadRef = head.get();
+			ByteBuf node = oldHeadRef.buf;
+			count = 0;
+			while (node != null && count < max) {
+				to[count++] = node;
+				node = node.next;
+			}
+			if (count == 0) {
+				return 0;
+			}
+			newHeadRef.buf = node;
+		} while (!head.compareAndSet(oldHeadRef, newHeadRef));
+		return count;
+	}
+
 	public ByteBuf peek() {
 		return head.get().buf;
 	}
@@ -21,10 +21,12 @@ import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.MemSize;
 import org.jetbrains.annotations.NotNull;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static io.datakernel.common.Preconditions.checkArgument;
 import static java.lang.Integer.numberOfLeadingZeros;
 import static java.lang.Math.max;
 import static java.lang.System.currentTimeMillis;
@@ -41,6 +43,13 @@ import static java.util.stream.Collectors.toList;
  * When you need a new ByteBuf, it is either created (if a ByteBuf of
  * such capacity hasn't been used and recycled yet) or popped from the
  * appropriate slabs' stack.
+ * <p>
+ * Besides heap ByteBufs, the pool keeps another 33 slabs of direct
+ * (off-heap) {@link ByteBuffer ByteBuffers} which are used as intermediate
+ * I/O buffers for sockets and file channels, see {@link #allocateDirect(int)}.
+ * <p>
+ * Optionally, each thread may have its own bounded cache of ByteBufs
+ * in front of the global slabs, see {@link #USE_THREAD_CACHE}.
  */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public final class ByteBufPool {
@@ -75,6 +84,40 @@ public final class ByteBufPool {
 	 */
 	static final boolean STATS = ApplicationSettings.getBoolean(ByteBufPool.class, "stats", false);
 
+	/**
+	 * Enables a per-thread cache tier in front of the global slabs, so that
+	 * threads which allocate and recycle ByteBufs of the same sizes (like eventloop threads)
+	 * do not contend on the slabs' CAS loops. Transfers between a thread cache and
+	 * the global slabs are made in batches. By default set at value {@code false}.
+	 */
+	static final boolean USE_THREAD_CACHE = ApplicationSettings.getBoolean(ByteBufPool.class, "threadCache", false);
+
+	/**
+	 * Defines the maximum size of ByteBufs which are cached in a thread cache,
+	 * by default set at 16KB.
+	 */
+	private static final int THREAD_CACHE_MAX_SIZE = ApplicationSettings.getMemSize(ByteBufPool.class, "threadCacheMaxSize", MemSize.kilobytes(16)).toInt();
+
+	/**
+	 * Defines the number of ByteBufs of each size which may be cached in a thread cache,
+	 * by default set at 64. Half of this number is transferred to and from the global slabs at once.
+	 */
+	private static final int THREAD_CACHE_MAGAZINE_SIZE = ApplicationSettings.getInt(ByteBufPool.class, "threadCacheMagazineSize", 64);
+
+	private static final int THREAD_CACHE_SLABS = 33 - numberOfLeadingZeros(THREAD_CACHE_MAX_SIZE - 1);
+
+	/**
+	 * Defines the maximum size of direct buffers, by default set at 256KB.
+	 * Larger I/O operations should be split into chunks of at most this size.
+	 */
+	public static final int DIRECT_MAX_SIZE = ApplicationSettings.getMemSize(ByteBufPool.class, "directMaxSize", MemSize.kilobytes(256)).toInt();
+
+	/**
+	 * Defines the number of direct buffers which are kept in each direct slab, by default set at 64.
+	 * Buffers which are recycled into a full slab are left to the garbage collector.
+	 */
+	private static final int DIRECT_SLAB_MAX_ITEMS = ApplicationSettings.getInt(ByteBufPool.class, "directSlabMaxItems", 64);
+
 	/**
 	 * {@code ByteBufConcurrentStack} allows to work with slabs and their ByteBufs.
 	 * Basically, it is a singly linked list with basic stack operations:
@@ -88,8 +131,28 @@ public final class ByteBufPool {
 	static final AtomicInteger[] created;
 	static final AtomicInteger[] reused;
 
+	/**
+	 * Slabs of direct {@link ByteBuffer ByteBuffers}, one per power of two capacity,
+	 * same as {@link #slabs} for heap ByteBufs.
+	 */
+	static final ByteBufferConcurrentStack[] directSlabs;
+	static final AtomicInteger[] directCreated;
+	static final AtomicInteger[] directReused;
+
 	private static final ByteBufPoolStats stats = new ByteBufPoolStats();
 
+	private static final ThreadLocal<ByteBufThreadCache> threadCache = new ThreadLocal<>();
+	private static final List<ByteBufThreadCache> threadCaches = new ArrayList<>();
+	/**
+	 * Is incremented on each {@link #clear()}, so that the thread caches
+	 * drop their ByteBufs on the next access
+	 */
+	private static volatile int threadCacheEpoch;
+	/**
+	 * Stats of the thread caches of terminated threads, guarded by {@link #threadCaches}
+	 */
+	private static long retiredHits, retiredMisses, retiredRefills, retiredFlushes;
+
 	/**
 	 * Stores information about ByteBufs for stats.
 	 * <p>
@@ -148,10 +211,16 @@ public final class ByteBufPool {
 		slabs = new ByteBufConcurrentStack[NUMBER_OF_SLABS];
 		created = new AtomicInteger[NUMBER_OF_SLABS];
 		reused = new AtomicInteger[NUMBER_OF_SLABS];
+		directSlabs = new ByteBufferConcurrentStack[NUMBER_OF_SLABS];
+		directCreated = new AtomicInteger[NUMBER_OF_SLABS];
+		directReused = new AtomicInteger[NUMBER_OF_SLABS];
 		for (int i = 0; i < NUMBER_OF_SLABS; i++) {
 			slabs[i] = new ByteBufConcurrentStack();
 			created[i] = new AtomicInteger();
 			reused[i] = new AtomicInteger();
+			directSlabs[i] = new ByteBufferConcurrentStack();
+			directCreated[i] = new AtomicInteger();
+			directReused[i] = new AtomicInteger();
 		}
 	}
 
@@ -179,8 +248,9 @@ public final class ByteBufPool {
 			}
 		}
 		int index = 32 - numberOfLeadingZeros(size - 1); // index==32 for size==0
-		ByteBufConcurrentStack stack = slabs[index];
-		ByteBuf buf = stack.pop();
+		ByteBuf buf = USE_THREAD_CACHE && index < THREAD_CACHE_SLABS ?
+				getThreadCache().pop(index) :
+				slabs[index].pop();
 		if (buf != null) {
 			if (ByteBuf.CHECK_RECYCLE && buf.refs != -1) throw onByteBufRecycled(buf);
 			buf.tail = 0;
@@ -286,9 +356,117 @@ public final class ByteBufPool {
 	 */
 	static void recycle(@NotNull ByteBuf buf) {
 		int slab = 32 - numberOfLeadingZeros(buf.array.length - 1);
+		if (REGISTRY) registerRecycle(buf);
+		if (USE_THREAD_CACHE && slab < THREAD_CACHE_SLABS) {
+			getThreadCache().push(buf, slab);
+			return;
+		}
 		ByteBufConcurrentStack stack = slabs[slab];
 		stack.push(buf);
-		if (REGISTRY) registerRecycle(buf);
+	}
+
+	private static ByteBufThreadCache getThreadCache() {
+		ByteBufThreadCache cache = threadCache.get();
+		int epoch = threadCacheEpoch;
+		if (cache == null) {
+			cache = new ByteBufThreadCache(currentThread(), slabs, THREAD_CACHE_SLABS, THREAD_CACHE_MAGAZINE_SIZE, epoch);
+			threadCache.set(cache);
+			synchronized (threadCaches) {
+				drainTerminatedThreadCaches();
+				threadCaches.add(cache);
+			}
+		} else if (cache.epoch != epoch) {
+			cache.reset(epoch);
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns ByteBufs which are cached by the terminated threads back to the global slabs
+	 */
+	private static void drainTerminatedThreadCaches() {
+		assert Thread.holdsLock(threadCaches);
+		int epoch = threadCacheEpoch;
+		for (Iterator<ByteBufThreadCache> it = threadCaches.iterator(); it.hasNext(); ) {
+			ByteBufThreadCache cache = it.next();
+			if (!cache.thread.isAlive()) {
+				if (cache.epoch == epoch) {
+					cache.drain();
+					retiredHits += cache.hits;
+					retiredMisses += cache.misses;
+					retiredRefills += cache.refills;
+					retiredFlushes += cache.flushes;
+				}
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns ByteBufs which are cached by the current thread back to the global slabs.
+	 * It is useful to call this method before the thread terminates.
+	 */
+	public static void drainThreadCache() {
+		ByteBufThreadCache cache = threadCache.get();
+		if (cache != null && cache.epoch == threadCacheEpoch) {
+			cache.drain();
+		}
+	}
+
+	private static List<ByteBufThreadCache> getLiveThreadCaches() {
+		synchronized (threadCaches) {
+			drainTerminatedThreadCaches();
+			int epoch = threadCacheEpoch;
+			return threadCaches.stream().filter(cache -> cache.epoch == epoch).collect(toList());
+		}
+	}
+
+	private static int getThreadCachedItems(int index) {
+		if (!USE_THREAD_CACHE || index >= THREAD_CACHE_SLABS) return 0;
+		return getLiveThreadCaches().stream().mapToInt(cache -> cache.size(index)).sum();
+	}
+
+	/**
+	 * Allocates a direct (off-heap) {@link ByteBuffer} from the pool with
+	 * capacity of <code>ceil(log<sub>2</sub>(size))<sup>2</sup></code> bytes.
+	 * <p>
+	 * Returned buffer is cleared, its limit is set to its capacity.
+	 * Direct buffers are meant to be short-lived I/O buffers: heap data is copied
+	 * into such a buffer before it is passed to an NIO channel, which is the same copy
+	 * that JDK makes into its own per-thread temporary direct buffer.
+	 * Unlike the JDK cache, the buffers are shared by all threads, no buffer is larger than
+	 * {@link #DIRECT_MAX_SIZE} and each slab keeps a limited number of them.
+	 * A buffer should be returned to the pool with {@link #recycleDirect(ByteBuffer)}
+	 * as soon as the I/O operation is done.
+	 *
+	 * @param size returned buffer capacity is guaranteed to be bigger or equal to requested size,
+	 *             which must not exceed {@link #DIRECT_MAX_SIZE}
+	 * @return direct byte buffer from this pool
+	 */
+	@NotNull
+	public static ByteBuffer allocateDirect(int size) {
+		checkArgument(size <= DIRECT_MAX_SIZE, () -> "Direct buffer size exceeds " + DIRECT_MAX_SIZE + " bytes");
+		int index = 32 - numberOfLeadingZeros(size - 1); // index==32 for size==0
+		ByteBuffer buffer = directSlabs[index].pop();
+		if (buffer != null) {
+			if (STATS) directReused[index].incrementAndGet();
+			return buffer;
+		}
+		if (STATS) directCreated[index].incrementAndGet();
+		return ByteBuffer.allocateDirect(1 << index);
+	}
+
+	/**
+	 * Returns provided direct {@link ByteBuffer} to the appropriate direct slab,
+	 * unless the slab is full. The buffer must not be used after it is recycled.
+	 *
+	 * @param buffer direct buffer previously obtained from {@link #allocateDirect(int)}
+	 */
+	public static void recycleDirect(@NotNull ByteBuffer buffer) {
+		assert buffer.isDirect() && Integer.bitCount(buffer.capacity()) == 1;
+		int slab = 32 - numberOfLeadingZeros(buffer.capacity() - 1);
+		buffer.clear();
+		directSlabs[slab].push(buffer, DIRECT_SLAB_MAX_ITEMS);
 	}
 
 	@NotNull
@@ -384,10 +562,18 @@ public final class ByteBufPool {
 	 * Clears all of the slabs and stats.
 	 */
 	public static void clear() {
+		synchronized (threadCaches) {
+			threadCacheEpoch++;
+			threadCaches.removeIf(cache -> !cache.thread.isAlive());
+			retiredHits = retiredMisses = retiredRefills = retiredFlushes = 0;
+		}
 		for (int i = 0; i < ByteBufPool.NUMBER_OF_SLABS; i++) {
 			slabs[i].clear();
 			created[i].set(0);
 			reused[i].set(0);
+			directSlabs[i].clear();
+			directCreated[i].set(0);
+			directReused[i].set(0);
 		}
 		synchronized (allocateRegistry) {
 			allocateRegistry.clear();
@@ -415,6 +601,30 @@ public final class ByteBufPool {
 
 		List<String> getPoolSlabs();
 
+		int getThreadCaches();
+
+		int getThreadCacheItems();
+
+		long getThreadCacheHits();
+
+		long getThreadCacheMisses();
+
+		long getThreadCacheRefills();
+
+		long getThreadCacheFlushes();
+
+		int getDirectCreatedItems();
+
+		int getDirectReusedItems();
+
+		int getDirectPoolItems();
+
+		long getDirectPoolSize();
+
+		long getDirectPoolSizeKB();
+
+		List<String> getDirectPoolSlabs();
+
 		List<Entry> queryUnrecycledBufs(int limit);
 
 		void clear();
@@ -450,14 +660,14 @@ public final class ByteBufPool {
 
 		@Override
 		public int getPoolItems() {
-			return stream(slabs).mapToInt(ByteBufConcurrentStack::size).sum();
+			return stream(slabs).mapToInt(ByteBufConcurrentStack::size).sum() + getThreadCacheItems();
 		}
 
 		public String getPoolItemsString() {
 			StringBuilder sb = new StringBuilder();
 			for (int i = 0; i < ByteBufPool.NUMBER_OF_SLABS; ++i) {
 				int createdItems = created[i].get();
-				int poolItems = slabs[i].size();
+				int poolItems = slabs[i].size() + getThreadCachedItems(i);
 				if (createdItems != poolItems) {
 					sb.append(String.format("Slab %d (%d) ", i, (1 << i)))
 							.append(" created: ").append(createdItems)
@@ -472,7 +682,7 @@ public final class ByteBufPool {
 			long result = 0;
 			for (int i = 0; i < slabs.length - 1; i++) {
 				long slabSize = 1L << i;
-				result += slabSize * slabs[i].size();
+				result += slabSize * (slabs[i].size() + getThreadCachedItems(i));
 			}
 			return result;
 		}
@@ -490,6 +700,13 @@ public final class ByteBufPool {
 						externalBufs.remove(buf);
 					}
 				}
+				for (ByteBufThreadCache cache : getLiveThreadCaches()) {
+					for (int i = 0; i < THREAD_CACHE_SLABS; i++) {
+						for (int j = 0; j < cache.size(i); j++) {
+							externalBufs.remove(cache.peek(i, j));
+						}
+					}
+				}
 				return externalBufs;
 			}
 		}
@@ -509,7 +726,7 @@ public final class ByteBufPool {
 			for (int i = 0; i < slabs.length; i++) {
 				int idx = (i + 32) % slabs.length;
 				long slabSize = idx == 32 ? 0 : 1L << idx;
-				int count = slabs[idx].size();
+				int count = slabs[idx].size() + getThreadCachedItems(idx);
 				result.add(slabSize + "," +
 						(STATS ? created[idx] : '-') + "," +
 						(STATS ? reused[idx] : '-') + "," +
@@ -519,6 +736,102 @@ public final class ByteBufPool {
 			return result;
 		}
 
+		@Override
+		public int getThreadCaches() {
+			return getLiveThreadCaches().size();
+		}
+
+		@Override
+		public int getThreadCacheItems() {
+			if (!USE_THREAD_CACHE) return 0;
+			int result = 0;
+			for (ByteBufThreadCache cache : getLiveThreadCaches()) {
+				for (int i = 0; i < THREAD_CACHE_SLABS; i++) {
+					result += cache.size(i);
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public long getThreadCacheHits() {
+			synchronized (threadCaches) {
+				long live = getLiveThreadCaches().stream().mapToLong(cache -> cache.hits).sum();
+				return retiredHits + live;
+			}
+		}
+
+		@Override
+		public long getThreadCacheMisses() {
+			synchronized (threadCaches) {
+				long live = getLiveThreadCaches().stream().mapToLong(cache -> cache.misses).sum();
+				return retiredMisses + live;
+			}
+		}
+
+		@Override
+		public long getThreadCacheRefills() {
+			synchronized (threadCaches) {
+				long live = getLiveThreadCaches().stream().mapToLong(cache -> cache.refills).sum();
+				return retiredRefills + live;
+			}
+		}
+
+		@Override
+		public long getThreadCacheFlushes() {
+			synchronized (threadCaches) {
+				long live = getLiveThreadCaches().stream().mapToLong(cache -> cache.flushes).sum();
+				return retiredFlushes + live;
+			}
+		}
+
+		@Override
+		public int getDirectCreatedItems() {
+			return stream(directCreated).mapToInt(AtomicInteger::get).sum();
+		}
+
+		@Override
+		public int getDirectReusedItems() {
+			return stream(directReused).mapToInt(AtomicInteger::get).sum();
+		}
+
+		@Override
+		public int getDirectPoolItems() {
+			return stream(directSlabs).mapToInt(ByteBufferConcurrentStack::size).sum();
+		}
+
+		@Override
+		public long getDirectPoolSize() {
+			long result = 0;
+			for (int i = 0; i < directSlabs.length - 1; i++) {
+				long slabSize = 1L << i;
+				result += slabSize * directSlabs[i].size();
+			}
+			return result;
+		}
+
+		@Override
+		public long getDirectPoolSizeKB() {
+			return getDirectPoolSize() / 1024;
+		}
+
+		@Override
+		public List<String> getDirectPoolSlabs() {
+			List<String> result = new ArrayList<>(directSlabs.length + 1);
+			result.add("SlotSize,Created,Reused,InPool,Total(Kb)");
+			for (int i = 0; i < directSlabs.length; i++) {
+				int idx = (i + 32) % directSlabs.length;
+				long slabSize = idx == 32 ? 0 : 1L << idx;
+				int count = directSlabs[idx].size();
+				result.add(slabSize + "," +
+						(STATS ? directCreated[idx] : '-') + "," +
+						(STATS ? directReused[idx] : '-') + "," +
+						count + "," +
+						slabSize * count / 1024);
+			}
+			return result;
+		}
+
 		@Override
 		public void clear() {
 			ByteBufPool.clear();
@@ -0,0 +1,119 @@
+package io.datakernel.bytebuf;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A bounded per-thread cache of recycled {@link ByteBuf ByteBufs} which sits in front of
+ * the global {@link ByteBufPool} slabs.
+ * <p>
+ * For each of the cached slabs it keeps a magazine - an array of ByteBufs. ByteBufs are
+ * allocated from and recycled to a magazine without any synchronization. When a magazine
+ * is empty, it is refilled with a batch of ByteBufs popped from the global slab with a single CAS.
+ * When a magazine is full, a batch of ByteBufs is pushed back to the global slab with a single CAS.
+ * <p>
+ * An instance is owned by a single thread, all of the methods except for stats getters
+ * must be called only from the owner thread.
+ */
+final class ByteBufThreadCache {
+	final Thread thread;
+
+	private final ByteBufConcurrentStack[] slabs;
+	private final ByteBuf[][] magazines;
+	private final int[] counts;
+	private final int batchSize;
+
+	int epoch;
+
+	long hits;
+	long misses;
+	long refills;
+	long flushes;
+
+	ByteBufThreadCache(Thread thread, ByteBufConcurrentStack[] slabs, int numberOfCachedSlabs, int magazineSize, int epoch) {
+		this.thread = thread;
+		this.slabs = slabs;
+		this.magazines = new ByteBuf[numberOfCachedSlabs][magazineSize];
+		this.counts = new int[numberOfCachedSlabs];
+		this.batchSize = Math.max(1, magazineSize / 2);
+		this.epoch = epoch;
+	}
+
+	@Nullable
+	ByteBuf pop(int index) {
+		ByteBuf[] magazine = magazines[index];
+		int count = counts[index];
+		if (count == 0) {
+			count = slabs[index].popAll(magazine, batchSize);
+			if (count == 0) {
+				misses++;
+				return null;
+			}
+			refills++;
+		} else {
+			hits++;
+		}
+		ByteBuf buf = magazine[--count];
+		magazine[count] = null;
+		counts[index] = count;
+		return buf;
+	}
+
+	void push(ByteBuf buf, int index) {
+		ByteBuf[] magazine = magazines[index];
+		int count = counts[index];
+		if (count == magazine.length) {
+			count = flush(index, batchSize);
+		}
+		magazine[count] = buf;
+		counts[index] = count + 1;
+	}
+
+	private int flush(int index, int size) {
+		ByteBuf[] magazine = magazines[index];
+		int count = counts[index];
+		int from = count - size;
+		for (int i = from; i < count - 1; i++) {
+			magazine[i].next = magazine[i + 1];
+		}
+		slabs[index].pushAll(magazine[from], magazine[count - 1]);
+		for (int i = from; i < count; i++) {
+			magazine[i] = null;
+		}
+		counts[index] = from;
+		flushes++;
+		return from;
+	}
+
+	/**
+	 * Returns all of the cached ByteBufs to the global slabs
+	 */
+	void drain() {
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				flush(i, counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Drops all of the cached ByteBufs, used after {@link ByteBufPool#clear()}
+	 */
+	void reset(int epoch) {
+		for (int i = 0; i < counts.length; i++) {
+			for (int j = 0; j < counts[i]; j++) {
+				magazines[i][j] = null;
+			}
+			counts[i] = 0;
+		}
+		this.epoch = epoch;
+	}
+
+	int size(int index) {
+		return index < counts.length ? counts[index] : 0;
+	}
+
+	@Nullable
+	ByteBuf peek(int index, int position) {
+		return magazines[index][position];
+	}
+}
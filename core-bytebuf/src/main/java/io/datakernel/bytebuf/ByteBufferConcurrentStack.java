@@ -0,0 +1,81 @@
+package io.datakernel.bytebuf;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Simple lock-free concurrent stack implementation for the direct {@link ByteBuffer ByteBuffers}
+ * that are used in {@link ByteBufPool}, the number of buffers in the stack is bounded
+ */
+final class ByteBufferConcurrentStack {
+	private static final class Node {
+		final ByteBuffer buffer;
+		@Nullable
+		final Node next;
+
+		Node(ByteBuffer buffer, @Nullable Node next) {
+			this.buffer = buffer;
+			this.next = next;
+		}
+	}
+
+	private final AtomicReference<Node> head = new AtomicReference<>();
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Pushes a buffer unless the stack already holds {@code maxSize} buffers
+	 *
+	 * @return {@code true} if the buffer was pushed
+	 */
+	public boolean push(ByteBuffer buffer, int maxSize) {
+		if (size.incrementAndGet() > maxSize) {
+			size.decrementAndGet();
+			return false;
+		}
+		Node oldHead;
+		Node newHead;
+		do {
+			oldHead = head.get();
+			newHead = new Node(buffer, oldHead);
+		} while (!head.compareAndSet(oldHead, newHead));
+		return true;
+	}
+
+	@Nullable
+	public ByteBuffer pop() {
+		Node oldHead;
+		do {
+			oldHead = head.get();
+			if (oldHead == null) {
+				return null;
+			}
+		} while (!head.compareAndSet(oldHead, oldHead.next));
+		size.decrementAndGet();
+		return oldHead.buffer;
+	}
+
+	public void clear() {
+		Node oldHead = head.getAndSet(null);
+		while (oldHead != null) {
+			size.decrementAndGet();
+			oldHead = oldHead.next;
+		}
+	}
+
+	public boolean isEmpty() {
+		return head.get() == null;
+	}
+
+	public int size() {
+		int result = 0;
+		Node node = head.get();
+		while (node != null) {
+			node = node.next;
+			result++;
+		}
+		return result;
+	}
+}
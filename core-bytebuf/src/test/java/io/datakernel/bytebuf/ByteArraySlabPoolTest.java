@@ -18,9 +18,10 @@ package io.datakernel.bytebuf;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+
 import static io.datakernel.bytebuf.ByteBufTest.initByteBufPool;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 public class ByteArraySlabPoolTest {
 	static {
@@ -60,6 +61,53 @@ public class ByteArraySlabPoolTest {
 		checkAllocate(15, 16, new int[]{0, 0, 0, 0, 16});
 	}
 
+	@Test
+	public void testAllocateDirect() {
+		ByteBufPool.clear();
+
+		ByteBuffer buffer = ByteBufPool.allocateDirect(9);
+		assertTrue(buffer.isDirect());
+		assertEquals(16, buffer.capacity());
+		assertEquals(16, buffer.remaining());
+		buffer.put((byte) 1);
+		ByteBufPool.recycleDirect(buffer);
+
+		assertEquals(1, ByteBufPool.directSlabs[4].size());
+		assertEquals(0, ByteBufPool.slabs[4].size());
+
+		ByteBuffer reused = ByteBufPool.allocateDirect(16);
+		assertSame(buffer, reused);
+		assertEquals(0, reused.position());
+		assertEquals(16, reused.limit());
+		assertTrue(ByteBufPool.directSlabs[4].isEmpty());
+		ByteBufPool.recycleDirect(reused);
+
+		assertEquals(1, ByteBufPool.getStats().getDirectCreatedItems());
+		assertEquals(1, ByteBufPool.getStats().getDirectReusedItems());
+		assertEquals(1, ByteBufPool.getStats().getDirectPoolItems());
+		assertEquals(16, ByteBufPool.getStats().getDirectPoolSize());
+	}
+
+	@Test
+	public void testDirectSlabsAreBounded() {
+		ByteBufPool.clear();
+
+		ByteBuffer[] buffers = new ByteBuffer[100];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = ByteBufPool.allocateDirect(16);
+		}
+		for (ByteBuffer buffer : buffers) {
+			ByteBufPool.recycleDirect(buffer);
+		}
+		assertEquals(64, ByteBufPool.directSlabs[4].size());
+
+		try {
+			ByteBufPool.allocateDirect(ByteBufPool.DIRECT_MAX_SIZE + 1);
+			fail();
+		} catch (IllegalArgumentException ignored) {
+		}
+	}
+
 	private void checkReallocate(int size1, int size2, boolean equals) {
 		ByteBufPool.clear();
 
@@ -0,0 +1,84 @@
+package io.datakernel.bytebuf;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static io.datakernel.bytebuf.ByteBufTest.initByteBufPool;
+import static org.junit.Assert.*;
+
+public final class ByteBufThreadCacheTest {
+	static {
+		initByteBufPool();
+	}
+
+	private static final int INDEX = 4;
+
+	private ByteBufThreadCache cache;
+
+	@Before
+	public void setUp() {
+		ByteBufPool.clear();
+		cache = new ByteBufThreadCache(Thread.currentThread(), ByteBufPool.slabs, 15, 8, 0);
+	}
+
+	@Test
+	public void testMissOnEmptySlab() {
+		assertNull(cache.pop(INDEX));
+		assertEquals(1, cache.misses);
+		assertEquals(0, cache.hits);
+	}
+
+	@Test
+	public void testHit() {
+		ByteBuf buf = ByteBuf.wrapForWriting(new byte[16]);
+		cache.push(buf, INDEX);
+		assertTrue(ByteBufPool.slabs[INDEX].isEmpty());
+		assertEquals(1, cache.size(INDEX));
+
+		assertSame(buf, cache.pop(INDEX));
+		assertEquals(1, cache.hits);
+		assertEquals(0, cache.size(INDEX));
+	}
+
+	@Test
+	public void testFlushesHalfOfMagazineWhenFull() {
+		for (int i = 0; i < 9; i++) {
+			cache.push(ByteBuf.wrapForWriting(new byte[16]), INDEX);
+		}
+		assertEquals(1, cache.flushes);
+		assertEquals(4, ByteBufPool.slabs[INDEX].size());
+		assertEquals(5, cache.size(INDEX));
+	}
+
+	@Test
+	public void testRefillsBatchFromSlab() {
+		for (int i = 0; i < 10; i++) {
+			ByteBufPool.slabs[INDEX].push(ByteBuf.wrapForWriting(new byte[16]));
+		}
+
+		assertNotNull(cache.pop(INDEX));
+		assertEquals(1, cache.refills);
+		assertEquals(3, cache.size(INDEX));
+		assertEquals(6, ByteBufPool.slabs[INDEX].size());
+
+		for (int i = 0; i < 3; i++) {
+			assertNotNull(cache.pop(INDEX));
+		}
+		assertEquals(3, cache.hits);
+		assertEquals(1, cache.refills);
+	}
+
+	@Test
+	public void testDrain() {
+		for (int i = 0; i < 5; i++) {
+			cache.push(ByteBuf.wrapForWriting(new byte[16]), INDEX);
+			cache.push(ByteBuf.wrapForWriting(new byte[32]), INDEX + 1);
+		}
+		cache.drain();
+
+		assertEquals(0, cache.size(INDEX));
+		assertEquals(0, cache.size(INDEX + 1));
+		assertEquals(5, ByteBufPool.slabs[INDEX].size());
+		assertEquals(5, ByteBufPool.slabs[INDEX + 1].size());
+	}
+}
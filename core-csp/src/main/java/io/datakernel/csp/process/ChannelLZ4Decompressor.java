@@ -182,7 +182,7 @@ public final class ChannelLZ4Decompressor extends AbstractCommunicatingProcess
 		public boolean finished;
 	}
 
-	private static void readHeader(Header header, byte[] buf, int off) throws ParseException {
+	static void readHeader(Header header, byte[] buf, int off) throws ParseException {
 		for (int i = 0; i < MAGIC_LENGTH; ++i) {
 			if (buf[off + i] != MAGIC[i]) {
 				throw STREAM_IS_CORRUPTED;
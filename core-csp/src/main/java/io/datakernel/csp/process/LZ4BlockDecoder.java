@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.csp.process;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.csp.process.ChannelLZ4Decompressor.Header;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import net.jpountz.xxhash.StreamingXXHash32;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.nio.ByteBuffer;
+
+import static io.datakernel.csp.process.ChannelLZ4Compressor.*;
+import static io.datakernel.csp.process.ChannelLZ4Decompressor.STREAM_IS_CORRUPTED;
+
+/**
+ * Decodes blocks written by {@link ChannelLZ4Compressor} at arbitrary offsets of a {@link ByteBuffer}.
+ * <p>
+ * Unlike {@link ChannelLZ4Decompressor}, compressed bytes are read in place,
+ * so a memory-mapped file is decompressed without copying it into intermediate {@link ByteBuf}s.
+ * An instance is not thread-safe.
+ */
+public final class LZ4BlockDecoder {
+	public static final int HEADER_LENGTH = ChannelLZ4Compressor.HEADER_LENGTH;
+	/**
+	 * Offset of the little-endian compressed length within a header
+	 */
+	public static final int COMPRESSED_LEN_OFFSET = MAGIC_LENGTH + 1;
+
+	private final LZ4FastDecompressor decompressor;
+	private final StreamingXXHash32 checksum;
+	private final byte[] headerBytes = new byte[HEADER_LENGTH];
+
+	private LZ4BlockDecoder(LZ4FastDecompressor decompressor, StreamingXXHash32 checksum) {
+		this.decompressor = decompressor;
+		this.checksum = checksum;
+	}
+
+	public static LZ4BlockDecoder create() {
+		return create(
+				LZ4Factory.fastestInstance().fastDecompressor(),
+				XXHashFactory.fastestInstance());
+	}
+
+	public static LZ4BlockDecoder create(LZ4FastDecompressor decompressor, XXHashFactory xxHashFactory) {
+		return new LZ4BlockDecoder(decompressor, xxHashFactory.newStreamingHash32(DEFAULT_SEED));
+	}
+
+	/**
+	 * Reads and validates a block header, which must be fully contained in the buffer
+	 */
+	public void readHeader(Header header, ByteBuffer buf, int off) throws ParseException {
+		for (int i = 0; i < HEADER_LENGTH; i++) {
+			headerBytes[i] = buf.get(off + i);
+		}
+		ChannelLZ4Decompressor.readHeader(header, headerBytes, 0);
+	}
+
+	/**
+	 * Decompresses the body of a block, which starts at {@code off} right after its header
+	 */
+	public ByteBuf decompress(Header header, ByteBuffer buf, int off) throws ParseException {
+		ByteBuf outputBuf = ByteBufPool.allocate(header.originalLen);
+		outputBuf.tail(header.originalLen);
+		try {
+			switch (header.compressionMethod) {
+				case COMPRESSION_METHOD_RAW:
+					ByteBuffer duplicate = buf.duplicate();
+					duplicate.position(off);
+					duplicate.get(outputBuf.array(), 0, header.originalLen);
+					break;
+				case COMPRESSION_METHOD_LZ4:
+					int compressedLen;
+					try {
+						compressedLen = decompressor.decompress(buf, off, ByteBuffer.wrap(outputBuf.array()), 0, header.originalLen);
+					} catch (LZ4Exception e) {
+						throw new ParseException(LZ4BlockDecoder.class, "Stream is corrupted", e);
+					}
+					if (compressedLen != header.compressedLen) {
+						throw STREAM_IS_CORRUPTED;
+					}
+					break;
+				default:
+					throw STREAM_IS_CORRUPTED;
+			}
+			checksum.reset();
+			checksum.update(outputBuf.array(), 0, header.originalLen);
+			if (checksum.getValue() != header.check) {
+				throw STREAM_IS_CORRUPTED;
+			}
+		} catch (ParseException e) {
+			outputBuf.recycle();
+			throw e;
+		}
+		return outputBuf;
+	}
+}
@@ -0,0 +1,88 @@
+package io.datakernel.csp.eventloop;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.MemSize;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.jmx.ValueStats;
+import io.datakernel.eventloop.net.SocketSettings;
+import io.datakernel.net.AsyncTcpSocketImpl;
+import io.datakernel.net.SimpleServer;
+import io.datakernel.promise.SettablePromise;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import static io.datakernel.bytebuf.ByteBufStrings.wrapAscii;
+import static io.datakernel.promise.TestUtils.await;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class AsyncTcpSocketWriteQueueTest {
+	private static final int ITERATIONS = 100_000;
+
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	@Test
+	public void testGatheringWrites() throws IOException {
+		doTest(new InetSocketAddress("localhost", 9023), false);
+	}
+
+	@Test
+	public void testDirectBuffers() throws IOException {
+		doTest(new InetSocketAddress("localhost", 9024), true);
+	}
+
+	private static void doTest(InetSocketAddress address, boolean directBuffers) throws IOException {
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < ITERATIONS; i++) {
+			expected.append(i).append(';');
+		}
+
+		SettablePromise<String> received = new SettablePromise<>();
+		SimpleServer.create(socket ->
+				ChannelSupplier.ofSocket(socket)
+						.toCollector(ByteBufQueue.collector())
+						.map(buf -> buf.asString(UTF_8))
+						.whenComplete(socket::close)
+						.whenComplete(received))
+				.withListenAddress(address)
+				.withAcceptOnce()
+				.listen();
+
+		int[] writtenBytes = new int[1];
+		AsyncTcpSocketImpl.JmxInspector inspector = new AsyncTcpSocketImpl.JmxInspector() {
+			@Override
+			public void onWrite(ByteBuf buf, int bytes) {
+				writtenBytes[0] += bytes;
+			}
+		};
+		SocketSettings socketSettings = SocketSettings.create().withSendBufferSize(MemSize.kilobytes(1));
+		String result = await(AsyncTcpSocketImpl.connect(address, 0, socketSettings)
+				.then(socket -> {
+					socket.withDirectBuffers(directBuffers)
+							.withInspector(inspector);
+					for (int i = 0; i < ITERATIONS; i++) {
+						socket.write(wrapAscii(i + ";"));
+					}
+					return socket.write(null)
+							.then($ -> socket.read());
+				})
+				.then($ -> received));
+
+		assertEquals(expected.toString(), result);
+		ValueStats writeBufs = inspector.getWriteBufs();
+		writeBufs.refresh(System.currentTimeMillis());
+		assertTrue(writeBufs.getAbsoluteMax() > 1);
+		assertEquals(expected.length(), writtenBytes[0]);
+	}
+}
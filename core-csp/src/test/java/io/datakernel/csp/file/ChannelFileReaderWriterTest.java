@@ -16,6 +16,7 @@
 
 package io.datakernel.csp.file;
 
+import io.datakernel.async.file.ExecutorAsyncFileService;
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.MemSize;
@@ -32,6 +33,7 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -40,6 +42,7 @@ import java.util.concurrent.ThreadLocalRandom;
 import static io.datakernel.promise.TestUtils.await;
 import static io.datakernel.promise.TestUtils.awaitException;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static org.junit.Assert.*;
 
@@ -83,6 +86,20 @@ public final class ChannelFileReaderWriterTest {
 		assertArrayEquals(bytes, Files.readAllBytes(tempPath));
 	}
 
+	@Test
+	public void streamFileReaderWriterWithDirectBuffers() throws IOException {
+		Path tempPath = tempFolder.getRoot().toPath().resolve("out.dat");
+		ExecutorAsyncFileService fileService = new ExecutorAsyncFileService(newCachedThreadPool()).withDirectBuffers(true);
+
+		FileChannel in = FileChannel.open(Paths.get("test_data/in.dat"), READ);
+		FileChannel out = FileChannel.open(tempPath, CREATE_NEW, WRITE);
+
+		await(ChannelFileReader.create(fileService, in).withBufferSize(MemSize.of(100))
+				.streamTo(ChannelFileWriter.create(fileService, out)));
+
+		assertArrayEquals(Files.readAllBytes(Paths.get("test_data/in.dat")), Files.readAllBytes(tempPath));
+	}
+
 	@Test
 	public void streamFileWriterRecycle() {
 		Path tempPath = tempFolder.getRoot().toPath().resolve("out.dat");
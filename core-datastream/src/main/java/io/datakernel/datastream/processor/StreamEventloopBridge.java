@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015-2019 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.datastream.processor;
+
+import io.datakernel.datastream.*;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.common.Preconditions.checkState;
+
+/**
+ * Transfers a stream from one eventloop to another.
+ * <p>
+ * The output is created in the eventloop which consumes the stream, while the input
+ * should be created with {@link #createInput()} in the eventloop of the stream supplier.
+ * Items are passed in batches, and the supplier is suspended while
+ * the number of batches which are not yet consumed reaches the limit.
+ *
+ * @param <T> type of items
+ */
+public final class StreamEventloopBridge<T> {
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	public static final int DEFAULT_MAX_BATCHES = 4;
+
+	private final Eventloop inputEventloop;
+	private final Eventloop outputEventloop;
+	private final Output output;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int maxBatches = DEFAULT_MAX_BATCHES;
+
+	@Nullable
+	private volatile Input input;
+	@Nullable
+	private volatile Throwable outputError;
+
+	// region creators
+	private StreamEventloopBridge(Eventloop inputEventloop) {
+		this.inputEventloop = inputEventloop;
+		this.outputEventloop = Eventloop.getCurrentEventloop();
+		this.output = new Output();
+		outputEventloop.startExternalTask();
+	}
+
+	/**
+	 * Creates a bridge, which output belongs to the current eventloop
+	 *
+	 * @param inputEventloop eventloop of the stream supplier
+	 */
+	public static <T> StreamEventloopBridge<T> create(Eventloop inputEventloop) {
+		return new StreamEventloopBridge<>(inputEventloop);
+	}
+
+	public StreamEventloopBridge<T> withBatchSize(int batchSize) {
+		checkArgument(batchSize > 0, "Batch size should be positive");
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	public StreamEventloopBridge<T> withMaxBatches(int maxBatches) {
+		checkArgument(maxBatches > 0, "Max batches should be positive");
+		this.maxBatches = maxBatches;
+		return this;
+	}
+	// endregion
+
+	public StreamSupplier<T> getOutput() {
+		return output;
+	}
+
+	/**
+	 * Creates the input of this bridge, should be called in the input eventloop
+	 */
+	public StreamConsumer<T> createInput() {
+		checkState(inputEventloop.inEventloopThread(), "Input should be created in the input eventloop");
+		checkState(input == null, "Input has already been created");
+		Input input = new Input();
+		this.input = input;
+		Throwable e = outputError;
+		if (e != null) {
+			input.close(e);
+		}
+		return input;
+	}
+
+	private final class Input extends AbstractStreamConsumer<T> implements StreamDataAcceptor<T> {
+		private final SettablePromise<Void> outputAcknowledgement = new SettablePromise<>();
+		private List<T> buffer = new ArrayList<>(batchSize);
+		private int batchesInFlight;
+
+		Input() {
+			inputEventloop.startExternalTask();
+			outputAcknowledgement.whenComplete(($, e) -> inputEventloop.completeExternalTask());
+		}
+
+		@Override
+		protected void onStarted() {
+			getSupplier().resume(this);
+		}
+
+		@Override
+		public void accept(T item) {
+			buffer.add(item);
+			if (buffer.size() == batchSize) {
+				flush();
+				if (batchesInFlight >= maxBatches) {
+					getSupplier().suspend();
+				}
+			}
+		}
+
+		private void flush() {
+			List<T> batch = buffer;
+			buffer = new ArrayList<>(batchSize);
+			batchesInFlight++;
+			outputEventloop.execute(() -> output.onBatch(batch));
+		}
+
+		void onBatchConsumed() {
+			batchesInFlight--;
+			if (batchesInFlight < maxBatches && isWired() && !getEndOfStream().isComplete()) {
+				getSupplier().resume(this);
+			}
+		}
+
+		@Override
+		protected Promise<Void> onEndOfStream() {
+			if (!buffer.isEmpty()) {
+				flush();
+			}
+			outputEventloop.execute(output::onEndOfInput);
+			return outputAcknowledgement;
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+			outputAcknowledgement.trySetException(e);
+			outputEventloop.execute(() -> output.close(e));
+		}
+	}
+
+	private final class Output extends AbstractStreamSupplier<T> {
+		private final ArrayDeque<List<T>> batches = new ArrayDeque<>();
+		@Nullable
+		private List<T> batch;
+		private int position;
+		private boolean endOfInput;
+		private boolean completed;
+
+		void onBatch(List<T> batch) {
+			if (isClosed()) return;
+			batches.add(batch);
+			tryProduce();
+		}
+
+		void onEndOfInput() {
+			endOfInput = true;
+			tryProduce();
+		}
+
+		@Override
+		protected void produce(AsyncProduceController async) {
+			while (isReceiverReady()) {
+				if (batch == null) {
+					batch = batches.poll();
+					if (batch == null) {
+						if (endOfInput) {
+							sendEndOfStream()
+									.whenComplete(($, e) -> {
+										complete();
+										Input input = StreamEventloopBridge.this.input;
+										assert input != null;
+										inputEventloop.execute(() -> input.outputAcknowledgement.trySet(null, e));
+									});
+						}
+						return;
+					}
+					position = 0;
+				}
+				send(batch.get(position++));
+				if (position == batch.size()) {
+					batch = null;
+					Input input = StreamEventloopBridge.this.input;
+					assert input != null;
+					inputEventloop.execute(input::onBatchConsumed);
+				}
+			}
+		}
+
+		@Override
+		protected void onError(Throwable e) {
+			complete();
+			batches.clear();
+			batch = null;
+			outputError = e;
+			Input input = StreamEventloopBridge.this.input;
+			if (input != null) {
+				inputEventloop.execute(() -> input.close(e));
+			}
+		}
+
+		private void complete() {
+			if (completed) return;
+			completed = true;
+			outputEventloop.completeExternalTask();
+		}
+	}
+}
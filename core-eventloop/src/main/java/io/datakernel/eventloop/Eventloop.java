@@ -17,6 +17,7 @@
 package io.datakernel.eventloop;
 
 import io.datakernel.async.callback.Completable;
+import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.Initializable;
 import io.datakernel.common.Stopwatch;
 import io.datakernel.common.exception.AsyncTimeoutException;
@@ -28,6 +29,7 @@ import io.datakernel.common.time.CurrentTimeProviderSystem;
 import io.datakernel.eventloop.jmx.EventloopJmxMBeanEx;
 import io.datakernel.eventloop.net.DatagramSocketSettings;
 import io.datakernel.eventloop.net.ServerSocketSettings;
+import io.datakernel.eventloop.util.MpscQueue;
 import io.datakernel.eventloop.util.OptimizedSelectedKeysSet;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.jmx.api.JmxOperation;
@@ -45,14 +47,14 @@ import java.nio.channels.spi.SelectorProvider;
 import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.Iterator;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import static io.datakernel.common.Preconditions.checkArgument;
+import static io.datakernel.common.Preconditions.checkState;
 import static io.datakernel.common.Utils.nullToSupplier;
 import static io.datakernel.eventloop.util.ReflectionUtils.isPrivateApiAvailable;
 import static io.datakernel.eventloop.util.Utils.tryToOptimizeSelector;
@@ -87,6 +89,7 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	public static final AsyncTimeoutException CONNECT_TIMEOUT = new AsyncTimeoutException(Eventloop.class, "Connection timed out");
 	public static final StacklessException NOT_CONNECTED = new StacklessException(Eventloop.class, "Connection key was received but the channel was not connected - this is not possible without some bug in Java NIO");
 	public static final Duration DEFAULT_IDLE_INTERVAL = Duration.ofSeconds(1);
+	public static final boolean DEFAULT_TIMING_WHEEL = ApplicationSettings.getBoolean(Eventloop.class, "timingWheel", false);
 
 	@NotNull
 	private static volatile FatalErrorHandler globalFatalErrorHandler = FatalErrorHandlers.ignoreAllErrors();
@@ -99,19 +102,25 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	/**
 	 * Collection of concurrent tasks which were added from other threads.
 	 */
-	private final ConcurrentLinkedQueue<Runnable> concurrentTasks = new ConcurrentLinkedQueue<>();
+	private final MpscQueue<Runnable> concurrentTasks = new MpscQueue<>();
+
+	/**
+	 * Set when the selector is going to be woken up or the eventloop is not blocked in select,
+	 * so that only the first of the concurrent tasks posted in a row wakes up the selector.
+	 */
+	private final AtomicBoolean wakeupPending = new AtomicBoolean(true);
 
 	/**
 	 * Collection of scheduled tasks that are scheduled
 	 * to be executed at particular timestamp.
 	 */
-	private final PriorityQueue<ScheduledRunnable> scheduledTasks = new PriorityQueue<>();
+	private ScheduledTaskQueue scheduledTasks = createScheduledTaskQueue();
 
 	/**
 	 * Collection of background tasks,
 	 * if eventloop contains only background tasks, it will be closed.
 	 */
-	private final PriorityQueue<ScheduledRunnable> backgroundTasks = new PriorityQueue<>();
+	private ScheduledTaskQueue backgroundTasks = createScheduledTaskQueue();
 
 	/**
 	 * Amount of concurrent operations in other threads,
@@ -170,6 +179,7 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	private int lastSelectedKeys;
 	private int cancelledKeys;
 	private int lastExternalTasksCount;
+	private long wakeups;
 
 	// JMX
 
@@ -229,6 +239,21 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		return this;
 	}
 
+	/**
+	 * Sets an implementation of the queues of scheduled and background tasks,
+	 * should be called before any task is scheduled.
+	 *
+	 * @see PriorityScheduledTaskQueue
+	 * @see TimingWheelScheduledTaskQueue
+	 */
+	@NotNull
+	public Eventloop withScheduledTaskQueue(@NotNull Supplier<ScheduledTaskQueue> queueFactory) {
+		checkState(scheduledTasks.isEmpty() && backgroundTasks.isEmpty(), "Some tasks have already been scheduled");
+		this.scheduledTasks = queueFactory.get();
+		this.backgroundTasks = queueFactory.get();
+		return this;
+	}
+
 	@NotNull
 	public Eventloop withCurrentThread() {
 		CURRENT_EVENTLOOP.set(this);
@@ -237,6 +262,10 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 
 	// endregion
 
+	private static ScheduledTaskQueue createScheduledTaskQueue() {
+		return DEFAULT_TIMING_WHEEL ? TimingWheelScheduledTaskQueue.create() : PriorityScheduledTaskQueue.create();
+	}
+
 	@Nullable
 	public Selector getSelector() {
 		return selector;
@@ -364,6 +393,8 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		long timeAfterBusinessLogic = 0;
 		while (isAlive()) {
 			try {
+				// concurrent tasks are checked after the flag is reset, so that no wakeup is lost
+				wakeupPending.set(false);
 				long selectTimeout = getSelectTimeout();
 				if (inspector != null) inspector.onUpdateSelectorSelectTimeout(selectTimeout);
 				if (selectTimeout <= 0) {
@@ -378,6 +409,10 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 			} catch (IOException e) {
 				recordIoError(e, selector);
 			}
+			if (wakeupPending.getAndSet(true)) {
+				wakeups++;
+				if (inspector != null) inspector.onSelectorWakeup();
+			}
 
 			timeAfterSelectorSelect = refreshTimestampAndGet();
 			int keys = setWasOptimized ?
@@ -421,17 +456,12 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		return Math.min(getTimeBeforeExecution(scheduledTasks), getTimeBeforeExecution(backgroundTasks));
 	}
 
-	private long getTimeBeforeExecution(PriorityQueue<ScheduledRunnable> taskQueue) {
-		while (!taskQueue.isEmpty()) {
-			ScheduledRunnable first = taskQueue.peek();
-			assert first != null; // unreachable condition
-			if (first.isCancelled()) {
-				taskQueue.poll();
-				continue;
-			}
-			return first.getTimestamp() - currentTimeMillis();
+	private long getTimeBeforeExecution(ScheduledTaskQueue taskQueue) {
+		long nextTimestamp = taskQueue.nextTimestamp();
+		if (nextTimestamp == Long.MAX_VALUE) {
+			return idleInterval.toMillis();
 		}
-		return idleInterval.toMillis();
+		return nextTimestamp - currentTimeMillis();
 	}
 
 	/**
@@ -639,7 +669,7 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		return executeScheduledTasks(backgroundTasks);
 	}
 
-	private int executeScheduledTasks(PriorityQueue<ScheduledRunnable> taskQueue) {
+	private int executeScheduledTasks(ScheduledTaskQueue taskQueue) {
 		long startTimestamp = timestamp;
 		boolean background = taskQueue == backgroundTasks;
 
@@ -647,17 +677,9 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		Stopwatch sw = monitoring ? Stopwatch.createUnstarted() : null;
 
 		for (; ; ) {
-			ScheduledRunnable peeked = taskQueue.peek();
+			ScheduledRunnable peeked = taskQueue.poll(currentTimeMillis());
 			if (peeked == null)
 				break;
-			if (peeked.isCancelled()) {
-				taskQueue.poll();
-				continue;
-			}
-			if (peeked.getTimestamp() > currentTimeMillis()) {
-				break;
-			}
-			taskQueue.poll();
 
 			Runnable runnable = peeked.getRunnable();
 			if (sw != null) {
@@ -686,6 +708,7 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 			long loopTime = refreshTimestampAndGet() - startTimestamp;
 			if (inspector != null) inspector.onUpdateScheduledTasksStats(scheduledTasks, loopTime, background);
 		}
+		if (inspector != null) inspector.onUpdateScheduledTaskQueue(taskQueue, background);
 
 		return scheduledTasks;
 	}
@@ -959,7 +982,7 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	@Override
 	public void execute(@NotNull @Async.Schedule Runnable runnable) {
 		concurrentTasks.offer(runnable);
-		if (selector != null) {
+		if (selector != null && !wakeupPending.get() && wakeupPending.compareAndSet(false, true)) {
 			selector.wakeup();
 		}
 	}
@@ -997,8 +1020,8 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 	@NotNull
 	private ScheduledRunnable addScheduledTask(long timestamp, Runnable runnable, boolean background) {
 		ScheduledRunnable scheduledTask = ScheduledRunnable.create(timestamp, runnable);
-		PriorityQueue<ScheduledRunnable> taskQueue = background ? backgroundTasks : scheduledTasks;
-		taskQueue.offer(scheduledTask);
+		ScheduledTaskQueue taskQueue = background ? backgroundTasks : scheduledTasks;
+		taskQueue.add(scheduledTask);
 		return scheduledTask;
 	}
 
@@ -1167,6 +1190,11 @@ public final class Eventloop implements Runnable, EventloopExecutor, Scheduler,
 		return threadPriority;
 	}
 
+	@JmxAttribute(description = "number of times the selector has been woken up by the concurrent tasks")
+	public long getWakeups() {
+		return wakeups;
+	}
+
 	@JmxAttribute
 	public boolean getKeepAlive() {
 		return keepAlive;
@@ -24,10 +24,14 @@ public interface EventloopInspector extends BaseInspector<EventloopInspector> {
 
 	void onUpdateConcurrentTasksStats(int newConcurrentTasks, long loopTime);
 
+	void onSelectorWakeup();
+
 	void onUpdateScheduledTaskDuration(@NotNull Runnable runnable, @Nullable Stopwatch sw, boolean background);
 
 	void onUpdateScheduledTasksStats(int newScheduledTasks, long loopTime, boolean background);
 
+	void onUpdateScheduledTaskQueue(@NotNull ScheduledTaskQueue queue, boolean background);
+
 	void onFatalError(@NotNull Throwable e, Object causedObject);
 
 	void onScheduledTaskOverdue(int overdue, boolean background);
@@ -47,6 +47,7 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 	private final EventStats idleLoops;
 	private final EventStats idleLoopsWaitingExternalTask;
 	private final EventStats selectOverdues;
+	private final EventStats selectorWakeups;
 
 	private EventloopStats(@Nullable EventloopInspector next) {
 		super(next);
@@ -63,6 +64,7 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 		idleLoops = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
 		idleLoopsWaitingExternalTask = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
 		selectOverdues = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
+		selectorWakeups = EventStats.create(DEFAULT_SMOOTHING_WINDOW);
 	}
 
 	public static EventloopStats create() {
@@ -176,6 +178,14 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 		}
 	}
 
+	@Override
+	public void onSelectorWakeup() {
+		selectorWakeups.recordEvent();
+		if (next != null) {
+			next.onSelectorWakeup();
+		}
+	}
+
 	@Override
 	public void onUpdateScheduledTaskDuration(@NotNull Runnable runnable, @Nullable Stopwatch sw, boolean background) {
 		if (background) {
@@ -202,6 +212,19 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 		}
 	}
 
+	@Override
+	public void onUpdateScheduledTaskQueue(@NotNull ScheduledTaskQueue queue, boolean background) {
+		ScheduledTaskStats stats = background ? tasks.background : tasks.scheduled;
+		stats.queueSize.recordValue(queue.size());
+		if (stats.queue != queue) {
+			stats.queue = queue;
+			stats.queueType = queue.getClass().getSimpleName();
+		}
+		if (next != null) {
+			next.onUpdateScheduledTaskQueue(queue, background);
+		}
+	}
+
 	@Override
 	public void onFatalError(@NotNull Throwable e, Object causedObject) {
 		fatalErrors.recordException(e, causedObject);
@@ -283,6 +306,11 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 		return selectOverdues;
 	}
 
+	@JmxAttribute(description = "selector wakeups caused by the concurrent tasks")
+	public EventStats getSelectorWakeups() {
+		return selectorWakeups;
+	}
+
 	// endregion
 
 	// region helper classes for stats grouping
@@ -362,15 +390,32 @@ public final class EventloopStats extends ForwardingInspector<EventloopInspector
 
 	public static final class ScheduledTaskStats extends TaskStats {
 		private final ValueStats overdues;
+		private final ValueStats queueSize;
+		@Nullable
+		private ScheduledTaskQueue queue;
+		@Nullable
+		private String queueType;
 
 		ScheduledTaskStats() {
 			overdues = ValueStats.create(DEFAULT_SMOOTHING_WINDOW).withHistogram(POWERS_OF_TWO).withRate().withUnit("milliseconds");
+			queueSize = ValueStats.create(DEFAULT_SMOOTHING_WINDOW).withHistogram(POWERS_OF_TWO);
 		}
 
 		@JmxAttribute(extraSubAttributes = "histogram")
 		public ValueStats getOverdues() {
 			return overdues;
 		}
+
+		@JmxAttribute(extraSubAttributes = "histogram")
+		public ValueStats getQueueSize() {
+			return queueSize;
+		}
+
+		@JmxAttribute
+		@Nullable
+		public String getQueueType() {
+			return queueType;
+		}
 	}
 
 	public static final class Keys {
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.eventloop;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.PriorityQueue;
+
+/**
+ * A {@link ScheduledTaskQueue} which is backed by a binary heap.
+ * <p>
+ * Adding a task takes O(log n) time, cancelled tasks are not removed
+ * from the heap until they reach its head.
+ */
+public final class PriorityScheduledTaskQueue implements ScheduledTaskQueue {
+	private final PriorityQueue<ScheduledRunnable> queue = new PriorityQueue<>();
+
+	private PriorityScheduledTaskQueue() {
+	}
+
+	public static PriorityScheduledTaskQueue create() {
+		return new PriorityScheduledTaskQueue();
+	}
+
+	@Override
+	public void add(@NotNull ScheduledRunnable task) {
+		queue.offer(task);
+	}
+
+	@Override
+	public void remove(@NotNull ScheduledRunnable task) {
+	}
+
+	@Nullable
+	@Override
+	public ScheduledRunnable poll(long currentTimestamp) {
+		ScheduledRunnable first = peek();
+		if (first == null || first.getTimestamp() > currentTimestamp) {
+			return null;
+		}
+		return queue.poll();
+	}
+
+	@Override
+	public long nextTimestamp() {
+		ScheduledRunnable first = peek();
+		return first != null ? first.getTimestamp() : Long.MAX_VALUE;
+	}
+
+	@Nullable
+	private ScheduledRunnable peek() {
+		for (; ; ) {
+			ScheduledRunnable first = queue.peek();
+			if (first == null || !first.isCancelled()) {
+				return first;
+			}
+			queue.poll();
+		}
+	}
+
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	@Override
+	public String toString() {
+		return "PriorityScheduledTaskQueue{size=" + queue.size() + '}';
+	}
+}
@@ -17,6 +17,7 @@
 package io.datakernel.eventloop;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public final class ScheduledRunnable implements Comparable<ScheduledRunnable> {
 	private final long timestamp;
@@ -24,6 +25,15 @@ public final class ScheduledRunnable implements Comparable<ScheduledRunnable> {
 	private boolean cancelled;
 	private boolean complete;
 
+	// used by the queues which remove cancelled tasks eagerly
+	@Nullable
+	ScheduledTaskQueue queue;
+	@Nullable
+	ScheduledRunnable prev;
+	@Nullable
+	ScheduledRunnable next;
+	int bucket;
+
 	// region builders
 	private ScheduledRunnable(long timestamp, @NotNull Runnable runnable) {
 		this.timestamp = timestamp;
@@ -37,6 +47,9 @@ public final class ScheduledRunnable implements Comparable<ScheduledRunnable> {
 
 	@SuppressWarnings("AssignmentToNull") // runnable has been cancelled
 	public void cancel() {
+		if (queue != null) {
+			queue.remove(this);
+		}
 		cancelled = true;
 		runnable = null;
 	}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.eventloop;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A queue of {@link ScheduledRunnable scheduled tasks} which are executed
+ * when the time of the {@link Eventloop} reaches their timestamps.
+ * <p>
+ * Each eventloop owns two queues - for the scheduled and for the background tasks.
+ * An implementation can be selected with {@link Eventloop#withScheduledTaskQueue(java.util.function.Supplier)}.
+ * <p>
+ * All of the methods are called only from the eventloop thread.
+ */
+public interface ScheduledTaskQueue {
+	void add(@NotNull ScheduledRunnable task);
+
+	/**
+	 * Removes a cancelled task from this queue, implementations may remove cancelled tasks lazily
+	 */
+	void remove(@NotNull ScheduledRunnable task);
+
+	/**
+	 * Retrieves and removes the next task which should be executed at the given timestamp
+	 *
+	 * @param currentTimestamp current time of the eventloop
+	 * @return the task or {@code null} if there are no tasks to be executed yet
+	 */
+	@Nullable
+	ScheduledRunnable poll(long currentTimestamp);
+
+	/**
+	 * Returns a timestamp before which none of the tasks in this queue should be executed,
+	 * it is used to compute a timeout of the selector.
+	 *
+	 * @return the timestamp or {@link Long#MAX_VALUE} if this queue is empty
+	 */
+	long nextTimestamp();
+
+	int size();
+
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+}
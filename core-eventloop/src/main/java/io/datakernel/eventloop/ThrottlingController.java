@@ -257,6 +257,10 @@ public final class ThrottlingController extends AbstractInspector<EventloopInspe
 	public void onUpdateConcurrentTaskDuration(@NotNull Runnable runnable, @Nullable Stopwatch sw) {
 	}
 
+	@Override
+	public void onSelectorWakeup() {
+	}
+
 	@Override
 	public void onUpdateScheduledTaskDuration(@NotNull Runnable runnable, @Nullable Stopwatch sw, boolean background) {
 	}
@@ -265,6 +269,10 @@ public final class ThrottlingController extends AbstractInspector<EventloopInspe
 	public void onUpdateScheduledTasksStats(int newTasks, long loopTime, boolean background) {
 	}
 
+	@Override
+	public void onUpdateScheduledTaskQueue(@NotNull ScheduledTaskQueue queue, boolean background) {
+	}
+
 	@Override
 	public void onFatalError(@NotNull Throwable e, Object causedObject) {
 	}
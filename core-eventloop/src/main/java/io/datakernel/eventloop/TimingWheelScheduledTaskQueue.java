@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.datakernel.eventloop;
+
+import io.datakernel.common.ApplicationSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.common.Preconditions.checkArgument;
+import static java.util.Comparator.naturalOrder;
+
+/**
+ * A {@link ScheduledTaskQueue} which is backed by a hashed timing wheel.
+ * <p>
+ * The time is divided into ticks, a task is put to the bucket of the tick at which it becomes due
+ * (modulo the size of the wheel), so adding and cancelling a task takes O(1) time.
+ * Buckets are intrusive doubly-linked lists of {@link ScheduledRunnable ScheduledRunnables},
+ * so no additional objects are allocated per task.
+ * <p>
+ * Only the tasks which become due within a rotation are kept in the wheel, so that each bucket holds
+ * the tasks of a single tick, and the next timestamp is that of the nearest task rather than of the
+ * nearest non-empty bucket. Longer timeouts wait in a second wheel, whose buckets span half a rotation,
+ * and are moved to the first one half a rotation before their buckets are due.
+ * <p>
+ * Tasks are executed no earlier than their timestamps, but may be delayed by up to one tick.
+ * Due tasks are executed in the order of their timestamps, tasks with equal timestamps
+ * are executed in the order they were scheduled.
+ * <p>
+ * This queue suits well eventloops with lots of timeouts which are mostly cancelled before they expire.
+ */
+public final class TimingWheelScheduledTaskQueue implements ScheduledTaskQueue {
+	public static final Duration DEFAULT_TICK = ApplicationSettings.getDuration(TimingWheelScheduledTaskQueue.class, "tick", Duration.ofMillis(1));
+	public static final int DEFAULT_WHEEL_SIZE = ApplicationSettings.getInt(TimingWheelScheduledTaskQueue.class, "wheelSize", 1024);
+
+	private static final long NOT_STARTED = Long.MIN_VALUE;
+
+	private final long tickMillis;
+	private final int mask;
+
+	// ticks of a bucket of the second wheel
+	private final long segmentTicks;
+
+	// buckets of the first wheel, then buckets of the second wheel, then a list of expired tasks
+	private final ScheduledRunnable[] heads;
+	private final ScheduledRunnable[] tails;
+	private final int segments;
+	private final int expired;
+
+	private long processedTick = NOT_STARTED;
+	// lower bounds of the nearest tick of the first wheel and of the nearest segment of the second one
+	private long nextTick = Long.MAX_VALUE;
+	private long nextSegment = Long.MAX_VALUE;
+	private int size;
+
+	// region builders
+	private TimingWheelScheduledTaskQueue(long tickMillis, int wheelSize) {
+		this.tickMillis = tickMillis;
+		this.mask = wheelSize - 1;
+		this.segmentTicks = Math.max(wheelSize / 2, 1);
+		this.heads = new ScheduledRunnable[wheelSize * 2 + 1];
+		this.tails = new ScheduledRunnable[wheelSize * 2 + 1];
+		this.segments = wheelSize;
+		this.expired = wheelSize * 2;
+	}
+
+	public static TimingWheelScheduledTaskQueue create() {
+		return create(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Creates a new timing wheel
+	 *
+	 * @param tick      duration of a single tick, at least 1 millisecond
+	 * @param wheelSize number of buckets of each of the two wheels, a power of two
+	 */
+	public static TimingWheelScheduledTaskQueue create(@NotNull Duration tick, int wheelSize) {
+		checkArgument(tick.toMillis() > 0, "Tick should be at least 1 millisecond");
+		checkArgument(wheelSize > 0 && Integer.bitCount(wheelSize) == 1, "Wheel size should be a positive power of two");
+		return new TimingWheelScheduledTaskQueue(tick.toMillis(), wheelSize);
+	}
+	// endregion
+
+	@Override
+	public void add(@NotNull ScheduledRunnable task) {
+		long deadlineTick = deadlineTick(task);
+		if (deadlineTick <= processedTick) {
+			linkExpired(task);
+		} else {
+			linkPending(task, deadlineTick);
+		}
+		task.queue = this;
+		size++;
+	}
+
+	@Override
+	public void remove(@NotNull ScheduledRunnable task) {
+		assert task.queue == this;
+		unlink(task);
+		task.queue = null;
+		size--;
+	}
+
+	@Nullable
+	@Override
+	public ScheduledRunnable poll(long currentTimestamp) {
+		advance(Math.floorDiv(currentTimestamp, tickMillis));
+		ScheduledRunnable task = heads[expired];
+		if (task == null || task.getTimestamp() > currentTimestamp) {
+			return null;
+		}
+		unlink(task);
+		task.queue = null;
+		size--;
+		return task;
+	}
+
+	@Override
+	public long nextTimestamp() {
+		ScheduledRunnable task = heads[expired];
+		if (task != null) {
+			return task.getTimestamp();
+		}
+		if (size == 0) {
+			return Long.MAX_VALUE;
+		}
+		if (processedTick == NOT_STARTED) {
+			// all of the tasks are in the first wheel until the first poll
+			return nextTick * tickMillis;
+		}
+		if (nextTick <= processedTick) {
+			nextTick = findNextTick();
+		}
+		if (nextSegment <= segment(processedTick) + 1) {
+			nextSegment = findNextSegment();
+		}
+		long tick = nextSegment == Long.MAX_VALUE ? nextTick : Math.min(nextTick, cascadeTick(nextSegment));
+		return tick == Long.MAX_VALUE ? Long.MAX_VALUE : tick * tickMillis;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private long deadlineTick(ScheduledRunnable task) {
+		return -Math.floorDiv(-task.getTimestamp(), tickMillis);
+	}
+
+	private long segment(long tick) {
+		return Math.floorDiv(tick, segmentTicks);
+	}
+
+	/**
+	 * Returns the tick at which the tasks of a segment are moved to the first wheel,
+	 * it is the first tick of the previous segment
+	 */
+	private long cascadeTick(long segment) {
+		return (segment - 1) * segmentTicks;
+	}
+
+	private void linkPending(ScheduledRunnable task, long deadlineTick) {
+		if (processedTick == NOT_STARTED || segment(deadlineTick) <= segment(processedTick) + 1) {
+			link(task, (int) deadlineTick & mask);
+			if (deadlineTick < nextTick) {
+				nextTick = deadlineTick;
+			}
+		} else {
+			long segment = segment(deadlineTick);
+			link(task, segments + ((int) segment & mask));
+			if (segment < nextSegment) {
+				nextSegment = segment;
+			}
+		}
+	}
+
+	private void advance(long currentTick) {
+		if (currentTick <= processedTick) {
+			return;
+		}
+		if (processedTick == NOT_STARTED || currentTick - processedTick > mask) {
+			// the whole wheel has been passed, all of the pending tasks are redistributed
+			List<ScheduledRunnable> pending = new ArrayList<>();
+			for (int bucket = 0; bucket < expired; bucket++) {
+				ScheduledRunnable task = heads[bucket];
+				while (task != null) {
+					ScheduledRunnable next = task.next;
+					unlink(task);
+					pending.add(task);
+					task = next;
+				}
+			}
+			processedTick = currentTick;
+			nextTick = Long.MAX_VALUE;
+			nextSegment = Long.MAX_VALUE;
+			pending.sort(naturalOrder());
+			for (ScheduledRunnable task : pending) {
+				long deadlineTick = deadlineTick(task);
+				if (deadlineTick <= currentTick) {
+					linkExpired(task);
+				} else {
+					linkPending(task, deadlineTick);
+				}
+			}
+			return;
+		}
+		for (long tick = processedTick + 1; tick <= currentTick; tick++) {
+			if (Math.floorMod(tick, segmentTicks) == 0) {
+				cascade(segment(tick) + 1);
+			}
+			expireBucket((int) tick & mask, currentTick);
+		}
+		processedTick = currentTick;
+	}
+
+	/**
+	 * Moves the tasks of a segment from the second wheel to the first one,
+	 * the tasks of later segments which share the bucket stay where they are
+	 */
+	private void cascade(long segment) {
+		ScheduledRunnable task = heads[segments + ((int) segment & mask)];
+		while (task != null) {
+			ScheduledRunnable next = task.next;
+			long deadlineTick = deadlineTick(task);
+			if (segment(deadlineTick) == segment) {
+				unlink(task);
+				link(task, (int) deadlineTick & mask);
+				if (deadlineTick < nextTick) {
+					nextTick = deadlineTick;
+				}
+			}
+			task = next;
+		}
+	}
+
+	private void expireBucket(int bucket, long currentTick) {
+		ScheduledRunnable task = heads[bucket];
+		while (task != null) {
+			ScheduledRunnable next = task.next;
+			if (deadlineTick(task) <= currentTick) {
+				unlink(task);
+				linkExpired(task);
+			}
+			task = next;
+		}
+	}
+
+	/**
+	 * Finds the first non-empty bucket of the first wheel after the processed tick,
+	 * its tasks become due at the tick of that bucket
+	 */
+	private long findNextTick() {
+		for (long tick = processedTick + 1; tick <= processedTick + mask + 1; tick++) {
+			if (heads[(int) tick & mask] != null) {
+				return tick;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Finds the first non-empty bucket of the second wheel after the segment which is cascaded last,
+	 * none of the tasks in the second wheel belong to an earlier segment
+	 */
+	private long findNextSegment() {
+		long segment = segment(processedTick) + 1;
+		for (long next = segment + 1; next <= segment + mask + 1; next++) {
+			if (heads[segments + ((int) next & mask)] != null) {
+				return next;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	private void link(ScheduledRunnable task, int bucket) {
+		ScheduledRunnable tail = tails[bucket];
+		task.bucket = bucket;
+		task.prev = tail;
+		task.next = null;
+		if (tail == null) {
+			heads[bucket] = task;
+		} else {
+			tail.next = task;
+		}
+		tails[bucket] = task;
+	}
+
+	/**
+	 * Keeps the list of expired tasks sorted by timestamps, most of the tasks
+	 * are expired in order, so they are just appended to the tail of the list
+	 */
+	private void linkExpired(ScheduledRunnable task) {
+		ScheduledRunnable prev = tails[expired];
+		while (prev != null && prev.getTimestamp() > task.getTimestamp()) {
+			prev = prev.prev;
+		}
+		if (prev == tails[expired]) {
+			link(task, expired);
+			return;
+		}
+		ScheduledRunnable next = prev == null ? heads[expired] : prev.next;
+		assert next != null;
+		task.bucket = expired;
+		task.prev = prev;
+		task.next = next;
+		next.prev = task;
+		if (prev == null) {
+			heads[expired] = task;
+		} else {
+			prev.next = task;
+		}
+	}
+
+	private void unlink(ScheduledRunnable task) {
+		int bucket = task.bucket;
+		ScheduledRunnable prev = task.prev;
+		ScheduledRunnable next = task.next;
+		if (prev == null) {
+			heads[bucket] = next;
+		} else {
+			prev.next = next;
+		}
+		if (next == null) {
+			tails[bucket] = prev;
+		} else {
+			next.prev = prev;
+		}
+		task.prev = null;
+		task.next = null;
+	}
+
+	@Override
+	public String toString() {
+		return "TimingWheelScheduledTaskQueue{size=" + size + ", tick=" + tickMillis + "ms, wheelSize=" + (mask + 1) + '}';
+	}
+}
@@ -0,0 +1,119 @@
+package io.datakernel.eventloop.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Unbounded lock-free multi-producer single-consumer queue.
+ * <p>
+ * Items are stored in linked array chunks, so unlike {@link java.util.concurrent.ConcurrentLinkedQueue}
+ * no node is allocated per item. A producer claims a slot with a single atomic increment
+ * and then publishes an item into that slot, the consumer reads slots in order
+ * without any CAS operations.
+ * <p>
+ * {@link #offer(Object)} may be called from any thread, all of the other methods
+ * must be called only from a single consumer thread.
+ */
+public final class MpscQueue<T> {
+	public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT =
+			AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<MpscQueue, Chunk> PRODUCER_CHUNK =
+			AtomicReferenceFieldUpdater.newUpdater(MpscQueue.class, Chunk.class, "producerChunk");
+
+	private static final class Chunk<T> {
+		final long base;
+		final AtomicReferenceArray<T> items;
+		@Nullable
+		volatile Chunk<T> next;
+
+		Chunk(long base, int size) {
+			this.base = base;
+			this.items = new AtomicReferenceArray<>(size);
+		}
+	}
+
+	private final int chunkSize;
+	private final AtomicLong producerIndex = new AtomicLong();
+	private volatile Chunk<T> producerChunk;
+
+	private Chunk<T> consumerChunk;
+	private long consumerIndex;
+
+	public MpscQueue() {
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	public MpscQueue(int chunkSize) {
+		this.chunkSize = chunkSize;
+		this.producerChunk = this.consumerChunk = new Chunk<>(0, chunkSize);
+	}
+
+	@SuppressWarnings("unchecked")
+	public void offer(@NotNull T item) {
+		// producer chunk is read prior to claiming an index, so it is never ahead of the claimed index
+		Chunk<T> hint = producerChunk;
+		long index = producerIndex.getAndIncrement();
+		Chunk<T> chunk = hint;
+		while (index >= chunk.base + chunkSize) {
+			Chunk<T> next = chunk.next;
+			if (next == null) {
+				Chunk<T> newChunk = new Chunk<>(chunk.base + chunkSize, chunkSize);
+				next = NEXT.compareAndSet(chunk, null, newChunk) ? newChunk : chunk.next;
+				assert next != null;
+			}
+			chunk = next;
+		}
+		if (chunk != hint) {
+			PRODUCER_CHUNK.compareAndSet(this, hint, chunk);
+		}
+		chunk.items.lazySet((int) (index - chunk.base), item);
+	}
+
+	/**
+	 * Retrieves and removes the head of this queue.
+	 * <p>
+	 * Returns {@code null} if this queue is empty or if the head item is claimed,
+	 * but not yet published by some producer.
+	 */
+	@Nullable
+	public T poll() {
+		Chunk<T> chunk = consumerChunk;
+		int offset = (int) (consumerIndex - chunk.base);
+		if (offset == chunkSize) {
+			Chunk<T> next = chunk.next;
+			if (next == null) {
+				return null;
+			}
+			consumerChunk = chunk = next;
+			offset = 0;
+		}
+		T item = chunk.items.get(offset);
+		if (item == null) {
+			return null;
+		}
+		chunk.items.lazySet(offset, null);
+		consumerIndex++;
+		return item;
+	}
+
+	public boolean isEmpty() {
+		return producerIndex.get() == consumerIndex;
+	}
+
+	/**
+	 * Returns an estimate of the number of items in this queue,
+	 * may be called from any thread
+	 */
+	public int size() {
+		return (int) Math.max(0, producerIndex.get() - consumerIndex);
+	}
+}
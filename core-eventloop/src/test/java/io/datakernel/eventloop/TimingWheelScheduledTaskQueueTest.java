@@ -0,0 +1,139 @@
+package io.datakernel.eventloop;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public final class TimingWheelScheduledTaskQueueTest {
+	private static final Runnable NOOP = () -> {};
+
+	@Test
+	public void testTasksAreNotExecutedEarly() {
+		TimingWheelScheduledTaskQueue queue = TimingWheelScheduledTaskQueue.create(Duration.ofMillis(10), 16);
+		ScheduledRunnable task = ScheduledRunnable.create(1015, NOOP);
+		queue.add(task);
+		assertEquals(1020, queue.nextTimestamp());
+
+		assertNull(queue.poll(1000));
+		assertNull(queue.poll(1019));
+		assertSame(task, queue.poll(1020));
+		assertTrue(queue.isEmpty());
+		assertEquals(Long.MAX_VALUE, queue.nextTimestamp());
+	}
+
+	@Test
+	public void testOrder() {
+		TimingWheelScheduledTaskQueue queue = TimingWheelScheduledTaskQueue.create(Duration.ofMillis(1), 8);
+		queue.poll(0);
+		List<ScheduledRunnable> tasks = new ArrayList<>();
+		for (long timestamp : asList(5L, 3L, 100L, 3L, 7L, 1L)) {
+			ScheduledRunnable task = ScheduledRunnable.create(timestamp, NOOP);
+			tasks.add(task);
+			queue.add(task);
+		}
+		assertEquals(1, queue.nextTimestamp());
+
+		assertEquals(asList(tasks.get(5), tasks.get(1), tasks.get(3), tasks.get(0), tasks.get(4)), pollAll(queue, 7));
+		assertEquals(1, queue.size());
+		// the task is moved to the first wheel half a rotation before its segment
+		assertEquals(96, queue.nextTimestamp());
+		assertTrue(pollAll(queue, 99).isEmpty());
+		assertEquals(asList(tasks.get(2)), pollAll(queue, 100));
+	}
+
+	@Test
+	public void testCancel() {
+		TimingWheelScheduledTaskQueue queue = TimingWheelScheduledTaskQueue.create(Duration.ofMillis(1), 8);
+		ScheduledRunnable first = ScheduledRunnable.create(10, NOOP);
+		ScheduledRunnable second = ScheduledRunnable.create(10, NOOP);
+		ScheduledRunnable third = ScheduledRunnable.create(10, NOOP);
+		queue.add(first);
+		queue.add(second);
+		queue.add(third);
+
+		second.cancel();
+		assertEquals(2, queue.size());
+		assertEquals(asList(first, third), pollAll(queue, 10));
+
+		ScheduledRunnable expired = ScheduledRunnable.create(5, NOOP);
+		queue.add(expired);
+		expired.cancel();
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll(20));
+	}
+
+	@Test
+	public void testLongTimeoutsDoNotWakeUpEarly() {
+		TimingWheelScheduledTaskQueue queue = TimingWheelScheduledTaskQueue.create(Duration.ofMillis(1), 16);
+		queue.poll(0);
+		// every bucket of the first wheel would hold a task
+		for (int i = 0; i < 1000; i++) {
+			queue.add(ScheduledRunnable.create(1000 + i, NOOP));
+		}
+
+		long now;
+		int wakeups = 0;
+		do {
+			now = queue.nextTimestamp();
+			wakeups++;
+		} while (queue.poll(now) == null);
+		assertEquals(1000, now);
+		assertEquals(2, wakeups);
+
+		assertEquals(999, pollAll(queue, 1998).size() + 1);
+		assertEquals(1999, queue.nextTimestamp());
+	}
+
+	@Test
+	public void testMatchesPriorityQueue() {
+		Random random = new Random(0);
+		TimingWheelScheduledTaskQueue wheel = TimingWheelScheduledTaskQueue.create(Duration.ofMillis(1), 64);
+		PriorityScheduledTaskQueue heap = PriorityScheduledTaskQueue.create();
+		List<ScheduledRunnable[]> scheduled = new ArrayList<>();
+
+		long now = 1_000_000;
+		for (int i = 0; i < 10_000; i++) {
+			now += random.nextInt(random.nextInt(10) == 0 ? 200 : 3);
+			for (int j = random.nextInt(5); j > 0; j--) {
+				long timestamp = now + random.nextInt(random.nextBoolean() ? 10 : 500) - 2;
+				ScheduledRunnable[] pair = {ScheduledRunnable.create(timestamp, NOOP), ScheduledRunnable.create(timestamp, NOOP)};
+				wheel.add(pair[0]);
+				heap.add(pair[1]);
+				scheduled.add(pair);
+			}
+			if (!scheduled.isEmpty() && random.nextBoolean()) {
+				ScheduledRunnable[] pair = scheduled.remove(random.nextInt(scheduled.size()));
+				pair[0].cancel();
+				pair[1].cancel();
+			}
+			assertTrue(Math.min(wheel.nextTimestamp(), now) <= heap.nextTimestamp());
+
+			List<Long> fromWheel = timestamps(pollAll(wheel, now));
+			List<Long> fromHeap = timestamps(pollAll(heap, now));
+			assertEquals(fromHeap, fromWheel);
+		}
+	}
+
+	private static List<ScheduledRunnable> pollAll(ScheduledTaskQueue queue, long now) {
+		List<ScheduledRunnable> result = new ArrayList<>();
+		ScheduledRunnable task;
+		while ((task = queue.poll(now)) != null) {
+			result.add(task);
+		}
+		return result;
+	}
+
+	private static List<Long> timestamps(List<ScheduledRunnable> tasks) {
+		List<Long> result = new ArrayList<>();
+		for (ScheduledRunnable task : tasks) {
+			result.add(task.getTimestamp());
+		}
+		return result;
+	}
+}
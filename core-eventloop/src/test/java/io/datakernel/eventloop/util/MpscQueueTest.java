@@ -0,0 +1,62 @@
+package io.datakernel.eventloop.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public final class MpscQueueTest {
+	@Test
+	public void testOrderAcrossChunks() {
+		MpscQueue<Integer> queue = new MpscQueue<>(4);
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+
+		for (int i = 0; i < 10; i++) {
+			queue.offer(i);
+		}
+		assertEquals(10, queue.size());
+		for (int i = 0; i < 10; i++) {
+			assertEquals(Integer.valueOf(i), queue.poll());
+		}
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testMultipleProducers() throws InterruptedException {
+		int producers = 4;
+		int itemsPerProducer = 200_000;
+		MpscQueue<long[]> queue = new MpscQueue<>(16);
+
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			int producer = p;
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < itemsPerProducer; i++) {
+					queue.offer(new long[]{producer, i});
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		long[] expected = new long[producers];
+		int received = 0;
+		while (received != producers * itemsPerProducer) {
+			long[] item = queue.poll();
+			if (item == null) {
+				continue;
+			}
+			assertEquals(expected[(int) item[0]]++, item[1]);
+			received++;
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(queue.isEmpty());
+		assertNull(queue.poll());
+	}
+}
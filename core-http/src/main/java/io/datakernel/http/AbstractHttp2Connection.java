@@ -0,0 +1,1121 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.common.MemSize;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.csp.AbstractChannelSupplier;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.http.hpack.HpackDecoder;
+import io.datakernel.http.hpack.HpackEncoder;
+import io.datakernel.http.stream.BufsConsumerGzipDeflater;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+import static io.datakernel.http.Http2Exception.*;
+import static io.datakernel.http.HttpHeaders.*;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * A base class for HTTP/2 connections (RFC 7540).
+ * <p>
+ * It implements binary framing, HPACK header compression, stream multiplexing
+ * and per-stream and per-connection flow control. Frames are parsed directly from the
+ * read queue, DATA frames payloads are handed to the body streams as zero-copy slices.
+ * Small outgoing frames of all of the streams are accumulated in a single buffer
+ * which is flushed once per eventloop tick, large DATA payloads are written as is.
+ * <p>
+ * Stream priorities and server push are not supported: PRIORITY frames are ignored
+ * and push is disabled in the local settings.
+ */
+@SuppressWarnings("PointlessBitwiseExpression")
+abstract class AbstractHttp2Connection extends AbstractHttpConnection {
+	public static final MemSize INITIAL_WINDOW_SIZE = ApplicationSettings.getMemSize(AbstractHttp2Connection.class, "initialWindowSize", MemSize.megabytes(1));
+	public static final int MAX_CONCURRENT_STREAMS = ApplicationSettings.getInt(AbstractHttp2Connection.class, "maxConcurrentStreams", 256);
+
+	public static final Http2Exception CONNECTION_CLOSED = new Http2Exception(CANCEL, "Connection closed");
+	public static final Http2Exception STREAM_CANCELLED = new Http2Exception(CANCEL, "Stream cancelled");
+	public static final Http2Exception MALFORMED_MESSAGE = new Http2Exception(PROTOCOL_ERROR, "Malformed HTTP/2 message");
+
+	static final byte[] PREFACE = encodeAscii("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+	static final int FRAME_HEADER_SIZE = 9;
+	static final int DEFAULT_WINDOW_SIZE = 65535;
+	static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+	static final int MAX_MAX_FRAME_SIZE = 16777215;
+
+	// frame types
+	static final int DATA = 0x0;
+	static final int HEADERS = 0x1;
+	static final int PRIORITY = 0x2;
+	static final int RST_STREAM = 0x3;
+	static final int SETTINGS = 0x4;
+	static final int PUSH_PROMISE = 0x5;
+	static final int PING = 0x6;
+	static final int GOAWAY = 0x7;
+	static final int WINDOW_UPDATE = 0x8;
+	static final int CONTINUATION = 0x9;
+
+	// frame flags
+	static final int FLAG_END_STREAM = 0x1;
+	static final int FLAG_ACK = 0x1;
+	static final int FLAG_END_HEADERS = 0x4;
+	static final int FLAG_PADDED = 0x8;
+	static final int FLAG_PRIORITY = 0x20;
+
+	// settings
+	static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	static final int SETTINGS_ENABLE_PUSH = 0x2;
+	static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+	static final byte[] PSEUDO_METHOD = encodeAscii(":method");
+	static final byte[] PSEUDO_SCHEME = encodeAscii(":scheme");
+	static final byte[] PSEUDO_AUTHORITY = encodeAscii(":authority");
+	static final byte[] PSEUDO_PATH = encodeAscii(":path");
+	static final byte[] PSEUDO_STATUS = encodeAscii(":status");
+
+	static final HttpHeader KEEP_ALIVE_HEADER = HttpHeaders.of("Keep-Alive");
+	static final HttpHeader PROXY_CONNECTION = HttpHeaders.of("Proxy-Connection");
+
+	private static final byte[] CONTENT_ENCODING_NAME = encodeAscii("content-encoding");
+	private static final byte[] CONTENT_LENGTH_NAME = encodeAscii("content-length");
+	private static final byte[] ZERO = encodeAscii("0");
+
+	private static final int MAX_HEADER_BLOCK_SIZE = MAX_HEADERS * MAX_HEADER_LINE_SIZE_BYTES;
+	private static final int ZERO_COPY_THRESHOLD = 4096;
+	private static final int OUTPUT_BUFFER_SIZE = 16384;
+	private static final int HEADER_BLOCK_SIZE = 256;
+
+	final HpackEncoder encoder = HpackEncoder.create();
+	final HpackDecoder decoder = HpackDecoder.create(HpackEncoder.DEFAULT_TABLE_SIZE);
+
+	final Map<Integer, Stream> streams = new HashMap<>();
+	private final ArrayDeque<Stream> blockedStreams = new ArrayDeque<>();
+	private final ArrayList<Stream> receivedStreams = new ArrayList<>();
+	private final ArrayList<byte[]> headerFields = new ArrayList<>();
+
+	final int localInitialWindowSize = (int) min(max(INITIAL_WINDOW_SIZE.toLong(), DEFAULT_WINDOW_SIZE), Integer.MAX_VALUE);
+	private final int localConnectionWindowSize = localInitialWindowSize;
+
+	int remoteInitialWindowSize = DEFAULT_WINDOW_SIZE;
+	int remoteMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	int remoteMaxConcurrentStreams = Integer.MAX_VALUE;
+
+	private int sendWindow = DEFAULT_WINDOW_SIZE;
+	private int receiveWindow = DEFAULT_WINDOW_SIZE;
+	private int receiveConsumed;
+
+	private boolean prefaceReceived;
+
+	@Nullable
+	private ByteBuf headerBlock;
+	private int headerBlockStreamId;
+	private boolean headerBlockEndStream;
+
+	private ByteBuf output = ByteBuf.empty();
+	private boolean flushPosted;
+	private final Runnable flushTask = this::flush;
+
+	/**
+	 * Set once GOAWAY frame is either sent or received, no new streams are started after that
+	 */
+	boolean goAway;
+
+	@Nullable
+	private Throwable closeException;
+
+	final class Stream {
+		final int id;
+
+		int sendWindow = remoteInitialWindowSize;
+		int receiveWindow = localInitialWindowSize;
+		int consumed;
+
+		boolean remoteClosed;
+		boolean localClosed;
+		boolean reset;
+		boolean closed;
+		boolean dispatching;
+		boolean serving;
+
+		@Nullable
+		HttpMessage message;
+		@Nullable
+		SettablePromise<HttpResponse> responsePromise;
+
+		final ByteBufQueue received = new ByteBufQueue();
+		@Nullable
+		SettablePromise<ByteBuf> pendingGet;
+
+		boolean sending;
+		@Nullable
+		ByteBuf outboundBuf;
+		@Nullable
+		ChannelSupplier<ByteBuf> outbound;
+		boolean outboundRequested;
+		boolean blocked;
+
+		Stream(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public String toString() {
+			return "Stream{id=" + id +
+					", sendWindow=" + sendWindow +
+					", receiveWindow=" + receiveWindow +
+					", remoteClosed=" + remoteClosed +
+					", localClosed=" + localClosed +
+					", reset=" + reset +
+					'}';
+		}
+	}
+
+	private final class BodySupplier extends AbstractChannelSupplier<ByteBuf> {
+		private final Stream stream;
+
+		BodySupplier(Stream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		protected Promise<ByteBuf> doGet() {
+			if (!stream.received.isEmpty()) {
+				ByteBuf buf = stream.received.take();
+				onConsumed(stream, buf.readRemaining());
+				return Promise.of(buf);
+			}
+			if (stream.remoteClosed) return Promise.of(null);
+			if (stream.reset || AbstractHttp2Connection.this.isClosed()) return Promise.ofException(STREAM_CANCELLED);
+			SettablePromise<ByteBuf> pendingGet = new SettablePromise<>();
+			stream.pendingGet = pendingGet;
+			return pendingGet;
+		}
+
+		@Override
+		protected void onClosed(@NotNull Throwable e) {
+			SettablePromise<ByteBuf> pendingGet = stream.pendingGet;
+			if (pendingGet != null) {
+				stream.pendingGet = null;
+				pendingGet.setException(e);
+			}
+			if (!stream.remoteClosed && !stream.reset && !AbstractHttp2Connection.this.isClosed()) {
+				resetStream(stream, STREAM_CANCELLED);
+			}
+		}
+	}
+
+	AbstractHttp2Connection(Eventloop eventloop, AsyncTcpSocket socket, boolean expectPreface) {
+		super(eventloop, socket);
+		this.prefaceReceived = !expectPreface;
+	}
+
+	// region hooks
+	abstract void onHeaders(int streamId, List<byte[]> fields, boolean endStream) throws ParseException;
+
+	abstract void onMessageReceived(Stream stream);
+
+	abstract void onStreamClosed(Stream stream, @Nullable Throwable e);
+
+	abstract boolean isIdleStream(int streamId);
+
+	abstract int getLastStreamId();
+
+	abstract void onGoAway(int lastStreamId);
+
+	abstract void onActive();
+
+	abstract void onIdle();
+
+	abstract void onFramesRead();
+
+	abstract void onConnectionError(@NotNull Throwable e);
+
+	abstract void onConnectionClosed();
+	// endregion
+
+	// region HTTP/1.x callbacks
+	@Override
+	protected final void onStartLine(byte[] line, int limit) {
+		throw new AssertionError();
+	}
+
+	@Override
+	protected final void onHeaderBuf(ByteBuf buf) {
+		throw new AssertionError();
+	}
+
+	@Override
+	protected final void onHeader(HttpHeader header, byte[] array, int off, int len) {
+		throw new AssertionError();
+	}
+
+	@Override
+	protected final void onHeadersReceived(@Nullable ByteBuf body, @Nullable ChannelSupplier<ByteBuf> bodySupplier) {
+		throw new AssertionError();
+	}
+
+	@Override
+	protected final void onBodyReceived() {
+		throw new AssertionError();
+	}
+
+	@Override
+	protected final void onBodySent() {
+		throw new AssertionError();
+	}
+	// endregion
+
+	@Override
+	protected final void onClosedWithError(@NotNull Throwable e) {
+		closeException = e;
+		onConnectionError(e);
+	}
+
+	@Override
+	protected final void onClosed() {
+		Throwable e = closeException != null ? closeException : CONNECTION_CLOSED;
+		for (Stream stream : new ArrayList<>(streams.values())) {
+			abortStream(stream, e);
+		}
+		receivedStreams.clear();
+		blockedStreams.clear();
+		if (headerBlock != null) {
+			headerBlock.recycle();
+			headerBlock = null;
+		}
+		output.recycle();
+		output = ByteBuf.empty();
+		onConnectionClosed();
+	}
+
+	// region reading
+	final void readFrames() {
+		socket.read().whenComplete((buf, e) -> {
+			if (isClosed()) {
+				if (buf != null) buf.recycle();
+				return;
+			}
+			if (e == null) {
+				if (buf != null) {
+					readQueue.add(buf);
+					processFrames();
+				} else {
+					close();
+				}
+			} else {
+				closeWithError(e);
+			}
+		});
+	}
+
+	final void processFrames() {
+		try {
+			if (!prefaceReceived) {
+				for (int i = 0; i < min(readQueue.remainingBytes(), PREFACE.length); i++) {
+					if (readQueue.peekByte(i) != PREFACE[i]) {
+						throw new Http2Exception(PROTOCOL_ERROR, "Invalid connection preface");
+					}
+				}
+				if (!readQueue.hasRemainingBytes(PREFACE.length)) {
+					readFrames();
+					return;
+				}
+				readQueue.skip(PREFACE.length);
+				prefaceReceived = true;
+			}
+			while (readQueue.hasRemainingBytes(FRAME_HEADER_SIZE)) {
+				int length = (readQueue.peekByte(0) & 0xFF) << 16 |
+						(readQueue.peekByte(1) & 0xFF) << 8 |
+						(readQueue.peekByte(2) & 0xFF);
+				if (length > DEFAULT_MAX_FRAME_SIZE) {
+					throw new Http2Exception(FRAME_SIZE_ERROR, "Frame size exceeds SETTINGS_MAX_FRAME_SIZE");
+				}
+				if (!readQueue.hasRemainingBytes(FRAME_HEADER_SIZE + length)) break;
+				int type = readQueue.peekByte(3) & 0xFF;
+				int flags = readQueue.peekByte(4) & 0xFF;
+				int streamId = (readQueue.peekByte(5) & 0x7F) << 24 |
+						(readQueue.peekByte(6) & 0xFF) << 16 |
+						(readQueue.peekByte(7) & 0xFF) << 8 |
+						(readQueue.peekByte(8) & 0xFF);
+				readQueue.skip(FRAME_HEADER_SIZE);
+				onFrame(type, flags, streamId, readQueue.takeExactSize(length));
+				if (isClosed()) return;
+			}
+		} catch (Http2Exception e) {
+			goAwayAndClose(e);
+			return;
+		} catch (ParseException e) {
+			goAwayAndClose(new Http2Exception(COMPRESSION_ERROR, e.getMessage()));
+			return;
+		}
+		dispatchReceivedStreams();
+		if (isClosed()) return;
+		onFramesRead();
+		readFrames();
+	}
+
+	private void onFrame(int type, int flags, int streamId, ByteBuf payload) throws ParseException {
+		if (headerBlock != null && (type != CONTINUATION || streamId != headerBlockStreamId)) {
+			payload.recycle();
+			throw new Http2Exception(PROTOCOL_ERROR, "CONTINUATION frame expected");
+		}
+		switch (type) {
+			case DATA:
+				onDataFrame(flags, streamId, payload);
+				return;
+			case HEADERS:
+				onHeadersFrame(flags, streamId, payload);
+				return;
+			case CONTINUATION:
+				onContinuationFrame(flags, streamId, payload);
+				return;
+		}
+		try {
+			switch (type) {
+				case RST_STREAM:
+					onRstStreamFrame(streamId, payload);
+					break;
+				case SETTINGS:
+					onSettingsFrame(flags, streamId, payload);
+					break;
+				case PUSH_PROMISE:
+					throw new Http2Exception(PROTOCOL_ERROR, "Server push is disabled");
+				case PING:
+					onPingFrame(flags, streamId, payload);
+					break;
+				case GOAWAY:
+					onGoAwayFrame(streamId, payload);
+					break;
+				case WINDOW_UPDATE:
+					onWindowUpdateFrame(streamId, payload);
+					break;
+				default:
+					// PRIORITY and unknown frames are ignored
+			}
+		} finally {
+			payload.recycle();
+		}
+	}
+
+	private void onDataFrame(int flags, int streamId, ByteBuf payload) throws Http2Exception {
+		int length = payload.readRemaining();
+		if (streamId == 0) {
+			payload.recycle();
+			throw new Http2Exception(PROTOCOL_ERROR, "DATA frame on stream 0");
+		}
+		receiveWindow -= length;
+		if (receiveWindow < 0) {
+			payload.recycle();
+			throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection flow control window exceeded");
+		}
+		if ((flags & FLAG_PADDED) != 0) {
+			stripPadding(payload);
+		}
+		Stream stream = streams.get(streamId);
+		if (stream == null || stream.remoteClosed) {
+			payload.recycle();
+			onConsumed(null, length);
+			if (stream != null) {
+				resetStream(stream, new Http2Exception(STREAM_CLOSED, "DATA frame on half-closed stream"));
+			} else if (isIdleStream(streamId)) {
+				throw new Http2Exception(PROTOCOL_ERROR, "DATA frame on idle stream");
+			}
+			return;
+		}
+		stream.receiveWindow -= length;
+		if (stream.receiveWindow < 0) {
+			payload.recycle();
+			onConsumed(null, length);
+			resetStream(stream, new Http2Exception(FLOW_CONTROL_ERROR, "Stream flow control window exceeded"));
+			return;
+		}
+		int padding = length - payload.readRemaining();
+		if (padding != 0) {
+			onConsumed(stream, padding);
+		}
+		if (payload.canRead()) {
+			SettablePromise<ByteBuf> pendingGet = stream.pendingGet;
+			if (pendingGet != null) {
+				stream.pendingGet = null;
+				onConsumed(stream, payload.readRemaining());
+				pendingGet.set(payload);
+			} else {
+				stream.received.add(payload);
+			}
+		} else {
+			payload.recycle();
+		}
+		if ((flags & FLAG_END_STREAM) != 0 && !stream.reset) {
+			onRemoteEnd(stream);
+		}
+	}
+
+	private void onHeadersFrame(int flags, int streamId, ByteBuf payload) throws ParseException {
+		if (streamId == 0) {
+			payload.recycle();
+			throw new Http2Exception(PROTOCOL_ERROR, "HEADERS frame on stream 0");
+		}
+		if ((flags & FLAG_PADDED) != 0) {
+			stripPadding(payload);
+		}
+		if ((flags & FLAG_PRIORITY) != 0) {
+			if (payload.readRemaining() < 5) {
+				payload.recycle();
+				throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid HEADERS frame size");
+			}
+			payload.moveHead(5);
+		}
+		boolean endStream = (flags & FLAG_END_STREAM) != 0;
+		if ((flags & FLAG_END_HEADERS) != 0) {
+			onHeaderBlock(streamId, payload, endStream);
+		} else {
+			headerBlock = payload;
+			headerBlockStreamId = streamId;
+			headerBlockEndStream = endStream;
+		}
+	}
+
+	private void onContinuationFrame(int flags, int streamId, ByteBuf payload) throws ParseException {
+		if (headerBlock == null) {
+			payload.recycle();
+			throw new Http2Exception(PROTOCOL_ERROR, "Unexpected CONTINUATION frame");
+		}
+		headerBlock = ByteBufPool.append(headerBlock, payload);
+		if (headerBlock.readRemaining() > MAX_HEADER_BLOCK_SIZE) {
+			throw new Http2Exception(ENHANCE_YOUR_CALM, "Header block exceeds the limit");
+		}
+		if ((flags & FLAG_END_HEADERS) != 0) {
+			ByteBuf block = headerBlock;
+			headerBlock = null;
+			onHeaderBlock(streamId, block, headerBlockEndStream);
+		}
+	}
+
+	private void onHeaderBlock(int streamId, ByteBuf block, boolean endStream) throws ParseException {
+		headerFields.clear();
+		try {
+			decoder.decode(block, (name, value) -> {
+				headerFields.add(name);
+				headerFields.add(value);
+			});
+		} finally {
+			block.recycle();
+		}
+		onHeaders(streamId, headerFields, endStream);
+	}
+
+	private void onRstStreamFrame(int streamId, ByteBuf payload) throws Http2Exception {
+		if (streamId == 0) throw new Http2Exception(PROTOCOL_ERROR, "RST_STREAM frame on stream 0");
+		if (payload.readRemaining() != 4) throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid RST_STREAM frame size");
+		int errorCode = payload.readInt();
+		Stream stream = streams.get(streamId);
+		if (stream == null) {
+			if (isIdleStream(streamId)) throw new Http2Exception(PROTOCOL_ERROR, "RST_STREAM frame on idle stream");
+			return;
+		}
+		abortStream(stream, new Http2Exception(errorCode, "Stream reset by peer"));
+	}
+
+	private void onSettingsFrame(int flags, int streamId, ByteBuf payload) throws Http2Exception {
+		if (streamId != 0) throw new Http2Exception(PROTOCOL_ERROR, "SETTINGS frame on non-zero stream");
+		if ((flags & FLAG_ACK) != 0) {
+			if (payload.canRead()) throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid SETTINGS ACK frame size");
+			return;
+		}
+		applySettings(payload);
+		writeFrameHeader(0, SETTINGS, FLAG_ACK, 0);
+	}
+
+	final void applySettings(ByteBuf payload) throws Http2Exception {
+		if (payload.readRemaining() % 6 != 0) throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid SETTINGS frame size");
+		while (payload.canRead()) {
+			int id = payload.readShort() & 0xFFFF;
+			int value = payload.readInt();
+			switch (id) {
+				case SETTINGS_HEADER_TABLE_SIZE:
+					encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+					break;
+				case SETTINGS_ENABLE_PUSH:
+					if (value != 0 && value != 1) throw new Http2Exception(PROTOCOL_ERROR, "Invalid SETTINGS_ENABLE_PUSH");
+					break;
+				case SETTINGS_MAX_CONCURRENT_STREAMS:
+					remoteMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+					break;
+				case SETTINGS_INITIAL_WINDOW_SIZE:
+					if (value < 0) throw new Http2Exception(FLOW_CONTROL_ERROR, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+					int delta = value - remoteInitialWindowSize;
+					remoteInitialWindowSize = value;
+					for (Stream stream : streams.values()) {
+						if ((long) stream.sendWindow + delta > Integer.MAX_VALUE) {
+							throw new Http2Exception(FLOW_CONTROL_ERROR, "Stream flow control window overflow");
+						}
+						stream.sendWindow += delta;
+					}
+					if (delta > 0) {
+						for (Stream stream : new ArrayList<>(streams.values())) {
+							pumpOutbound(stream);
+						}
+					}
+					break;
+				case SETTINGS_MAX_FRAME_SIZE:
+					if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_MAX_FRAME_SIZE) {
+						throw new Http2Exception(PROTOCOL_ERROR, "Invalid SETTINGS_MAX_FRAME_SIZE");
+					}
+					remoteMaxFrameSize = value;
+					break;
+				default:
+					// unknown or unsupported settings are ignored
+			}
+		}
+	}
+
+	private void onPingFrame(int flags, int streamId, ByteBuf payload) throws Http2Exception {
+		if (streamId != 0) throw new Http2Exception(PROTOCOL_ERROR, "PING frame on non-zero stream");
+		if (payload.readRemaining() != 8) throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid PING frame size");
+		if ((flags & FLAG_ACK) != 0) return;
+		writeFrameHeader(8, PING, FLAG_ACK, 0);
+		output.put(payload);
+	}
+
+	private void onGoAwayFrame(int streamId, ByteBuf payload) throws Http2Exception {
+		if (streamId != 0) throw new Http2Exception(PROTOCOL_ERROR, "GOAWAY frame on non-zero stream");
+		if (payload.readRemaining() < 8) throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid GOAWAY frame size");
+		int lastStreamId = payload.readInt() & 0x7FFFFFFF;
+		goAway = true;
+		onGoAway(lastStreamId);
+		if (streams.isEmpty() && !isClosed()) {
+			onIdle();
+		}
+	}
+
+	private void onWindowUpdateFrame(int streamId, ByteBuf payload) throws Http2Exception {
+		if (payload.readRemaining() != 4) throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid WINDOW_UPDATE frame size");
+		int increment = payload.readInt() & 0x7FFFFFFF;
+		if (streamId == 0) {
+			if (increment == 0) throw new Http2Exception(PROTOCOL_ERROR, "Zero WINDOW_UPDATE increment");
+			if ((long) sendWindow + increment > Integer.MAX_VALUE) {
+				throw new Http2Exception(FLOW_CONTROL_ERROR, "Connection flow control window overflow");
+			}
+			sendWindow += increment;
+			while (sendWindow > 0 && !blockedStreams.isEmpty()) {
+				Stream stream = blockedStreams.poll();
+				stream.blocked = false;
+				pumpOutbound(stream);
+			}
+			return;
+		}
+		Stream stream = streams.get(streamId);
+		if (stream == null) {
+			if (isIdleStream(streamId)) throw new Http2Exception(PROTOCOL_ERROR, "WINDOW_UPDATE frame on idle stream");
+			return;
+		}
+		if (increment == 0) {
+			resetStream(stream, new Http2Exception(PROTOCOL_ERROR, "Zero WINDOW_UPDATE increment"));
+			return;
+		}
+		if ((long) stream.sendWindow + increment > Integer.MAX_VALUE) {
+			resetStream(stream, new Http2Exception(FLOW_CONTROL_ERROR, "Stream flow control window overflow"));
+			return;
+		}
+		stream.sendWindow += increment;
+		pumpOutbound(stream);
+	}
+
+	/**
+	 * Adds regular header fields to the message, starting from given index of the decoded header list
+	 */
+	static void addHeaders(HttpMessage message, List<byte[]> fields, int from) throws ParseException {
+		if ((fields.size() - from) / 2 > MAX_HEADERS) throw TOO_MANY_HEADERS;
+		for (int i = from; i < fields.size(); i += 2) {
+			byte[] name = fields.get(i);
+			if (name.length == 0 || name[0] == ':') throw MALFORMED_MESSAGE;
+			int hashCode = 1;
+			for (byte b : name) {
+				if (b >= 'A' && b <= 'Z') throw MALFORMED_MESSAGE;
+				hashCode = 31 * hashCode + b;
+			}
+			message.addHeader(HttpHeaders.of(name, 0, name.length, hashCode), fields.get(i + 1));
+		}
+	}
+
+	private static void stripPadding(ByteBuf payload) throws Http2Exception {
+		if (!payload.canRead()) {
+			payload.recycle();
+			throw new Http2Exception(FRAME_SIZE_ERROR, "Invalid padded frame size");
+		}
+		int padding = payload.readByte() & 0xFF;
+		if (padding > payload.readRemaining()) {
+			payload.recycle();
+			throw new Http2Exception(PROTOCOL_ERROR, "Padding exceeds frame payload");
+		}
+		payload.moveTail(-padding);
+	}
+
+	/**
+	 * Credits flow control windows for the DATA bytes which were either consumed by the application or discarded
+	 */
+	private void onConsumed(@Nullable Stream stream, int size) {
+		if (isClosed()) return;
+		receiveConsumed += size;
+		if (receiveConsumed >= localConnectionWindowSize / 2) {
+			writeWindowUpdate(0, receiveConsumed);
+			receiveWindow += receiveConsumed;
+			receiveConsumed = 0;
+		}
+		if (stream != null && !stream.remoteClosed && !stream.reset) {
+			stream.consumed += size;
+			if (stream.consumed >= localInitialWindowSize / 2) {
+				writeWindowUpdate(stream.id, stream.consumed);
+				stream.receiveWindow += stream.consumed;
+				stream.consumed = 0;
+			}
+		}
+	}
+
+	private void dispatchReceivedStreams() {
+		for (int i = 0; i < receivedStreams.size(); i++) {
+			Stream stream = receivedStreams.get(i);
+			stream.dispatching = false;
+			if (stream.reset || isClosed()) continue;
+			HttpMessage message = stream.message;
+			assert message != null;
+			message.flags |= HttpMessage.MUST_LOAD_BODY;
+			if (stream.remoteClosed) {
+				ByteBuf body = stream.received.takeRemaining();
+				onConsumed(stream, body.readRemaining());
+				message.body = body;
+			} else {
+				message.bodyStream = new BodySupplier(stream);
+			}
+			onMessageReceived(stream);
+			closeStreamIfDone(stream);
+		}
+		receivedStreams.clear();
+	}
+	// endregion
+
+	// region streams
+	final Stream openStream(int streamId) {
+		Stream stream = new Stream(streamId);
+		streams.put(streamId, stream);
+		if (streams.size() == 1) {
+			onActive();
+		}
+		return stream;
+	}
+
+	/**
+	 * Schedules the received message to be handed to the application once all of the frames that are
+	 * already read are processed, so that small bodies which arrived along with the headers are delivered
+	 * as fully loaded
+	 */
+	final void receiveMessage(Stream stream, HttpMessage message) {
+		stream.message = message;
+		stream.dispatching = true;
+		receivedStreams.add(stream);
+	}
+
+	final void onRemoteEnd(Stream stream) {
+		stream.remoteClosed = true;
+		SettablePromise<ByteBuf> pendingGet = stream.pendingGet;
+		if (pendingGet != null) {
+			stream.pendingGet = null;
+			pendingGet.set(null);
+		}
+		closeStreamIfDone(stream);
+	}
+
+	private void closeStreamIfDone(Stream stream) {
+		if (stream.remoteClosed && stream.localClosed && !stream.dispatching && !stream.closed) {
+			stream.closed = true;
+			streams.remove(stream.id);
+			onStreamClosed(stream, null);
+			if (streams.isEmpty() && !isClosed()) {
+				onIdle();
+			}
+		}
+	}
+
+	/**
+	 * Resets the stream, notifying the peer with RST_STREAM frame
+	 */
+	final void resetStream(Stream stream, Http2Exception e) {
+		if (stream.closed) return;
+		writeRstStream(stream.id, e.getErrorCode());
+		abortStream(stream, e);
+	}
+
+	private void abortStream(Stream stream, Throwable e) {
+		if (stream.closed) return;
+		stream.closed = true;
+		stream.reset = true;
+		streams.remove(stream.id);
+		int unconsumed = stream.received.remainingBytes();
+		stream.received.recycle();
+		if (unconsumed != 0) {
+			onConsumed(null, unconsumed);
+		}
+		SettablePromise<ByteBuf> pendingGet = stream.pendingGet;
+		if (pendingGet != null) {
+			stream.pendingGet = null;
+			pendingGet.setException(e);
+		}
+		if (stream.outboundBuf != null) {
+			stream.outboundBuf.recycle();
+			stream.outboundBuf = null;
+		}
+		if (stream.outbound != null) {
+			stream.outbound.close(e);
+			stream.outbound = null;
+		}
+		stream.sending = false;
+		onStreamClosed(stream, e);
+		if (streams.isEmpty() && !isClosed()) {
+			onIdle();
+		}
+	}
+	// endregion
+
+	// region writing
+	final void writeSettings() {
+		boolean customWindow = localInitialWindowSize != DEFAULT_WINDOW_SIZE;
+		writeFrameHeader(customWindow ? 18 : 12, SETTINGS, 0, 0);
+		writeSetting(SETTINGS_ENABLE_PUSH, 0);
+		writeSetting(SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+		if (customWindow) {
+			writeSetting(SETTINGS_INITIAL_WINDOW_SIZE, localInitialWindowSize);
+			writeWindowUpdate(0, localConnectionWindowSize - DEFAULT_WINDOW_SIZE);
+			receiveWindow = localConnectionWindowSize;
+		}
+	}
+
+	final void writePreface() {
+		output = ByteBufPool.ensureWriteRemaining(output, OUTPUT_BUFFER_SIZE, PREFACE.length);
+		output.put(PREFACE);
+		scheduleFlush();
+	}
+
+	private void writeSetting(int id, int value) {
+		output.writeShort((short) id);
+		output.writeInt(value);
+	}
+
+	private void writeWindowUpdate(int streamId, int increment) {
+		writeFrameHeader(4, WINDOW_UPDATE, 0, streamId);
+		output.writeInt(increment);
+	}
+
+	private void writeRstStream(int streamId, int errorCode) {
+		writeFrameHeader(4, RST_STREAM, 0, streamId);
+		output.writeInt(errorCode);
+	}
+
+	private void writeGoAway(int errorCode) {
+		writeFrameHeader(8, GOAWAY, 0, 0);
+		output.writeInt(getLastStreamId());
+		output.writeInt(errorCode);
+	}
+
+	/**
+	 * Writes a frame header, making sure that the output buffer has enough room for the frame payload
+	 */
+	private void writeFrameHeader(int length, int type, int flags, int streamId) {
+		output = ByteBufPool.ensureWriteRemaining(output, OUTPUT_BUFFER_SIZE, FRAME_HEADER_SIZE + min(length, ZERO_COPY_THRESHOLD));
+		output.writeByte((byte) (length >>> 16));
+		output.writeByte((byte) (length >>> 8));
+		output.writeByte((byte) length);
+		output.writeByte((byte) type);
+		output.writeByte((byte) flags);
+		output.writeInt(streamId);
+		scheduleFlush();
+	}
+
+	private void scheduleFlush() {
+		if (flushPosted) return;
+		flushPosted = true;
+		eventloop.post(flushTask);
+	}
+
+	private void flush() {
+		flushPosted = false;
+		if (isClosed() || !output.canRead()) return;
+		ByteBuf buf = output;
+		output = ByteBuf.empty();
+		write(buf);
+	}
+
+	private void write(ByteBuf buf) {
+		socket.write(buf)
+				.whenException(e -> {
+					if (!isClosed()) closeWithError(e);
+				});
+	}
+
+	final ByteBuf encodeHeader(ByteBuf block, byte[] name, byte[] value) {
+		return encoder.encode(block, name, value, false);
+	}
+
+	final ByteBuf allocateHeaderBlock() {
+		return ByteBufPool.allocate(HEADER_BLOCK_SIZE);
+	}
+
+	/**
+	 * Encodes headers and body of the message and sends them on the given stream, the message is recycled afterwards.
+	 * Connection-specific headers, which are not allowed in HTTP/2, are omitted.
+	 */
+	final void writeMessage(Stream stream, ByteBuf block, HttpMessage message, @Nullable HttpHeader skipHeader) {
+		ByteBuf body = message.body;
+		ChannelSupplier<ByteBuf> bodyStream = message.bodyStream;
+		message.body = null;
+		message.bodyStream = null;
+		boolean gzip = (message.flags & HttpMessage.USE_GZIP) != 0;
+		boolean hasContentLength = !gzip && message.headers.get(CONTENT_LENGTH) != null;
+		if (gzip) {
+			if (body != null) {
+				body = GzipProcessorUtils.toGzip(body);
+			} else if (bodyStream != null) {
+				BufsConsumerGzipDeflater deflater = BufsConsumerGzipDeflater.create();
+				bodyStream.bindTo(deflater.getInput());
+				bodyStream = deflater.getOutput().getSupplier();
+			}
+			block = encodeHeader(block, CONTENT_ENCODING_NAME, CONTENT_ENCODING_GZIP);
+		}
+		if (body != null) {
+			if (!hasContentLength) {
+				block = encodeHeader(block, CONTENT_LENGTH_NAME, encodeAscii(Integer.toString(body.readRemaining())));
+			}
+		} else if (bodyStream == null && !hasContentLength) {
+			block = encodeHeader(block, CONTENT_LENGTH_NAME, ZERO);
+		}
+
+		Object[] kvPairs = message.headers.kvPairs;
+		for (int i = 0; i < kvPairs.length - 1; i += 2) {
+			HttpHeader header = (HttpHeader) kvPairs[i];
+			if (header == null || header == skipHeader || isConnectionSpecific(header)) continue;
+			if (gzip && (header == CONTENT_ENCODING || header == CONTENT_LENGTH)) continue;
+			HttpHeaderValue value = (HttpHeaderValue) kvPairs[i + 1];
+			block = encoder.encode(block, toLowerCaseName(header), toBytes(value),
+					header == AUTHORIZATION || header == PROXY_AUTHORIZATION);
+		}
+		message.recycle();
+
+		if (body != null && !body.canRead()) {
+			body.recycle();
+			body = null;
+		}
+		boolean endStream = body == null && bodyStream == null;
+		writeHeaders(stream, block, endStream);
+		if (endStream) return;
+		stream.sending = true;
+		stream.outboundBuf = body;
+		stream.outbound = bodyStream;
+		pumpOutbound(stream);
+	}
+
+	private static boolean isConnectionSpecific(HttpHeader header) {
+		return header == CONNECTION || header == TRANSFER_ENCODING || header == UPGRADE || header == TE ||
+				header.equals(KEEP_ALIVE_HEADER) || header.equals(PROXY_CONNECTION);
+	}
+
+	private static byte[] toLowerCaseName(HttpHeader header) {
+		if (header.lowerCaseBytes != null) return header.lowerCaseBytes;
+		byte[] name = new byte[header.length];
+		for (int i = 0; i < name.length; i++) {
+			byte b = header.bytes[header.offset + i];
+			name[i] = b >= 'A' && b <= 'Z' ? (byte) (b + 'a' - 'A') : b;
+		}
+		return name;
+	}
+
+	private static byte[] toBytes(HttpHeaderValue value) {
+		ByteBuf buf = ByteBuf.wrapForWriting(new byte[value.estimateSize()]);
+		value.writeTo(buf);
+		return buf.tail() == buf.array().length ? buf.array() : buf.getArray();
+	}
+
+	private void writeHeaders(Stream stream, ByteBuf block, boolean endStream) {
+		int frameSize = min(block.readRemaining(), remoteMaxFrameSize);
+		boolean endHeaders = frameSize == block.readRemaining();
+		writeFrameHeader(frameSize, HEADERS, (endStream ? FLAG_END_STREAM : 0) | (endHeaders ? FLAG_END_HEADERS : 0), stream.id);
+		writeFramePayload(block, frameSize);
+		while (block.canRead()) {
+			frameSize = min(block.readRemaining(), remoteMaxFrameSize);
+			endHeaders = frameSize == block.readRemaining();
+			writeFrameHeader(frameSize, CONTINUATION, endHeaders ? FLAG_END_HEADERS : 0, stream.id);
+			writeFramePayload(block, frameSize);
+		}
+		block.recycle();
+		if (endStream) {
+			onLocalEnd(stream);
+		}
+	}
+
+	private void writeFramePayload(ByteBuf buf, int size) {
+		output = ByteBufPool.ensureWriteRemaining(output, OUTPUT_BUFFER_SIZE, size);
+		output.put(buf.array(), buf.head(), size);
+		buf.moveHead(size);
+	}
+
+	private void writeData(int streamId, ByteBuf buf, boolean endStream) {
+		int size = buf.readRemaining();
+		writeFrameHeader(size, DATA, endStream ? FLAG_END_STREAM : 0, streamId);
+		if (size < ZERO_COPY_THRESHOLD) {
+			output.put(buf);
+			buf.recycle();
+		} else {
+			ByteBuf header = output;
+			output = ByteBuf.empty();
+			write(header);
+			write(buf);
+		}
+	}
+
+	private void onLocalEnd(Stream stream) {
+		stream.localClosed = true;
+		stream.sending = false;
+		closeStreamIfDone(stream);
+	}
+
+	/**
+	 * Sends as much of the stream body as allowed by the flow control windows
+	 */
+	private void pumpOutbound(Stream stream) {
+		while (stream.sending && !stream.reset && !isClosed()) {
+			ByteBuf buf = stream.outboundBuf;
+			if (buf == null) {
+				ChannelSupplier<ByteBuf> supplier = stream.outbound;
+				if (supplier == null) {
+					writeData(stream.id, ByteBuf.empty(), true);
+					onLocalEnd(stream);
+					return;
+				}
+				if (stream.outboundRequested) return;
+				Promise<ByteBuf> promise = supplier.get();
+				if (promise.isResult()) {
+					setOutbound(stream, promise.getResult());
+					continue;
+				}
+				stream.outboundRequested = true;
+				promise.whenComplete((result, e) -> {
+					stream.outboundRequested = false;
+					if (isClosed() || stream.reset) {
+						if (result != null) result.recycle();
+						return;
+					}
+					if (e == null) {
+						setOutbound(stream, result);
+						pumpOutbound(stream);
+					} else {
+						stream.outbound = null;
+						resetStream(stream, new Http2Exception(INTERNAL_ERROR, "Body stream failed"));
+					}
+				});
+				return;
+			}
+
+			int size = min(min(buf.readRemaining(), remoteMaxFrameSize), min(stream.sendWindow, sendWindow));
+			if (size <= 0) {
+				if (sendWindow <= 0 && !stream.blocked) {
+					stream.blocked = true;
+					blockedStreams.add(stream);
+				}
+				return;
+			}
+			ByteBuf chunk;
+			boolean last = size == buf.readRemaining();
+			if (last) {
+				chunk = buf;
+				stream.outboundBuf = null;
+			} else {
+				chunk = buf.slice(size);
+				buf.moveHead(size);
+			}
+			stream.sendWindow -= size;
+			sendWindow -= size;
+			boolean endStream = last && stream.outbound == null;
+			writeData(stream.id, chunk, endStream);
+			if (endStream) {
+				onLocalEnd(stream);
+				return;
+			}
+		}
+	}
+
+	private static void setOutbound(Stream stream, @Nullable ByteBuf buf) {
+		if (buf == null) {
+			stream.outbound = null;
+		} else if (buf.canRead()) {
+			stream.outboundBuf = buf;
+		} else {
+			buf.recycle();
+		}
+	}
+	// endregion
+
+	/**
+	 * Sends GOAWAY frame with given error and closes the connection
+	 */
+	final void goAwayAndClose(Http2Exception e) {
+		if (isClosed()) return;
+		goAway = true;
+		writeGoAway(e.getErrorCode());
+		flush();
+		closeWithError(e);
+	}
+
+	/**
+	 * Gracefully closes an idle connection
+	 */
+	final void shutdown() {
+		if (isClosed()) return;
+		goAway = true;
+		writeGoAway(NO_ERROR);
+		flush();
+		close();
+	}
+
+	@Override
+	public String toString() {
+		return ", streams=" + streams.size() +
+				", sendWindow=" + sendWindow +
+				", receiveWindow=" + receiveWindow +
+				", goAway=" + goAway +
+				", socket=" + socket +
+				", closed=" + isClosed() +
+				", poolTimestamp=" + poolTimestamp;
+	}
+}
@@ -67,12 +67,16 @@ public abstract class AbstractHttpConnection {
 	public static final int MAX_RECURSIVE_CALLS = ApplicationSettings.getInt(AbstractHttpConnection.class, "maxRecursiveCalls", 64);
 	public static final boolean MULTILINE_HEADERS = ApplicationSettings.getBoolean(AbstractHttpConnection.class, "multilineHeaders", true);
 
-	protected static final HttpHeaderValue CONNECTION_KEEP_ALIVE_HEADER = HttpHeaderValue.of("keep-alive");
-	protected static final HttpHeaderValue CONNECTION_CLOSE_HEADER = HttpHeaderValue.of("close");
+	protected static final HttpHeaderValue CONNECTION_KEEP_ALIVE_HEADER = ofBytes(encodeAscii("keep-alive"));
+	protected static final HttpHeaderValue CONNECTION_CLOSE_HEADER = ofBytes(encodeAscii("close"));
 
 	private static final byte[] CONNECTION_KEEP_ALIVE = encodeAscii("keep-alive");
 	private static final byte[] TRANSFER_ENCODING_CHUNKED = encodeAscii("chunked");
 
+	private static final HttpHeaderValue TRANSFER_ENCODING_CHUNKED_HEADER = ofBytes(TRANSFER_ENCODING_CHUNKED);
+	private static final HttpHeaderValue CONTENT_ENCODING_GZIP_HEADER = ofBytes(encodeAscii("gzip"));
+	private static final HttpHeaderValue CONTENT_LENGTH_ZERO_HEADER = ofBytes(encodeAscii("0"));
+
 	protected final Eventloop eventloop;
 
 	protected final AsyncTcpSocket socket;
@@ -390,7 +394,7 @@ public abstract class AbstractHttpConnection {
 				return buf;
 			} else {
 				ByteBuf gzippedBody = GzipProcessorUtils.toGzip(body);
-				httpMessage.addHeader(CONTENT_ENCODING, ofBytes(CONTENT_ENCODING_GZIP));
+				httpMessage.addHeader(CONTENT_ENCODING, CONTENT_ENCODING_GZIP_HEADER);
 				httpMessage.addHeader(CONTENT_LENGTH, ofDecimal(gzippedBody.readRemaining()));
 				ByteBuf buf = ByteBufPool.allocate(httpMessage.estimateSize() + gzippedBody.readRemaining());
 				httpMessage.writeTo(buf);
@@ -401,7 +405,7 @@ public abstract class AbstractHttpConnection {
 		}
 
 		if (httpMessage.bodyStream == null) {
-			httpMessage.addHeader(CONTENT_LENGTH, ofDecimal(0));
+			httpMessage.addHeader(CONTENT_LENGTH, CONTENT_LENGTH_ZERO_HEADER);
 			ByteBuf buf = ByteBufPool.allocate(httpMessage.estimateSize());
 			httpMessage.writeTo(buf);
 			return buf;
@@ -415,7 +419,7 @@ public abstract class AbstractHttpConnection {
 		httpMessage.bodyStream = null;
 
 		if ((httpMessage.flags & HttpMessage.USE_GZIP) != 0) {
-			httpMessage.addHeader(CONTENT_ENCODING, ofBytes(CONTENT_ENCODING_GZIP));
+			httpMessage.addHeader(CONTENT_ENCODING, CONTENT_ENCODING_GZIP_HEADER);
 			BufsConsumerGzipDeflater deflater = BufsConsumerGzipDeflater.create();
 			//noinspection ConstantConditions
 			bodyStream.bindTo(deflater.getInput());
@@ -423,7 +427,7 @@ public abstract class AbstractHttpConnection {
 		}
 
 		if (httpMessage.headers.get(CONTENT_LENGTH) == null) {
-			httpMessage.addHeader(TRANSFER_ENCODING, ofBytes(TRANSFER_ENCODING_CHUNKED));
+			httpMessage.addHeader(TRANSFER_ENCODING, TRANSFER_ENCODING_CHUNKED_HEADER);
 			BufsConsumerChunkedEncoder chunker = BufsConsumerChunkedEncoder.create();
 			//noinspection ConstantConditions
 			bodyStream.bindTo(chunker.getInput());
@@ -481,7 +485,7 @@ public abstract class AbstractHttpConnection {
 		poolTimestamp = eventloop.currentTimeMillis();
 	}
 
-	private abstract class ReadConsumer implements Callback<ByteBuf> {
+	protected abstract class ReadConsumer implements Callback<ByteBuf> {
 		@Override
 		public void accept(ByteBuf buf, Throwable e) {
 			assert !isClosed() || e != null;
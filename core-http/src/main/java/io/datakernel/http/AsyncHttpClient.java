@@ -34,6 +34,7 @@ import io.datakernel.eventloop.net.SocketSettings;
 import io.datakernel.jmx.api.JmxAttribute;
 import io.datakernel.jmx.api.JmxOperation;
 import io.datakernel.jmx.api.JmxReducers.JmxReducerSum;
+import io.datakernel.net.AsyncSslSocket;
 import io.datakernel.net.AsyncTcpSocket;
 import io.datakernel.net.AsyncTcpSocketImpl;
 import io.datakernel.promise.Promise;
@@ -57,6 +58,7 @@ import static io.datakernel.common.Preconditions.checkArgument;
 import static io.datakernel.common.Preconditions.checkState;
 import static io.datakernel.eventloop.jmx.MBeanFormat.formatListAsMultilineString;
 import static io.datakernel.http.AbstractHttpConnection.READ_TIMEOUT_ERROR;
+import static io.datakernel.http.HttpHeaders.*;
 import static io.datakernel.net.AsyncSslSocket.wrapClientSocket;
 import static org.slf4j.LoggerFactory.getLogger;
 
@@ -78,6 +80,10 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 	public static final Duration KEEP_ALIVE_TIMEOUT = ApplicationSettings.getDuration(AsyncHttpClient.class, "keepAliveTimeout", Duration.ZERO);
 	public static final MemSize MAX_BODY_SIZE = ApplicationSettings.getMemSize(AsyncHttpClient.class, "maxBodySize", MemSize.ZERO);
 	public static final int MAX_KEEP_ALIVE_REQUESTS = ApplicationSettings.getInt(AsyncHttpClient.class, "maxKeepAliveRequests", 0);
+	public static final boolean HTTP2 = ApplicationSettings.getBoolean(AsyncHttpClient.class, "http2", false);
+	public static final boolean WEB_SOCKET_DEFLATE = ApplicationSettings.getBoolean(AsyncHttpClient.class, "webSocketDeflate", true);
+
+	private static final String[] HTTP2_APPLICATION_PROTOCOLS = {"h2", "http/1.1"};
 
 	@NotNull
 	private final Eventloop eventloop;
@@ -89,6 +95,8 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 	final HashMap<InetSocketAddress, AddressLinkedList> addresses = new HashMap<>();
 	final ConnectionsLinkedList poolKeepAlive = new ConnectionsLinkedList();
 	final ConnectionsLinkedList poolReadWrite = new ConnectionsLinkedList();
+	private final HashMap<InetSocketAddress, Http2ClientConnection> http2Connections = new HashMap<>();
+	private final HashMap<InetSocketAddress, SettablePromise<@Nullable Http2ClientConnection>> http2Connects = new HashMap<>();
 	private int poolKeepAliveExpired;
 	private int poolReadWriteExpired;
 
@@ -102,6 +110,8 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 	int keepAliveTimeoutMillis = (int) KEEP_ALIVE_TIMEOUT.toMillis();
 	int maxBodySize = MAX_BODY_SIZE.toInt();
 	int maxKeepAliveRequests = MAX_KEEP_ALIVE_REQUESTS;
+	boolean http2 = HTTP2;
+	boolean webSocketDeflate = WEB_SOCKET_DEFLATE;
 
 	// SSL
 	private SSLContext sslContext;
@@ -128,6 +138,15 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 		void onHttpResponse(HttpClientConnection connection, HttpResponse response);
 
 		void onHttpError(HttpClientConnection connection, boolean keepAliveConnection, Throwable e);
+
+		default void onConnect(HttpRequest request, Http2ClientConnection connection) {
+		}
+
+		default void onHttpResponse(Http2ClientConnection connection, HttpResponse response) {
+		}
+
+		default void onHttpError(Http2ClientConnection connection, boolean keepAliveConnection, Throwable e) {
+		}
 	}
 
 	@SuppressWarnings("WeakerAccess")
@@ -163,6 +182,11 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 			connected.recordEvent();
 		}
 
+		@Override
+		public void onConnect(HttpRequest request, Http2ClientConnection connection) {
+			connected.recordEvent();
+		}
+
 		@Override
 		public void onConnectError(HttpRequest request, InetSocketAddress address, Throwable e) {
 			connectErrors.recordException(e, request.getUrl().getHost());
@@ -173,8 +197,22 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 			responses++;
 		}
 
+		@Override
+		public void onHttpResponse(Http2ClientConnection connection, HttpResponse response) {
+			responses++;
+		}
+
 		@Override
 		public void onHttpError(HttpClientConnection connection, boolean keepAliveConnection, Throwable e) {
+			recordHttpError(keepAliveConnection, e);
+		}
+
+		@Override
+		public void onHttpError(Http2ClientConnection connection, boolean keepAliveConnection, Throwable e) {
+			recordHttpError(keepAliveConnection, e);
+		}
+
+		private void recordHttpError(boolean keepAliveConnection, Throwable e) {
 			if (e == AbstractHttpConnection.READ_TIMEOUT_ERROR || e == AbstractHttpConnection.WRITE_TIMEOUT_ERROR) {
 				httpTimeouts.recordEvent();
 				return;
@@ -300,6 +338,24 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 		return this;
 	}
 
+	/**
+	 * Enables HTTP/2: requests to the same address are multiplexed over a single connection.
+	 * Plain HTTP connections use HTTP/2 with prior knowledge, HTTPS connections negotiate
+	 * HTTP/2 via ALPN and fall back to HTTP/1.1 if the server does not support it.
+	 */
+	public AsyncHttpClient withHttp2(boolean http2) {
+		this.http2 = http2;
+		return this;
+	}
+
+	/**
+	 * Enables offering permessage-deflate compression of WebSocket messages
+	 */
+	public AsyncHttpClient withWebSocketDeflate(boolean webSocketDeflate) {
+		this.webSocketDeflate = webSocketDeflate;
+		return this;
+	}
+
 	public AsyncHttpClient withInspector(Inspector inspector) {
 		this.inspector = inspector;
 		return this;
@@ -394,15 +450,72 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 				});
 	}
 
+	/**
+	 * Sends a WebSocket handshake request and returns the established {@link WebSocket}.
+	 * The handshake is always performed over HTTP/1.1, a response other than 101 Switching Protocols
+	 * is reported as {@link HttpException} with the response code.
+	 */
+	public Promise<WebSocket> webSocketRequest(HttpRequest request) {
+		request.addHeader(UPGRADE, WebSocketConnection.WEB_SOCKET);
+		request.addHeader(CONNECTION, "Upgrade");
+		request.addHeader(SEC_WEBSOCKET_KEY, WebSocketConnection.generateKey());
+		request.addHeader(SEC_WEBSOCKET_VERSION, WebSocketConnection.WEB_SOCKET_VERSION);
+		if (webSocketDeflate) {
+			request.addHeader(SEC_WEBSOCKET_EXTENSIONS, WebSocketConnection.DEFLATE_OFFER);
+		}
+		return request(request)
+				.then(response -> {
+					WebSocket webSocket = response.webSocket;
+					if (webSocket == null) {
+						return Promise.ofException(HttpException.ofCode(response.getCode(), "WebSocket handshake is rejected"));
+					}
+					response.recycle();
+					return Promise.of(webSocket);
+				});
+	}
+
 	private Promise<HttpResponse> doSend(HttpRequest request, InetAddress[] inetAddresses) {
 		InetAddress inetAddress = inetAddresses[(inetAddressIdx++ & Integer.MAX_VALUE) % inetAddresses.length];
 		InetSocketAddress address = new InetSocketAddress(inetAddress, request.getUrl().getPort());
 
+		if (http2 && request.getHeader(UPGRADE) == null) {
+			Http2ClientConnection http2Connection = http2Connections.get(address);
+			if (http2Connection != null) {
+				return http2Connection.send(request);
+			}
+			SettablePromise<@Nullable Http2ClientConnection> http2Connect = http2Connects.get(address);
+			if (http2Connect != null) {
+				// wait for the connection which is being established to find out whether it is HTTP/2
+				return http2Connect.thenEx((connection, e) -> {
+					if (e != null) {
+						request.recycle();
+						return Promise.ofException(e);
+					}
+					if (connection != null && connection.isAvailable()) {
+						return connection.send(request);
+					}
+					return doSend(request, address);
+				});
+			}
+		}
+
+		return doSend(request, address);
+	}
+
+	private Promise<HttpResponse> doSend(HttpRequest request, InetSocketAddress address) {
 		HttpClientConnection keepAliveConnection = takeKeepAliveConnection(address);
 		if (keepAliveConnection != null) {
 			return keepAliveConnection.send(request);
 		}
 
+		SettablePromise<@Nullable Http2ClientConnection> http2Connect;
+		if (http2 && request.getHeader(UPGRADE) == null && !http2Connects.containsKey(address)) {
+			http2Connect = new SettablePromise<>();
+			http2Connects.put(address, http2Connect);
+		} else {
+			http2Connect = null;
+		}
+
 		return AsyncTcpSocketImpl.connect(address, connectTimeoutMillis, socketSettings)
 				.thenEx((asyncTcpSocketImpl, e) -> {
 					if (e == null) {
@@ -411,34 +524,90 @@ public final class AsyncHttpClient implements IAsyncHttpClient, EventloopService
 								.withInspector(https ? socketInspector : socketSslInspector);
 
 						if (https && sslContext == null) {
+							if (http2Connect != null) completeHttp2Connect(address, http2Connect, null, null);
 							throw new IllegalArgumentException("Cannot send HTTPS Request without SSL enabled");
 						}
 
 						String host = request.getUrl().getHost();
 						assert host != null;
 
-						AsyncTcpSocket asyncTcpSocket = https ?
-								wrapClientSocket(asyncTcpSocketImpl,
-										host, request.getUrl().getPort(),
-										sslContext, sslExecutor) :
-								asyncTcpSocketImpl;
+						if (expiredConnectionsCheck == null)
+							scheduleExpiredConnectionsCheck();
 
-						HttpClientConnection connection = new HttpClientConnection(eventloop, this, asyncTcpSocket, address);
+						if (!https) {
+							return http2Connect != null ?
+									sendHttp2(request, asyncTcpSocketImpl, address, false, http2Connect) :
+									sendHttp1(request, asyncTcpSocketImpl, address);
+						}
 
-						if (inspector != null) inspector.onConnect(request, connection);
+						AsyncSslSocket sslSocket = wrapClientSocket(asyncTcpSocketImpl,
+								host, request.getUrl().getPort(),
+								sslContext, sslExecutor, http2Connect != null ? HTTP2_APPLICATION_PROTOCOLS : null);
 
-						if (expiredConnectionsCheck == null)
-							scheduleExpiredConnectionsCheck();
+						if (http2Connect == null) {
+							return sendHttp1(request, sslSocket, address);
+						}
 
-						return connection.send(request);
+						return sslSocket.getHandshakeNotification()
+								.thenEx(($, e2) -> {
+									if (e2 != null) {
+										if (inspector != null) inspector.onConnectError(request, address, e2);
+										completeHttp2Connect(address, http2Connect, null, e2);
+										request.recycle();
+										return Promise.ofException(e2);
+									}
+									if ("h2".equals(sslSocket.getApplicationProtocol())) {
+										return sendHttp2(request, sslSocket, address, true, http2Connect);
+									}
+									completeHttp2Connect(address, http2Connect, null, null);
+									return sendHttp1(request, sslSocket, address);
+								});
 					} else {
 						if (inspector != null) inspector.onConnectError(request, address, e);
+						if (http2Connect != null) completeHttp2Connect(address, http2Connect, null, e);
 						request.recycle();
 						return Promise.ofException(e);
 					}
 				});
 	}
 
+	private Promise<HttpResponse> sendHttp1(HttpRequest request, AsyncTcpSocket asyncTcpSocket, InetSocketAddress address) {
+		HttpClientConnection connection = new HttpClientConnection(eventloop, this, asyncTcpSocket, address);
+
+		if (inspector != null) inspector.onConnect(request, connection);
+
+		return connection.send(request);
+	}
+
+	private Promise<HttpResponse> sendHttp2(HttpRequest request, AsyncTcpSocket asyncTcpSocket, InetSocketAddress address,
+			boolean https, SettablePromise<@Nullable Http2ClientConnection> http2Connect) {
+		Http2ClientConnection connection = new Http2ClientConnection(eventloop, this, asyncTcpSocket, address, https);
+
+		if (inspector != null) inspector.onConnect(request, connection);
+
+		connection.start();
+		Promise<HttpResponse> response = connection.send(request);
+		if (connection.isAvailable()) {
+			http2Connections.put(address, connection);
+		}
+		completeHttp2Connect(address, http2Connect, connection, null);
+		return response;
+	}
+
+	private void completeHttp2Connect(InetSocketAddress address, SettablePromise<@Nullable Http2ClientConnection> http2Connect,
+			@Nullable Http2ClientConnection connection, @Nullable Throwable e) {
+		if (http2Connects.get(address) == http2Connect) {
+			http2Connects.remove(address);
+		}
+		http2Connect.trySet(connection, e);
+	}
+
+	void onHttp2ConnectionUnavailable(Http2ClientConnection connection) {
+		if (http2Connections.get(connection.remoteAddress) == connection) {
+			http2Connections.remove(connection.remoteAddress);
+		}
+	}
+
 	@NotNull
 	@Override
 	public Eventloop getEventloop() {
@@ -39,7 +39,10 @@ import java.time.Duration;
 import java.util.List;
 import java.util.stream.Stream;
 
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
 import static io.datakernel.http.AbstractHttpConnection.READ_TIMEOUT_ERROR;
+import static io.datakernel.http.HttpHeaders.DATE;
+import static io.datakernel.http.HttpHeaders.SERVER;
 import static java.util.stream.Collectors.toList;
 
 /**
@@ -53,6 +56,9 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 	public static final Duration KEEP_ALIVE_TIMEOUT = ApplicationSettings.getDuration(AsyncHttpServer.class, "keepAliveTimeout", Duration.ofSeconds(30));
 	public static final MemSize MAX_BODY_SIZE = ApplicationSettings.getMemSize(AsyncHttpServer.class, "maxBodySize", MemSize.ZERO);
 	public static final int MAX_KEEP_ALIVE_REQUESTS = ApplicationSettings.getInt(AsyncHttpServer.class, "maxKeepAliveRequests", 0);
+	public static final boolean HTTP2 = ApplicationSettings.getBoolean(AsyncHttpServer.class, "http2", false);
+	public static final boolean WEB_SOCKET_DEFLATE = ApplicationSettings.getBoolean(AsyncHttpServer.class, "webSocketDeflate", true);
+	public static final boolean DATE_HEADER = ApplicationSettings.getBoolean(AsyncHttpServer.class, "dateHeader", false);
 
 	@NotNull
 	private final AsyncServlet servlet;
@@ -65,6 +71,15 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 	int keepAliveTimeoutMillis = (int) KEEP_ALIVE_TIMEOUT.toMillis();
 	int maxBodySize = MAX_BODY_SIZE.toInt();
 	int maxKeepAliveRequests = MAX_KEEP_ALIVE_REQUESTS;
+	boolean http2 = HTTP2;
+	boolean webSocketDeflate = WEB_SOCKET_DEFLATE;
+	boolean dateHeader = DATE_HEADER;
+	@Nullable
+	HttpHeaderValue serverHeader;
+
+	@Nullable
+	private HttpHeaderValue cachedDateHeader;
+	private long cachedDateSeconds;
 
 	final ConnectionsLinkedList poolNew = new ConnectionsLinkedList();
 	final ConnectionsLinkedList poolReadWrite = new ConnectionsLinkedList();
@@ -155,6 +170,9 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 	private AsyncHttpServer(@NotNull Eventloop eventloop, @NotNull AsyncServlet servlet) {
 		super(eventloop);
 		this.servlet = servlet;
+		if (http2) {
+			withSslApplicationProtocols("h2", "http/1.1");
+		}
 	}
 
 	public static AsyncHttpServer create(@NotNull Eventloop eventloop, @NotNull AsyncServlet servlet) {
@@ -195,6 +213,43 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 		return this;
 	}
 
+	/**
+	 * Enables HTTP/2 alongside HTTP/1.x. HTTP/2 is used for connections which start with HTTP/2
+	 * connection preface (prior knowledge or ALPN-negotiated "h2" over SSL), and for HTTP/1.1 requests
+	 * which ask to upgrade to "h2c".
+	 */
+	public AsyncHttpServer withHttp2(boolean http2) {
+		this.http2 = http2;
+		return http2 ?
+				withSslApplicationProtocols("h2", "http/1.1") :
+				withSslApplicationProtocols((String[]) null);
+	}
+
+	/**
+	 * Enables permessage-deflate compression of WebSocket messages if the client offers it
+	 */
+	public AsyncHttpServer withWebSocketDeflate(boolean webSocketDeflate) {
+		this.webSocketDeflate = webSocketDeflate;
+		return this;
+	}
+
+	/**
+	 * Adds a {@code Date} header to each of the responses that do not have one.
+	 * The header value is rendered at most once per second
+	 */
+	public AsyncHttpServer withDateHeader(boolean dateHeader) {
+		this.dateHeader = dateHeader;
+		return this;
+	}
+
+	/**
+	 * Adds a {@code Server} header with a given value to each of the responses that do not have one
+	 */
+	public AsyncHttpServer withServerHeader(@Nullable String serverHeader) {
+		this.serverHeader = serverHeader != null ? HttpHeaderValue.ofBytes(encodeAscii(serverHeader)) : null;
+		return this;
+	}
+
 	public AsyncHttpServer withHttpErrorFormatter(@NotNull HttpExceptionFormatter httpExceptionFormatter) {
 		errorFormatter = httpExceptionFormatter;
 		return this;
@@ -219,6 +274,26 @@ public final class AsyncHttpServer extends AbstractServer<AsyncHttpServer> {
 		return closeNotification;
 	}
 
+	void addDefaultHeaders(HttpResponse response) {
+		if (dateHeader && response.headers.get(DATE) == null) {
+			response.addHeader(DATE, getDateHeader());
+		}
+		if (serverHeader != null && response.headers.get(SERVER) == null) {
+			response.addHeader(SERVER, serverHeader);
+		}
+	}
+
+	private HttpHeaderValue getDateHeader() {
+		long seconds = eventloop.currentTimeMillis() / 1000L;
+		if (cachedDateHeader == null || seconds != cachedDateSeconds) {
+			byte[] bytes = new byte[29];
+			HttpDate.render(seconds, bytes, 0);
+			cachedDateHeader = HttpHeaderValue.ofBytes(bytes);
+			cachedDateSeconds = seconds;
+		}
+		return cachedDateHeader;
+	}
+
 	private void scheduleExpiredConnectionsCheck() {
 		assert expiredConnectionsCheck == null;
 		expiredConnectionsCheck = eventloop.delayBackground(1000L, () -> {
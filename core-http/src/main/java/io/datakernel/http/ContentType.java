@@ -36,6 +36,8 @@ public final class ContentType {
 	final MediaType mime;
 	final HttpCharset charset;
 
+	private byte[] bytes;
+
 	ContentType(MediaType mime, HttpCharset charset) {
 		this.mime = mime;
 		this.charset = charset;
@@ -94,8 +96,20 @@ public final class ContentType {
 	}
 
 	static void render(ContentType type, ByteBuf buf) {
-		int pos = render(type, buf.array(), buf.tail());
-		buf.tail(pos);
+		buf.put(type.getBytes());
+	}
+
+	/**
+	 * Returns the rendered value of this content type, it is encoded once and shared by all of the messages
+	 */
+	byte[] getBytes() {
+		byte[] bytes = this.bytes;
+		if (bytes == null) {
+			bytes = new byte[size()];
+			render(this, bytes, 0);
+			this.bytes = bytes;
+		}
+		return bytes;
 	}
 
 	static int render(ContentType type, byte[] container, int pos) {
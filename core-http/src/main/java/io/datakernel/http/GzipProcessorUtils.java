@@ -195,7 +195,7 @@ public final class GzipProcessorUtils {
 		throw CORRUPTED_GZIP_HEADER;
 	}
 
-	private static Inflater ensureDecompressor() {
+	static Inflater ensureDecompressor() {
 		Inflater decompressor = decompressors.pop();
 		if (decompressor == null) {
 			decompressor = new Inflater(true);
@@ -203,12 +203,12 @@ public final class GzipProcessorUtils {
 		return decompressor;
 	}
 
-	private static void moveDecompressorToPool(Inflater decompressor) {
+	static void moveDecompressorToPool(Inflater decompressor) {
 		decompressor.reset();
 		decompressors.push(decompressor);
 	}
 
-	private static Deflater ensureCompressor() {
+	static Deflater ensureCompressor() {
 		Deflater compressor = compressors.pop();
 		if (compressor == null) {
 			compressor = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
@@ -216,7 +216,7 @@ public final class GzipProcessorUtils {
 		return compressor;
 	}
 
-	private static void moveCompressorToPool(Deflater compressor) {
+	static void moveCompressorToPool(Deflater compressor) {
 		compressor.reset();
 		compressors.push(compressor);
 	}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.http.AsyncHttpClient.Inspector;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.SettablePromise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.decodePositiveInt;
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+import static io.datakernel.http.Http2Exception.PROTOCOL_ERROR;
+import static io.datakernel.http.Http2Exception.REFUSED_STREAM;
+import static io.datakernel.http.HttpHeaders.HOST;
+
+/**
+ * Client side of HTTP/2 connection, multiplexes concurrent requests to the same address over a single socket.
+ * Requests which exceed the peer's limit of concurrent streams are queued until some of the active streams are closed.
+ */
+final class Http2ClientConnection extends AbstractHttp2Connection {
+	public static final Http2Exception REFUSED_BY_GOAWAY = new Http2Exception(REFUSED_STREAM, "Stream was not processed by the server");
+
+	private static final byte[] SCHEME_HTTP = encodeAscii("http");
+	private static final byte[] SCHEME_HTTPS = encodeAscii("https");
+	private static final byte[] ROOT_PATH = encodeAscii("/");
+
+	private static final class PendingRequest {
+		final HttpRequest request;
+		final SettablePromise<HttpResponse> promise;
+
+		PendingRequest(HttpRequest request, SettablePromise<HttpResponse> promise) {
+			this.request = request;
+			this.promise = promise;
+		}
+	}
+
+	final InetSocketAddress remoteAddress;
+	private final AsyncHttpClient client;
+	@Nullable
+	private final Inspector inspector;
+	private final boolean https;
+	private final int maxBodySize;
+
+	private int nextStreamId = 1;
+	private final ArrayDeque<PendingRequest> pendingRequests = new ArrayDeque<>();
+
+	Http2ClientConnection(Eventloop eventloop, AsyncHttpClient client,
+			AsyncTcpSocket socket, InetSocketAddress remoteAddress, boolean https) {
+		super(eventloop, socket, false);
+		this.remoteAddress = remoteAddress;
+		this.client = client;
+		this.inspector = client.inspector;
+		this.https = https;
+		this.maxBodySize = client.maxBodySize;
+	}
+
+	void start() {
+		(pool = client.poolKeepAlive).addLastNode(this);
+		poolTimestamp = eventloop.currentTimeMillis();
+		writePreface();
+		writeSettings();
+		readFrames();
+	}
+
+	/**
+	 * Returns {@code true} if new requests can be sent over this connection
+	 */
+	boolean isAvailable() {
+		return !isClosed() && !goAway && nextStreamId > 0;
+	}
+
+	Promise<HttpResponse> send(HttpRequest request) {
+		SettablePromise<HttpResponse> promise = new SettablePromise<>();
+		if (!isAvailable()) {
+			request.recycle();
+			promise.setException(REFUSED_BY_GOAWAY);
+		} else if (streams.size() >= remoteMaxConcurrentStreams) {
+			pendingRequests.add(new PendingRequest(request, promise));
+		} else {
+			doSend(request, promise);
+		}
+		return promise;
+	}
+
+	private void doSend(HttpRequest request, SettablePromise<HttpResponse> promise) {
+		Stream stream = openStream(nextStreamId);
+		nextStreamId += 2;
+		stream.responsePromise = promise;
+
+		String authority = request.getHeader(HOST);
+		if (authority == null) {
+			authority = request.getUrl().getHostAndPort();
+		}
+		String pathAndQuery = request.getPathAndQuery();
+
+		ByteBuf block = allocateHeaderBlock();
+		block = encodeHeader(block, PSEUDO_METHOD, request.getMethod().bytes);
+		block = encodeHeader(block, PSEUDO_SCHEME, https ? SCHEME_HTTPS : SCHEME_HTTP);
+		if (authority != null) {
+			block = encodeHeader(block, PSEUDO_AUTHORITY, encodeAscii(authority));
+		}
+		block = encodeHeader(block, PSEUDO_PATH, pathAndQuery.isEmpty() ? ROOT_PATH : encodeAscii(pathAndQuery));
+		writeMessage(stream, block, request, HOST);
+	}
+
+	@Override
+	void onHeaders(int streamId, List<byte[]> fields, boolean endStream) throws ParseException {
+		Stream stream = streams.get(streamId);
+		if (stream == null) {
+			if (isIdleStream(streamId)) throw new Http2Exception(PROTOCOL_ERROR, "HEADERS frame on idle stream");
+			return;
+		}
+		if (stream.remoteClosed) {
+			resetStream(stream, new Http2Exception(Http2Exception.STREAM_CLOSED, "HEADERS frame on half-closed stream"));
+			return;
+		}
+		if (stream.message != null) {
+			if (endStream) {
+				onRemoteEnd(stream); // trailers are ignored
+			} else {
+				resetStream(stream, MALFORMED_MESSAGE);
+			}
+			return;
+		}
+
+		HttpResponse response;
+		try {
+			response = toResponse(fields);
+		} catch (ParseException e) {
+			resetStream(stream, MALFORMED_MESSAGE);
+			return;
+		}
+		if (response == null) {
+			if (endStream) {
+				resetStream(stream, MALFORMED_MESSAGE);
+			}
+			return;
+		}
+		response.maxBodySize = maxBodySize;
+		receiveMessage(stream, response);
+		if (endStream) {
+			onRemoteEnd(stream);
+		}
+	}
+
+	/**
+	 * Returns a response for the decoded header list, or {@code null} for informational (1xx) responses
+	 */
+	@Nullable
+	private static HttpResponse toResponse(List<byte[]> fields) throws ParseException {
+		if (fields.isEmpty() || !Arrays.equals(fields.get(0), PSEUDO_STATUS)) throw MALFORMED_MESSAGE;
+		byte[] status = fields.get(1);
+		int code = decodePositiveInt(status, 0, status.length);
+		if (code < 100 || code > 999) throw MALFORMED_MESSAGE;
+		if (code < 200) return null;
+		HttpResponse response = new HttpResponse(code);
+		addHeaders(response, fields, 2);
+		return response;
+	}
+
+	@Override
+	void onMessageReceived(Stream stream) {
+		HttpResponse response = (HttpResponse) stream.message;
+		SettablePromise<HttpResponse> promise = stream.responsePromise;
+		assert response != null && promise != null;
+		stream.responsePromise = null;
+		if (inspector != null) inspector.onHttpResponse(this, response);
+		promise.set(response);
+	}
+
+	@Override
+	void onStreamClosed(Stream stream, @Nullable Throwable e) {
+		SettablePromise<HttpResponse> promise = stream.responsePromise;
+		if (promise != null) {
+			stream.responsePromise = null;
+			Throwable exception = e != null ? e : CONNECTION_CLOSED;
+			if (inspector != null) inspector.onHttpError(this, false, exception);
+			promise.setException(exception);
+		}
+		if (stream.message != null) {
+			stream.message.recycle();
+			stream.message = null;
+		}
+		while (!pendingRequests.isEmpty() && streams.size() < remoteMaxConcurrentStreams && isAvailable()) {
+			PendingRequest pendingRequest = pendingRequests.poll();
+			doSend(pendingRequest.request, pendingRequest.promise);
+		}
+	}
+
+	@Override
+	boolean isIdleStream(int streamId) {
+		return (streamId & 1) == 0 || streamId >= nextStreamId;
+	}
+
+	@Override
+	int getLastStreamId() {
+		return 0;
+	}
+
+	@Override
+	void onGoAway(int lastStreamId) {
+		client.onHttp2ConnectionUnavailable(this);
+		for (Stream stream : new ArrayList<>(streams.values())) {
+			if (stream.id > lastStreamId) {
+				resetStream(stream, REFUSED_BY_GOAWAY);
+			}
+		}
+		failPendingRequests(REFUSED_BY_GOAWAY);
+	}
+
+	@Override
+	void onActive() {
+		switchPool(client.poolReadWrite);
+	}
+
+	@Override
+	void onIdle() {
+		if (!pendingRequests.isEmpty()) return;
+		if (goAway || client.keepAliveTimeoutMillis == 0) {
+			shutdown();
+		} else {
+			switchPool(client.poolKeepAlive);
+		}
+	}
+
+	@Override
+	void onFramesRead() {
+		if (pool == client.poolReadWrite) {
+			poolTimestamp = eventloop.currentTimeMillis();
+		}
+	}
+
+	@Override
+	void onConnectionError(@NotNull Throwable e) {
+		if (streams.isEmpty() && inspector != null) {
+			inspector.onHttpError(this, true, e);
+		}
+	}
+
+	@Override
+	void onConnectionClosed() {
+		failPendingRequests(CONNECTION_CLOSED);
+		client.onHttp2ConnectionUnavailable(this);
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		//noinspection AssertWithSideEffects,ConstantConditions
+		assert (pool = null) == null;
+		client.onConnectionClosed();
+	}
+
+	private void failPendingRequests(Throwable e) {
+		while (!pendingRequests.isEmpty()) {
+			PendingRequest pendingRequest = pendingRequests.poll();
+			pendingRequest.request.recycle();
+			pendingRequest.promise.setException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Http2ClientConnection{" +
+				"remoteAddress=" + remoteAddress +
+				", nextStreamId=" + nextStreamId +
+				", pendingRequests=" + pendingRequests.size() +
+				super.toString() +
+				'}';
+	}
+}
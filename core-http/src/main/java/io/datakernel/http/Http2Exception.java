@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.common.parse.ParseException;
+
+/**
+ * An HTTP/2 connection or stream error, carries one of the error codes defined in RFC 7540, section 7
+ */
+public final class Http2Exception extends ParseException {
+	public static final int NO_ERROR = 0x0;
+	public static final int PROTOCOL_ERROR = 0x1;
+	public static final int INTERNAL_ERROR = 0x2;
+	public static final int FLOW_CONTROL_ERROR = 0x3;
+	public static final int SETTINGS_TIMEOUT = 0x4;
+	public static final int STREAM_CLOSED = 0x5;
+	public static final int FRAME_SIZE_ERROR = 0x6;
+	public static final int REFUSED_STREAM = 0x7;
+	public static final int CANCEL = 0x8;
+	public static final int COMPRESSION_ERROR = 0x9;
+	public static final int CONNECT_ERROR = 0xa;
+	public static final int ENHANCE_YOUR_CALM = 0xb;
+	public static final int INADEQUATE_SECURITY = 0xc;
+	public static final int HTTP_1_1_REQUIRED = 0xd;
+
+	private final int errorCode;
+
+	public Http2Exception(int errorCode, String message) {
+		super(Http2Exception.class, message);
+		this.errorCode = errorCode;
+	}
+
+	public int getErrorCode() {
+		return errorCode;
+	}
+}
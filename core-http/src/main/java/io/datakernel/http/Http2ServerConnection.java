@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.exception.UncheckedException;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.http.AsyncHttpServer.Inspector;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.decodeAscii;
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+import static io.datakernel.http.Http2Exception.PROTOCOL_ERROR;
+import static io.datakernel.http.Http2Exception.REFUSED_STREAM;
+import static io.datakernel.http.HttpHeaders.HOST;
+
+/**
+ * Server side of HTTP/2 connection, serves each of the client-initiated streams
+ * with {@link AsyncServlet} the same way as {@link HttpServerConnection} serves HTTP/1.x requests
+ */
+final class Http2ServerConnection extends AbstractHttp2Connection {
+	private final InetAddress remoteAddress;
+	private final AsyncHttpServer server;
+	@Nullable
+	private final Inspector inspector;
+	private final AsyncServlet servlet;
+	private final int maxBodySize;
+
+	private int lastStreamId;
+
+	Http2ServerConnection(Eventloop eventloop, InetAddress remoteAddress, AsyncTcpSocket socket,
+			AsyncHttpServer server, AsyncServlet servlet) {
+		super(eventloop, socket, true);
+		this.remoteAddress = remoteAddress;
+		this.server = server;
+		this.servlet = servlet;
+		this.inspector = server.inspector;
+		this.maxBodySize = server.maxBodySize;
+	}
+
+	void serve() {
+		(pool = server.poolKeepAlive).addLastNode(this);
+		poolTimestamp = eventloop.currentTimeMillis();
+		writeSettings();
+		processFrames();
+	}
+
+	/**
+	 * Continues the connection which was upgraded from HTTP/1.1 via {@code Upgrade: h2c} header,
+	 * the upgrading request is served as a half-closed stream 1
+	 */
+	void serveUpgraded(HttpRequest request, ByteBuf settings) {
+		(pool = server.poolKeepAlive).addLastNode(this);
+		poolTimestamp = eventloop.currentTimeMillis();
+		writeSettings();
+		try {
+			applySettings(settings);
+		} catch (Http2Exception e) {
+			request.recycle();
+			goAwayAndClose(e);
+			return;
+		} finally {
+			settings.recycle();
+		}
+		lastStreamId = 1;
+		Stream stream = openStream(1);
+		stream.remoteClosed = true;
+		stream.message = request;
+		serveRequest(stream, request);
+		if (isClosed()) return;
+		processFrames();
+	}
+
+	@Override
+	void onHeaders(int streamId, List<byte[]> fields, boolean endStream) throws ParseException {
+		Stream stream = streams.get(streamId);
+		if (stream != null) {
+			if (stream.remoteClosed) {
+				resetStream(stream, new Http2Exception(Http2Exception.STREAM_CLOSED, "HEADERS frame on half-closed stream"));
+			} else if (!endStream) {
+				resetStream(stream, MALFORMED_MESSAGE);
+			} else {
+				onRemoteEnd(stream); // trailers are ignored
+			}
+			return;
+		}
+		if ((streamId & 1) == 0) throw new Http2Exception(PROTOCOL_ERROR, "Invalid stream identifier");
+		if (streamId <= lastStreamId) return;
+		lastStreamId = streamId;
+		if (goAway) return;
+		if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+			stream = openStream(streamId);
+			resetStream(stream, new Http2Exception(REFUSED_STREAM, "Too many concurrent streams"));
+			return;
+		}
+
+		HttpRequest request;
+		try {
+			request = toRequest(fields);
+		} catch (ParseException e) {
+			if (inspector != null) inspector.onHttpError(remoteAddress, e);
+			resetStream(openStream(streamId), MALFORMED_MESSAGE);
+			return;
+		}
+		request.maxBodySize = maxBodySize;
+		request.setRemoteAddress(remoteAddress);
+
+		stream = openStream(streamId);
+		receiveMessage(stream, request);
+		if (endStream) {
+			onRemoteEnd(stream);
+		}
+	}
+
+	private HttpRequest toRequest(List<byte[]> fields) throws ParseException {
+		HttpMethod method = null;
+		String path = null;
+		byte[] authority = null;
+		int i = 0;
+		for (; i < fields.size(); i += 2) {
+			byte[] name = fields.get(i);
+			if (name.length == 0 || name[0] != ':') break;
+			byte[] value = fields.get(i + 1);
+			if (Arrays.equals(name, PSEUDO_METHOD)) {
+				method = toMethod(value);
+			} else if (Arrays.equals(name, PSEUDO_PATH)) {
+				path = decodeAscii(value);
+			} else if (Arrays.equals(name, PSEUDO_AUTHORITY)) {
+				authority = value;
+			} else if (!Arrays.equals(name, PSEUDO_SCHEME)) {
+				throw MALFORMED_MESSAGE;
+			}
+		}
+		if (method == null || path == null || path.isEmpty()) throw MALFORMED_MESSAGE;
+
+		HttpRequest request = new HttpRequest(method, UrlParser.parse(path));
+		if (authority != null) {
+			request.addHeader(HOST, authority);
+		}
+		addHeaders(request, fields, i);
+		return request;
+	}
+
+	private static HttpMethod toMethod(byte[] value) throws ParseException {
+		for (HttpMethod method : HttpMethod.values()) {
+			if (method.compareTo(value, 0, value.length)) {
+				return method;
+			}
+		}
+		throw MALFORMED_MESSAGE;
+	}
+
+	@Override
+	void onMessageReceived(Stream stream) {
+		//noinspection ConstantConditions
+		serveRequest(stream, (HttpRequest) stream.message);
+	}
+
+	private void serveRequest(Stream stream, HttpRequest request) {
+		if (inspector != null) {
+			inspector.onHttpRequest(request);
+		}
+
+		stream.serving = true;
+		Promise<HttpResponse> servletResult;
+		try {
+			servletResult = servlet.serveAsync(request);
+		} catch (UncheckedException u) {
+			servletResult = Promise.ofException(u.getCause());
+		}
+		servletResult.whenComplete((response, e) -> {
+			assert eventloop.inEventloopThread();
+			stream.serving = false;
+			if (isClosed() || stream.reset) {
+				request.recycle();
+				stream.message = null;
+				if (response != null) {
+					response.recycle();
+				}
+				return;
+			}
+
+			if (request.bodyStream != null) {
+				request.bodyStream.streamTo(BUF_RECYCLER);
+				request.bodyStream = null;
+			}
+
+			if (e == null) {
+				if (inspector != null) {
+					inspector.onHttpResponse(request, response);
+				}
+				if (response.webSocketHandler != null) {
+					// RFC 8441 extended CONNECT is not supported
+					response.recycle();
+					response = server.formatHttpError(WebSocketConnection.NOT_A_HANDSHAKE);
+				}
+				writeResponse(stream, response);
+			} else {
+				if (inspector != null) {
+					inspector.onServletException(request, e);
+				}
+				writeResponse(stream, server.formatHttpError(e));
+			}
+		});
+	}
+
+	private void writeResponse(Stream stream, HttpResponse response) {
+		server.addDefaultHeaders(response);
+		ByteBuf block = allocateHeaderBlock();
+		block = encodeHeader(block, PSEUDO_STATUS, encodeAscii(Integer.toString(response.getCode())));
+		writeMessage(stream, block, response, null);
+	}
+
+	@Override
+	void onStreamClosed(Stream stream, @Nullable Throwable e) {
+		if (stream.message != null && !stream.serving) {
+			stream.message.recycle();
+			stream.message = null;
+		}
+	}
+
+	@Override
+	boolean isIdleStream(int streamId) {
+		return (streamId & 1) == 0 || streamId > lastStreamId;
+	}
+
+	@Override
+	int getLastStreamId() {
+		return lastStreamId;
+	}
+
+	@Override
+	void onGoAway(int lastStreamId) {
+	}
+
+	@Override
+	void onActive() {
+		switchPool(server.poolServing);
+	}
+
+	@Override
+	void onIdle() {
+		if (goAway || server.keepAliveTimeoutMillis == 0) {
+			shutdown();
+		} else {
+			switchPool(server.poolKeepAlive);
+		}
+	}
+
+	@Override
+	void onFramesRead() {
+	}
+
+	@Override
+	void onConnectionError(@NotNull Throwable e) {
+		if (inspector != null) {
+			inspector.onHttpError(remoteAddress, e);
+		}
+	}
+
+	@Override
+	void onConnectionClosed() {
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		//noinspection AssertWithSideEffects,ConstantConditions
+		assert (pool = null) == null;
+		server.onConnectionClosed();
+	}
+
+	@Override
+	public String toString() {
+		return "Http2ServerConnection{" +
+				"remoteAddress=" + remoteAddress +
+				", lastStreamId=" + lastStreamId +
+				super.toString() +
+				'}';
+	}
+}
@@ -29,11 +29,16 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.net.InetSocketAddress;
+import java.util.Set;
 
 import static io.datakernel.bytebuf.ByteBufStrings.SP;
 import static io.datakernel.bytebuf.ByteBufStrings.decodePositiveInt;
 import static io.datakernel.http.HttpHeaders.CONNECTION;
+import static io.datakernel.http.HttpHeaders.SEC_WEBSOCKET_EXTENSIONS;
+import static io.datakernel.http.HttpHeaders.SEC_WEBSOCKET_KEY;
 import static io.datakernel.http.HttpMessage.MUST_LOAD_BODY;
+import static io.datakernel.http.WebSocketConnection.SERVER_NO_CONTEXT_TAKEOVER;
+import static io.datakernel.http.WebSocketConnection.checkHandshakeResponse;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 /**
@@ -87,6 +92,9 @@ final class HttpClientConnection extends AbstractHttpConnection {
 	private SettablePromise<HttpResponse> promise;
 	@Nullable
 	private HttpResponse response;
+	@Nullable
+	private String webSocketKey;
+	private boolean webSocketDeflate;
 	private final AsyncHttpClient client;
 	@Nullable
 	private final Inspector inspector;
@@ -181,6 +189,43 @@ final class HttpClientConnection extends AbstractHttpConnection {
 		response.flags |= MUST_LOAD_BODY;
 		response.body = body;
 		response.bodyStream = bodySupplier;
+		if (webSocketKey != null && response.getCode() == 101) {
+			upgradeToWebSocket(response);
+			return;
+		}
+		if (inspector != null) inspector.onHttpResponse(this, response);
+
+		SettablePromise<HttpResponse> promise = this.promise;
+		this.promise = null;
+		//noinspection ConstantConditions
+		promise.set(response);
+	}
+
+	/**
+	 * Validates WebSocket handshake response (RFC 6455, section 4.2.2) and hands the socket over to a new WebSocket,
+	 * this connection is detached without closing the socket
+	 */
+	private void upgradeToWebSocket(HttpResponse response) {
+		Set<String> deflate;
+		try {
+			//noinspection ConstantConditions
+			deflate = checkHandshakeResponse(response, webSocketKey, webSocketDeflate);
+		} catch (WebSocketException e) {
+			closeWithError(e);
+			return;
+		}
+		flags |= CLOSED;
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		//noinspection AssertWithSideEffects,ConstantConditions
+		assert (pool = null) == null;
+		this.response = null;
+		client.onConnectionClosed();
+
+		WebSocketConnection webSocket = new WebSocketConnection(socket, true,
+				deflate != null, deflate != null && !deflate.contains(SERVER_NO_CONTEXT_TAKEOVER));
+		readQueue.drainTo(webSocket.readQueue);
+		response.webSocket = webSocket;
 		if (inspector != null) inspector.onHttpResponse(this, response);
 
 		SettablePromise<HttpResponse> promise = this.promise;
@@ -239,13 +284,18 @@ final class HttpClientConnection extends AbstractHttpConnection {
 		assert pool == null;
 		(pool = client.poolReadWrite).addLastNode(this);
 		poolTimestamp = eventloop.currentTimeMillis();
-		HttpHeaderValue connectionHeader = CONNECTION_KEEP_ALIVE_HEADER;
-		if (client.maxKeepAliveRequests != 0) {
-			if (++numberOfKeepAliveRequests >= client.maxKeepAliveRequests) {
-				connectionHeader = CONNECTION_CLOSE_HEADER;
+		webSocketKey = request.getHeader(SEC_WEBSOCKET_KEY);
+		if (webSocketKey == null) {
+			HttpHeaderValue connectionHeader = CONNECTION_KEEP_ALIVE_HEADER;
+			if (client.maxKeepAliveRequests != 0) {
+				if (++numberOfKeepAliveRequests >= client.maxKeepAliveRequests) {
+					connectionHeader = CONNECTION_CLOSE_HEADER;
+				}
 			}
+			request.addHeader(CONNECTION, connectionHeader);
+		} else {
+			webSocketDeflate = request.getHeader(SEC_WEBSOCKET_EXTENSIONS) != null;
 		}
-		request.addHeader(CONNECTION, connectionHeader);
 		ByteBuf buf = renderHttpMessage(request);
 		if (buf != null) {
 			writeBuf(buf);
@@ -328,6 +328,13 @@ public abstract class HttpHeaderValue {
 
 		@Override
 		int estimateSize() {
+			int limit = 10;
+			for (int i = 1; i < 10; i++) {
+				if (value < limit) {
+					return i;
+				}
+				limit *= 10;
+			}
 			return 10; // Integer.toString(Integer.MAX_VALUE).length();
 		}
 
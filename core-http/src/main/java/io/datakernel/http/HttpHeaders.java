@@ -84,6 +84,11 @@ public final class HttpHeaders {
 	public static final HttpHeader PROXY_AUTHENTICATE = headers.register("Proxy-Authenticate");
 	public static final HttpHeader REFRESH = headers.register("Refresh");
 	public static final HttpHeader RETRY_AFTER = headers.register("Retry-After");
+	public static final HttpHeader SEC_WEBSOCKET_ACCEPT = headers.register("Sec-WebSocket-Accept");
+	public static final HttpHeader SEC_WEBSOCKET_EXTENSIONS = headers.register("Sec-WebSocket-Extensions");
+	public static final HttpHeader SEC_WEBSOCKET_KEY = headers.register("Sec-WebSocket-Key");
+	public static final HttpHeader SEC_WEBSOCKET_PROTOCOL = headers.register("Sec-WebSocket-Protocol");
+	public static final HttpHeader SEC_WEBSOCKET_VERSION = headers.register("Sec-WebSocket-Version");
 	public static final HttpHeader SERVER = headers.register("Server");
 	public static final HttpHeader SET_COOKIE = headers.register("Set-Cookie");
 	@Deprecated
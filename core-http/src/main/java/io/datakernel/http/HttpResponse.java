@@ -29,6 +29,7 @@ import org.jetbrains.annotations.Nullable;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
 import static io.datakernel.bytebuf.ByteBufStrings.putPositiveInt;
@@ -46,6 +47,7 @@ public final class HttpResponse extends HttpMessage implements Async<HttpRespons
 	private static final byte[] HTTP11_BYTES = encodeAscii("HTTP/1.1 ");
 	private static final byte[] CODE_ERROR_BYTES = encodeAscii(" Error");
 	private static final byte[] CODE_OK_BYTES = encodeAscii(" OK");
+	private static final byte[] CODE_101_BYTES = encodeAscii("HTTP/1.1 101 Switching Protocols");
 	private static final byte[] CODE_200_BYTES = encodeAscii("HTTP/1.1 200 OK");
 	private static final byte[] CODE_201_BYTES = encodeAscii("HTTP/1.1 201 Created");
 	private static final byte[] CODE_206_BYTES = encodeAscii("HTTP/1.1 206 Partial Content");
@@ -56,13 +58,17 @@ public final class HttpResponse extends HttpMessage implements Async<HttpRespons
 	private static final byte[] CODE_500_BYTES = encodeAscii("HTTP/1.1 500 Internal Server Error");
 	private static final byte[] CODE_502_BYTES = encodeAscii("HTTP/1.1 502 Bad Gateway");
 	private static final byte[] CODE_503_BYTES = encodeAscii("HTTP/1.1 503 Service Unavailable");
-	private static final int LONGEST_FIRST_LINE_SIZE = CODE_500_BYTES.length;
 
 	private final int code;
 
 	@Nullable
 	private Map<String, HttpCookie> parsedCookies;
 
+	@Nullable
+	Consumer<WebSocket> webSocketHandler;
+	@Nullable
+	WebSocket webSocket;
+
 	// region creators
 	HttpResponse(int code) {
 		this.code = code;
@@ -110,6 +116,19 @@ public final class HttpResponse extends HttpMessage implements Async<HttpRespons
 		return new HttpResponse(404);
 	}
 
+	/**
+	 * Creates a response which accepts a WebSocket handshake request, once the handshake is completed
+	 * the connection is handed to the given handler. Requests which are not WebSocket handshakes
+	 * (including HTTP/2 requests) are answered with 400 Bad Request, and the handler is not called.
+	 * Headers may be added to the handshake response, e.g. {@link HttpHeaders#SEC_WEBSOCKET_PROTOCOL}
+	 */
+	@NotNull
+	public static HttpResponse webSocket(@NotNull Consumer<WebSocket> handler) {
+		HttpResponse response = new HttpResponse(101);
+		response.webSocketHandler = handler;
+		return response;
+	}
+
 	@NotNull
 	public static Promise<HttpResponse> file(FileSliceSupplier downloader, String name, long size, @Nullable String rangeHeader) {
 		HttpResponse response = new HttpResponse(rangeHeader == null ? 200 : 206);
@@ -296,59 +315,58 @@ public final class HttpResponse extends HttpMessage implements Async<HttpRespons
 		return getCookies().get(cookie);
 	}
 
-	private static void writeCodeMessageEx(@NotNull ByteBuf buf, int code) {
-		buf.put(HTTP11_BYTES);
-		putPositiveInt(buf, code);
-		if (code >= 400) {
-			buf.put(CODE_ERROR_BYTES);
-		} else {
-			buf.put(CODE_OK_BYTES);
-		}
-	}
-
-	private static void writeCodeMessage(@NotNull ByteBuf buf, int code) {
-		byte[] result;
+	@Nullable
+	private static byte[] getCodeMessage(int code) {
 		switch (code) {
+			case 101:
+				return CODE_101_BYTES;
 			case 200:
-				result = CODE_200_BYTES;
-				break;
+				return CODE_200_BYTES;
 			case 201:
-				result = CODE_201_BYTES;
-				break;
+				return CODE_201_BYTES;
 			case 206:
-				result = CODE_206_BYTES;
-				break;
+				return CODE_206_BYTES;
 			case 302:
-				result = CODE_302_BYTES;
-				break;
+				return CODE_302_BYTES;
 			case 400:
-				result = CODE_400_BYTES;
-				break;
+				return CODE_400_BYTES;
 			case 403:
-				result = CODE_403_BYTES;
-				break;
+				return CODE_403_BYTES;
 			case 404:
-				result = CODE_404_BYTES;
-				break;
+				return CODE_404_BYTES;
 			case 500:
-				result = CODE_500_BYTES;
-				break;
+				return CODE_500_BYTES;
 			case 502:
-				result = CODE_502_BYTES;
-				break;
+				return CODE_502_BYTES;
 			case 503:
-				result = CODE_503_BYTES;
-				break;
+				return CODE_503_BYTES;
 			default:
-				writeCodeMessageEx(buf, code);
-				return;
+				return null;
+		}
+	}
+
+	private static void writeCodeMessage(@NotNull ByteBuf buf, int code) {
+		byte[] codeMessage = getCodeMessage(code);
+		if (codeMessage != null) {
+			buf.put(codeMessage);
+			return;
+		}
+		buf.put(HTTP11_BYTES);
+		putPositiveInt(buf, code);
+		buf.put(code >= 400 ? CODE_ERROR_BYTES : CODE_OK_BYTES);
+	}
+
+	private static int estimateCodeMessageSize(int code) {
+		byte[] codeMessage = getCodeMessage(code);
+		if (codeMessage != null) {
+			return codeMessage.length;
 		}
-		buf.put(result);
+		return HTTP11_BYTES.length + (code < 1000 ? 3 : 10) + (code >= 400 ? CODE_ERROR_BYTES.length : CODE_OK_BYTES.length);
 	}
 
 	@Override
 	protected int estimateSize() {
-		return estimateSize(LONGEST_FIRST_LINE_SIZE);
+		return estimateSize(estimateCodeMessageSize(code));
 	}
 
 	@Override
@@ -17,6 +17,7 @@
 package io.datakernel.http;
 
 import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
 import io.datakernel.common.concurrent.ThreadLocalCharArray;
 import io.datakernel.common.exception.UncheckedException;
 import io.datakernel.common.parse.ParseException;
@@ -31,11 +32,15 @@ import org.jetbrains.annotations.Nullable;
 
 import java.net.InetAddress;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.Consumer;
 
 import static io.datakernel.bytebuf.ByteBufStrings.*;
-import static io.datakernel.http.HttpHeaders.CONNECTION;
+import static io.datakernel.http.AbstractHttp2Connection.PREFACE;
+import static io.datakernel.http.HttpHeaders.*;
 import static io.datakernel.http.HttpMessage.MUST_LOAD_BODY;
 import static io.datakernel.http.HttpMethod.*;
+import static io.datakernel.http.WebSocketConnection.*;
 
 /**
  * It represents server connection. It can receive {@link HttpRequest requests}
@@ -77,6 +82,16 @@ final class HttpServerConnection extends AbstractHttpConnection {
 	private static final byte[] EXPECT_100_CONTINUE = encodeAscii("100-continue");
 	private static final byte[] EXPECT_RESPONSE_CONTINUE = encodeAscii("HTTP/1.1 100 Continue\r\n\r\n");
 
+	private static final HttpHeader HTTP2_SETTINGS = HttpHeaders.of("HTTP2-Settings");
+	private static final byte[] SWITCHING_PROTOCOLS_H2C = encodeAscii("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n");
+
+	private final ReadConsumer prefaceConsumer = new ReadConsumer() {
+		@Override
+		public void thenRun() throws ParseException {
+			readPreface();
+		}
+	};
+
 	/**
 	 * Creates a new instance of HttpServerConnection
 	 *
@@ -99,7 +114,64 @@ final class HttpServerConnection extends AbstractHttpConnection {
 	public void serve() {
 		(pool = server.poolNew).addLastNode(this);
 		poolTimestamp = eventloop.currentTimeMillis();
-		socket.read().whenComplete(startLineConsumer);
+		socket.read().whenComplete(server.http2 ? prefaceConsumer : startLineConsumer);
+	}
+
+	/**
+	 * Checks whether the connection starts with HTTP/2 connection preface,
+	 * otherwise continues reading it as HTTP/1.x connection
+	 */
+	private void readPreface() throws ParseException {
+		int size = Math.min(readQueue.remainingBytes(), PREFACE.length);
+		for (int i = 0; i < size; i++) {
+			if (readQueue.peekByte(i) != PREFACE[i]) {
+				readHttpMessage();
+				return;
+			}
+		}
+		if (size < PREFACE.length) {
+			socket.read().whenComplete(prefaceConsumer);
+			return;
+		}
+		switchToHttp2().serve();
+	}
+
+	/**
+	 * Hands the socket over to a new HTTP/2 connection, this connection is detached without closing the socket
+	 */
+	private Http2ServerConnection switchToHttp2() {
+		flags |= CLOSED;
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		//noinspection AssertWithSideEffects,ConstantConditions
+		assert (pool = null) == null;
+		Http2ServerConnection connection = new Http2ServerConnection(eventloop, remoteAddress, socket, server, servlet);
+		readQueue.drainTo(connection.readQueue);
+		return connection;
+	}
+
+	private boolean isUpgradeToHttp2(HttpRequest request) {
+		if (!server.http2 || request.body == null || readQueue.hasRemaining()) return false;
+		String upgrade = request.getHeader(UPGRADE);
+		return upgrade != null && "h2c".equalsIgnoreCase(upgrade.trim()) && request.getHeader(HTTP2_SETTINGS) != null;
+	}
+
+	/**
+	 * Switches to HTTP/2 as requested by {@code Upgrade: h2c} header (RFC 7540, section 3.2),
+	 * the request itself is served over HTTP/2 as stream 1
+	 */
+	private void upgradeToHttp2(HttpRequest request) {
+		ByteBuf settings;
+		try {
+			//noinspection ConstantConditions
+			settings = ByteBuf.wrapForReading(Base64.getUrlDecoder().decode(request.getHeader(HTTP2_SETTINGS).trim()));
+		} catch (IllegalArgumentException e) {
+			closeWithError(new ParseException(HttpServerConnection.class, "Invalid HTTP2-Settings header", e));
+			return;
+		}
+		this.request = null;
+		socket.write(ByteBuf.wrapForReading(SWITCHING_PROTOCOLS_H2C));
+		switchToHttp2().serveUpgraded(request, settings);
 	}
 
 	@Override
@@ -225,6 +297,7 @@ final class HttpServerConnection extends AbstractHttpConnection {
 			}
 		}
 		httpResponse.addHeader(CONNECTION, connectionHeader);
+		server.addDefaultHeaders(httpResponse);
 		ByteBuf buf = renderHttpMessage(httpResponse);
 		if (buf != null) {
 			if ((flags & KEEP_ALIVE) != 0) {
@@ -246,6 +319,11 @@ final class HttpServerConnection extends AbstractHttpConnection {
 		request.bodyStream = bodySupplier;
 		request.setRemoteAddress(remoteAddress);
 
+		if (isUpgradeToHttp2(request)) {
+			upgradeToHttp2(request);
+			return;
+		}
+
 		if (inspector != null) {
 			inspector.onHttpRequest(request);
 		}
@@ -268,12 +346,17 @@ final class HttpServerConnection extends AbstractHttpConnection {
 				}
 				return;
 			}
+			boolean upgraded = false;
 			if (e == null) {
 				if (inspector != null) {
 					inspector.onHttpResponse(request, response);
 				}
 				switchPool(server.poolReadWrite);
-				writeHttpResponse(response);
+				if (response.webSocketHandler != null) {
+					upgraded = upgradeToWebSocket(request, response);
+				} else {
+					writeHttpResponse(response);
+				}
 			} else {
 				if (inspector != null) {
 					inspector.onServletException(request, e);
@@ -286,9 +369,58 @@ final class HttpServerConnection extends AbstractHttpConnection {
 				request.bodyStream.streamTo(BUF_RECYCLER);
 				request.bodyStream = null;
 			}
+			if (upgraded) {
+				// the WebSocket handler may refer to the request, so it is recycled once the socket is handed over
+				request.recycle();
+			}
 		});
 	}
 
+	/**
+	 * Completes WebSocket handshake (RFC 6455, section 4.2.2) and hands the socket over to a new WebSocket,
+	 * this connection is detached without closing the socket
+	 *
+	 * @return {@code true} if the socket has been handed over, in which case the request is to be recycled by the caller
+	 */
+	private boolean upgradeToWebSocket(HttpRequest request, HttpResponse response) {
+		Consumer<WebSocket> handler = response.webSocketHandler;
+		assert handler != null;
+		if (!isHandshakeRequest(request)) {
+			response.recycle();
+			writeException(NOT_A_HANDSHAKE);
+			return false;
+		}
+		boolean deflate = server.webSocketDeflate && findDeflateExtension(request.getHeader(SEC_WEBSOCKET_EXTENSIONS), true) != null;
+		//noinspection ConstantConditions - checked by isHandshakeRequest
+		response.addHeader(SEC_WEBSOCKET_ACCEPT, getAcceptKey(request.getHeader(SEC_WEBSOCKET_KEY)));
+		response.addHeader(UPGRADE, WEB_SOCKET);
+		response.addHeader(CONNECTION, "Upgrade");
+		if (deflate) {
+			response.addHeader(SEC_WEBSOCKET_EXTENSIONS, DEFLATE_RESPONSE);
+		}
+		ByteBuf buf = ByteBufPool.allocate(response.estimateSize());
+		response.writeTo(buf);
+		response.recycle();
+		socket.write(buf);
+
+		flags |= CLOSED;
+		//noinspection ConstantConditions
+		pool.removeNode(this);
+		//noinspection AssertWithSideEffects,ConstantConditions
+		assert (pool = null) == null;
+		this.request = null;
+		server.onConnectionClosed();
+
+		WebSocketConnection webSocket = new WebSocketConnection(socket, false, deflate, false);
+		readQueue.drainTo(webSocket.readQueue);
+		try {
+			handler.accept(webSocket);
+		} catch (UncheckedException u) {
+			webSocket.close(u.getCause());
+		}
+		return true;
+	}
+
 	@Override
 	protected void onBodyReceived() {
 		if ((flags & (BODY_SENT | BODY_RECEIVED)) == (BODY_SENT | BODY_RECEIVED) && pool != server.poolServing) {
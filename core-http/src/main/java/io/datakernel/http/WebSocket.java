@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.async.process.Cancellable;
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelSupplier;
+
+/**
+ * A WebSocket connection (RFC 6455) which is established either by returning
+ * {@link HttpResponse#webSocket} from a servlet or by {@link AsyncHttpClient#webSocketRequest}.
+ * <p>
+ * Each {@link ByteBuf} which is read or written represents a whole message, fragmented messages
+ * are assembled before they are supplied. Ping frames are answered automatically.
+ * <p>
+ * The connection is closed gracefully by accepting {@code null} into the write channel,
+ * the read channel supplies {@code null} once the peer closes the connection gracefully.
+ * Closing any of the channels with an error closes the whole connection.
+ */
+public interface WebSocket extends Cancellable {
+	/**
+	 * Returns a supplier of received messages, both text and binary messages are supplied as is
+	 */
+	ChannelSupplier<ByteBuf> messageReadChannel();
+
+	/**
+	 * Returns a consumer which sends binary messages
+	 */
+	ChannelConsumer<ByteBuf> messageWriteChannel();
+
+	/**
+	 * Returns a consumer which sends text messages, each of the messages should be UTF-8 encoded
+	 */
+	ChannelConsumer<ByteBuf> textMessageWriteChannel();
+
+	boolean isClosed();
+}
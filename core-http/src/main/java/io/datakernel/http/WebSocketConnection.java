@@ -0,0 +1,642 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.common.ApplicationSettings;
+import io.datakernel.common.MemSize;
+import io.datakernel.common.exception.CloseException;
+import io.datakernel.csp.AbstractChannelConsumer;
+import io.datakernel.csp.AbstractChannelSupplier;
+import io.datakernel.csp.ChannelConsumer;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.net.AsyncTcpSocket;
+import io.datakernel.promise.Promise;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static io.datakernel.http.GzipProcessorUtils.*;
+import static io.datakernel.http.HttpHeaders.*;
+import static io.datakernel.http.WebSocketException.*;
+import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * WebSocket frame codec (RFC 6455) with permessage-deflate extension (RFC 7692) over a socket
+ * which is detached from an HTTP/1.1 connection after the handshake.
+ * <p>
+ * Received frames are sliced directly out of the socket read buffers and are unmasked in place,
+ * so an unfragmented uncompressed message is supplied without copying. Large server frames are written
+ * as a separate header buffer followed by the payload itself. Client frames are masked while being copied,
+ * so that the caller's buffers are never modified.
+ * <p>
+ * Messages are compressed with the pooled deflaters of {@link GzipProcessorUtils} without context takeover.
+ */
+final class WebSocketConnection implements WebSocket {
+	public static final MemSize MAX_MESSAGE_SIZE = ApplicationSettings.getMemSize(WebSocket.class, "maxMessageSize", MemSize.megabytes(1));
+	public static final int MIN_DEFLATE_SIZE = ApplicationSettings.getInt(WebSocket.class, "minDeflateSize", 64);
+
+	public static final WebSocketException CLOSED_ABNORMALLY = new WebSocketException(ABNORMAL_CLOSURE, "Connection closed without close frame");
+	public static final WebSocketException UNMASKED_FRAME = new WebSocketException(PROTOCOL_ERROR, "Client frame is not masked");
+	public static final WebSocketException MASKED_FRAME = new WebSocketException(PROTOCOL_ERROR, "Server frame is masked");
+	public static final WebSocketException INVALID_CONTROL_FRAME = new WebSocketException(PROTOCOL_ERROR, "Control frame is fragmented or too long");
+	public static final WebSocketException INVALID_CLOSE_FRAME = new WebSocketException(PROTOCOL_ERROR, "Invalid close frame");
+	public static final WebSocketException INVALID_OPCODE = new WebSocketException(PROTOCOL_ERROR, "Unknown opcode");
+	public static final WebSocketException INVALID_RSV = new WebSocketException(PROTOCOL_ERROR, "Unexpected reserved bits");
+	public static final WebSocketException UNEXPECTED_CONTINUATION = new WebSocketException(PROTOCOL_ERROR, "Continuation frame without a message");
+	public static final WebSocketException UNFINISHED_MESSAGE = new WebSocketException(PROTOCOL_ERROR, "New message before the previous one is finished");
+	public static final WebSocketException TOO_BIG_MESSAGE = new WebSocketException(MESSAGE_TOO_BIG, "Message size exceeds max message size");
+	public static final WebSocketException INVALID_COMPRESSED_DATA = new WebSocketException(INVALID_PAYLOAD_DATA, "Invalid compressed data");
+	public static final WebSocketException INVALID_HANDSHAKE = new WebSocketException(PROTOCOL_ERROR, "Invalid handshake response");
+	public static final HttpException NOT_A_HANDSHAKE = HttpException.badRequest400("Not a WebSocket handshake request");
+
+	static final String WEB_SOCKET = "websocket";
+	static final String WEB_SOCKET_VERSION = "13";
+	static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+	static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+	static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+	static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+	static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+	static final String DEFLATE_OFFER = PERMESSAGE_DEFLATE + "; " + CLIENT_NO_CONTEXT_TAKEOVER + "; " + SERVER_NO_CONTEXT_TAKEOVER;
+	static final String DEFLATE_RESPONSE = PERMESSAGE_DEFLATE + "; " + SERVER_NO_CONTEXT_TAKEOVER + "; " + CLIENT_NO_CONTEXT_TAKEOVER;
+
+	private static final byte[] ACCEPT_KEY_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11".getBytes(ISO_8859_1);
+	private static final byte[] DEFLATE_TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+	static final int OPCODE_CONTINUATION = 0x0;
+	static final int OPCODE_TEXT = 0x1;
+	static final int OPCODE_BINARY = 0x2;
+	static final int OPCODE_CLOSE = 0x8;
+	static final int OPCODE_PING = 0x9;
+	static final int OPCODE_PONG = 0xA;
+
+	static final int FIN = 0x80;
+	static final int RSV1 = 0x40;
+	static final int RSV = 0x70;
+	static final int MASK = 0x80;
+
+	private static final int MAX_CONTROL_PAYLOAD = 125;
+	private static final int MAX_COPIED_PAYLOAD = 4096;
+
+	private final AsyncTcpSocket socket;
+	final ByteBufQueue readQueue = new ByteBufQueue();
+	private final boolean client;
+	private final boolean deflate;
+	/**
+	 * A dedicated inflater for the peer which keeps compression context between messages,
+	 * otherwise pooled inflaters are used
+	 */
+	@Nullable
+	private final Inflater inflater;
+	private final int maxMessageSize = MAX_MESSAGE_SIZE.toInt();
+
+	private final ByteBufQueue fragments = new ByteBufQueue();
+	private int fragmentsOpcode;
+	private boolean fragmentsCompressed;
+
+	private boolean reading;
+	private boolean closeSent;
+	private boolean closeReceived;
+	@Nullable
+	private Throwable closeException;
+
+	@Nullable
+	private ChannelSupplier<ByteBuf> readChannel;
+	@Nullable
+	private ChannelConsumer<ByteBuf> writeChannel;
+	@Nullable
+	private ChannelConsumer<ByteBuf> textWriteChannel;
+
+	WebSocketConnection(AsyncTcpSocket socket, boolean client, boolean deflate, boolean peerContextTakeover) {
+		this.socket = socket;
+		this.client = client;
+		this.deflate = deflate;
+		this.inflater = deflate && peerContextTakeover ? new Inflater(true) : null;
+	}
+
+	// region handshake
+	static String getAcceptKey(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			sha1.update(key.trim().getBytes(ISO_8859_1));
+			sha1.update(ACCEPT_KEY_GUID);
+			return Base64.getEncoder().encodeToString(sha1.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	static String generateKey() {
+		byte[] nonce = new byte[16];
+		ThreadLocalRandom.current().nextBytes(nonce);
+		return Base64.getEncoder().encodeToString(nonce);
+	}
+
+	static boolean isHandshakeRequest(HttpRequest request) {
+		return request.getMethod() == HttpMethod.GET &&
+				request.bodyStream == null &&
+				WEB_SOCKET.equalsIgnoreCase(trim(request.getHeader(UPGRADE))) &&
+				hasToken(request.getHeader(CONNECTION), "upgrade") &&
+				WEB_SOCKET_VERSION.equals(trim(request.getHeader(SEC_WEBSOCKET_VERSION))) &&
+				request.getHeader(SEC_WEBSOCKET_KEY) != null;
+	}
+
+	/**
+	 * Validates a handshake response to the request with the given key
+	 *
+	 * @return negotiated permessage-deflate parameters, or {@code null} if the extension is not used
+	 */
+	@Nullable
+	static Set<String> checkHandshakeResponse(HttpResponse response, String key, boolean deflateOffered) throws WebSocketException {
+		if (!WEB_SOCKET.equalsIgnoreCase(trim(response.getHeader(UPGRADE))) ||
+				!hasToken(response.getHeader(CONNECTION), "upgrade") ||
+				!getAcceptKey(key).equals(trim(response.getHeader(SEC_WEBSOCKET_ACCEPT)))) {
+			throw INVALID_HANDSHAKE;
+		}
+		String extensions = response.getHeader(SEC_WEBSOCKET_EXTENSIONS);
+		if (extensions == null) {
+			return null;
+		}
+		Set<String> deflate = deflateOffered ? findDeflateExtension(extensions, false) : null;
+		if (deflate == null) {
+			throw INVALID_HANDSHAKE;
+		}
+		return deflate;
+	}
+
+	/**
+	 * Finds the first permessage-deflate extension offer (or response) whose parameters can be satisfied,
+	 * the window size of java.util.zip deflater can not be limited, so offers which limit it are declined
+	 *
+	 * @param server whether the extensions are received by the server
+	 * @return names of the extension parameters, or {@code null} if there is no acceptable extension
+	 */
+	@Nullable
+	static Set<String> findDeflateExtension(@Nullable String extensions, boolean server) {
+		if (extensions == null) return null;
+		String ownWindowBits = server ? SERVER_MAX_WINDOW_BITS : CLIENT_MAX_WINDOW_BITS;
+		String peerWindowBits = server ? CLIENT_MAX_WINDOW_BITS : SERVER_MAX_WINDOW_BITS;
+		NEXT_EXTENSION:
+		for (String extension : extensions.split(",")) {
+			String[] parts = extension.split(";");
+			if (!PERMESSAGE_DEFLATE.equalsIgnoreCase(parts[0].trim())) continue;
+			Set<String> parameters = new HashSet<>();
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim().toLowerCase();
+				int eq = parameter.indexOf('=');
+				String name = eq == -1 ? parameter : parameter.substring(0, eq).trim();
+				String value = eq == -1 ? null : parameter.substring(eq + 1).trim().replace("\"", "");
+				if (name.equals(ownWindowBits)) {
+					if (value != null && !value.equals("15")) continue NEXT_EXTENSION;
+				} else if (!name.equals(peerWindowBits) &&
+						!name.equals(SERVER_NO_CONTEXT_TAKEOVER) && !name.equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
+					continue NEXT_EXTENSION;
+				}
+				if (!parameters.add(name)) continue NEXT_EXTENSION;
+			}
+			return parameters;
+		}
+		return null;
+	}
+
+	@Nullable
+	private static String trim(@Nullable String value) {
+		return value != null ? value.trim() : null;
+	}
+
+	private static boolean hasToken(@Nullable String value, String token) {
+		if (value == null) return false;
+		for (String part : value.split(",")) {
+			if (part.trim().equalsIgnoreCase(token)) return true;
+		}
+		return false;
+	}
+	// endregion
+
+	// region channels
+	@Override
+	public ChannelSupplier<ByteBuf> messageReadChannel() {
+		if (readChannel == null) {
+			readChannel = new AbstractChannelSupplier<ByteBuf>(this) {
+				@Override
+				protected Promise<ByteBuf> doGet() {
+					reading = true;
+					return readMessage()
+							.whenComplete(() -> reading = false);
+				}
+			};
+		}
+		return readChannel;
+	}
+
+	@Override
+	public ChannelConsumer<ByteBuf> messageWriteChannel() {
+		if (writeChannel == null) {
+			writeChannel = new AbstractChannelConsumer<ByteBuf>(this) {
+				@Override
+				protected Promise<Void> doAccept(@Nullable ByteBuf value) {
+					return writeMessage(OPCODE_BINARY, value);
+				}
+			};
+		}
+		return writeChannel;
+	}
+
+	@Override
+	public ChannelConsumer<ByteBuf> textMessageWriteChannel() {
+		if (textWriteChannel == null) {
+			textWriteChannel = new AbstractChannelConsumer<ByteBuf>(this) {
+				@Override
+				protected Promise<Void> doAccept(@Nullable ByteBuf value) {
+					return writeMessage(OPCODE_TEXT, value);
+				}
+			};
+		}
+		return textWriteChannel;
+	}
+	// endregion
+
+	// region reading
+	private Promise<ByteBuf> readMessage() {
+		if (closeReceived) {
+			return closeException == CLOSE_EXCEPTION ? Promise.of(null) : Promise.ofException(closeException);
+		}
+		if (closeException != null) {
+			return Promise.ofException(closeException);
+		}
+		ByteBuf message;
+		try {
+			message = parseMessage();
+		} catch (WebSocketException e) {
+			close(e);
+			return Promise.ofException(e);
+		}
+		if (message != null) {
+			return Promise.of(message);
+		}
+		if (closeReceived) {
+			return readMessage();
+		}
+		return socket.read()
+				.thenEx((buf, e) -> {
+					if (closeException != null) {
+						if (buf != null) buf.recycle();
+						return readMessage();
+					}
+					if (e != null) {
+						close(e);
+						return Promise.ofException(e);
+					}
+					if (buf == null) {
+						close(CLOSED_ABNORMALLY);
+						return Promise.ofException(CLOSED_ABNORMALLY);
+					}
+					readQueue.add(buf);
+					return readMessage();
+				});
+	}
+
+	/**
+	 * Parses frames from the read queue until a whole message is received, control frames are handled along the way
+	 *
+	 * @return received message or {@code null} if more data is needed or the close frame is received
+	 */
+	@Nullable
+	private ByteBuf parseMessage() throws WebSocketException {
+		while (readQueue.hasRemainingBytes(2)) {
+			int b0 = readQueue.peekByte(0) & 0xFF;
+			int b1 = readQueue.peekByte(1) & 0xFF;
+			boolean masked = (b1 & MASK) != 0;
+			if (masked == client) {
+				throw client ? MASKED_FRAME : UNMASKED_FRAME;
+			}
+			int lengthCode = b1 & 0x7F;
+			int lengthSize = lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0;
+			int headerSize = 2 + lengthSize + (masked ? 4 : 0);
+			if (!readQueue.hasRemainingBytes(headerSize)) return null;
+
+			long length = lengthCode;
+			if (lengthSize != 0) {
+				length = 0;
+				for (int i = 0; i < lengthSize; i++) {
+					length = length << 8 | readQueue.peekByte(2 + i) & 0xFF;
+				}
+			}
+			int opcode = b0 & 0x0F;
+			boolean fin = (b0 & FIN) != 0;
+			if (opcode >= OPCODE_CLOSE) {
+				if (!fin || length > MAX_CONTROL_PAYLOAD) throw INVALID_CONTROL_FRAME;
+			} else if (length < 0 || length + fragments.remainingBytes() > maxMessageSize) {
+				throw TOO_BIG_MESSAGE;
+			}
+			if (!readQueue.hasRemainingBytes(headerSize + (int) length)) return null;
+
+			int mask = 0;
+			if (masked) {
+				for (int i = headerSize - 4; i < headerSize; i++) {
+					mask = mask << 8 | readQueue.peekByte(i) & 0xFF;
+				}
+			}
+			readQueue.skip(headerSize);
+			ByteBuf payload = readQueue.takeExactSize((int) length);
+			if (masked) {
+				mask(payload.array(), payload.head(), payload.readRemaining(), mask);
+			}
+
+			int rsv = b0 & RSV;
+			if (rsv != 0 && (rsv != RSV1 || !deflate || opcode == OPCODE_CONTINUATION || opcode >= OPCODE_CLOSE)) {
+				payload.recycle();
+				throw INVALID_RSV;
+			}
+
+			switch (opcode) {
+				case OPCODE_CONTINUATION:
+					if (fragmentsOpcode == 0) {
+						payload.recycle();
+						throw UNEXPECTED_CONTINUATION;
+					}
+					fragments.add(payload);
+					if (fin) {
+						ByteBuf message = fragments.takeRemaining();
+						fragmentsOpcode = 0;
+						return fragmentsCompressed ? inflate(message) : message;
+					}
+					break;
+				case OPCODE_TEXT:
+				case OPCODE_BINARY:
+					if (fragmentsOpcode != 0) {
+						payload.recycle();
+						throw UNFINISHED_MESSAGE;
+					}
+					if (fin) {
+						return rsv != 0 ? inflate(payload) : payload;
+					}
+					fragmentsOpcode = opcode;
+					fragmentsCompressed = rsv != 0;
+					fragments.add(payload);
+					break;
+				case OPCODE_PING:
+					if (!closeSent) {
+						writeFrame(FIN | OPCODE_PONG, payload);
+					} else {
+						payload.recycle();
+					}
+					break;
+				case OPCODE_PONG:
+					payload.recycle();
+					break;
+				case OPCODE_CLOSE:
+					onCloseFrame(payload);
+					return null;
+				default:
+					payload.recycle();
+					throw INVALID_OPCODE;
+			}
+		}
+		return null;
+	}
+
+	private void onCloseFrame(ByteBuf payload) throws WebSocketException {
+		int code = NO_STATUS_RECEIVED;
+		String reason = "";
+		if (payload.canRead()) {
+			if (payload.readRemaining() < 2) {
+				payload.recycle();
+				throw INVALID_CLOSE_FRAME;
+			}
+			code = payload.readShort() & 0xFFFF;
+			reason = payload.asString(UTF_8);
+			if (code < NORMAL_CLOSURE || code == NO_STATUS_RECEIVED || code == ABNORMAL_CLOSURE) {
+				throw INVALID_CLOSE_FRAME;
+			}
+		} else {
+			payload.recycle();
+		}
+		closeReceived = true;
+		if (closeSent) {
+			socket.close();
+		} else {
+			closeSent = true;
+			writeFrame(FIN | OPCODE_CLOSE, closePayload(code == NO_STATUS_RECEIVED ? NORMAL_CLOSURE : code))
+					.whenComplete(socket::close);
+		}
+		onClosed(code == NORMAL_CLOSURE || code == GOING_AWAY || code == NO_STATUS_RECEIVED ?
+				CLOSE_EXCEPTION :
+				new WebSocketException(code, "Connection is closed by peer: " + reason));
+	}
+
+	private ByteBuf inflate(ByteBuf payload) throws WebSocketException {
+		Inflater inflater = this.inflater != null ? this.inflater : ensureDecompressor();
+		ByteBuf buf = ByteBufPool.allocate(max(256, payload.readRemaining() * 2));
+		try {
+			inflater.setInput(payload.array(), payload.head(), payload.readRemaining());
+			buf = inflate(inflater, buf);
+			inflater.setInput(DEFLATE_TAIL);
+			buf = inflate(inflater, buf);
+		} catch (DataFormatException e) {
+			buf.recycle();
+			throw INVALID_COMPRESSED_DATA;
+		} catch (WebSocketException e) {
+			buf.recycle();
+			throw e;
+		} finally {
+			payload.recycle();
+			if (this.inflater == null) {
+				moveDecompressorToPool(inflater);
+			}
+		}
+		return buf;
+	}
+
+	private ByteBuf inflate(Inflater inflater, ByteBuf buf) throws DataFormatException, WebSocketException {
+		while (true) {
+			if (!buf.canWrite()) {
+				buf = ByteBufPool.ensureWriteRemaining(buf, buf.readRemaining());
+			}
+			int count = inflater.inflate(buf.array(), buf.tail(), buf.writeRemaining());
+			buf.moveTail(count);
+			if (buf.readRemaining() > maxMessageSize) throw TOO_BIG_MESSAGE;
+			if (count == 0 && (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())) {
+				return buf;
+			}
+		}
+	}
+	// endregion
+
+	// region writing
+	private Promise<Void> writeMessage(int opcode, @Nullable ByteBuf payload) {
+		if (payload == null) {
+			return sendClose(NORMAL_CLOSURE);
+		}
+		if (closeSent) {
+			payload.recycle();
+			return Promise.ofException(closeException != null ? closeException : CLOSE_EXCEPTION);
+		}
+		if (deflate && payload.readRemaining() >= MIN_DEFLATE_SIZE) {
+			return writeFrame(FIN | RSV1 | opcode, deflate(payload));
+		}
+		return writeFrame(FIN | opcode, payload);
+	}
+
+	/**
+	 * Sends the close frame, if nobody reads the connection, the peer's close frame is not awaited
+	 */
+	private Promise<Void> sendClose(int code) {
+		if (closeSent) {
+			return closeException == null || closeException == CLOSE_EXCEPTION ?
+					Promise.complete() :
+					Promise.ofException(closeException);
+		}
+		closeSent = true;
+		Promise<Void> write = writeFrame(FIN | OPCODE_CLOSE, closePayload(code));
+		if (!reading) {
+			write.whenComplete(socket::close);
+			onClosed(CLOSE_EXCEPTION);
+		}
+		return write;
+	}
+
+	private static ByteBuf deflate(ByteBuf payload) {
+		Deflater deflater = ensureCompressor();
+		deflater.setInput(payload.array(), payload.head(), payload.readRemaining());
+		ByteBuf buf = ByteBufPool.allocate(payload.readRemaining() + (payload.readRemaining() >>> 12) + 16);
+		while (true) {
+			int count = deflater.deflate(buf.array(), buf.tail(), buf.writeRemaining(), Deflater.SYNC_FLUSH);
+			buf.moveTail(count);
+			if (buf.canWrite()) break;
+			buf = ByteBufPool.ensureWriteRemaining(buf, max(64, buf.readRemaining() >>> 1));
+		}
+		moveCompressorToPool(deflater);
+		payload.recycle();
+		// RFC 7692, section 7.2.1: the empty deflate block at the end of the flushed data is removed
+		buf.moveTail(-DEFLATE_TAIL.length);
+		return buf;
+	}
+
+	private static ByteBuf closePayload(int code) {
+		ByteBuf buf = ByteBufPool.allocate(2);
+		buf.writeShort((short) code);
+		return buf;
+	}
+
+	private Promise<Void> writeFrame(int b0, ByteBuf payload) {
+		int length = payload.readRemaining();
+		int headerSize = 2 + (length < 126 ? 0 : length < 65536 ? 2 : 8) + (client ? 4 : 0);
+		if (client) {
+			int mask = ThreadLocalRandom.current().nextInt();
+			ByteBuf buf = ByteBufPool.allocate(headerSize + length);
+			writeFrameHeader(buf, b0, length, MASK);
+			buf.writeInt(mask);
+			System.arraycopy(payload.array(), payload.head(), buf.array(), buf.tail(), length);
+			mask(buf.array(), buf.tail(), length, mask);
+			buf.moveTail(length);
+			payload.recycle();
+			return socket.write(buf);
+		}
+		if (length <= MAX_COPIED_PAYLOAD) {
+			ByteBuf buf = ByteBufPool.allocate(headerSize + length);
+			writeFrameHeader(buf, b0, length, 0);
+			buf.put(payload);
+			payload.recycle();
+			return socket.write(buf);
+		}
+		ByteBuf header = ByteBufPool.allocate(headerSize);
+		writeFrameHeader(header, b0, length, 0);
+		socket.write(header);
+		return socket.write(payload);
+	}
+
+	private static void writeFrameHeader(ByteBuf buf, int b0, int length, int maskBit) {
+		buf.writeByte((byte) b0);
+		if (length < 126) {
+			buf.writeByte((byte) (maskBit | length));
+		} else if (length < 65536) {
+			buf.writeByte((byte) (maskBit | 126));
+			buf.writeShort((short) length);
+		} else {
+			buf.writeByte((byte) (maskBit | 127));
+			buf.writeLong(length);
+		}
+	}
+	// endregion
+
+	static void mask(byte[] array, int offset, int length, int mask) {
+		for (int i = 0; i < length; i++) {
+			array[offset + i] ^= mask >>> (24 - ((i & 3) << 3));
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closeException != null;
+	}
+
+	@Override
+	public void close(@NotNull Throwable e) {
+		if (closeException != null) return;
+		boolean sendClose = !closeSent;
+		closeSent = true;
+		onClosed(e);
+		int code = e instanceof WebSocketException ? ((WebSocketException) e).getCode() :
+				e instanceof CloseException ? NORMAL_CLOSURE :
+						INTERNAL_ERROR;
+		if (sendClose && code != ABNORMAL_CLOSURE) {
+			writeFrame(FIN | OPCODE_CLOSE, closePayload(code))
+					.whenComplete(socket::close);
+		} else {
+			socket.close();
+		}
+	}
+
+	private void onClosed(Throwable e) {
+		closeException = e;
+		readQueue.recycle();
+		fragments.recycle();
+		if (inflater != null) {
+			inflater.end();
+		}
+		if (readChannel != null) readChannel.close(e);
+		if (writeChannel != null) writeChannel.close(e);
+		if (textWriteChannel != null) textWriteChannel.close(e);
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocketConnection{" +
+				"socket=" + socket +
+				", client=" + client +
+				", deflate=" + deflate +
+				", closeSent=" + closeSent +
+				", closeReceived=" + closeReceived +
+				", closed=" + isClosed() +
+				'}';
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.parse.ParseException;
+
+import java.util.Arrays;
+
+/**
+ * HPACK header block decoder (RFC 7541).
+ * <p>
+ * An instance keeps the dynamic table of a single connection direction,
+ * so header blocks must be decoded in the order they were received.
+ */
+public final class HpackDecoder {
+	public static final ParseException INVALID_INDEX = new ParseException(HpackDecoder.class, "Invalid header table index");
+	public static final ParseException INVALID_INTEGER = new ParseException(HpackDecoder.class, "Integer value exceeds limits");
+	public static final ParseException INVALID_TABLE_SIZE = new ParseException(HpackDecoder.class, "Dynamic table size update exceeds the limit");
+	public static final ParseException TRUNCATED = new ParseException(HpackDecoder.class, "Truncated header block");
+
+	@FunctionalInterface
+	public interface HeaderConsumer {
+		void accept(byte[] name, byte[] value) throws ParseException;
+	}
+
+	private final HpackDynamicTable table;
+	private final int maxTableSize;
+
+	private byte[] array;
+	private int pos;
+	private int limit;
+
+	private HpackDecoder(int maxTableSize) {
+		this.table = new HpackDynamicTable(maxTableSize);
+		this.maxTableSize = maxTableSize;
+	}
+
+	/**
+	 * @param maxTableSize the value of SETTINGS_HEADER_TABLE_SIZE advertised to the peer
+	 */
+	public static HpackDecoder create(int maxTableSize) {
+		return new HpackDecoder(maxTableSize);
+	}
+
+	/**
+	 * Decodes a complete header block, all of the readable bytes of the buffer are consumed
+	 */
+	public void decode(ByteBuf buf, HeaderConsumer consumer) throws ParseException {
+		array = buf.array();
+		pos = buf.head();
+		limit = buf.tail();
+		try {
+			while (pos < limit) {
+				int b = array[pos];
+				if ((b & 0x80) != 0) {
+					int index = readInt(7);
+					consumer.accept(getName(index), getValue(index));
+				} else if ((b & 0x40) != 0) {
+					readLiteral(6, true, consumer);
+				} else if ((b & 0x20) != 0) {
+					int size = readInt(5);
+					if (size > maxTableSize) throw INVALID_TABLE_SIZE;
+					table.setMaxSize(size);
+				} else {
+					readLiteral(4, false, consumer);
+				}
+			}
+		} finally {
+			buf.head(limit);
+			array = null;
+		}
+	}
+
+	public int getTableSize() {
+		return table.size();
+	}
+
+	private void readLiteral(int prefix, boolean indexing, HeaderConsumer consumer) throws ParseException {
+		int index = readInt(prefix);
+		byte[] name = index == 0 ? readString() : getName(index);
+		byte[] value = readString();
+		if (indexing) {
+			table.add(name, value);
+		}
+		consumer.accept(name, value);
+	}
+
+	private byte[] getName(int index) throws ParseException {
+		if (index >= 1 && index <= HpackStaticTable.LENGTH) {
+			return HpackStaticTable.getName(index);
+		}
+		return table.getName(toDynamicIndex(index));
+	}
+
+	private byte[] getValue(int index) throws ParseException {
+		if (index >= 1 && index <= HpackStaticTable.LENGTH) {
+			return HpackStaticTable.getValue(index);
+		}
+		return table.getValue(toDynamicIndex(index));
+	}
+
+	private int toDynamicIndex(int index) throws ParseException {
+		int dynamicIndex = index - HpackStaticTable.LENGTH - 1;
+		if (dynamicIndex < 0 || dynamicIndex >= table.length()) throw INVALID_INDEX;
+		return dynamicIndex;
+	}
+
+	private int readInt(int prefix) throws ParseException {
+		int mask = (1 << prefix) - 1;
+		int value = array[pos++] & mask;
+		if (value < mask) return value;
+		for (int shift = 0; ; shift += 7) {
+			if (pos == limit) throw TRUNCATED;
+			if (shift > 21) throw INVALID_INTEGER;
+			int b = array[pos++];
+			value += (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) throw INVALID_INTEGER;
+				return value;
+			}
+		}
+	}
+
+	private byte[] readString() throws ParseException {
+		if (pos == limit) throw TRUNCATED;
+		boolean huffman = (array[pos] & 0x80) != 0;
+		int length = readInt(7);
+		if (length > limit - pos) throw TRUNCATED;
+		byte[] result = huffman ?
+				Huffman.decode(array, pos, length) :
+				Arrays.copyOfRange(array, pos, pos + length);
+		pos += length;
+		return result;
+	}
+}
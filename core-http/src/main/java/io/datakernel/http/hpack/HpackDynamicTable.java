@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import java.util.Arrays;
+
+/**
+ * HPACK dynamic table, a FIFO of header fields which is bounded by the total size of its entries
+ */
+final class HpackDynamicTable {
+	static final int ENTRY_OVERHEAD = 32;
+
+	private byte[][] names = new byte[16][];
+	private byte[][] values = new byte[16][];
+	private int first;
+	private int length;
+	private int size;
+	private int maxSize;
+
+	HpackDynamicTable(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	int length() {
+		return length;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int maxSize() {
+		return maxSize;
+	}
+
+	void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		evict(0);
+	}
+
+	/**
+	 * @param index 0-based index of an entry, where 0 is the most recently added entry
+	 */
+	byte[] getName(int index) {
+		return names[(first + length - 1 - index) & (names.length - 1)];
+	}
+
+	byte[] getValue(int index) {
+		return values[(first + length - 1 - index) & (names.length - 1)];
+	}
+
+	void add(byte[] name, byte[] value) {
+		int entrySize = name.length + value.length + ENTRY_OVERHEAD;
+		if (entrySize > maxSize) {
+			evict(maxSize);
+			return;
+		}
+		evict(entrySize);
+		if (length == names.length) {
+			grow();
+		}
+		int slot = (first + length) & (names.length - 1);
+		names[slot] = name;
+		values[slot] = value;
+		length++;
+		size += entrySize;
+	}
+
+	/**
+	 * Returns an index of an entry which matches both name and value,
+	 * or a negated index plus one of an entry which matches name only, or 0 if there is no match
+	 */
+	int indexOf(byte[] name, byte[] value) {
+		int nameIndex = 0;
+		for (int i = 0; i < length; i++) {
+			if (Arrays.equals(name, getName(i))) {
+				if (Arrays.equals(value, getValue(i))) {
+					return i + 1;
+				}
+				if (nameIndex == 0) {
+					nameIndex = -(i + 1);
+				}
+			}
+		}
+		return nameIndex;
+	}
+
+	private void evict(int required) {
+		while (length != 0 && size + required > maxSize) {
+			int slot = first;
+			size -= names[slot].length + values[slot].length + ENTRY_OVERHEAD;
+			names[slot] = null;
+			values[slot] = null;
+			first = (first + 1) & (names.length - 1);
+			length--;
+		}
+	}
+
+	private void grow() {
+		byte[][] newNames = new byte[names.length * 2][];
+		byte[][] newValues = new byte[names.length * 2][];
+		for (int i = 0; i < length; i++) {
+			newNames[i] = names[(first + i) & (names.length - 1)];
+			newValues[i] = values[(first + i) & (names.length - 1)];
+		}
+		names = newNames;
+		values = newValues;
+		first = 0;
+	}
+}
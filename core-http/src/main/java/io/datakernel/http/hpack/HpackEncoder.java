@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+
+import static java.lang.Math.min;
+
+/**
+ * HPACK header block encoder (RFC 7541).
+ * <p>
+ * Header fields are looked up in the static and dynamic tables,
+ * string literals are Huffman encoded whenever it makes them shorter.
+ */
+public final class HpackEncoder {
+	public static final int DEFAULT_TABLE_SIZE = 4096;
+
+	private final HpackDynamicTable table;
+	private final int maxTableSize;
+
+	private int pendingMinTableSize = -1;
+
+	private HpackEncoder(int maxTableSize) {
+		this.table = new HpackDynamicTable(min(maxTableSize, DEFAULT_TABLE_SIZE));
+		this.maxTableSize = maxTableSize;
+	}
+
+	public static HpackEncoder create() {
+		return new HpackEncoder(DEFAULT_TABLE_SIZE);
+	}
+
+	/**
+	 * @param maxTableSize an upper bound for the dynamic table size, regardless of what the peer allows
+	 */
+	public static HpackEncoder create(int maxTableSize) {
+		return new HpackEncoder(maxTableSize);
+	}
+
+	/**
+	 * Applies SETTINGS_HEADER_TABLE_SIZE received from the peer,
+	 * the change is signalled at the beginning of the next header block
+	 */
+	public void setMaxTableSize(int peerTableSize) {
+		int newSize = min(peerTableSize, maxTableSize);
+		if (newSize == table.maxSize()) return;
+		table.setMaxSize(newSize);
+		pendingMinTableSize = pendingMinTableSize == -1 ? newSize : min(pendingMinTableSize, newSize);
+	}
+
+	public int getTableSize() {
+		return table.size();
+	}
+
+	/**
+	 * Appends a header field to a header block and returns the buffer,
+	 * which is reallocated if there is not enough space
+	 *
+	 * @param sensitive if true, the field is never added to the dynamic table,
+	 *                  and intermediaries are asked not to index it either
+	 */
+	public ByteBuf encode(ByteBuf buf, byte[] name, byte[] value, boolean sensitive) {
+		buf = ByteBufPool.ensureWriteRemaining(buf, 32 + name.length + value.length);
+		if (pendingMinTableSize != -1) {
+			if (pendingMinTableSize != table.maxSize()) {
+				writeInt(buf, 0x20, 5, pendingMinTableSize);
+			}
+			writeInt(buf, 0x20, 5, table.maxSize());
+			pendingMinTableSize = -1;
+		}
+
+		int staticIndex = HpackStaticTable.indexOf(name, value);
+		if (staticIndex > 0 && !sensitive) {
+			writeInt(buf, 0x80, 7, staticIndex);
+			return buf;
+		}
+		int dynamicIndex = sensitive ? 0 : table.indexOf(name, value);
+		if (dynamicIndex > 0) {
+			writeInt(buf, 0x80, 7, HpackStaticTable.LENGTH + dynamicIndex);
+			return buf;
+		}
+
+		int nameIndex = staticIndex != 0 ? Math.abs(staticIndex) :
+				dynamicIndex < 0 ? HpackStaticTable.LENGTH - dynamicIndex :
+						0;
+		if (sensitive) {
+			writeInt(buf, 0x10, 4, nameIndex);
+		} else if (name.length + value.length + HpackDynamicTable.ENTRY_OVERHEAD <= table.maxSize() / 2) {
+			writeInt(buf, 0x40, 6, nameIndex);
+			table.add(name, value);
+		} else {
+			writeInt(buf, 0x00, 4, nameIndex);
+		}
+		if (nameIndex == 0) {
+			writeString(buf, name);
+		}
+		writeString(buf, value);
+		return buf;
+	}
+
+	private static void writeInt(ByteBuf buf, int flags, int prefix, int value) {
+		int mask = (1 << prefix) - 1;
+		if (value < mask) {
+			buf.writeByte((byte) (flags | value));
+			return;
+		}
+		buf.writeByte((byte) (flags | mask));
+		value -= mask;
+		while (value >= 0x80) {
+			buf.writeByte((byte) (value | 0x80));
+			value >>>= 7;
+		}
+		buf.writeByte((byte) value);
+	}
+
+	private static void writeString(ByteBuf buf, byte[] string) {
+		int huffmanLength = Huffman.encodedLength(string, 0, string.length);
+		if (huffmanLength < string.length) {
+			writeInt(buf, 0x80, 7, huffmanLength);
+			Huffman.encode(buf, string, 0, string.length);
+		} else {
+			writeInt(buf, 0x00, 7, string.length);
+			buf.put(string);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.datakernel.bytebuf.ByteBufStrings.decodeAscii;
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+
+/**
+ * HPACK static table, as defined in RFC 7541, Appendix A
+ */
+final class HpackStaticTable {
+	private static final String[][] ENTRIES = {
+			{":authority", ""},
+			{":method", "GET"},
+			{":method", "POST"},
+			{":path", "/"},
+			{":path", "/index.html"},
+			{":scheme", "http"},
+			{":scheme", "https"},
+			{":status", "200"},
+			{":status", "204"},
+			{":status", "206"},
+			{":status", "304"},
+			{":status", "400"},
+			{":status", "404"},
+			{":status", "500"},
+			{"accept-charset", ""},
+			{"accept-encoding", "gzip, deflate"},
+			{"accept-language", ""},
+			{"accept-ranges", ""},
+			{"accept", ""},
+			{"access-control-allow-origin", ""},
+			{"age", ""},
+			{"allow", ""},
+			{"authorization", ""},
+			{"cache-control", ""},
+			{"content-disposition", ""},
+			{"content-encoding", ""},
+			{"content-language", ""},
+			{"content-length", ""},
+			{"content-location", ""},
+			{"content-range", ""},
+			{"content-type", ""},
+			{"cookie", ""},
+			{"date", ""},
+			{"etag", ""},
+			{"expect", ""},
+			{"expires", ""},
+			{"from", ""},
+			{"host", ""},
+			{"if-match", ""},
+			{"if-modified-since", ""},
+			{"if-none-match", ""},
+			{"if-range", ""},
+			{"if-unmodified-since", ""},
+			{"last-modified", ""},
+			{"link", ""},
+			{"location", ""},
+			{"max-forwards", ""},
+			{"proxy-authenticate", ""},
+			{"proxy-authorization", ""},
+			{"range", ""},
+			{"referer", ""},
+			{"refresh", ""},
+			{"retry-after", ""},
+			{"server", ""},
+			{"set-cookie", ""},
+			{"strict-transport-security", ""},
+			{"transfer-encoding", ""},
+			{"user-agent", ""},
+			{"vary", ""},
+			{"via", ""},
+			{"www-authenticate", ""}};
+
+	static final int LENGTH = ENTRIES.length;
+
+	private static final byte[][] NAMES = new byte[LENGTH + 1][];
+	private static final byte[][] VALUES = new byte[LENGTH + 1][];
+
+	private static final Map<String, Integer> NAME_INDEXES = new HashMap<>();
+	private static final Map<String, Integer> ENTRY_INDEXES = new HashMap<>();
+
+	static {
+		for (int i = LENGTH; i >= 1; i--) {
+			String name = ENTRIES[i - 1][0];
+			String value = ENTRIES[i - 1][1];
+			NAMES[i] = encodeAscii(name);
+			VALUES[i] = encodeAscii(value);
+			NAME_INDEXES.put(name, i);
+			if (!value.isEmpty()) {
+				ENTRY_INDEXES.put(name + ':' + value, i);
+			}
+		}
+	}
+
+	private HpackStaticTable() {
+	}
+
+	/**
+	 * @param index 1-based index of an entry
+	 */
+	static byte[] getName(int index) {
+		return NAMES[index];
+	}
+
+	static byte[] getValue(int index) {
+		return VALUES[index];
+	}
+
+	/**
+	 * Returns an index of an entry which matches both name and value,
+	 * or a negated index of an entry which matches name only, or 0 if there is no match
+	 */
+	static int indexOf(byte[] name, byte[] value) {
+		String nameString = decodeAscii(name);
+		Integer index = NAME_INDEXES.get(nameString);
+		if (index == null) return 0;
+		Integer entryIndex = ENTRY_INDEXES.get(nameString + ':' + decodeAscii(value));
+		return entryIndex != null ? entryIndex : -index;
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.common.parse.ParseException;
+
+import java.util.Arrays;
+
+/**
+ * Huffman code of HPACK, as defined in RFC 7541, Appendix B.
+ * <p>
+ * The code is canonical, so only the code lengths are stored
+ * and the codes themselves are reconstructed at class initialization.
+ */
+final class Huffman {
+	public static final ParseException INVALID_PADDING = new ParseException(Huffman.class, "Invalid Huffman padding");
+	public static final ParseException EOS_DECODED = new ParseException(Huffman.class, "EOS symbol in Huffman encoded string");
+
+	private static final int EOS = 256;
+
+	private static final byte[] CODE_LENGTHS = {
+			13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+			6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+			13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+			15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+			20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+			22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+			26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+			20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+			30};
+
+	private static final int[] CODES = new int[CODE_LENGTHS.length];
+
+	/**
+	 * Binary decoding tree, children of node {@code n} are stored at {@code 2 * n} and {@code 2 * n + 1},
+	 * a negative value {@code -(symbol + 1)} denotes a leaf
+	 */
+	private static final int[] TREE = new int[2 * CODE_LENGTHS.length];
+
+	static {
+		int code = 0;
+		for (int length = 1; length <= 30; length++) {
+			for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+				if (CODE_LENGTHS[symbol] == length) {
+					CODES[symbol] = code++;
+				}
+			}
+			code <<= 1;
+		}
+
+		int nodes = 1;
+		for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+			int node = 0;
+			for (int bit = CODE_LENGTHS[symbol] - 1; bit > 0; bit--) {
+				int slot = 2 * node + ((CODES[symbol] >>> bit) & 1);
+				if (TREE[slot] == 0) {
+					TREE[slot] = nodes++;
+				}
+				node = TREE[slot];
+			}
+			TREE[2 * node + (CODES[symbol] & 1)] = -(symbol + 1);
+		}
+	}
+
+	private Huffman() {
+	}
+
+	static int encodedLength(byte[] array, int offset, int length) {
+		long bits = 0;
+		for (int i = offset; i < offset + length; i++) {
+			bits += CODE_LENGTHS[array[i] & 0xFF];
+		}
+		return (int) ((bits + 7) >>> 3);
+	}
+
+	/**
+	 * Encodes bytes into a buffer, which must have at least {@link #encodedLength} bytes of write remaining
+	 */
+	static void encode(ByteBuf buf, byte[] array, int offset, int length) {
+		byte[] out = buf.array();
+		int pos = buf.tail();
+		long current = 0;
+		int bits = 0;
+		for (int i = offset; i < offset + length; i++) {
+			int symbol = array[i] & 0xFF;
+			current = (current << CODE_LENGTHS[symbol]) | CODES[symbol];
+			bits += CODE_LENGTHS[symbol];
+			while (bits >= 8) {
+				bits -= 8;
+				out[pos++] = (byte) (current >>> bits);
+			}
+		}
+		if (bits > 0) {
+			// padded with the most significant bits of EOS, which are all ones
+			out[pos++] = (byte) ((current << (8 - bits)) | (0xFF >>> bits));
+		}
+		buf.tail(pos);
+	}
+
+	static byte[] decode(byte[] array, int offset, int length) throws ParseException {
+		byte[] out = new byte[length * 8 / 5];
+		int pos = 0;
+		int node = 0;
+		int pendingBits = 0;
+		boolean pendingOnes = true;
+		for (int i = offset; i < offset + length; i++) {
+			int b = array[i];
+			for (int bit = 7; bit >= 0; bit--) {
+				int next = TREE[2 * node + ((b >>> bit) & 1)];
+				if (next < 0) {
+					int symbol = -next - 1;
+					if (symbol == EOS) throw EOS_DECODED;
+					out[pos++] = (byte) symbol;
+					node = 0;
+					pendingBits = 0;
+					pendingOnes = true;
+				} else {
+					node = next;
+					pendingBits++;
+					pendingOnes &= ((b >>> bit) & 1) == 1;
+				}
+			}
+		}
+		if (pendingBits > 7 || !pendingOnes) throw INVALID_PADDING;
+		return pos == out.length ? out : Arrays.copyOf(out, pos);
+	}
+}
@@ -36,6 +36,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.time.Duration;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.IntStream;
@@ -49,6 +50,7 @@ import static io.datakernel.promise.TestUtils.awaitException;
 import static io.datakernel.test.TestUtils.assertComplete;
 import static io.datakernel.test.TestUtils.getFreePort;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.*;
 
@@ -90,6 +92,24 @@ public final class AsyncHttpClientTest {
 						}))));
 	}
 
+	@Test
+	public void testDateAndServerHeaders() throws IOException {
+		AsyncHttpServer.create(Eventloop.getCurrentEventloop(), request -> HttpResponse.ok200().withPlainText("Hello"))
+				.withDateHeader(true)
+				.withServerHeader("datakernel")
+				.withListenPort(PORT)
+				.withAcceptOnce()
+				.listen();
+
+		AsyncHttpClient client = AsyncHttpClient.create(Eventloop.getCurrentEventloop());
+		HttpResponse response = await(client.request(HttpRequest.get("http://127.0.0.1:" + PORT)));
+		assertEquals("datakernel", response.getHeader(HttpHeaders.SERVER));
+		String date = response.getHeader(HttpHeaders.DATE);
+		assertNotNull(date);
+		long seconds = Eventloop.getCurrentEventloop().currentTimeMillis() / 1000L;
+		assertTrue(Math.abs(ZonedDateTime.parse(date, RFC_1123_DATE_TIME).toEpochSecond() - seconds) <= 1);
+	}
+
 	@Test
 	@Ignore
 	public void testClientTimeoutConnect() {
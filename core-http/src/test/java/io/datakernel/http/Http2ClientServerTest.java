@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.net.AsyncTcpSocketImpl;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.stream.IntStream;
+
+import static io.datakernel.bytebuf.ByteBufStrings.wrapAscii;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class Http2ClientServerTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private int port;
+	private Eventloop eventloop;
+
+	@Before
+	public void setUp() {
+		port = getFreePort();
+		eventloop = Eventloop.getCurrentEventloop();
+	}
+
+	@Test
+	public void testRequestResponse() throws IOException {
+		AsyncHttpServer server = startServer(request ->
+				Promise.of(HttpResponse.ok200()
+						.withHeader(HttpHeaders.of("X-Path"), request.getPath())
+						.withBody(wrapAscii("Hello, " + request.getHeader(HttpHeaders.HOST)))));
+
+		AsyncHttpClient client = AsyncHttpClient.create(eventloop).withHttp2(true);
+		String body = await(client.request(HttpRequest.get("http://127.0.0.1:" + port + "/path"))
+				.then(response -> {
+					assertEquals(200, response.getCode());
+					assertEquals("/path", response.getHeader(HttpHeaders.of("x-path")));
+					assertEquals(String.valueOf(("Hello, 127.0.0.1:" + port).length()), response.getHeader(HttpHeaders.CONTENT_LENGTH));
+					return response.loadBody();
+				})
+				.map(buf -> buf.getString(UTF_8))
+				.whenComplete(server::close));
+		assertEquals("Hello, 127.0.0.1:" + port, body);
+	}
+
+	@Test
+	public void testConcurrentRequestsShareConnection() throws IOException {
+		AsyncHttpServer server = startServer(request ->
+				Promise.ofCallback(cb -> eventloop.delay(10, () ->
+						cb.set(HttpResponse.ok200().withBody(wrapAscii(request.getPath()))))));
+
+		AsyncHttpClient client = AsyncHttpClient.create(eventloop)
+				.withHttp2(true)
+				.withKeepAliveTimeout(Duration.ofSeconds(10));
+		List<String> result = await(Promises.toList(IntStream.range(0, 100)
+				.mapToObj(i -> client.request(HttpRequest.get("http://127.0.0.1:" + port + "/" + i))
+						.then(HttpMessage::loadBody)
+						.map(buf -> buf.getString(UTF_8))))
+				.whenComplete(() -> {
+					assertEquals(1, client.getConnectionsCount());
+					assertEquals(1, server.getConnectionsCount());
+				})
+				.whenComplete(() -> client.stop())
+				.whenComplete(server::close));
+		assertEquals(IntStream.range(0, 100).mapToObj(i -> "/" + i).collect(toList()), result);
+	}
+
+	@Test
+	public void testLargeBodiesWithFlowControl() throws IOException {
+		byte[] data = new byte[5 * 1024 * 1024];
+		new Random(0).nextBytes(data);
+
+		AsyncHttpServer server = startServer(request -> request.loadBody(Integer.MAX_VALUE)
+				.map(body -> HttpResponse.ok200().withBody(body.slice())));
+
+		AsyncHttpClient client = AsyncHttpClient.create(eventloop).withHttp2(true);
+		byte[] result = await(client.request(HttpRequest.post("http://127.0.0.1:" + port)
+				.withBody(data))
+				.then(response -> response.loadBody(Integer.MAX_VALUE))
+				.map(ByteBuf::getArray)
+				.whenComplete(server::close));
+		assertArrayEquals(data, result);
+	}
+
+	@Test
+	public void testStreamingBodies() throws IOException {
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.ok200()
+				.withBodyStream(request.getBodyStream())));
+
+		AsyncHttpClient client = AsyncHttpClient.create(eventloop).withHttp2(true);
+		List<String> chunks = IntStream.range(0, 1000).mapToObj(i -> i + ";").collect(toList());
+		String result = await(client.request(HttpRequest.post("http://127.0.0.1:" + port)
+				.withBodyStream(ChannelSupplier.ofStream(chunks.stream().map(chunk -> wrapAscii(chunk)))))
+				.then(response -> response.getBodyStream().toCollector(ByteBufQueue.collector()))
+				.map(buf -> buf.asString(UTF_8))
+				.whenComplete(server::close));
+		assertEquals(String.join("", chunks), result);
+	}
+
+	@Test
+	public void testHttp1ClientIsServed() throws IOException {
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.ok200().withBody(wrapAscii("Hello"))));
+
+		String body = await(AsyncHttpClient.create(eventloop)
+				.request(HttpRequest.get("http://127.0.0.1:" + port))
+				.then(HttpMessage::loadBody)
+				.map(buf -> buf.getString(UTF_8))
+				.whenComplete(server::close));
+		assertEquals("Hello", body);
+	}
+
+	@Test
+	public void testUpgradeToH2c() throws IOException {
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.ok200().withBody(wrapAscii("Hello"))));
+
+		String upgradeRequest = "GET / HTTP/1.1\r\n" +
+				"Host: 127.0.0.1\r\n" +
+				"Connection: Upgrade, HTTP2-Settings\r\n" +
+				"Upgrade: h2c\r\n" +
+				"HTTP2-Settings: AAMAAABkAAQAAP__\r\n" +
+				"\r\n";
+		String switchingProtocols = "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n";
+
+		ByteBufQueue queue = new ByteBufQueue();
+		await(AsyncTcpSocketImpl.connect(new InetSocketAddress("127.0.0.1", port))
+				.then(socket -> socket.write(wrapAscii(upgradeRequest))
+						.then($ -> readAtLeast(socket, queue, switchingProtocols.length() + 9))
+						.whenComplete(socket::close))
+				.whenComplete(server::close));
+
+		assertEquals(switchingProtocols, queue.takeExactSize(switchingProtocols.length()).asString(UTF_8));
+		assertEquals(AbstractHttp2Connection.SETTINGS, queue.peekByte(3));
+		queue.recycle();
+	}
+
+	@Test
+	public void testAlpn() throws Exception {
+		SSLContext sslContext = createSslContext();
+		Executor executor = newCachedThreadPool();
+		AsyncHttpServer server = AsyncHttpServer.create(eventloop, request -> Promise.of(HttpResponse.ok200()
+				.withBody(wrapAscii("Hello"))))
+				.withHttp2(true)
+				.withSslListenAddress(sslContext, executor, new InetSocketAddress("127.0.0.1", port));
+		server.listen();
+
+		List<AbstractHttpConnection> connections = new ArrayList<>();
+		AsyncHttpClient client = AsyncHttpClient.create(eventloop)
+				.withHttp2(true)
+				.withSslEnabled(sslContext, executor)
+				.withInspector(new AsyncHttpClient.JmxInspector() {
+					@Override
+					public void onConnect(HttpRequest request, HttpClientConnection connection) {
+						super.onConnect(request, connection);
+						connections.add(connection);
+					}
+
+					@Override
+					public void onConnect(HttpRequest request, Http2ClientConnection connection) {
+						super.onConnect(request, connection);
+						connections.add(connection);
+					}
+				});
+
+		String body = await(client.request(HttpRequest.get("https://127.0.0.1:" + port))
+				.then(HttpMessage::loadBody)
+				.map(buf -> buf.getString(UTF_8))
+				.whenComplete(server::close));
+		assertEquals("Hello", body);
+		assertEquals(1, connections.size());
+		assertTrue(connections.get(0) instanceof Http2ClientConnection);
+	}
+
+	private AsyncHttpServer startServer(AsyncServlet servlet) throws IOException {
+		AsyncHttpServer server = AsyncHttpServer.create(eventloop, servlet)
+				.withHttp2(true)
+				.withListenAddress(new InetSocketAddress("127.0.0.1", port));
+		server.listen();
+		return server;
+	}
+
+	private static Promise<Void> readAtLeast(AsyncTcpSocketImpl socket, ByteBufQueue queue, int size) {
+		if (queue.hasRemainingBytes(size)) return Promise.complete();
+		return socket.read()
+				.then(buf -> {
+					if (buf == null) return Promise.complete();
+					queue.add(buf);
+					return readAtLeast(socket, queue, size);
+				});
+	}
+
+	private static SSLContext createSslContext() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		try (InputStream is = new FileInputStream("./src/test/resources/keystore.jks")) {
+			keyStore.load(is, "testtest".toCharArray());
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keyStore, "testtest".toCharArray());
+
+		KeyStore trustStore = KeyStore.getInstance("JKS");
+		try (InputStream is = new FileInputStream("./src/test/resources/truststore.jks")) {
+			trustStore.load(is, "testtest".toCharArray());
+		}
+		TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		tmf.init(trustStore);
+
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+		return sslContext;
+	}
+}
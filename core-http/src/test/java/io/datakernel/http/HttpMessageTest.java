@@ -29,7 +29,7 @@ import java.util.LinkedHashSet;
 
 import static io.datakernel.http.HttpHeaders.of;
 import static java.util.Arrays.asList;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public final class HttpMessageTest {
 	@ClassRule
@@ -75,6 +75,32 @@ public final class HttpMessageTest {
 		assertHttpMessageEquals("POST /index.html HTTP/1.1\r\nHost: test.com\r\nContent-Length: 4\r\n\r\n/abc", request);
 	}
 
+	@Test
+	public void testExactResponseSizeEstimate() {
+		assertExactSizeEstimate(HttpResponse.ok200().withPlainText("Hello, World!"), 13);
+		assertExactSizeEstimate(HttpResponse.ok200()
+				.withHeader(HttpHeaders.CONTENT_TYPE, HttpHeaderValue.ofContentType(ContentTypes.JSON_UTF_8))
+				.withHeader(HttpHeaders.DATE, HttpHeaderValue.ofTimestamp(784111777000L))
+				.withHeader(HttpHeaders.SERVER, "datakernel"), 0);
+		assertExactSizeEstimate(HttpResponse.ofCode(405).withBody(new byte[12345]), 12345);
+		assertExactSizeEstimate(HttpResponse.ofCode(201), 0);
+	}
+
+	private static void assertExactSizeEstimate(HttpMessage message, int bodySize) {
+		ByteBuf buf = AbstractHttpConnection.renderHttpMessage(message);
+		assertNotNull(buf);
+		assertEquals(buf.readRemaining() - bodySize, message.estimateSize());
+		buf.recycle();
+		message.recycle();
+	}
+
+	@Test
+	public void testContentTypeIsEncodedOnce() {
+		ContentType contentType = ContentTypes.PLAIN_TEXT_UTF_8;
+		assertSame(contentType.getBytes(), contentType.getBytes());
+		assertEquals("text/plain; charset=utf-8", HttpHeaderValue.ofContentType(contentType).toString());
+	}
+
 	@Test
 	public void testMultiHeaders() {
 		HttpResponse response = HttpResponse.ofCode(200);
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufQueue;
+import io.datakernel.csp.ChannelSupplier;
+import io.datakernel.eventloop.Eventloop;
+import io.datakernel.net.AsyncTcpSocketImpl;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
+import io.datakernel.test.rules.ByteBufRule;
+import io.datakernel.test.rules.EventloopRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static io.datakernel.bytebuf.ByteBufStrings.wrapAscii;
+import static io.datakernel.bytebuf.ByteBufStrings.wrapUtf8;
+import static io.datakernel.promise.TestUtils.await;
+import static io.datakernel.promise.TestUtils.awaitException;
+import static io.datakernel.test.TestUtils.getFreePort;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public final class WebSocketTest {
+	@ClassRule
+	public static final EventloopRule eventloopRule = new EventloopRule();
+
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private int port;
+	private Eventloop eventloop;
+
+	@Before
+	public void setUp() {
+		port = getFreePort();
+		eventloop = Eventloop.getCurrentEventloop();
+	}
+
+	@Test
+	public void testEcho() throws IOException {
+		doTestEcho(true);
+	}
+
+	@Test
+	public void testEchoWithoutDeflate() throws IOException {
+		doTestEcho(false);
+	}
+
+	private void doTestEcho(boolean deflate) throws IOException {
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.webSocket(webSocket ->
+				webSocket.messageReadChannel().streamTo(webSocket.messageWriteChannel()))))
+				.withWebSocketDeflate(deflate);
+
+		Random random = new Random(0);
+		List<String> messages = new ArrayList<>();
+		messages.add("");
+		messages.add("Hello");
+		for (int size : new int[]{125, 126, 4096, 65535, 65536, 300_000}) {
+			StringBuilder sb = new StringBuilder();
+			while (sb.length() < size) {
+				sb.append(random.nextBoolean() ? "lorem ipsum " : Integer.toHexString(random.nextInt()));
+			}
+			messages.add(sb.substring(0, size));
+		}
+
+		AsyncHttpClient client = AsyncHttpClient.create(eventloop).withWebSocketDeflate(deflate);
+		List<String> result = await(client.webSocketRequest(HttpRequest.get("http://127.0.0.1:" + port + "/ws"))
+				.then(webSocket -> {
+					Promise<List<String>> received = webSocket.messageReadChannel()
+							.map(buf -> buf.asString(UTF_8))
+							.toCollector(toList());
+					return ChannelSupplier.ofStream(messages.stream().map(message -> wrapUtf8(message)))
+							.streamTo(webSocket.textMessageWriteChannel())
+							.then($ -> received);
+				})
+				.whenComplete(server::close));
+
+		assertEquals(messages, result);
+		assertEquals(0, client.getConnectionsCount());
+	}
+
+	@Test
+	public void testFramesFromRawSocket() throws IOException {
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.webSocket(webSocket ->
+				webSocket.messageReadChannel().streamTo(webSocket.messageWriteChannel()))));
+
+		String handshake = "GET /ws HTTP/1.1\r\n" +
+				"Host: 127.0.0.1\r\n" +
+				"Upgrade: websocket\r\n" +
+				"Connection: keep-alive, Upgrade\r\n" +
+				"Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+				"Sec-WebSocket-Version: 13\r\n" +
+				"\r\n";
+
+		ByteBuf frames = ByteBuf.wrapForReading(concat(
+				maskedFrame(0x01, "Hel"),      // text, not final
+				maskedFrame(0x89, "ping"),     // ping in the middle of a fragmented message
+				maskedFrame(0x80, "lo"),       // final continuation
+				maskedFrame(0x88, "\u0003\u00e8") // close 1000
+		));
+
+		ByteBufQueue queue = new ByteBufQueue();
+		String response = await(AsyncTcpSocketImpl.connect(new InetSocketAddress("127.0.0.1", port))
+				.then(socket -> socket.write(wrapAscii(handshake))
+						.then($ -> socket.write(frames))
+						.then($ -> readToEnd(socket, queue)))
+				.map($ -> queue.takeRemaining().asString(ISO_8859_1))
+				.whenComplete(server::close));
+
+		String head = response.substring(0, response.indexOf("\r\n\r\n") + 4);
+		assertTrue(head.startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+		// RFC 6455, section 1.3
+		assertTrue(head.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+		assertFalse(head.contains("Sec-WebSocket-Extensions"));
+		assertEquals("\u008a\u0004ping" + "\u0082\u0005Hello" + "\u0088\u0002\u0003\u00e8",
+				response.substring(head.length()));
+	}
+
+	@Test
+	public void testNotHandshakeRequest() throws IOException {
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.webSocket(webSocket -> fail())));
+
+		int code = await(AsyncHttpClient.create(eventloop)
+				.request(HttpRequest.get("http://127.0.0.1:" + port + "/ws"))
+				.map(HttpResponse::getCode)
+				.whenComplete(server::close));
+		assertEquals(400, code);
+	}
+
+	@Test
+	public void testRejectedHandshake() throws IOException {
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.ofCode(403)));
+
+		Throwable e = awaitException(AsyncHttpClient.create(eventloop)
+				.webSocketRequest(HttpRequest.get("http://127.0.0.1:" + port + "/ws"))
+				.whenComplete(server::close));
+		assertTrue(e instanceof HttpException);
+		assertEquals(403, ((HttpException) e).getCode());
+	}
+
+	@Test
+	public void testCloseWithError() throws IOException {
+		WebSocketException error = new WebSocketException(WebSocketException.POLICY_VIOLATION, "Test");
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.webSocket(webSocket ->
+				webSocket.messageReadChannel().get()
+						.whenResult(buf -> {
+							buf.recycle();
+							webSocket.close(error);
+						}))));
+
+		Throwable e = awaitException(AsyncHttpClient.create(eventloop)
+				.webSocketRequest(HttpRequest.get("http://127.0.0.1:" + port + "/ws"))
+				.then(webSocket -> webSocket.messageWriteChannel().accept(wrapAscii("message"))
+						.then($ -> webSocket.messageReadChannel().get()))
+				.whenComplete(server::close));
+		assertTrue(e instanceof WebSocketException);
+		assertEquals(WebSocketException.POLICY_VIOLATION, ((WebSocketException) e).getCode());
+	}
+
+	@Test
+	public void testManyConnections() throws IOException {
+		AsyncHttpServer server = startServer(request -> Promise.of(HttpResponse.webSocket(webSocket ->
+				webSocket.messageReadChannel().streamTo(webSocket.messageWriteChannel()))));
+
+		AsyncHttpClient client = AsyncHttpClient.create(eventloop);
+		List<String> result = await(Promises.toList(IntStream.range(0, 100)
+				.mapToObj(i -> client.webSocketRequest(HttpRequest.get("http://127.0.0.1:" + port + "/ws"))
+						.then(webSocket -> webSocket.messageWriteChannel().accept(wrapAscii("message " + i))
+								.then($ -> webSocket.messageReadChannel().get())
+								.map(buf -> buf.asString(UTF_8))
+								.whenComplete(() -> webSocket.messageWriteChannel().accept(null)))))
+				.whenComplete(server::close));
+		assertEquals(IntStream.range(0, 100).mapToObj(i -> "message " + i).collect(toList()), result);
+	}
+
+	private AsyncHttpServer startServer(AsyncServlet servlet) throws IOException {
+		AsyncHttpServer server = AsyncHttpServer.create(eventloop, servlet)
+				.withListenAddress(new InetSocketAddress("127.0.0.1", port));
+		server.listen();
+		return server;
+	}
+
+	private static byte[] maskedFrame(int b0, String payload) {
+		byte[] data = payload.getBytes(ISO_8859_1);
+		byte[] mask = {0x37, (byte) 0xfa, 0x21, 0x3d};
+		byte[] frame = new byte[6 + data.length];
+		frame[0] = (byte) b0;
+		frame[1] = (byte) (0x80 | data.length);
+		System.arraycopy(mask, 0, frame, 2, 4);
+		for (int i = 0; i < data.length; i++) {
+			frame[6 + i] = (byte) (data[i] ^ mask[i & 3]);
+		}
+		return frame;
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		int size = 0;
+		for (byte[] array : arrays) size += array.length;
+		byte[] result = new byte[size];
+		int pos = 0;
+		for (byte[] array : arrays) {
+			System.arraycopy(array, 0, result, pos, array.length);
+			pos += array.length;
+		}
+		return result;
+	}
+
+	private static Promise<Void> readToEnd(AsyncTcpSocketImpl socket, ByteBufQueue queue) {
+		return socket.read()
+				.then(buf -> {
+					if (buf == null) {
+						socket.close();
+						return Promise.complete();
+					}
+					queue.add(buf);
+					return readToEnd(socket, queue);
+				});
+	}
+}
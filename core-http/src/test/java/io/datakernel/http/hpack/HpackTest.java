@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015-2018 SoftIndex LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.datakernel.http.hpack;
+
+import io.datakernel.bytebuf.ByteBuf;
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.common.parse.ParseException;
+import io.datakernel.test.rules.ByteBufRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.datakernel.bytebuf.ByteBufStrings.decodeAscii;
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
+import static org.junit.Assert.*;
+
+/**
+ * Uses the examples from RFC 7541, Appendix C
+ */
+public final class HpackTest {
+	@ClassRule
+	public static final ByteBufRule byteBufRule = new ByteBufRule();
+
+	private static final String[][] REQUESTS = {
+			{":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"},
+			{":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"},
+			{":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"}
+	};
+
+	private static final String[] REQUESTS_HUFFMAN = {
+			"828684418cf1e3c2e5f23a6ba0ab90f4ff",
+			"828684be5886a8eb10649cbf",
+			"828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"
+	};
+
+	private static final String[] REQUESTS_PLAIN = {
+			"828684410f7777772e6578616d706c652e636f6d",
+			"828684be58086e6f2d6361636865",
+			"828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"
+	};
+
+	@Test
+	public void testEncoderWithHuffman() {
+		HpackEncoder encoder = HpackEncoder.create();
+		for (int i = 0; i < REQUESTS.length; i++) {
+			ByteBuf buf = ByteBufPool.allocate(16);
+			String[] fields = REQUESTS[i];
+			for (int j = 0; j < fields.length; j += 2) {
+				buf = encoder.encode(buf, encodeAscii(fields[j]), encodeAscii(fields[j + 1]), false);
+			}
+			assertEquals(REQUESTS_HUFFMAN[i], toHex(buf));
+			buf.recycle();
+		}
+		assertEquals(164, encoder.getTableSize());
+	}
+
+	@Test
+	public void testDecoderWithHuffman() throws ParseException {
+		doTestDecoder(REQUESTS_HUFFMAN);
+	}
+
+	@Test
+	public void testDecoderWithoutHuffman() throws ParseException {
+		doTestDecoder(REQUESTS_PLAIN);
+	}
+
+	@Test
+	public void testResponsesWithEviction() throws ParseException {
+		String[][] responses = {
+				{":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com"},
+				{":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com"},
+				{":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT", "location", "https://www.example.com",
+						"content-encoding", "gzip", "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"}
+		};
+		HpackEncoder encoder = HpackEncoder.create(256);
+		HpackDecoder decoder = HpackDecoder.create(256);
+		for (String[] response : responses) {
+			ByteBuf buf = ByteBufPool.allocate(16);
+			for (int j = 0; j < response.length; j += 2) {
+				buf = encoder.encode(buf, encodeAscii(response[j]), encodeAscii(response[j + 1]), false);
+			}
+			assertArrayEquals(response, decode(decoder, buf));
+		}
+		assertEquals(215, encoder.getTableSize());
+		assertEquals(215, decoder.getTableSize());
+	}
+
+	@Test
+	public void testSensitiveFieldsAreNotIndexed() throws ParseException {
+		HpackEncoder encoder = HpackEncoder.create();
+		HpackDecoder decoder = HpackDecoder.create(HpackEncoder.DEFAULT_TABLE_SIZE);
+		ByteBuf buf = encoder.encode(ByteBufPool.allocate(16), encodeAscii("authorization"), encodeAscii("secret"), true);
+		assertEquals(0x10, buf.at(buf.head()) & 0xF0);
+		assertArrayEquals(new String[]{"authorization", "secret"}, decode(decoder, buf));
+		assertEquals(0, encoder.getTableSize());
+		assertEquals(0, decoder.getTableSize());
+	}
+
+	@Test
+	public void testTableSizeUpdate() throws ParseException {
+		HpackEncoder encoder = HpackEncoder.create();
+		HpackDecoder decoder = HpackDecoder.create(HpackEncoder.DEFAULT_TABLE_SIZE);
+		ByteBuf buf = encoder.encode(ByteBufPool.allocate(16), encodeAscii("custom-key"), encodeAscii("custom-value"), false);
+		decode(decoder, buf);
+		assertEquals(54, decoder.getTableSize());
+
+		encoder.setMaxTableSize(0);
+		buf = encoder.encode(ByteBufPool.allocate(16), encodeAscii("custom-key"), encodeAscii("custom-value"), false);
+		assertArrayEquals(new String[]{"custom-key", "custom-value"}, decode(decoder, buf));
+		assertEquals(0, encoder.getTableSize());
+		assertEquals(0, decoder.getTableSize());
+	}
+
+	@Test
+	public void testInvalidIndex() {
+		HpackDecoder decoder = HpackDecoder.create(HpackEncoder.DEFAULT_TABLE_SIZE);
+		try {
+			decode(decoder, fromHex("be"));
+			fail();
+		} catch (ParseException e) {
+			assertSame(HpackDecoder.INVALID_INDEX, e);
+		}
+	}
+
+	@Test
+	public void testTruncatedBlock() {
+		HpackDecoder decoder = HpackDecoder.create(HpackEncoder.DEFAULT_TABLE_SIZE);
+		try {
+			decode(decoder, fromHex("828684418cf1e3c2e5f23a6ba0ab90"));
+			fail();
+		} catch (ParseException e) {
+			assertSame(HpackDecoder.TRUNCATED, e);
+		}
+	}
+
+	private static void doTestDecoder(String[] blocks) throws ParseException {
+		HpackDecoder decoder = HpackDecoder.create(HpackEncoder.DEFAULT_TABLE_SIZE);
+		for (int i = 0; i < blocks.length; i++) {
+			assertArrayEquals(REQUESTS[i], decode(decoder, fromHex(blocks[i])));
+		}
+		assertEquals(164, decoder.getTableSize());
+	}
+
+	private static String[] decode(HpackDecoder decoder, ByteBuf buf) throws ParseException {
+		List<String> fields = new ArrayList<>();
+		try {
+			decoder.decode(buf, (name, value) -> {
+				fields.add(decodeAscii(name));
+				fields.add(decodeAscii(value));
+			});
+		} finally {
+			buf.recycle();
+		}
+		return fields.toArray(new String[0]);
+	}
+
+	private static ByteBuf fromHex(String hex) {
+		ByteBuf buf = ByteBufPool.allocate(hex.length() / 2);
+		for (int i = 0; i < hex.length(); i += 2) {
+			buf.writeByte((byte) Integer.parseInt(hex.substring(i, i + 2), 16));
+		}
+		return buf;
+	}
+
+	private static String toHex(ByteBuf buf) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = buf.head(); i < buf.tail(); i++) {
+			sb.append(String.format("%02x", buf.at(i) & 0xFF));
+		}
+		return sb.toString();
+	}
+}
@@ -86,6 +86,8 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 	// ssl
 	private SSLContext sslContext;
 	private Executor sslExecutor;
+	@Nullable
+	private String[] sslApplicationProtocols;
 	protected List<InetSocketAddress> sslListenAddresses = new ArrayList<>();
 
 	private boolean running = false;
@@ -165,6 +167,16 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 		return withSslListenAddress(sslContext, sslExecutor, new InetSocketAddress(port));
 	}
 
+	/**
+	 * Sets application protocols which are negotiated via TLS ALPN extension
+	 * on SSL connections, in the order of server preference
+	 */
+	@SuppressWarnings("unchecked")
+	public final Self withSslApplicationProtocols(String... applicationProtocols) {
+		this.sslApplicationProtocols = applicationProtocols;
+		return (Self) this;
+	}
+
 	public final Self withAcceptOnce() {
 		return withAcceptOnce(true);
 	}
@@ -234,7 +246,7 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 		}
 	}
 
-	private void listenAddresses(List<InetSocketAddress> addresses, boolean ssl) throws IOException {
+	void listenAddresses(List<InetSocketAddress> addresses, boolean ssl) throws IOException {
 		for (InetSocketAddress address : addresses) {
 			try {
 				serverSocketChannels.add(eventloop.listen(address, serverSocketSettings, channel -> doAccept(channel, address, ssl)));
@@ -246,6 +258,30 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 		}
 	}
 
+	/**
+	 * Listens on the addresses of a primary server in the eventloop of this worker server,
+	 * so that connections are accepted by this server itself.
+	 * Socket settings and accept filter of the primary server are used for the accepted connections.
+	 */
+	final void listenShard(AbstractServer<?> primaryServer, List<InetSocketAddress> addresses, boolean ssl) throws IOException {
+		assert eventloop.inEventloopThread();
+		socketSettings = primaryServer.socketSettings;
+		acceptFilter = primaryServer.acceptFilter;
+		ServerSocketSettings shardSettings = primaryServer.serverSocketSettings.withReusePort(true);
+		if (serverSocketChannels == null) {
+			serverSocketChannels = new ArrayList<>();
+		}
+		for (InetSocketAddress address : addresses) {
+			try {
+				serverSocketChannels.add(eventloop.listen(address, shardSettings, channel -> doAccept(channel, address, ssl)));
+			} catch (IOException e) {
+				logger.error("Can't listen on [" + address + "]: " + this, e);
+				closeServerSockets();
+				throw e;
+			}
+		}
+	}
+
 	@Override
 	public final Promise<?> close() {
 		checkState(eventloop.inEventloopThread(), "Cannot close server from different thread");
@@ -338,7 +374,7 @@ public abstract class AbstractServer<Self extends AbstractServer<Self>> implemen
 		if (ssl) acceptsSsl.recordEvent();
 		onAccept(socketChannel, localAddress, remoteAddress, ssl);
 		AsyncTcpSocketImpl asyncTcpSocketImpl = wrapChannel(eventloop, socketChannel, socketSettings);
-		AsyncTcpSocket asyncTcpSocket = ssl ? wrapServerSocket(asyncTcpSocketImpl, sslContext, sslExecutor) : asyncTcpSocketImpl;
+		AsyncTcpSocket asyncTcpSocket = ssl ? wrapServerSocket(asyncTcpSocketImpl, sslContext, sslExecutor, sslApplicationProtocols) : asyncTcpSocketImpl;
 		serve(asyncTcpSocket, remoteAddress);
 	}
 
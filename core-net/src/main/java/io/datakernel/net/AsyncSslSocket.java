@@ -29,10 +29,12 @@ import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
 import java.nio.ByteBuffer;
 import java.util.concurrent.Executor;
 
 import static io.datakernel.common.Recyclable.tryRecycle;
+import static io.datakernel.eventloop.Eventloop.getCurrentEventloop;
 import static javax.net.ssl.SSLEngineResult.HandshakeStatus.*;
 import static javax.net.ssl.SSLEngineResult.Status.BUFFER_UNDERFLOW;
 import static javax.net.ssl.SSLEngineResult.Status.CLOSED;
@@ -56,11 +58,24 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 	@Nullable
 	private SettablePromise<Void> write;
 
+	private final SettablePromise<Void> handshake = new SettablePromise<>();
+
 	public static AsyncSslSocket wrapClientSocket(AsyncTcpSocket asyncTcpSocket,
 			String host, int port,
 			SSLContext sslContext, Executor executor) {
+		return wrapClientSocket(asyncTcpSocket, host, port, sslContext, executor, null);
+	}
+
+	/**
+	 * Wraps client socket, offering given application protocols
+	 * to the server via TLS ALPN extension
+	 */
+	public static AsyncSslSocket wrapClientSocket(AsyncTcpSocket asyncTcpSocket,
+			String host, int port,
+			SSLContext sslContext, Executor executor, @Nullable String[] applicationProtocols) {
 		SSLEngine sslEngine = sslContext.createSSLEngine(host, port);
 		sslEngine.setUseClientMode(true);
+		setApplicationProtocols(sslEngine, applicationProtocols);
 		return create(asyncTcpSocket, sslEngine, executor);
 	}
 
@@ -73,11 +88,28 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 
 	public static AsyncSslSocket wrapServerSocket(AsyncTcpSocket asyncTcpSocket,
 			SSLContext sslContext, Executor executor) {
+		return wrapServerSocket(asyncTcpSocket, sslContext, executor, null);
+	}
+
+	/**
+	 * Wraps server socket, selecting one of given application protocols
+	 * (in the order of server preference) via TLS ALPN extension
+	 */
+	public static AsyncSslSocket wrapServerSocket(AsyncTcpSocket asyncTcpSocket,
+			SSLContext sslContext, Executor executor, @Nullable String[] applicationProtocols) {
 		SSLEngine sslEngine = sslContext.createSSLEngine();
 		sslEngine.setUseClientMode(false);
+		setApplicationProtocols(sslEngine, applicationProtocols);
 		return create(asyncTcpSocket, sslEngine, executor);
 	}
 
+	private static void setApplicationProtocols(SSLEngine sslEngine, @Nullable String[] applicationProtocols) {
+		if (applicationProtocols == null) return;
+		SSLParameters sslParameters = sslEngine.getSSLParameters();
+		sslParameters.setApplicationProtocols(applicationProtocols);
+		sslEngine.setSSLParameters(sslParameters);
+	}
+
 	private AsyncSslSocket(AsyncTcpSocket asyncTcpSocket, SSLEngine engine, Executor executor) {
 		this.engine = engine;
 		this.executor = executor;
@@ -90,6 +122,25 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 		return new AsyncSslSocket(asyncTcpSocket, engine, executor);
 	}
 
+	/**
+	 * Returns a promise which is completed once the initial handshake is finished
+	 * or is completed exceptionally if socket is closed before that
+	 */
+	public Promise<Void> getHandshakeNotification() {
+		return handshake;
+	}
+
+	/**
+	 * Returns an application protocol negotiated via ALPN during the handshake,
+	 * or {@code null} if handshake is not finished yet or no protocol was negotiated
+	 */
+	@Nullable
+	public String getApplicationProtocol() {
+		if (!handshake.isResult()) return null;
+		String applicationProtocol = engine.getApplicationProtocol();
+		return applicationProtocol == null || applicationProtocol.isEmpty() ? null : applicationProtocol;
+	}
+
 	@NotNull
 	private <T> Promise<T> sanitize(T value, @Nullable Throwable e) {
 		if (e == null) {
@@ -295,6 +346,11 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 			return;
 		}
 
+		if (!handshake.isComplete()) {
+			// notified asynchronously, as listeners may write to this socket
+			getCurrentEventloop().post(() -> handshake.trySet(null));
+		}
+
 		// write data to net
 		if (app2engine.canRead()) {
 			do {
@@ -368,6 +424,7 @@ public final class AsyncSslSocket implements AsyncTcpSocket {
 		}
 		recycleByteBufs();
 		upstream.close(e);
+		handshake.trySetException(e);
 		if (write != null) {
 			write.setException(e);
 			write = null;
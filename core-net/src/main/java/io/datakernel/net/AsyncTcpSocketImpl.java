@@ -18,6 +18,7 @@ package io.datakernel.net;
 
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.bytebuf.ByteBufQueue;
 import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.exception.AsyncTimeoutException;
 import io.datakernel.common.inspector.AbstractInspector;
@@ -52,6 +53,10 @@ import static io.datakernel.eventloop.Eventloop.getCurrentEventloop;
 @SuppressWarnings("WeakerAccess")
 public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEventHandler {
 	public static final int DEFAULT_READ_BUFFER_SIZE = ApplicationSettings.getMemSize(AsyncTcpSocketImpl.class, "readBufferSize", kilobytes(16)).toInt();
+	public static final boolean DEFAULT_DIRECT_BUFFERS = ApplicationSettings.getBoolean(AsyncTcpSocketImpl.class, "directBuffers", false);
+	public static final int MAX_GATHERED_BUFS = ApplicationSettings.getInt(AsyncTcpSocketImpl.class, "maxGatheredBufs", 64);
+	public static final int DIRECT_WRITE_CHUNK_SIZE = Math.min(ByteBufPool.DIRECT_MAX_SIZE,
+			ApplicationSettings.getMemSize(AsyncTcpSocketImpl.class, "directWriteChunkSize", kilobytes(256)).toInt());
 
 	public static final AsyncTimeoutException TIMEOUT_EXCEPTION = new AsyncTimeoutException(AsyncTcpSocketImpl.class, "timed out");
 	public static final int NO_TIMEOUT = 0;
@@ -64,8 +69,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 	@Nullable
 	private ByteBuf readBuf;
 	private boolean readEndOfStream;
-	@Nullable
-	private ByteBuf writeBuf;
+	private final ByteBufQueue writeQueue = new ByteBufQueue();
 	private boolean writeEndOfStream;
 
 	@Nullable
@@ -79,6 +83,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 	private int readTimeout = NO_TIMEOUT;
 	private int writeTimeout = NO_TIMEOUT;
 	private int readBufferSize = DEFAULT_READ_BUFFER_SIZE;
+	private boolean directBuffers = DEFAULT_DIRECT_BUFFERS;
 
 	@Nullable
 	private ScheduledRunnable scheduledReadTimeout;
@@ -99,8 +104,25 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 
 		void onWriteTimeout();
 
+		/**
+		 * Is called for each ByteBuf which was written by a single write call to the channel,
+		 * up to the first one which was not written completely
+		 *
+		 * @param buf   ByteBuf which was written
+		 * @param bytes number of its bytes actually written
+		 */
 		void onWrite(ByteBuf buf, int bytes);
 
+		/**
+		 * Is called after a single write call to the channel, before {@link #onWrite(ByteBuf, int)}
+		 *
+		 * @param bufs    number of ByteBufs which were flushed at once
+		 * @param size    number of bytes in those ByteBufs
+		 * @param written number of bytes actually written
+		 */
+		default void onWrite(int bufs, int size, int written) {
+		}
+
 		void onWriteError(IOException e);
 	}
 
@@ -115,6 +137,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		private final EventStats writeErrors = EventStats.create(SMOOTHING_WINDOW);
 		private final EventStats writeTimeouts = EventStats.create(SMOOTHING_WINDOW);
 		private final EventStats writeOverloaded = EventStats.create(SMOOTHING_WINDOW);
+		private final ValueStats writeBufs = ValueStats.create(SMOOTHING_WINDOW);
 
 		@Override
 		public void onReadTimeout() {
@@ -143,8 +166,14 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 
 		@Override
 		public void onWrite(ByteBuf buf, int bytes) {
-			writes.recordValue(bytes);
-			if (buf.readRemaining() != bytes)
+			// writes are recorded once per write call
+		}
+
+		@Override
+		public void onWrite(int bufs, int size, int written) {
+			writes.recordValue(written);
+			writeBufs.recordValue(bufs);
+			if (size != written)
 				writeOverloaded.recordEvent();
 		}
 
@@ -192,6 +221,11 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		public EventStats getWriteOverloaded() {
 			return writeOverloaded;
 		}
+
+		@JmxAttribute(description = "Number of ByteBufs flushed with a single (gathering) write")
+		public ValueStats getWriteBufs() {
+			return writeBufs;
+		}
 	}
 
 	public static AsyncTcpSocketImpl wrapChannel(Eventloop eventloop, SocketChannel socketChannel, @Nullable SocketSettings socketSettings) {
@@ -243,6 +277,22 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		return this;
 	}
 
+	/**
+	 * Makes this socket perform I/O through pooled direct buffers of {@link ByteBufPool}.
+	 * <p>
+	 * Data is read from the channel into a direct buffer and then copied into a heap
+	 * {@link ByteBuf} of exactly the size that was read. Written data is copied from
+	 * the heap ByteBufs into a direct buffer. This is the same copy JDK makes through its
+	 * per-thread temporary direct buffers, so it does not save a copy. Instead, reads
+	 * allocate no oversized ByteBufs, and I/O is done in chunks of at most
+	 * {@link ByteBufPool#DIRECT_MAX_SIZE} bytes, whose direct buffers are shared by all threads
+	 * rather than cached per thread.
+	 */
+	public AsyncTcpSocketImpl withDirectBuffers(boolean directBuffers) {
+		this.directBuffers = directBuffers;
+		return this;
+	}
+
 	public AsyncTcpSocketImpl(Eventloop eventloop, @NotNull SocketChannel socketChannel) {
 		this.eventloop = eventloop;
 		this.channel = socketChannel;
@@ -276,7 +326,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 
 	private void updateInterests() {
 		if (ops < 0 || channel == null) return;
-		byte newOps = (byte) (((readBuf == null && !readEndOfStream) ? SelectionKey.OP_READ : 0) | (writeBuf == null || writeEndOfStream ? 0 : SelectionKey.OP_WRITE));
+		byte newOps = (byte) (((readBuf == null && !readEndOfStream) ? SelectionKey.OP_READ : 0) | (writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE));
 		if (key == null) {
 			ops = newOps;
 			try {
@@ -333,17 +383,39 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 
 	private void doRead() throws IOException {
 		assert channel != null;
-		ByteBuf buf = ByteBufPool.allocate(readBufferSize);
-		ByteBuffer buffer = buf.toWriteByteBuffer();
-
+		ByteBuf buf;
 		int numRead;
-		try {
-			numRead = channel.read(buffer);
-			buf.ofWriteByteBuffer(buffer);
-		} catch (IOException e) {
-			buf.recycle();
-			if (inspector != null) inspector.onReadError(e);
-			throw e;
+		if (directBuffers) {
+			int size = Math.min(readBufferSize, ByteBufPool.DIRECT_MAX_SIZE);
+			ByteBuffer buffer = ByteBufPool.allocateDirect(size);
+			buffer.limit(size);
+			try {
+				numRead = channel.read(buffer);
+			} catch (IOException e) {
+				ByteBufPool.recycleDirect(buffer);
+				if (inspector != null) inspector.onReadError(e);
+				throw e;
+			}
+			if (numRead > 0) {
+				buf = ByteBufPool.allocate(numRead);
+				buffer.flip();
+				buffer.get(buf.array(), buf.tail(), numRead);
+				buf.moveTail(numRead);
+			} else {
+				buf = ByteBuf.empty();
+			}
+			ByteBufPool.recycleDirect(buffer);
+		} else {
+			buf = ByteBufPool.allocate(readBufferSize);
+			ByteBuffer buffer = buf.toWriteByteBuffer();
+			try {
+				numRead = channel.read(buffer);
+				buf.ofWriteByteBuffer(buffer);
+			} catch (IOException e) {
+				buf.recycle();
+				if (inspector != null) inspector.onReadError(e);
+				throw e;
+			}
 		}
 
 		if (numRead == 0) {
@@ -358,7 +430,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 			buf.recycle();
 			if (inspector != null) inspector.onReadEndOfStream();
 			readEndOfStream = true;
-			if (writeEndOfStream && writeBuf == null) {
+			if (writeEndOfStream && writeQueue.isEmpty()) {
 				doClose();
 			}
 			return;
@@ -386,17 +458,10 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 			return Promise.ofException(CLOSE_EXCEPTION);
 		}
 		writeEndOfStream |= buf == null;
-		if (write != null) return write;
-
-		if (writeBuf == null) {
-			writeBuf = buf;
-		} else {
-			if (buf != null) {
-				writeBuf = ByteBufPool.ensureWriteRemaining(this.writeBuf, buf.readRemaining());
-				writeBuf.put(buf.array(), buf.head(), buf.readRemaining());
-				buf.recycle();
-			}
+		if (buf != null) {
+			writeQueue.add(buf);
 		}
+		if (write != null) return write;
 
 		try {
 			doWrite();
@@ -405,7 +470,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 			return Promise.ofException(e);
 		}
 
-		if (this.writeBuf == null) {
+		if (writeQueue.isEmpty()) {
 			return Promise.complete();
 		}
 		write = new SettablePromise<>();
@@ -426,7 +491,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 			close(e);
 			return;
 		}
-		if (writeBuf == null) {
+		if (writeQueue.isEmpty()) {
 			SettablePromise<Void> write = this.write;
 			this.write = null;
 			write.set(null);
@@ -437,26 +502,17 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 
 	private void doWrite() throws IOException {
 		assert channel != null;
-		if (writeBuf != null) {
-			ByteBuf buf = this.writeBuf;
-			ByteBuffer buffer = buf.toReadByteBuffer();
-
-			try {
-				channel.write(buffer);
-			} catch (IOException e) {
-				if (inspector != null) inspector.onWriteError(e);
-				throw e;
+		if (!writeQueue.isEmpty()) {
+			if (directBuffers) {
+				doWriteDirect();
+			} else if (writeQueue.remainingBufs() == 1) {
+				doWriteSingle();
+			} else {
+				doWriteGathering();
 			}
 
-			if (inspector != null) inspector.onWrite(buf, buffer.position() - buf.head());
-
-			buf.ofReadByteBuffer(buffer);
-
-			if (buf.canRead()) {
+			if (!writeQueue.isEmpty()) {
 				return;
-			} else {
-				buf.recycle();
-				writeBuf = null;
 			}
 		}
 
@@ -471,13 +527,109 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		}
 	}
 
+	private void doWriteSingle() throws IOException {
+		assert channel != null;
+		ByteBuf buf = writeQueue.peekBuf();
+		assert buf != null;
+		ByteBuffer buffer = buf.toReadByteBuffer();
+
+		try {
+			channel.write(buffer);
+		} catch (IOException e) {
+			if (inspector != null) inspector.onWriteError(e);
+			throw e;
+		}
+
+		int numWritten = buffer.position() - buf.head();
+		if (inspector != null) onWrite(1, buf.readRemaining(), numWritten);
+
+		writeQueue.skip(numWritten);
+	}
+
+	/**
+	 * Flushes up to {@link #MAX_GATHERED_BUFS} ByteBufs of the write queue with a single gathering write
+	 */
+	private void doWriteGathering() throws IOException {
+		assert channel != null;
+		int count = Math.min(writeQueue.remainingBufs(), MAX_GATHERED_BUFS);
+		ByteBuffer[] buffers = new ByteBuffer[count];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			ByteBuf buf = writeQueue.peekBuf(i);
+			buffers[i] = buf.toReadByteBuffer();
+			size += buf.readRemaining();
+		}
+
+		long numWritten;
+		try {
+			numWritten = channel.write(buffers, 0, count);
+		} catch (IOException e) {
+			if (inspector != null) inspector.onWriteError(e);
+			throw e;
+		}
+
+		if (inspector != null) onWrite(count, size, (int) numWritten);
+
+		writeQueue.skip((int) numWritten);
+	}
+
+	/**
+	 * Copies up to {@link #DIRECT_WRITE_CHUNK_SIZE} bytes of the write queue into a single
+	 * pooled direct buffer and writes it, the copy replaces the one JDK would make for heap buffers
+	 */
+	private void doWriteDirect() throws IOException {
+		assert channel != null;
+		int size = 0;
+		int count = 0;
+		int remainingBufs = writeQueue.remainingBufs();
+		while (count < remainingBufs && size < DIRECT_WRITE_CHUNK_SIZE) {
+			size += writeQueue.peekBuf(count++).readRemaining();
+		}
+		size = Math.min(size, DIRECT_WRITE_CHUNK_SIZE);
+
+		ByteBuffer buffer = ByteBufPool.allocateDirect(size);
+		for (int i = 0, remaining = size; remaining != 0; i++) {
+			ByteBuf buf = writeQueue.peekBuf(i);
+			int n = Math.min(remaining, buf.readRemaining());
+			buffer.put(buf.array(), buf.head(), n);
+			remaining -= n;
+		}
+		buffer.flip();
+
+		int numWritten;
+		try {
+			numWritten = channel.write(buffer);
+		} catch (IOException e) {
+			if (inspector != null) inspector.onWriteError(e);
+			throw e;
+		} finally {
+			ByteBufPool.recycleDirect(buffer);
+		}
+
+		if (inspector != null) onWrite(count, size, numWritten);
+
+		writeQueue.skip(numWritten);
+	}
+
+	private void onWrite(int count, int size, int numWritten) {
+		assert inspector != null;
+		inspector.onWrite(count, size, numWritten);
+		for (int i = 0, remaining = numWritten; i < count; i++) {
+			ByteBuf buf = writeQueue.peekBuf(i);
+			int bytes = Math.min(remaining, buf.readRemaining());
+			inspector.onWrite(buf, bytes);
+			if (bytes != buf.readRemaining()) break;
+			remaining -= bytes;
+		}
+	}
+
 	@Override
 	public void close(@NotNull Throwable e) {
 		assert eventloop.inEventloopThread();
 		if (channel == null) return;
 		doClose();
 		readBuf = nullify(readBuf, ByteBuf::recycle);
-		writeBuf = nullify(writeBuf, ByteBuf::recycle);
+		writeQueue.recycle();
 		scheduledReadTimeout = nullify(scheduledReadTimeout, ScheduledRunnable::cancel);
 		scheduledWriteTimeout = nullify(scheduledWriteTimeout, ScheduledRunnable::cancel);
 		read = nullify(read, SettablePromise::setException, e);
@@ -503,7 +655,7 @@ public final class AsyncTcpSocketImpl implements AsyncTcpSocket, NioChannelEvent
 		return "AsyncTcpSocketImpl{" +
 				"channel=" + (channel != null ? channel : "") +
 				", readBuf=" + readBuf +
-				", writeBuf=" + writeBuf +
+				", writeQueue=" + writeQueue +
 				", readEndOfStream=" + readEndOfStream +
 				", writeEndOfStream=" + writeEndOfStream +
 				", read=" + read +
@@ -17,16 +17,27 @@
 package io.datakernel.net;
 
 import io.datakernel.eventloop.Eventloop;
+import io.datakernel.eventloop.net.ServerSocketSettings;
+import io.datakernel.promise.Promise;
+import io.datakernel.promise.Promises;
 
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static io.datakernel.common.Preconditions.checkState;
+
 /**
  * It is a simple balancer server, which dispatches its connections to its {@link WorkerServer WorkerServers}.
  * <p>
  * When an incoming connection takes place, it forwards the request to one of them with a round-robin algorithm.
+ * <p>
+ * With {@link #withAcceptSharding accept sharding} each worker server listens on the addresses of this server
+ * on its own with {@code SO_REUSEPORT} socket option, so that connections are distributed between worker
+ * eventloops by the kernel and the primary eventloop does not accept connections at all.
  */
 public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 
@@ -34,6 +45,9 @@ public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 
 	private int currentAcceptor = -1; // first server index is currentAcceptor + 1
 
+	private boolean acceptSharding;
+	private boolean sharded;
+
 	// region builders
 	private PrimaryServer(Eventloop primaryEventloop, WorkerServer[] workerServers) {
 		super(primaryEventloop);
@@ -58,8 +72,77 @@ public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 	public static PrimaryServer create(Eventloop primaryEventloop, WorkerServer... workerServer) {
 		return new PrimaryServer(primaryEventloop, workerServer);
 	}
+
+	/**
+	 * Enables accept sharding, worker servers should be {@link AbstractServer AbstractServers}.
+	 * <p>
+	 * Accept sharding requires {@code SO_REUSEPORT} socket option which is available since Java 9,
+	 * if it is not supported, connections are accepted by the primary eventloop.
+	 */
+	public PrimaryServer withAcceptSharding(boolean acceptSharding) {
+		this.acceptSharding = acceptSharding;
+		return this;
+	}
 	// endregion
 
+	@Override
+	void listenAddresses(List<InetSocketAddress> addresses, boolean ssl) throws IOException {
+		if (!acceptSharding) {
+			super.listenAddresses(addresses, ssl);
+			return;
+		}
+		if (!ServerSocketSettings.isReusePortSupported()) {
+			logger.warn("SO_REUSEPORT is not supported, connections are accepted by the primary eventloop: {}", this);
+			super.listenAddresses(addresses, ssl);
+			return;
+		}
+		sharded = true;
+		List<Promise<Void>> shards = new ArrayList<>();
+		for (WorkerServer workerServer : workerServers) {
+			checkState(workerServer instanceof AbstractServer, "Accept sharding is supported only for AbstractServer workers");
+			AbstractServer<?> worker = (AbstractServer<?>) workerServer;
+			if (worker.getEventloop() == eventloop) {
+				try {
+					worker.listenShard(this, addresses, ssl);
+				} catch (IOException e) {
+					close();
+					throw e;
+				}
+			} else {
+				// the primary eventloop does not wait for the workers, so that it never blocks
+				shards.add(Promise.ofFuture(worker.getEventloop().submit(() -> {
+					try {
+						worker.listenShard(this, addresses, ssl);
+						return Promise.complete();
+					} catch (IOException e) {
+						return Promise.ofException(e);
+					}
+				})));
+			}
+		}
+		Promises.all(shards)
+				.whenException(e -> {
+					logger.error("Can't listen on " + addresses + " in worker eventloops: " + this, e);
+					close();
+				});
+	}
+
+	@Override
+	protected void closeServerSockets() {
+		super.closeServerSockets();
+		if (!sharded) {
+			return;
+		}
+		for (WorkerServer workerServer : workerServers) {
+			AbstractServer<?> worker = (AbstractServer<?>) workerServer;
+			if (worker.getEventloop() == eventloop) {
+				worker.closeServerSockets();
+			} else {
+				worker.getEventloop().execute(worker::closeServerSockets);
+			}
+		}
+	}
+
 	@Override
 	protected void serve(AsyncTcpSocket socket, InetAddress remoteAddress) {
 		throw new UnsupportedOperationException();
@@ -78,6 +161,7 @@ public final class PrimaryServer extends AbstractServer<PrimaryServer> {
 				(listenAddresses.isEmpty() ? "" : ", listenAddresses=" + listenAddresses) +
 				(sslListenAddresses.isEmpty() ? "" : ", sslListenAddresses=" + sslListenAddresses) +
 				(acceptOnce ? ", acceptOnce" : "") +
+				(acceptSharding ? ", acceptSharding" : "") +
 				", workerServers=" + Arrays.toString(workerServers) +
 				'}';
 	}
@@ -18,7 +18,9 @@ package io.datakernel.net;
 
 import io.datakernel.bytebuf.ByteBuf;
 import io.datakernel.bytebuf.ByteBufStrings;
+import io.datakernel.eventloop.Eventloop;
 import io.datakernel.eventloop.net.SocketSettings;
+import io.datakernel.promise.Promises;
 import io.datakernel.test.rules.ByteBufRule;
 import io.datakernel.test.rules.EventloopRule;
 import org.junit.ClassRule;
@@ -27,12 +29,16 @@ import org.junit.Test;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import static io.datakernel.eventloop.Eventloop.getCurrentEventloop;
 import static io.datakernel.promise.Promises.repeat;
 import static io.datakernel.promise.TestUtils.await;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public final class AbstractServerTest {
 	@ClassRule
@@ -73,4 +79,58 @@ public final class AbstractServerTest {
 
 		assertEquals(message, response.asString(UTF_8));
 	}
+
+	@Test
+	public void testAcceptSharding() throws IOException {
+		InetSocketAddress address = new InetSocketAddress("localhost", 5589);
+		SimpleServer worker0 = SimpleServer.create(socket -> socket.write(ByteBufStrings.wrapAscii("0")).whenComplete(socket::close));
+		SimpleServer worker1 = SimpleServer.create(socket -> socket.write(ByteBufStrings.wrapAscii("1")).whenComplete(socket::close));
+
+		PrimaryServer primaryServer = PrimaryServer.create(getCurrentEventloop(), worker0, worker1)
+				.withAcceptSharding(true)
+				.withListenAddress(address);
+		primaryServer.listen();
+
+		List<String> responses = await(Promises.toList(IntStream.range(0, 10)
+				.mapToObj($ -> AsyncTcpSocketImpl.connect(address)
+						.then(socket -> socket.read()
+								.whenComplete(socket::close)
+								.map(buf -> buf.asString(UTF_8))))
+				.collect(toList()))
+				.whenComplete(primaryServer::close));
+
+		assertEquals(10, responses.size());
+		for (String response : responses) {
+			assertTrue(response.equals("0") || response.equals("1"));
+		}
+	}
+
+	@Test
+	public void testAcceptShardingInWorkerEventloop() throws IOException, InterruptedException {
+		InetSocketAddress address = new InetSocketAddress("localhost", 5590);
+		Eventloop primaryEventloop = getCurrentEventloop();
+		Eventloop workerEventloop = Eventloop.create().withCurrentThread();
+		SimpleServer worker = SimpleServer.create(socket -> socket.write(ByteBufStrings.wrapAscii("worker")).whenComplete(socket::close));
+		primaryEventloop.withCurrentThread();
+		workerEventloop.keepAlive(true);
+		Thread workerThread = new Thread(workerEventloop);
+		workerThread.start();
+
+		PrimaryServer primaryServer = PrimaryServer.create(primaryEventloop, worker)
+				.withAcceptSharding(true)
+				.withListenAddress(address);
+		// the worker listens asynchronously, a connection waits in the backlog until it is accepted
+		primaryServer.listen();
+
+		String response = await(Promises.delay(100L)
+				.then($ -> AsyncTcpSocketImpl.connect(address))
+				.then(socket -> socket.read()
+						.whenComplete(socket::close)
+						.map(buf -> buf.asString(UTF_8)))
+				.whenComplete(primaryServer::close));
+
+		workerEventloop.execute(() -> workerEventloop.keepAlive(false));
+		workerThread.join();
+		assertEquals("worker", response);
+	}
 }
@@ -1,5 +1,7 @@
 package io.datakernel.async.file;
 
+import io.datakernel.bytebuf.ByteBufPool;
+import io.datakernel.common.ApplicationSettings;
 import io.datakernel.common.exception.UncheckedException;
 import io.datakernel.promise.Promise;
 import org.jetbrains.annotations.NotNull;
@@ -12,47 +14,105 @@ import java.util.concurrent.Executor;
 import static io.datakernel.promise.Promise.ofBlockingCallable;
 
 public final class ExecutorAsyncFileService implements AsyncFileService {
+	public static final boolean DEFAULT_DIRECT_BUFFERS = ApplicationSettings.getBoolean(ExecutorAsyncFileService.class, "directBuffers", false);
+
 	private final Executor executor;
+	private boolean directBuffers = DEFAULT_DIRECT_BUFFERS;
 
 	public ExecutorAsyncFileService(@NotNull Executor executor) {
 		this.executor = executor;
 	}
 
+	/**
+	 * Makes this service perform file I/O through pooled direct buffers of {@link ByteBufPool}
+	 * instead of JDK's per-thread temporary direct buffers, which are cached
+	 * for each of the executor threads separately.
+	 * <p>
+	 * Data is still copied between the given array and a direct buffer, as JDK does,
+	 * only the direct buffers are shared by all the threads, and large reads and writes
+	 * are done in chunks of at most {@link ByteBufPool#DIRECT_MAX_SIZE} bytes.
+	 */
+	public ExecutorAsyncFileService withDirectBuffers(boolean directBuffers) {
+		this.directBuffers = directBuffers;
+		return this;
+	}
+
 	@Override
 	public Promise<Integer> read(FileChannel channel, long position, byte[] array, int offset, int size) {
 		return ofBlockingCallable(executor, () -> {
-			ByteBuffer buffer = ByteBuffer.wrap(array, offset, size);
-			long pos = position;
-
-			do {
-				try {
-					int readBytes = channel.read(buffer, pos);
-					if (readBytes == -1) {
-						break;
-					}
-					pos += readBytes;
-				} catch (IOException e) {
-					throw new UncheckedException(e);
+			if (!directBuffers) {
+				return doRead(channel, position, ByteBuffer.wrap(array, offset, size));
+			}
+			ByteBuffer buffer = ByteBufPool.allocateDirect(Math.min(size, ByteBufPool.DIRECT_MAX_SIZE));
+			try {
+				int total = 0;
+				while (total < size) {
+					int chunk = Math.min(size - total, buffer.capacity());
+					buffer.clear();
+					buffer.limit(chunk);
+					int readBytes = doRead(channel, position + total, buffer);
+					buffer.flip();
+					buffer.get(array, offset + total, readBytes);
+					total += readBytes;
+					if (readBytes < chunk) break;
 				}
-			} while (buffer.position() < buffer.limit());
-			return Math.toIntExact(pos - position);
+				return total;
+			} finally {
+				ByteBufPool.recycleDirect(buffer);
+			}
 		});
 	}
 
 	@Override
 	public Promise<Integer> write(FileChannel channel, long position, byte[] array, int offset, int size) {
 		return ofBlockingCallable(executor, () -> {
-			ByteBuffer buffer = ByteBuffer.wrap(array, offset, size);
-			long pos = position;
+			if (!directBuffers) {
+				return doWrite(channel, position, ByteBuffer.wrap(array, offset, size));
+			}
+			ByteBuffer buffer = ByteBufPool.allocateDirect(Math.min(size, ByteBufPool.DIRECT_MAX_SIZE));
+			try {
+				int total = 0;
+				while (total < size) {
+					int chunk = Math.min(size - total, buffer.capacity());
+					buffer.clear();
+					buffer.put(array, offset + total, chunk);
+					buffer.flip();
+					total += doWrite(channel, position + total, buffer);
+				}
+				return total;
+			} finally {
+				ByteBufPool.recycleDirect(buffer);
+			}
+		});
+	}
 
+	private static int doRead(FileChannel channel, long position, ByteBuffer buffer) {
+		long pos = position;
+
+		do {
 			try {
-				do {
-					pos += channel.write(buffer, pos);
-				} while (buffer.position() < buffer.limit());
+				int readBytes = channel.read(buffer, pos);
+				if (readBytes == -1) {
+					break;
+				}
+				pos += readBytes;
 			} catch (IOException e) {
 				throw new UncheckedException(e);
 			}
-			return Math.toIntExact(pos - position);
-		});
+		} while (buffer.position() < buffer.limit());
+		return Math.toIntExact(pos - position);
+	}
+
+	private static int doWrite(FileChannel channel, long position, ByteBuffer buffer) {
+		long pos = position;
+
+		try {
+			do {
+				pos += channel.write(buffer, pos);
+			} while (buffer.position() < buffer.limit());
+		} catch (IOException e) {
+			throw new UncheckedException(e);
+		}
+		return Math.toIntExact(pos - position);
 	}
 }
@@ -16,6 +16,7 @@
 
 package io.datakernel.async.file;
 
+import io.datakernel.bytebuf.ByteBufPool;
 import io.datakernel.promise.Promises;
 import io.datakernel.test.rules.EventloopRule;
 import org.junit.ClassRule;
@@ -28,16 +29,16 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static io.datakernel.common.collection.CollectionUtils.set;
 import static io.datakernel.promise.TestUtils.await;
-import static java.nio.file.StandardOpenOption.READ;
-import static java.nio.file.StandardOpenOption.WRITE;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.fail;
+import static java.nio.file.StandardOpenOption.*;
+import static org.junit.Assert.*;
 
 public final class ExecutorAsyncFileServiceTest {
 	@Rule
@@ -89,4 +90,21 @@ public final class ExecutorAsyncFileServiceTest {
 							assertEquals(res.intValue(), array.length);
 						}))));
 	}
+
+	@Test
+	public void testDirectBuffersSplitLargeReadsAndWrites() throws IOException {
+		ExecutorAsyncFileService service = new ExecutorAsyncFileService(Executors.newCachedThreadPool()).withDirectBuffers(true);
+		Path path = temporaryFolder.getRoot().toPath().resolve("large.dat");
+		FileChannel channel = FileChannel.open(path, set(CREATE_NEW, READ, WRITE));
+		byte[] array = new byte[ByteBufPool.DIRECT_MAX_SIZE * 2 + 123];
+		new Random(0).nextBytes(array);
+
+		assertEquals(array.length, (int) await(service.write(channel, 0, array, 0, array.length)));
+		assertArrayEquals(array, Files.readAllBytes(path));
+
+		byte[] result = new byte[array.length + 10];
+		assertEquals(array.length, (int) await(service.read(channel, 0, result, 10, result.length - 10)));
+		assertArrayEquals(array, Arrays.copyOfRange(result, 10, result.length));
+		assertEquals(0, (int) await(service.read(channel, array.length, result, 0, 10)));
+	}
 }
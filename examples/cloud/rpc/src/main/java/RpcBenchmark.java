@@ -21,6 +21,8 @@ import io.datakernel.service.ServiceGraphModule;
 import io.datakernel.service.ServiceGraphModuleSettings;
 import org.jetbrains.annotations.Nullable;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.InetSocketAddress;
 import java.util.concurrent.CompletionStage;
 
@@ -142,16 +144,23 @@ public class RpcBenchmark extends Launcher {
 	int sent;
 	int completed;
 
+	/**
+	 * Bytes allocated by the client eventloop thread per request during the last round, or -1 if JVM does not measure it
+	 */
+	long allocatedPerRequest;
+
 	private void benchmark(String nameBenchmark) throws Exception {
 		long time = 0;
 		long bestTime = -1;
 		long worstTime = -1;
+		long allocated = 0;
 
 		System.out.println("Warming up ...");
 		for (int i = 0; i < warmupRounds; i++) {
 			long roundTime = round();
 			long rps = totalRequests * 1000L / roundTime;
-			System.out.println("Round: " + (i + 1) + "; Round time: " + roundTime + "ms; RPS : " + rps);
+			System.out.println("Round: " + (i + 1) + "; Round time: " + roundTime + "ms; RPS : " + rps +
+					"; Allocated per request: " + allocatedPerRequest + " bytes");
 		}
 
 		System.out.println("Start benchmarking " + nameBenchmark);
@@ -169,13 +178,17 @@ public class RpcBenchmark extends Launcher {
 				worstTime = roundTime;
 			}
 
+			allocated += allocatedPerRequest;
+
 			long rps = totalRequests * 1000L / roundTime;
-			System.out.println("Round: " + (i + 1) + "; Round time: " + roundTime + "ms; RPS : " + rps);
+			System.out.println("Round: " + (i + 1) + "; Round time: " + roundTime + "ms; RPS : " + rps +
+					"; Allocated per request: " + allocatedPerRequest + " bytes");
 		}
 		double avgTime = (double) time / benchmarkRounds;
 		long requestsPerSecond = (long) (totalRequests / avgTime * 1000);
 		System.out.println("Time: " + time + "ms; Average time: " + avgTime + "ms; Best time: " +
-				bestTime + "ms; Worst time: " + worstTime + "ms; Requests per second: " + requestsPerSecond);
+				bestTime + "ms; Worst time: " + worstTime + "ms; Requests per second: " + requestsPerSecond +
+				"; Average allocated per request: " + allocated / benchmarkRounds + " bytes");
 	}
 
 	private long round() throws Exception {
@@ -186,6 +199,7 @@ public class RpcBenchmark extends Launcher {
 		SettablePromise<Long> promise = new SettablePromise<>();
 
 		long start = System.currentTimeMillis();
+		long allocatedStart = getAllocatedBytes();
 
 		sent = 0;
 		completed = 0;
@@ -199,6 +213,8 @@ public class RpcBenchmark extends Launcher {
 
 				// Stop round
 				if (completed == totalRequests) {
+					long allocatedEnd = getAllocatedBytes();
+					allocatedPerRequest = allocatedStart != -1 ? (allocatedEnd - allocatedStart) / totalRequests : -1;
 					promise.set(null);
 					return;
 				}
@@ -220,6 +236,17 @@ public class RpcBenchmark extends Launcher {
 		return promise.map($ -> System.currentTimeMillis() - start);
 	}
 
+	private static long getAllocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+			if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+				return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
 	public static void main(String[] args) throws Exception {
 		RpcBenchmark benchmark = new RpcBenchmark();
 		benchmark.launch(args);
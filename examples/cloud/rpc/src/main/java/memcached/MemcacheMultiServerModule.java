@@ -5,7 +5,7 @@ import io.datakernel.di.annotation.Provides;
 import io.datakernel.di.module.AbstractModule;
 import io.datakernel.eventloop.Eventloop;
 import io.datakernel.memcache.protocol.SerializerDefSlice;
-import io.datakernel.memcache.server.RingBuffer;
+import io.datakernel.memcache.server.ConcurrentRingBuffer;
 import io.datakernel.promise.Promise;
 import io.datakernel.rpc.server.RpcServer;
 import io.datakernel.serializer.SerializerBuilder;
@@ -14,6 +14,7 @@ import io.datakernel.worker.WorkerId;
 
 import java.net.InetSocketAddress;
 
+import static io.datakernel.config.ConfigConverters.ofBoolean;
 import static io.datakernel.config.ConfigConverters.ofInteger;
 import static io.datakernel.config.ConfigConverters.ofMemSize;
 import static io.datakernel.memcache.protocol.MemcacheRpcMessage.*;
@@ -38,16 +39,17 @@ public class MemcacheMultiServerModule extends AbstractModule {
 	}
 
 	@Provides
-	@Worker
-	RingBuffer ringBuffer(Config config) {
-		return RingBuffer.create(
-				config.get(ofInteger(), "memcache.buffers"),
-				config.get(ofMemSize(), "memcache.bufferCapacity").toInt());
+	ConcurrentRingBuffer ringBuffer(Config config) {
+		int buffers = config.get(ofInteger(), "memcache.buffers");
+		long bufferCapacity = config.get(ofMemSize(), "memcache.bufferCapacity").toLong();
+		return config.get(ofBoolean(), "memcache.offHeap", false) ?
+				ConcurrentRingBuffer.createOffHeap(buffers, bufferCapacity) :
+				ConcurrentRingBuffer.create(buffers, bufferCapacity);
 	}
 
 	@Provides
 	@Worker
-	RpcServer server(Eventloop eventloop, RingBuffer storage, InetSocketAddress address) {
+	RpcServer server(Eventloop eventloop, ConcurrentRingBuffer storage, InetSocketAddress address) {
 		return RpcServer.create(eventloop)
 				.withHandler(GetRequest.class, GetResponse.class,
 						request -> Promise.of(new GetResponse(storage.get(request.getKey()))))
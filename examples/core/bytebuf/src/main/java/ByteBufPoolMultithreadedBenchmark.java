@@ -65,7 +65,20 @@ public class ByteBufPoolMultithreadedBenchmark extends Launcher {
 
 	@Override
 	protected void run() throws Exception {
-		benchmark("ByteBuf Benchmark");
+		benchmark("ByteBuf Benchmark (thread cache " +
+				(Boolean.getBoolean("ByteBufPool.threadCache") ? "enabled" : "disabled, run with -DByteBufPool.threadCache=true to enable it") + ")");
+		printThreadCacheStats();
+	}
+
+	private static void printThreadCacheStats() {
+		ByteBufPool.ByteBufPoolStats stats = ByteBufPool.getStats();
+		long hits = stats.getThreadCacheHits();
+		long misses = stats.getThreadCacheMisses();
+		long refills = stats.getThreadCacheRefills();
+		long total = hits + misses + refills;
+		System.out.println("Thread cache: hits: " + hits + "; refills from slabs: " + refills + "; misses: " + misses +
+				"; flushes to slabs: " + stats.getThreadCacheFlushes() +
+				"; hit ratio: " + (total == 0 ? "-" : String.format("%.4f", (double) hits / total)));
 	}
 
 	private void benchmark(String nameBenchmark) throws InterruptedException {
@@ -73,10 +86,11 @@ public class ByteBufPoolMultithreadedBenchmark extends Launcher {
 		long bestTime = -1;
 		long worstTime = -1;
 
+		System.out.println(nameBenchmark);
 		System.out.println("Warming up ...");
 		for (int i = 0; i < warmupRounds; i++) {
 			double roundTime = round();
-			long rps = iterations * 1000L * THREADS / Math.round(roundTime);
+			long rps = iterations * 1000L * threads / Math.round(roundTime);
 			System.out.println();
 			System.out.println("Round: " + (i + 1) + "; ROUND TIME: " + Math.round(roundTime) + " ms; " +
 					"RPS : " + rps);
@@ -11,6 +11,7 @@ import io.datakernel.http.AsyncHttpClient;
 import io.datakernel.http.AsyncHttpServer;
 import io.datakernel.http.HttpRequest;
 import io.datakernel.http.HttpResponse;
+import io.datakernel.http.RoutingServlet;
 import io.datakernel.launcher.Launcher;
 import io.datakernel.launcher.OnStart;
 import io.datakernel.promise.Promise;
@@ -18,12 +19,17 @@ import io.datakernel.promise.SettablePromise;
 import io.datakernel.service.ServiceGraphModule;
 import org.jetbrains.annotations.Nullable;
 
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
 import java.util.concurrent.CompletionStage;
 import java.util.function.Supplier;
 
+import static io.datakernel.bytebuf.ByteBufStrings.encodeAscii;
 import static io.datakernel.config.ConfigConverters.*;
 import static io.datakernel.di.module.Modules.combine;
+import static io.datakernel.http.ContentTypes.JSON_UTF_8;
+import static io.datakernel.http.HttpHeaderValue.ofContentType;
+import static io.datakernel.http.HttpHeaders.CONTENT_TYPE;
 import static java.lang.Math.min;
 
 public class HttpServerWorkloadBenchmark extends Launcher {
@@ -33,6 +39,9 @@ public class HttpServerWorkloadBenchmark extends Launcher {
 	private final static int BENCHMARK_ROUNDS = 5;
 	private final static int ACTIVE_REQUESTS_MAX = 300;
 	private final static int ACTIVE_REQUESTS_MIN = 200;
+	private final static byte[] JSON_BODY = encodeAscii("{\"message\":\"Hello, World!\"}");
+
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
 
 	private String address;
 	private int totalRequests;
@@ -69,8 +78,15 @@ public class HttpServerWorkloadBenchmark extends Launcher {
 	@Provides
 	AsyncHttpServer server() {
 		return AsyncHttpServer.create(serverEventloop,
-				request ->
-						HttpResponse.ok200().withPlainText("Response!!"))
+				RoutingServlet.create()
+						.map("/plaintext", request ->
+								HttpResponse.ok200().withPlainText("Response!!"))
+						.map("/json", request ->
+								HttpResponse.ok200()
+										.withHeader(CONTENT_TYPE, ofContentType(JSON_UTF_8))
+										.withBody(JSON_BODY)))
+				.withDateHeader(true)
+				.withServerHeader("datakernel")
 				.withListenAddresses(config.get(ofList(ofInetSocketAddress()), "address"));
 	}
 
@@ -111,11 +127,13 @@ public class HttpServerWorkloadBenchmark extends Launcher {
 
 	@Override
 	protected void run() throws Exception {
-		benchmark(this::roundGet, "GET Request");
+		benchmark(() -> roundGet(address + "plaintext"), "GET Request, plain text response");
+		benchmark(() -> roundGet(address + "json"), "GET Request, JSON response");
 	}
 
 	private void benchmark(Supplier<Promise<Long>> function, String nameBenchmark) throws Exception {
 		long timeAllRounds = 0;
+		long bytesAllRounds = 0;
 		long bestTime = -1;
 		long worstTime = -1;
 
@@ -128,8 +146,11 @@ public class HttpServerWorkloadBenchmark extends Launcher {
 
 		System.out.println("Start benchmarking " + nameBenchmark);
 		for (int i = 0; i < measureRounds; i++) {
+			long allocatedBefore = serverAllocatedBytes();
 			long roundTime = round(function);
+			long allocated = serverAllocatedBytes() - allocatedBefore;
 			timeAllRounds += roundTime;
+			bytesAllRounds += allocated;
 
 			if (bestTime == -1 || roundTime < bestTime) {
 				bestTime = roundTime;
@@ -140,13 +161,22 @@ public class HttpServerWorkloadBenchmark extends Launcher {
 			}
 
 			long rps = totalRequests * 1000L / roundTime;
-			System.out.println("Round: " + (i + 1) + "; Round time: " + roundTime + " ms; RPS : " + rps);
+			System.out.println("Round: " + (i + 1) + "; Round time: " + roundTime + " ms; RPS : " + rps +
+					"; Server allocations: " + allocated / totalRequests + " bytes/request");
 		}
 
 		double avgTime = (double) timeAllRounds / measureRounds;
 		long requestsPerSecond = (long) (totalRequests / avgTime * 1000);
+		long bytesPerRequest = bytesAllRounds / ((long) totalRequests * measureRounds);
+		long allocationRate = (long) (bytesAllRounds / ((double) timeAllRounds / 1000) / (1024 * 1024));
 		System.out.println("Time: " + timeAllRounds + "ms; Average time: " + avgTime + " ms; Best time: " +
-				bestTime + "ms; Worst time: " + worstTime + "ms; Requests per second: " + requestsPerSecond);
+				bestTime + "ms; Worst time: " + worstTime + "ms; Requests per second: " + requestsPerSecond +
+				"; Server allocations: " + bytesPerRequest + " bytes/request, " + allocationRate + " MB/s");
+	}
+
+	private long serverAllocatedBytes() {
+		Thread serverThread = serverEventloop.getEventloopThread();
+		return serverThread != null ? THREAD_MX_BEAN.getThreadAllocatedBytes(serverThread.getId()) : 0;
 	}
 
 	private long round(Supplier<Promise<Long>> function) throws Exception {
@@ -156,7 +186,7 @@ public class HttpServerWorkloadBenchmark extends Launcher {
 	int sent;
 	int completed;
 
-	private Promise<Long> roundGet() {
+	private Promise<Long> roundGet(String url) {
 		SettablePromise<Long> promise = new SettablePromise<>();
 
 		Callback<HttpResponse> callback = new Callback<HttpResponse>() {
@@ -177,7 +207,7 @@ public class HttpServerWorkloadBenchmark extends Launcher {
 
 				if (active <= activeRequestsMin) {
 					for (int i = 0; i < min(activeRequestsMax - active, totalRequests - sent); i++) {
-						doGet(this);
+						doGet(url, this);
 						sent++;
 					}
 				}
@@ -188,15 +218,15 @@ public class HttpServerWorkloadBenchmark extends Launcher {
 		long start = System.currentTimeMillis();
 
 		for (int i = 0; i < min(activeRequestsMin, totalRequests); i++) {
-			doGet(callback);
+			doGet(url, callback);
 			sent++;
 		}
 
 		return promise.map($ -> System.currentTimeMillis() - start);
 	}
 
-	private void doGet(Callback<HttpResponse> callback) {
-		client.request(HttpRequest.get(address)).whenComplete(callback);
+	private void doGet(String url, Callback<HttpResponse> callback) {
+		client.request(HttpRequest.get(url)).whenComplete(callback);
 	}
 
 	public static void main(String[] args) throws Exception {
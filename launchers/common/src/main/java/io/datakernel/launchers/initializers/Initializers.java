@@ -40,7 +40,9 @@ public class Initializers {
 	}
 
 	public static Initializer<PrimaryServer> ofPrimaryServer(Config config) {
-		return ofAbstractServer(config);
+		return server -> server
+				.initialize(ofAbstractServer(config))
+				.withAcceptSharding(config.get(ofBoolean(), "acceptSharding", false));
 	}
 
 	public static Initializer<Eventloop> ofEventloop(Config config) {